@@ -0,0 +1,41 @@
+package ru.cleardocs.backend.client.onyx;
+
+import org.springframework.core.io.AbstractResource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Upload part backed by a MultipartFile. The content is read from the servlet's temp file only while the
+ * outgoing multipart body is being written, in small buffers, so file bytes are never held on the heap.
+ * Unlike MultipartFile.getResource() it always has a filename (Onyx rejects parts without one).
+ */
+class MultipartFileUploadResource extends AbstractResource {
+
+  private final MultipartFile file;
+
+  MultipartFileUploadResource(MultipartFile file) {
+    this.file = file;
+  }
+
+  @Override
+  public String getFilename() {
+    return file.getOriginalFilename() != null ? file.getOriginalFilename() : "file";
+  }
+
+  @Override
+  public long contentLength() {
+    return file.getSize();
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return file.getInputStream();
+  }
+
+  @Override
+  public String getDescription() {
+    return "Uploaded file [" + getFilename() + "]";
+  }
+}
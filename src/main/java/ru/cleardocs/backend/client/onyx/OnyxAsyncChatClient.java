@@ -0,0 +1,361 @@
+package ru.cleardocs.backend.client.onyx;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Non-blocking variant of OnyxClient.streamSendChatMessage for chat.stream.relay=async. Uses the JDK HttpClient,
+ * so an open stream waiting for the LLM holds a socket and a buffer but no thread.
+ * Callbacks run on a fixed pool of chat.stream.async.threads threads, not the client's default unbounded pool, and
+ * never write to the client: each stream has its own queue of at most chat.stream.async.queue-chunks chunks, drained
+ * into the sink by the stream's own virtual thread. A callback only queues the chunk and requests the next one while
+ * the queue has room, so a slow client stalls its own stream (Onyx is read no faster than it takes it) and not the
+ * others sharing the callback threads. At most http.pool.onyx-streaming-async.max-total streams are open at once;
+ * more are rejected (503). Calls go through OnyxCircuitBreaker, and the pool is reported like the RestTemplate pools
+ * (http.client.pool.* with pool=onyx-streaming-async).
+ */
+@Slf4j
+@Component
+public class OnyxAsyncChatClient {
+
+  private static final String PATH_CHAT_SEND_MESSAGE = "/chat/send-chat-message";
+
+  /** Receives the raw response bytes; an exception stops the stream and closes the Onyx connection. */
+  @FunctionalInterface
+  public interface ChunkSink {
+    void write(byte[] chunk) throws IOException;
+  }
+
+  private static final String POOL = "onyx-streaming-async";
+
+  private final HttpClient httpClient;
+  private final ThreadPoolExecutor callbackExecutor;
+  private final OnyxCircuitBreaker circuitBreaker;
+  private final OnyxChatRequestRewriter chatRequestRewriter;
+  private final String baseUrl;
+  private final Duration responseTimeout;
+  private final int maxStreams;
+  private final int queueChunks;
+  private final Semaphore streams;
+
+  public OnyxAsyncChatClient(
+      @Value("${onyx.base-url:http://155.212.162.11:3000/api}") String baseUrl,
+      @Value("${onyx.streaming-timeout-minutes:15}") long streamingTimeoutMinutes,
+      @Value("${http.pool.onyx-streaming.connect-timeout-ms:5000}") long connectTimeoutMs,
+      @Value("${chat.stream.async.threads:16}") int threads,
+      @Value("${chat.stream.async.queue-chunks:16}") int queueChunks,
+      @Value("${http.pool.onyx-streaming-async.max-total:200}") int maxStreams,
+      OnyxCircuitBreaker circuitBreaker,
+      MeterRegistry meterRegistry,
+      ObjectMapper objectMapper
+  ) {
+    this.baseUrl = baseUrl.replaceAll("/$", "");
+    this.responseTimeout = Duration.ofMinutes(streamingTimeoutMinutes);
+    this.circuitBreaker = circuitBreaker;
+    this.chatRequestRewriter = new OnyxChatRequestRewriter(objectMapper);
+    this.maxStreams = Math.max(maxStreams, 1);
+    this.queueChunks = Math.max(queueChunks, 1);
+    this.streams = new Semaphore(this.maxStreams);
+    // Unbounded queue: the client must never have a callback rejected, and each open stream has at most one
+    // chunk requested, so the queue holds at most about one task per stream
+    AtomicInteger counter = new AtomicInteger();
+    this.callbackExecutor = new ThreadPoolExecutor(
+        Math.max(threads, 1), Math.max(threads, 1), 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(),
+        r -> {
+          Thread t = new Thread(r, "onyx-chat-relay-" + counter.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+    this.callbackExecutor.allowCoreThreadTimeOut(true);
+    this.httpClient = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+        .executor(callbackExecutor)
+        .build();
+    Gauge.builder("http.client.pool.leased", streams, s -> this.maxStreams - s.availablePermits())
+        .description("Onyx chat streams open on the non-blocking client")
+        .tag("pool", POOL)
+        .register(meterRegistry);
+    Gauge.builder("http.client.pool.max", () -> this.maxStreams)
+        .tag("pool", POOL)
+        .register(meterRegistry);
+    Gauge.builder("http.client.pool.callbacks.active", callbackExecutor, ThreadPoolExecutor::getActiveCount)
+        .description("Callback threads of the non-blocking chat client queueing a chunk")
+        .tag("pool", POOL)
+        .register(meterRegistry);
+    Gauge.builder("http.client.pool.callbacks.queued", callbackExecutor, e -> e.getQueue().size())
+        .description("Callbacks of the non-blocking chat client waiting for a thread")
+        .tag("pool", POOL)
+        .register(meterRegistry);
+  }
+
+  /**
+   * Starts send-chat-message and relays the response body to the sink. The request body is rewritten token by token
+   * (see OnyxChatRequestRewriter) on the calling thread, into the buffer the client sends from (the only copy of the
+   * rewritten body: the client's body publisher needs its length up front, so it cannot be piped). The returned future
+   * completes when the stream ends or fails; cancelling it aborts the Onyx request.
+   * Throws TaskRejectedException over the stream limit and OnyxUnavailableException while the circuit is open.
+   */
+  public CompletableFuture<Void> streamSendChatMessage(String authorizationHeader, InputStream requestBody, ChunkSink sink)
+      throws IOException {
+    if (!streams.tryAcquire()) {
+      throw new TaskRejectedException("Too many concurrent chat streams (max " + maxStreams + ")");
+    }
+    CompletableFuture<Void> relayed;
+    try {
+      relayed = startStream(authorizationHeader, requestBody, sink);
+    } catch (IOException | RuntimeException e) {
+      streams.release();
+      throw e;
+    }
+    // Completed only once the stream's slot is free again; cancelling it cancels the relay
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    relayed.whenComplete((v, e) -> {
+      streams.release();
+      if (e != null) {
+        done.completeExceptionally(e);
+      } else {
+        done.complete(null);
+      }
+    });
+    done.whenComplete((v, e) -> {
+      if (e instanceof CancellationException) {
+        relayed.cancel(true);
+      }
+    });
+    return done;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    httpClient.shutdownNow();
+    callbackExecutor.shutdownNow();
+  }
+
+  private CompletableFuture<Void> startStream(String authorizationHeader, InputStream requestBody, ChunkSink sink)
+      throws IOException {
+    long startTime = System.currentTimeMillis();
+    RequestBodyBuffer body = new RequestBodyBuffer();
+    OnyxChatRequestRewriter.ChatRequestSummary summary = chatRequestRewriter.rewrite(requestBody, body);
+    String chatSessionId = summary.chatSessionId();
+    HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + PATH_CHAT_SEND_MESSAGE))
+        .timeout(responseTimeout)
+        .header("Content-Type", "application/json")
+        .POST(body.publisher());
+    if (authorizationHeader != null && !authorizationHeader.isBlank()) {
+      builder.header("Authorization", authorizationHeader);
+    }
+    log.info("sendChatMessage async Onyx start sessionId={} messageLength={} messagePreview={}",
+        chatSessionId, summary.messageLength(), summary.messagePreview());
+
+    RelaySubscriber relay = new RelaySubscriber(sink, queueChunks);
+    HttpResponse.BodyHandler<Void> bodyHandler = info -> info.statusCode() >= 400
+        ? HttpResponse.BodySubscribers.replacing(null)
+        : HttpResponse.BodySubscribers.fromSubscriber(relay, subscriber -> null);
+    // Only the response status decides the circuit outcome: a long answer or a client that went away is not an Onyx failure
+    CompletableFuture<HttpResponse<Void>> response = circuitBreaker.callAsync(
+        () -> httpClient.sendAsync(builder.build(), bodyHandler), r -> r.statusCode() >= 500);
+    response.whenComplete((r, e) -> {
+      if (e != null) {
+        relay.done.completeExceptionally(e);
+      } else if (r.statusCode() >= 400) {
+        relay.done.completeExceptionally(new IllegalStateException("Onyx send-chat-message returned HTTP " + r.statusCode()));
+      }
+    });
+    relay.done.whenComplete((v, e) -> {
+      long elapsed = System.currentTimeMillis() - startTime;
+      if (e instanceof CancellationException) {
+        relay.cancel();
+        response.cancel(true);
+        log.info("sendChatMessage async Onyx cancelled sessionId={} bytes={} elapsed_ms={}", chatSessionId, relay.bytes.get(), elapsed);
+      } else if (e != null) {
+        relay.cancel();
+        log.error("sendChatMessage async Onyx error sessionId={} elapsed_ms={} error={}", chatSessionId, elapsed, e.getMessage());
+      } else {
+        log.info("sendChatMessage async Onyx done sessionId={} bytes={} elapsed_ms={}", chatSessionId, relay.bytes.get(), elapsed);
+      }
+    });
+    return relay.done;
+  }
+
+  /** Rewritten request body; published straight from its buffer instead of a copy of it (toByteArray). */
+  private static final class RequestBodyBuffer extends ByteArrayOutputStream {
+
+    private RequestBodyBuffer() {
+      super(1024);
+    }
+
+    private HttpRequest.BodyPublisher publisher() {
+      return HttpRequest.BodyPublishers.ofByteArray(buf, 0, count);
+    }
+  }
+
+  /**
+   * Queues chunks for the stream's writer thread, which blocks on the sink instead of a shared callback thread.
+   * The next chunk is requested only while the queue has room (otherwise by the writer once it takes one), so a slow
+   * client slows down reading from Onyx instead of filling memory.
+   */
+  private static final class RelaySubscriber implements Flow.Subscriber<List<ByteBuffer>> {
+
+    private final ChunkSink sink;
+    private final int queueChunks;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // Guarded by lock
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    private boolean upstreamDone;
+    private boolean paused;
+    private volatile Flow.Subscription subscription;
+
+    private RelaySubscriber(ChunkSink sink, int queueChunks) {
+      this.sink = sink;
+      this.queueChunks = queueChunks;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      if (done.isDone()) {
+        subscription.cancel();
+        return;
+      }
+      Thread.ofVirtual().name("onyx-chat-relay-writer").start(this::drain);
+      subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+      int length = 0;
+      for (ByteBuffer buffer : buffers) {
+        length += buffer.remaining();
+      }
+      byte[] chunk = new byte[length];
+      int offset = 0;
+      for (ByteBuffer buffer : buffers) {
+        int n = buffer.remaining();
+        buffer.get(chunk, offset, n);
+        offset += n;
+      }
+      boolean requestMore;
+      lock.lock();
+      try {
+        queue.add(chunk);
+        requestMore = queue.size() < queueChunks;
+        paused = !requestMore;
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+      if (requestMore) {
+        subscription.request(1);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      done.completeExceptionally(throwable);
+      wakeWriter();
+    }
+
+    @Override
+    public void onComplete() {
+      lock.lock();
+      try {
+        upstreamDone = true;
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** Writer thread: writes queued chunks to the sink until the response ends, fails or is cancelled. */
+    private void drain() {
+      try {
+        while (true) {
+          byte[] chunk;
+          boolean resume;
+          lock.lock();
+          try {
+            while (queue.isEmpty() && !upstreamDone && !done.isDone()) {
+              changed.await();
+            }
+            if (done.isDone()) {
+              return;
+            }
+            chunk = queue.poll();
+            if (chunk == null) {
+              break;
+            }
+            resume = paused;
+            paused = false;
+          } finally {
+            lock.unlock();
+          }
+          if (resume) {
+            subscription.request(1);
+          }
+          sink.write(chunk);
+          bytes.addAndGet(chunk.length);
+        }
+        done.complete(null);
+      } catch (IOException | RuntimeException e) {
+        // Client went away
+        subscription.cancel();
+        done.completeExceptionally(e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        subscription.cancel();
+        done.completeExceptionally(e);
+      }
+    }
+
+    private void cancel() {
+      Flow.Subscription s = subscription;
+      if (s != null) {
+        s.cancel();
+      }
+      wakeWriter();
+    }
+
+    private void wakeWriter() {
+      lock.lock();
+      try {
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
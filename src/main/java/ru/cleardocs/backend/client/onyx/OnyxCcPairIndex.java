@@ -0,0 +1,116 @@
+package ru.cleardocs.backend.client.onyx;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Index of cc_pair_id to (connector_id, credential_id), so deleting a connector does not have to scan
+ * the connector status of the whole platform. Entries are added when a connector is created or resolved
+ * with a targeted cc-pair read; once the index has been used, OnyxClient reloads it in the background from
+ * the connector status list every onyx.cc-pair-index.refresh-seconds. Ids never change for a cc_pair,
+ * so entries added locally are kept until a newer load has seen them.
+ */
+@Slf4j
+public class OnyxCcPairIndex {
+
+  private final Supplier<List<OnyxConnectorStatusDto>> loader;
+  private final Duration refreshInterval;
+  private final Object loadLock = new Object();
+  private final Map<Integer, LocalRef> localRefs = new ConcurrentHashMap<>();
+
+  private volatile Snapshot snapshot;
+  private volatile Instant firstUsedAt;
+
+  public OnyxCcPairIndex(Supplier<List<OnyxConnectorStatusDto>> loader, Duration refreshInterval) {
+    this.loader = loader;
+    this.refreshInterval = refreshInterval;
+  }
+
+  /** The ids for the cc_pair, or null if it is not indexed (yet). */
+  public OnyxCcPairRef get(int ccPairId) {
+    if (firstUsedAt == null) {
+      firstUsedAt = Instant.now();
+    }
+    LocalRef local = localRefs.get(ccPairId);
+    if (local != null) {
+      return local.ref();
+    }
+    Snapshot s = snapshot;
+    return s != null ? s.refs().get(ccPairId) : null;
+  }
+
+  public void put(OnyxCcPairRef ref) {
+    localRefs.put(ref.ccPairId(), new LocalRef(ref, Instant.now()));
+  }
+
+  /** Drops a deleted cc_pair. */
+  public void remove(int ccPairId) {
+    localRefs.remove(ccPairId);
+    Snapshot s = snapshot;
+    if (s != null && s.refs().containsKey(ccPairId)) {
+      Map<Integer, OnyxCcPairRef> refs = new HashMap<>(s.refs());
+      refs.remove(ccPairId);
+      snapshot = new Snapshot(refs, s.loadedAt());
+    }
+  }
+
+  /** Replaces the indexed data with a connector status list that was read anyway (e.g. by a batch operation). */
+  public void load(List<OnyxConnectorStatusDto> statuses, Instant readStartedAt) {
+    synchronized (loadLock) {
+      snapshot = build(statuses, readStartedAt);
+      localRefs.values().removeIf(local -> local.at().isBefore(readStartedAt));
+    }
+  }
+
+  /**
+   * Reloads the index once the last load (or, before the first load, the first use) is older than
+   * the refresh interval. Never loads an index nobody has used.
+   */
+  public void refreshIfUsed() {
+    Snapshot s = snapshot;
+    Instant since = s != null ? s.loadedAt() : firstUsedAt;
+    if (since == null || Duration.between(since, Instant.now()).compareTo(refreshInterval) < 0) {
+      return;
+    }
+    try {
+      Instant readStartedAt = Instant.now();
+      load(loader.get(), readStartedAt);
+      log.debug("cc_pair index refreshed: {} cc_pairs", snapshot.refs().size());
+    } catch (Exception e) {
+      log.warn("cc_pair index refresh failed, keeping previous data: {}", e.getMessage());
+    }
+  }
+
+  /** Converts a connector status entry to a ref, or null if Onyx did not report both ids. */
+  static OnyxCcPairRef toRef(Integer ccPairId, OnyxConnectorSnapshotDto connector, OnyxCredentialSnapshotDto credential) {
+    if (ccPairId == null || connector == null || connector.id() == null
+        || credential == null || credential.id() == null) {
+      return null;
+    }
+    return new OnyxCcPairRef(ccPairId, connector.id(), credential.id());
+  }
+
+  private static Snapshot build(List<OnyxConnectorStatusDto> statuses, Instant loadedAt) {
+    Map<Integer, OnyxCcPairRef> refs = new HashMap<>(statuses.size() * 2);
+    for (OnyxConnectorStatusDto status : statuses) {
+      OnyxCcPairRef ref = toRef(status.ccPairId(), status.connector(), status.credential());
+      if (ref != null) {
+        refs.put(ref.ccPairId(), ref);
+      }
+    }
+    return new Snapshot(refs, loadedAt);
+  }
+
+  private record LocalRef(OnyxCcPairRef ref, Instant at) {
+  }
+
+  private record Snapshot(Map<Integer, OnyxCcPairRef> refs, Instant loadedAt) {
+  }
+}
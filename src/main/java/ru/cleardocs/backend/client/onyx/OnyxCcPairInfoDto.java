@@ -0,0 +1,14 @@
+package ru.cleardocs.backend.client.onyx;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/** Subset of Onyx GET /manage/admin/cc-pair/{cc_pair_id} (CCPairFullInfo). */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record OnyxCcPairInfoDto(
+    @JsonProperty("id") Integer id,
+    @JsonProperty("status") String status,
+    @JsonProperty("connector") OnyxConnectorSnapshotDto connector,
+    @JsonProperty("credential") OnyxCredentialSnapshotDto credential
+) {
+}
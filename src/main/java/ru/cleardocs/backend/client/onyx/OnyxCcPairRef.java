@@ -0,0 +1,5 @@
+package ru.cleardocs.backend.client.onyx;
+
+/** Ids Onyx needs to address a cc_pair in admin calls such as deletion attempts. */
+public record OnyxCcPairRef(int ccPairId, int connectorId, int credentialId) {
+}
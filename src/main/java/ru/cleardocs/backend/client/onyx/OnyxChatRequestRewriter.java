@@ -0,0 +1,100 @@
+package ru.cleardocs.backend.client.onyx;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ru.cleardocs.backend.exception.BadRequestException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Token-streaming rewrite of the client's send-chat-message body into the request sent to Onyx: every token is
+ * copied as it is read, except that llm_override.temperature is forced to 0 (replaced, or added to llm_override,
+ * or llm_override is added). Nothing is bound to a Map or tree, so a large prompt costs a parser and a generator
+ * buffer, not a copy of the prompt. Only chat_session_id and the length and start of message are kept, for logging.
+ */
+public class OnyxChatRequestRewriter {
+
+  private static final int PREVIEW_LENGTH = 80;
+
+  private final ObjectMapper objectMapper;
+
+  public OnyxChatRequestRewriter(ObjectMapper objectMapper) {
+    this.objectMapper = objectMapper;
+  }
+
+  /** What was seen of the request while rewriting it. */
+  public record ChatRequestSummary(String chatSessionId, int messageLength, String messagePreview) {}
+
+  /** Reads a JSON object from in and writes the rewritten object to out. Throws BadRequestException if in is not a JSON object. */
+  public ChatRequestSummary rewrite(InputStream in, OutputStream out) throws IOException {
+    try (JsonParser parser = objectMapper.getFactory().createParser(in);
+         JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+      // The caller owns out (the upstream request body)
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new BadRequestException("Chat request body must be a JSON object");
+      }
+      generator.writeStartObject();
+      String chatSessionId = null;
+      int messageLength = 0;
+      String messagePreview = "";
+      boolean llmOverrideWritten = false;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken value = parser.nextToken();
+        if ("llm_override".equals(field)) {
+          generator.writeFieldName(field);
+          writeLlmOverride(parser, generator, value);
+          llmOverrideWritten = true;
+          continue;
+        }
+        if ("chat_session_id".equals(field) && value.isScalarValue() && value != JsonToken.VALUE_NULL) {
+          chatSessionId = parser.getText();
+        } else if ("message".equals(field) && value == JsonToken.VALUE_STRING) {
+          messageLength = parser.getTextLength();
+          messagePreview = new String(parser.getTextCharacters(), parser.getTextOffset(), Math.min(messageLength, PREVIEW_LENGTH))
+              + (messageLength > PREVIEW_LENGTH ? "..." : "");
+        }
+        generator.writeFieldName(field);
+        generator.copyCurrentStructure(parser);
+      }
+      if (!llmOverrideWritten) {
+        generator.writeFieldName("llm_override");
+        generator.writeStartObject();
+        generator.writeNumberField("temperature", 0);
+        generator.writeEndObject();
+      }
+      generator.writeEndObject();
+      return new ChatRequestSummary(chatSessionId, messageLength, messagePreview);
+    } catch (JsonProcessingException e) {
+      throw new BadRequestException("Chat request body is not valid JSON: " + e.getOriginalMessage());
+    }
+  }
+
+  /** Copies an llm_override object without its temperature, then writes temperature 0; a non-object is replaced. */
+  private static void writeLlmOverride(JsonParser parser, JsonGenerator generator, JsonToken value) throws IOException {
+    generator.writeStartObject();
+    if (value == JsonToken.START_OBJECT) {
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        parser.nextToken();
+        if ("temperature".equals(field)) {
+          parser.skipChildren();
+        } else {
+          generator.writeFieldName(field);
+          generator.copyCurrentStructure(parser);
+        }
+      }
+    } else {
+      parser.skipChildren();
+    }
+    generator.writeNumberField("temperature", 0);
+    generator.writeEndObject();
+  }
+}
@@ -0,0 +1,227 @@
+package ru.cleardocs.backend.client.onyx;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import ru.cleardocs.backend.exception.OnyxUnavailableException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker around Onyx calls, so request threads do not each wait for a socket timeout while Onyx is down.
+ * Outcomes are counted in a rolling window of onyx.circuit-breaker.window-seconds (ten buckets). Once the window
+ * holds at least minimum-calls calls and either the failure rate or the slow call rate reaches its threshold,
+ * the circuit opens: calls are rejected with OnyxUnavailableException without being sent. After open-seconds
+ * one probe call is let through (half-open); it closes the circuit if it succeeds quickly and reopens it otherwise.
+ * Only connection errors, timeouts and 5xx responses are failures; a 4xx means Onyx is up.
+ * Readers fall back to their last known data on OnyxUnavailableException (see OnyxClient); writers fail fast.
+ */
+@Slf4j
+@Component
+public class OnyxCircuitBreaker {
+
+  private static final int BUCKETS = 10;
+
+  public enum State { CLOSED, OPEN, HALF_OPEN }
+
+  private final boolean enabled;
+  private final long bucketMs;
+  private final int minimumCalls;
+  private final int failureRateThreshold;
+  private final long slowCallNanos;
+  private final int slowCallRateThreshold;
+  private final long openMs;
+  private final Counter rejected;
+
+  /** Rolling window, guarded by this: bucket i counts calls finished in its epoch (time / bucketMs). */
+  private final long[] bucketEpochs = new long[BUCKETS];
+  private final int[] calls = new int[BUCKETS];
+  private final int[] failures = new int[BUCKETS];
+  private final int[] slowCalls = new int[BUCKETS];
+
+  private volatile State state = State.CLOSED;
+  private long openedAtMs;
+  private boolean probeInFlight;
+
+  public OnyxCircuitBreaker(
+      @Value("${onyx.circuit-breaker.enabled:true}") boolean enabled,
+      @Value("${onyx.circuit-breaker.window-seconds:30}") long windowSeconds,
+      @Value("${onyx.circuit-breaker.minimum-calls:10}") int minimumCalls,
+      @Value("${onyx.circuit-breaker.failure-rate-threshold:50}") int failureRateThreshold,
+      @Value("${onyx.circuit-breaker.slow-call-ms:5000}") long slowCallMs,
+      @Value("${onyx.circuit-breaker.slow-call-rate-threshold:80}") int slowCallRateThreshold,
+      @Value("${onyx.circuit-breaker.open-seconds:15}") long openSeconds,
+      MeterRegistry meterRegistry
+  ) {
+    this.enabled = enabled;
+    this.bucketMs = Math.max(Duration.ofSeconds(windowSeconds).toMillis() / BUCKETS, 1);
+    this.minimumCalls = Math.max(minimumCalls, 1);
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallNanos = Duration.ofMillis(slowCallMs).toNanos();
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    this.openMs = Duration.ofSeconds(openSeconds).toMillis();
+    this.rejected = Counter.builder("onyx.circuit.rejected")
+        .description("Onyx calls rejected because the circuit breaker was open")
+        .register(meterRegistry);
+    Gauge.builder("onyx.circuit.state", this, breaker -> breaker.state.ordinal())
+        .description("Onyx circuit breaker state: 0 closed, 1 open, 2 half-open")
+        .register(meterRegistry);
+  }
+
+  public State state() {
+    return state;
+  }
+
+  /** Runs the Onyx call if the circuit allows it and records its outcome; otherwise throws OnyxUnavailableException. */
+  public <T> T call(Supplier<T> call) {
+    return call(call, true);
+  }
+
+  /** Same as {@link #call(Supplier)}, for calls that are slow by design (file uploads): only failures count. */
+  public <T> T callUntimed(Supplier<T> call) {
+    return call(call, false);
+  }
+
+  /**
+   * For calls that complete asynchronously (the non-blocking chat relay): the circuit is checked now and the
+   * outcome recorded when the returned future (the one call made) completes. Untimed, like callUntimed.
+   * A connection error or timeout (IOException) is a failure, and so is a result for which failed is true.
+   */
+  public <T> CompletableFuture<T> callAsync(Supplier<CompletableFuture<T>> call, Predicate<T> failed) {
+    if (!enabled) {
+      return call.get();
+    }
+    boolean probe = acquire();
+    CompletableFuture<T> future;
+    try {
+      future = call.get();
+    } catch (RuntimeException e) {
+      record(probe, isFailure(e), 0);
+      throw e;
+    }
+    future.whenComplete((result, e) -> {
+      Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+      record(probe, cause != null ? cause instanceof IOException : failed.test(result), 0);
+    });
+    return future;
+  }
+
+  private <T> T call(Supplier<T> call, boolean timed) {
+    if (!enabled) {
+      return call.get();
+    }
+    boolean probe = acquire();
+    long startedAt = System.nanoTime();
+    try {
+      T result = call.get();
+      record(probe, false, timed ? System.nanoTime() - startedAt : 0);
+      return result;
+    } catch (RuntimeException e) {
+      record(probe, isFailure(e), timed ? System.nanoTime() - startedAt : 0);
+      throw e;
+    } catch (Error e) {
+      if (probe) {
+        record(true, true, 0);
+      }
+      throw e;
+    }
+  }
+
+  /** Returns true if the caller is the half-open probe. */
+  private synchronized boolean acquire() {
+    if (state == State.CLOSED) {
+      return false;
+    }
+    long now = System.currentTimeMillis();
+    if (state == State.OPEN && now - openedAtMs >= openMs) {
+      state = State.HALF_OPEN;
+      log.info("Onyx circuit half-open, probing");
+    }
+    if (state == State.HALF_OPEN && !probeInFlight) {
+      probeInFlight = true;
+      return true;
+    }
+    rejected.increment();
+    long retryInSeconds = Math.max(Duration.ofMillis(openMs - (now - openedAtMs)).toSeconds(), 1);
+    throw new OnyxUnavailableException("Onyx is unavailable, retry in " + retryInSeconds + " s", retryInSeconds);
+  }
+
+  private synchronized void record(boolean probe, boolean failed, long elapsedNanos) {
+    boolean slow = elapsedNanos >= slowCallNanos;
+    if (probe) {
+      probeInFlight = false;
+      if (failed || slow) {
+        open("probe " + (failed ? "failed" : "was slow"));
+      } else {
+        state = State.CLOSED;
+        clearWindow();
+        log.info("Onyx circuit closed");
+      }
+      return;
+    }
+    if (state != State.CLOSED) {
+      // Started before the circuit opened; the probe decides
+      return;
+    }
+    long epoch = System.currentTimeMillis() / bucketMs;
+    int i = (int) (epoch % BUCKETS);
+    if (bucketEpochs[i] != epoch) {
+      bucketEpochs[i] = epoch;
+      calls[i] = 0;
+      failures[i] = 0;
+      slowCalls[i] = 0;
+    }
+    calls[i]++;
+    failures[i] += failed ? 1 : 0;
+    slowCalls[i] += slow ? 1 : 0;
+
+    int totalCalls = 0;
+    int totalFailures = 0;
+    int totalSlow = 0;
+    for (int b = 0; b < BUCKETS; b++) {
+      if (epoch - bucketEpochs[b] < BUCKETS) {
+        totalCalls += calls[b];
+        totalFailures += failures[b];
+        totalSlow += slowCalls[b];
+      }
+    }
+    if (totalCalls < minimumCalls) {
+      return;
+    }
+    if (totalFailures * 100 >= failureRateThreshold * totalCalls) {
+      open(totalFailures + " of " + totalCalls + " calls failed");
+    } else if (totalSlow * 100 >= slowCallRateThreshold * totalCalls) {
+      open(totalSlow + " of " + totalCalls + " calls were slow");
+    }
+  }
+
+  private void open(String reason) {
+    state = State.OPEN;
+    openedAtMs = System.currentTimeMillis();
+    clearWindow();
+    log.warn("Onyx circuit opened for {} ms: {}", openMs, reason);
+  }
+
+  private void clearWindow() {
+    for (int b = 0; b < BUCKETS; b++) {
+      bucketEpochs[b] = 0;
+      calls[b] = 0;
+      failures[b] = 0;
+      slowCalls[b] = 0;
+    }
+  }
+
+  private static boolean isFailure(RuntimeException e) {
+    return e instanceof ResourceAccessException || e instanceof HttpServerErrorException;
+  }
+}
@@ -1,21 +1,27 @@
 package ru.cleardocs.backend.client.onyx;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import jakarta.validation.constraints.NotNull;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.client.RequestCallback;
@@ -29,15 +35,25 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Slf4j
 @Component
@@ -55,28 +71,118 @@ public class OnyxClient {
   private static final String PATH_PERSONA = "/persona";
   private static final String PATH_CHAT_CREATE_SESSION = "/chat/create-chat-session";
   private static final String PATH_CHAT_SEND_MESSAGE = "/chat/send-chat-message";
+  /** Status cache misses read one by one with GET /admin/cc-pair/{id}; more than this re-poll all statuses instead. */
+  private static final int MAX_TARGETED_STATUS_READS = 5;
 
   private final RestTemplate restTemplate;
   private final RestTemplate onyxStreamingRestTemplate;
+  private final RestTemplate onyxUploadRestTemplate;
   private final ObjectMapper objectMapper;
   private final String baseUrl;
   private final String managePath;
   private final String apiKey;
+  private final OnyxDocumentSetCatalog documentSetCatalog;
+  private final OnyxIndexingStatusCache indexingStatusCache;
+  private final OnyxCcPairIndex ccPairIndex;
+  private final OnyxSingleFlight singleFlight;
+  private final OnyxDocumentSetStreamDecoder documentSetStreamDecoder;
+  private final OnyxChatRequestRewriter chatRequestRewriter;
+  private final boolean streamingDocumentSetLookup;
+  private final boolean preloadDocumentSetCatalog;
+  private final OnyxFanOut fanOut;
+  private final OnyxFanOut uploadFanOut;
+  private final OnyxCircuitBreaker circuitBreaker;
+  private final OnyxSseRelay sseRelay;
+  private final int uploadBatchSize;
+  private final int uploadConcurrency;
+  private final Duration uploadTimeout;
 
   public OnyxClient(
       @Value("${onyx.base-url:http://155.212.162.11:3000/api}") String baseUrl,
       @Value("${onyx.manage-path:/manage}") String managePath,
       @Value("${onyx.api-key:}") String apiKey,
+      @Value("${onyx.document-set-catalog.ttl-seconds:30}") long documentSetCatalogTtlSeconds,
+      @Value("${onyx.indexing-status-cache.poll-seconds:10}") long indexingStatusPollSeconds,
+      @Value("${onyx.indexing-status-cache.min-forced-refresh-seconds:5}") long minForcedStatusRefreshSeconds,
+      @Value("${onyx.document-set-lookup:catalog}") String documentSetLookup,
+      @Value("${onyx.document-set-catalog.preload:true}") boolean preloadDocumentSetCatalog,
       @Autowired RestTemplate restTemplate,
       @Autowired @Qualifier("onyxStreamingRestTemplate") RestTemplate onyxStreamingRestTemplate,
-      @Autowired ObjectMapper objectMapper
+      @Autowired @Qualifier("onyxUploadRestTemplate") RestTemplate onyxUploadRestTemplate,
+      @Autowired ObjectMapper objectMapper,
+      @Autowired MeterRegistry meterRegistry,
+      @Autowired OnyxFanOut fanOut,
+      @Value("${onyx.upload.batch-size:1}") int uploadBatchSize,
+      @Value("${onyx.upload.concurrency:4}") int uploadConcurrency,
+      @Value("${onyx.upload.timeout-minutes:15}") long uploadTimeoutMinutes,
+      @Value("${onyx.upload.threads:16}") int uploadThreads,
+      @Value("${onyx.cc-pair-index.refresh-seconds:300}") long ccPairIndexRefreshSeconds,
+      @Autowired OnyxCircuitBreaker circuitBreaker,
+      @Autowired OnyxSseRelay sseRelay
   ) {
     this.restTemplate = restTemplate;
     this.onyxStreamingRestTemplate = onyxStreamingRestTemplate;
+    this.onyxUploadRestTemplate = onyxUploadRestTemplate;
     this.objectMapper = objectMapper;
     this.baseUrl = baseUrl.replaceAll("/$", "");
     this.managePath = managePath.replaceAll("/$", "");
     this.apiKey = apiKey;
+    this.fanOut = fanOut;
+    this.circuitBreaker = circuitBreaker;
+    this.sseRelay = sseRelay;
+    this.uploadBatchSize = Math.max(uploadBatchSize, 1);
+    this.uploadConcurrency = uploadConcurrency;
+    this.uploadTimeout = Duration.ofMinutes(uploadTimeoutMinutes);
+    this.uploadFanOut = new OnyxFanOut("onyx-upload", Math.max(uploadThreads, 1), Math.max(uploadThreads, 1) * 4,
+        uploadTimeout.toMillis());
+    this.singleFlight = new OnyxSingleFlight(meterRegistry);
+    this.documentSetStreamDecoder = new OnyxDocumentSetStreamDecoder(objectMapper);
+    this.chatRequestRewriter = new OnyxChatRequestRewriter(objectMapper);
+    this.streamingDocumentSetLookup = "streaming".equalsIgnoreCase(documentSetLookup);
+    this.preloadDocumentSetCatalog = preloadDocumentSetCatalog;
+    this.documentSetCatalog = new OnyxDocumentSetCatalog(
+        this::fetchAllDocumentSets, Duration.ofSeconds(documentSetCatalogTtlSeconds));
+    this.indexingStatusCache = new OnyxIndexingStatusCache(
+        this::fetchIndexingStatus, Duration.ofSeconds(indexingStatusPollSeconds),
+        Duration.ofSeconds(minForcedStatusRefreshSeconds));
+    this.ccPairIndex = new OnyxCcPairIndex(this::fetchConnectorStatus, Duration.ofSeconds(ccPairIndexRefreshSeconds));
+  }
+
+  /**
+   * Keeps the document set catalog, the indexing status cache and the cc_pair index fresh in the background
+   * once they have been used by a request.
+   */
+  @Scheduled(fixedDelayString = "${onyx.cache.refresh-check-seconds:2}", timeUnit = TimeUnit.SECONDS)
+  public void refreshCaches() {
+    documentSetCatalog.refreshIfLoaded();
+    indexingStatusCache.refreshIfLoaded();
+    ccPairIndex.refreshIfUsed();
+  }
+
+  /**
+   * Loads the document set catalog at startup, so that no request has to wait for its first load. If Onyx cannot
+   * be read yet, the first lookup loads it instead.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void preloadDocumentSetCatalog() {
+    if (!preloadDocumentSetCatalog || streamingDocumentSetLookup) {
+      return;
+    }
+    try {
+      documentSetCatalog.refresh();
+    } catch (Exception e) {
+      log.warn("Document set catalog not loaded at startup, the first lookup will load it: {}", e.getMessage());
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    uploadFanOut.shutdown();
+  }
+
+  /** Age of the cached connector statuses, or null if they have not been loaded yet. */
+  public Duration getIndexingStatusAge() {
+    return indexingStatusCache.age();
   }
 
   private String url(String path) {
@@ -89,87 +195,148 @@ public class OnyxClient {
   }
 
   /**
-   * Fetches all document sets from Onyx and returns connectors for the given docSetId.
-   * Returns empty list if doc set is not found or on API error.
+   * Looks up the document set in the catalog and returns connectors for the given docSetId.
+   * Returns empty list if doc set is not found.
+   * When both the document set and the indexing statuses have to come from Onyx, the two reads run in parallel.
+   * If Onyx cannot be read (error, or the circuit breaker is open) the connectors are taken from the last
+   * loaded catalog and statuses, empty if there are none, and the OnyxReadContext is marked stale.
    */
   public List<EntityConnectorDto> getConnectorsByDocSetId(Integer docSetId) {
     if (docSetId == null) {
       return List.of();
     }
     try {
-      List<OnyxDocumentSetDto> documentSets = fetchAllDocumentSets();
-      Optional<OnyxDocumentSetDto> ourDocSet = documentSets.stream()
-          .filter(ds -> docSetId.equals(ds.id()))
-          .findFirst();
+      Optional<OnyxDocumentSetDto> ourDocSet = findDocumentSetWithStatuses(docSetId);
       if (ourDocSet.isEmpty()) {
         log.debug("Document set with id {} not found in Onyx response", docSetId);
         return List.of();
       }
-      Map<Integer, String> statusByCcPairId = buildStatusByCcPairId();
-      return mapToEntityConnectors(ourDocSet.get(), statusByCcPairId);
+      return mapToEntityConnectors(ourDocSet.get());
     } catch (Exception e) {
-      log.warn("Failed to fetch connectors from Onyx for docSetId={}: {}", docSetId, e.getMessage());
-      return List.of();
+      log.warn("Failed to fetch connectors from Onyx for docSetId={}, serving last known data: {}", docSetId, e.getMessage());
+      OnyxReadContext.markStale();
+      return documentSetCatalog.findKnownById(docSetId)
+          .map(this::mapToKnownEntityConnectors)
+          .orElse(List.of());
     }
   }
 
+  /**
+   * Same as getConnectorsByDocSetId, but propagates Onyx errors instead of returning an empty list,
+   * so callers can tell "no connectors" from "Onyx unavailable". Returns empty if the doc set is not found,
+   * so callers can also tell "no connectors" from "document set missing (or not in the catalog yet)".
+   */
+  public Optional<List<EntityConnectorDto>> fetchConnectorsByDocSetId(int docSetId) {
+    return findDocumentSetWithStatuses(docSetId)
+        .map(this::mapToEntityConnectors);
+  }
+
   /**
    * Returns all connector names from all document sets in Onyx (global uniqueness check).
+   * Falls back to the names of the last loaded catalog if Onyx cannot be read.
    */
   public Set<String> getAllConnectorNames() {
     try {
-      List<OnyxDocumentSetDto> docSets = fetchAllDocumentSets();
-      return docSets.stream()
-          .flatMap(ds -> Stream.concat(
-              ds.ccPairSummaries().stream(),
-              ds.federatedConnectorSummaries().stream()))
-          .map(OnyxConnectorSummaryDto::name)
-          .filter(n -> n != null && !n.isBlank())
-          .collect(Collectors.toSet());
+      return OnyxReadContext.memoize("connector-names",
+          () -> streamingDocumentSetLookup ? streamAllConnectorNames() : documentSetCatalog.connectorNames());
     } catch (Exception e) {
-      log.warn("Failed to fetch all connector names from Onyx: {}", e.getMessage());
-      return Set.of();
+      log.warn("Failed to fetch all connector names from Onyx, using last known names: {}", e.getMessage());
+      OnyxReadContext.markStale();
+      return documentSetCatalog.knownConnectorNames();
     }
   }
 
-  private List<OnyxDocumentSetDto> fetchAllDocumentSets() {
-    HttpHeaders headers = new HttpHeaders();
-    if (apiKey != null && !apiKey.isBlank()) {
-      headers.setBearerAuth(apiKey);
+  /**
+   * Document set lookup by id. In "catalog" mode (default) it is served from the in-memory catalog;
+   * in "streaming" mode every call reads Onyx but decodes the response as a token stream and stops
+   * at the requested document set. Either way the result is memoized in the current OnyxReadContext.
+   */
+  private Optional<OnyxDocumentSetDto> findDocumentSet(int docSetId) {
+    return OnyxReadContext.memoize("document-set:" + docSetId, () -> streamingDocumentSetLookup
+        ? streamDocumentSetById(docSetId)
+        : documentSetCatalog.findById(docSetId));
+  }
+
+  /**
+   * Document set lookup that also makes sure indexing statuses are loaded. If either one needs
+   * a remote call, the document set read and the status poll are forked on the fan-out executor.
+   */
+  private Optional<OnyxDocumentSetDto> findDocumentSetWithStatuses(int docSetId) {
+    boolean docSetLocal = !streamingDocumentSetLookup && documentSetCatalog.isLoaded();
+    if (docSetLocal || indexingStatusCache.isLoaded()) {
+      return findDocumentSet(docSetId);
     }
-    HttpEntity<Void> entity = new HttpEntity<>(headers);
-    ResponseEntity<List<OnyxDocumentSetDto>> response = restTemplate.exchange(
+    try (OnyxFanOut.Scope scope = fanOut.open()) {
+      Supplier<Optional<OnyxDocumentSetDto>> docSet = scope.fork(() -> findDocumentSet(docSetId));
+      scope.fork(() -> {
+        indexingStatusCache.ensureLoaded();
+        return null;
+      });
+      scope.join();
+      return docSet.get();
+    }
+  }
+
+  private Optional<OnyxDocumentSetDto> streamDocumentSetById(int docSetId) {
+    return circuitBreaker.call(() -> restTemplate.execute(
         url(PATH_DOCUMENT_SET),
         HttpMethod.GET,
-        entity,
-        new ParameterizedTypeReference<List<OnyxDocumentSetDto>>() {}
-    );
-    return response.getBody() != null ? response.getBody() : List.of();
+        this::applyApiKey,
+        response -> documentSetStreamDecoder.findById(response.getBody(), docSetId)
+    ));
   }
 
-  private Map<Integer, String> buildStatusByCcPairId() {
-    Map<Integer, String> statusByCcPairId = new HashMap<>();
-    for (OnyxConnectorIndexingStatusLiteResponseDto resp : fetchIndexingStatus()) {
-      for (OnyxConnectorIndexingStatusLiteDto item : resp.indexingStatuses()) {
-        if (item.ccPairId() != null) {
-          if (item.ccPairStatus() == null) {
-            throw new IllegalStateException("Onyx returned null cc_pair_status for cc_pair_id=" + item.ccPairId());
-          }
-          statusByCcPairId.put(item.ccPairId(), item.ccPairStatus());
-        }
-      }
+  private Set<String> streamAllConnectorNames() {
+    return singleFlight.execute("document-set-names", () -> circuitBreaker.call(() -> restTemplate.execute(
+        url(PATH_DOCUMENT_SET),
+        HttpMethod.GET,
+        this::applyApiKey,
+        response -> documentSetStreamDecoder.connectorNames(response.getBody())
+    )));
+  }
+
+  private void applyApiKey(ClientHttpRequest request) {
+    if (apiKey != null && !apiKey.isBlank()) {
+      request.getHeaders().setBearerAuth(apiKey);
     }
-    return statusByCcPairId;
   }
 
-  private List<EntityConnectorDto> mapToEntityConnectors(OnyxDocumentSetDto docSet, Map<Integer, String> statusByCcPairId) {
+  /** Concurrent callers share one in-flight GET and its (read-only) result. */
+  private List<OnyxDocumentSetDto> fetchAllDocumentSets() {
+    return singleFlight.execute("document-sets", () -> {
+      HttpHeaders headers = new HttpHeaders();
+      if (apiKey != null && !apiKey.isBlank()) {
+        headers.setBearerAuth(apiKey);
+      }
+      HttpEntity<Void> entity = new HttpEntity<>(headers);
+      ResponseEntity<List<OnyxDocumentSetDto>> response = circuitBreaker.call(() -> restTemplate.exchange(
+          url(PATH_DOCUMENT_SET),
+          HttpMethod.GET,
+          entity,
+          new ParameterizedTypeReference<List<OnyxDocumentSetDto>>() {}
+      ));
+      return response.getBody() != null ? response.getBody() : List.<OnyxDocumentSetDto>of();
+    });
+  }
+
+  private List<EntityConnectorDto> mapToEntityConnectors(OnyxDocumentSetDto docSet) {
+    return mapToEntityConnectors(docSet, indexingStatusCache::statusOrDefault);
+  }
+
+  /** Same mapping with statuses from the last poll only, for when Onyx cannot be read. */
+  private List<EntityConnectorDto> mapToKnownEntityConnectors(OnyxDocumentSetDto docSet) {
+    return mapToEntityConnectors(docSet, indexingStatusCache::knownStatusOrDefault);
+  }
+
+  private List<EntityConnectorDto> mapToEntityConnectors(OnyxDocumentSetDto docSet,
+                                                         BiFunction<Integer, String, String> statusOrDefault) {
     List<EntityConnectorDto> result = new ArrayList<>();
     for (OnyxConnectorSummaryDto cc : docSet.ccPairSummaries()) {
-      String status = cc.id() != null ? statusByCcPairId.getOrDefault(cc.id(), "UNKNOWN") : "UNKNOWN";
+      String status = cc.id() != null ? statusOrDefault.apply(cc.id(), "UNKNOWN") : "UNKNOWN";
       result.add(new EntityConnectorDto(cc.id(), cc.name(), cc.source(), status));
     }
     for (OnyxConnectorSummaryDto fc : docSet.federatedConnectorSummaries()) {
-      String status = fc.id() != null ? statusByCcPairId.getOrDefault(fc.id(), "UNKNOWN") : "UNKNOWN";
+      String status = fc.id() != null ? statusOrDefault.apply(fc.id(), "UNKNOWN") : "UNKNOWN";
       result.add(new EntityConnectorDto(fc.id(), fc.name(), fc.source(), status));
     }
     return result;
@@ -177,9 +344,85 @@ public class OnyxClient {
 
   /**
    * Uploads files to Onyx file store. Returns file_paths (FileStore IDs) and file_names
-   * for use in connector creation.
+   * for use in connector creation, in the order of the given files. File contents are streamed from the
+   * servlet temp files into a chunked request body (the request factory does not buffer), so heap usage
+   * does not depend on file size.
+   * Files are sent in batches of onyx.upload.batch-size per request, at most onyx.upload.concurrency
+   * requests at a time, so one large file does not hold back the rest. Batches run on their own pool
+   * (onyx.upload.threads), not the shared fan-out pool, so uploads neither starve nor wait for other Onyx reads.
+   * If a batch fails, the paths of the batches already stored in Onyx are logged: Onyx has no API to delete
+   * file store entries that no connector uses.
    */
   public OnyxFileUploadResponseDto uploadFiles(MultipartFile[] files) throws IOException {
+    List<List<MultipartFile>> batches = new ArrayList<>();
+    for (MultipartFile file : files) {
+      if (file.isEmpty()) {
+        continue;
+      }
+      if (batches.isEmpty() || batches.get(batches.size() - 1).size() >= uploadBatchSize) {
+        batches.add(new ArrayList<>());
+      }
+      batches.get(batches.size() - 1).add(file);
+    }
+    if (batches.size() <= 1 || uploadConcurrency <= 1) {
+      return uploadBatch(batches.stream().flatMap(List::stream).toList());
+    }
+
+    AtomicReferenceArray<OnyxFileUploadResponseDto> results = new AtomicReferenceArray<>(batches.size());
+    AtomicInteger nextBatch = new AtomicInteger();
+    try (OnyxFanOut.Scope scope = uploadFanOut.open(uploadTimeout)) {
+      // Each worker takes the next batch when it is done with its current one
+      for (int w = 0; w < Math.min(uploadConcurrency, batches.size()); w++) {
+        scope.fork(() -> {
+          for (int i = nextBatch.getAndIncrement(); i < batches.size(); i = nextBatch.getAndIncrement()) {
+            try {
+              results.set(i, uploadBatch(batches.get(i)));
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }
+          return null;
+        });
+      }
+      scope.join();
+    } catch (UncheckedIOException e) {
+      logUploadedBeforeFailure(results, e.getCause());
+      throw e.getCause();
+    } catch (RuntimeException e) {
+      logUploadedBeforeFailure(results, e);
+      throw e;
+    }
+
+    List<String> filePaths = new ArrayList<>();
+    List<String> fileNames = new ArrayList<>();
+    String zipMetadataFileId = null;
+    for (int i = 0; i < results.length(); i++) {
+      OnyxFileUploadResponseDto result = results.get(i);
+      filePaths.addAll(result.filePaths());
+      fileNames.addAll(result.fileNames());
+      if (zipMetadataFileId == null) {
+        zipMetadataFileId = result.zipMetadataFileId();
+      }
+    }
+    log.info("uploadFiles() - uploaded {} batch(es), {} file path(s)", results.length(), filePaths.size());
+    return new OnyxFileUploadResponseDto(filePaths, fileNames, zipMetadataFileId);
+  }
+
+  private static void logUploadedBeforeFailure(AtomicReferenceArray<OnyxFileUploadResponseDto> results, Throwable failure) {
+    List<String> orphaned = new ArrayList<>();
+    for (int i = 0; i < results.length(); i++) {
+      OnyxFileUploadResponseDto result = results.get(i);
+      if (result != null) {
+        orphaned.addAll(result.filePaths());
+      }
+    }
+    if (!orphaned.isEmpty()) {
+      log.warn("uploadFiles() - upload failed ({}), {} file(s) already stored in Onyx are not used by any connector: {}",
+          failure.getMessage(), orphaned.size(), orphaned);
+    }
+  }
+
+  private OnyxFileUploadResponseDto uploadBatch(List<MultipartFile> files) throws IOException {
     String url = url(PATH_ADMIN_CONNECTOR_UPLOAD);
     HttpHeaders headers = new HttpHeaders();
     headers.setContentType(MediaType.MULTIPART_FORM_DATA);
@@ -189,25 +432,16 @@ public class OnyxClient {
 
     MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
     for (MultipartFile file : files) {
-      if (file.isEmpty()) {
-        continue;
-      }
-      Resource resource = new ByteArrayResource(file.getBytes()) {
-        @Override
-        public String getFilename() {
-          return file.getOriginalFilename() != null ? file.getOriginalFilename() : "file";
-        }
-      };
-      body.add("files", resource);
+      body.add("files", new MultipartFileUploadResource(file));
     }
 
     HttpEntity<MultiValueMap<String, Object>> entity = new HttpEntity<>(body, headers);
-    ResponseEntity<OnyxFileUploadResponseDto> response = restTemplate.exchange(
+    ResponseEntity<OnyxFileUploadResponseDto> response = circuitBreaker.callUntimed(() -> onyxUploadRestTemplate.exchange(
         url,
         HttpMethod.POST,
         entity,
         OnyxFileUploadResponseDto.class
-    );
+    ));
     if (response.getBody() == null) {
       throw new IOException("Onyx file upload returned empty response");
     }
@@ -236,15 +470,16 @@ public class OnyxClient {
         fileNames
     );
     HttpEntity<OnyxConnectorCreateRequestDto> entity = new HttpEntity<>(request, headers);
-    ResponseEntity<OnyxCreateConnectorResponseDto> response = restTemplate.exchange(
+    ResponseEntity<OnyxCreateConnectorResponseDto> response = circuitBreaker.call(() -> restTemplate.exchange(
         url,
         HttpMethod.POST,
         entity,
         OnyxCreateConnectorResponseDto.class
-    );
+    ));
     if (response.getBody() == null) {
       throw new RuntimeException("Onyx create connector returned empty response");
     }
+    recordCreatedConnector(response.getBody());
     return response.getBody();
   }
 
@@ -262,22 +497,37 @@ public class OnyxClient {
 
     OnyxConnectorCreateRequestDto request = OnyxConnectorCreateRequestDto.forWebConnector(name, url);
     HttpEntity<OnyxConnectorCreateRequestDto> entity = new HttpEntity<>(request, headers);
-    ResponseEntity<OnyxCreateConnectorResponseDto> response = restTemplate.exchange(
+    ResponseEntity<OnyxCreateConnectorResponseDto> response = circuitBreaker.call(() -> restTemplate.exchange(
         requestUrl,
         HttpMethod.POST,
         entity,
         OnyxCreateConnectorResponseDto.class
-    );
+    ));
     if (response.getBody() == null) {
       throw new RuntimeException("Onyx create URL connector returned empty response");
     }
+    recordCreatedConnector(response.getBody());
     return response.getBody();
   }
 
+  /**
+   * New cc_pairs start in SCHEDULED state; record it so lists show it before the next status poll.
+   * The create response carries only the cc_pair id, so its connector/credential ids are indexed with a
+   * background cc-pair read, ready for a later delete.
+   */
+  private void recordCreatedConnector(OnyxCreateConnectorResponseDto created) {
+    if (Boolean.TRUE.equals(created.success()) && created.data() != null) {
+      int ccPairId = created.data();
+      indexingStatusCache.putStatus(ccPairId, "SCHEDULED");
+      OnyxReadContext.invalidate();
+      fanOut.runAsync(() -> fetchCcPairRef(ccPairId));
+    }
+  }
+
   /**
    * Deletes a connector in Onyx via deletion-attempt (same as Onyx UI).
-   * Requires connector_id and credential_id from connector status.
-   * EntityConnectorDto.id is cc_pair_id; we resolve to connector_id/credential_id.
+   * Requires connector_id and credential_id; EntityConnectorDto.id is cc_pair_id, resolved through the
+   * cc_pair index, or on an index miss with one targeted cc-pair read.
    * Connector must be PAUSED before deletion; otherwise throws BadRequestException.
    */
   public void deleteConnector(int ccPairId) {
@@ -286,77 +536,223 @@ public class OnyxClient {
       throw new BadRequestException("Connector must be paused before deletion. Current status: " + ccPairStatus);
     }
 
+    OnyxCcPairRef ref = ccPairIndex.get(ccPairId);
+    deleteConnector(ref != null ? ref : fetchCcPairRef(ccPairId));
+  }
+
+  /**
+   * Deletes an already resolved cc_pair. The caller is responsible for it being PAUSED
+   * (see {@link #getCcPairStatuses(Collection)} and {@link #resolveCcPairRefs(Collection)}).
+   */
+  public void deleteConnector(OnyxCcPairRef ref) {
+    createDeletionAttempt(ref.connectorId(), ref.credentialId());
+    indexingStatusCache.putStatus(ref.ccPairId(), "DELETING");
+    ccPairIndex.remove(ref.ccPairId());
+    documentSetCatalog.invalidate();
+    OnyxReadContext.invalidate();
+  }
+
+  /**
+   * Statuses of several cc_pairs from the indexing status cache. Up to MAX_TARGETED_STATUS_READS misses (e.g. cc_pairs
+   * created since the last poll) are read one by one with GET /admin/cc-pair/{id}; more misses cost at most one
+   * rate-limited re-poll of all statuses (see OnyxIndexingStatusCache.refreshOnMiss).
+   * cc_pairs unknown to Onyx or with a null status are absent from the result.
+   */
+  public Map<Integer, String> getCcPairStatuses(Collection<Integer> ccPairIds) {
+    List<Integer> missed = ccPairIds.stream()
+        .filter(id -> !indexingStatusCache.lookup(id).found())
+        .distinct()
+        .toList();
+    if (missed.size() > MAX_TARGETED_STATUS_READS) {
+      indexingStatusCache.refreshOnMiss();
+    } else {
+      for (Integer ccPairId : missed) {
+        try {
+          fetchMissedCcPairStatus(ccPairId);
+        } catch (NotFoundException e) {
+          // Unknown to Onyx: absent from the result
+        }
+      }
+    }
+    return getCachedCcPairStatuses(ccPairIds);
+  }
+
+  /**
+   * Statuses of several cc_pairs from the indexing status cache as it is, without re-polling for misses
+   * (the background refresh still keeps it current). For callers that ask again and again for cc_pairs
+   * Onyx may no longer know.
+   */
+  public Map<Integer, String> getCachedCcPairStatuses(Collection<Integer> ccPairIds) {
+    Map<Integer, String> statuses = new HashMap<>();
+    for (Integer ccPairId : ccPairIds) {
+      OnyxIndexingStatusCache.Lookup lookup = indexingStatusCache.lookup(ccPairId);
+      if (lookup.found() && lookup.status() != null) {
+        statuses.put(ccPairId, lookup.status());
+      }
+    }
+    return statuses;
+  }
+
+  /**
+   * Resolves connector_id/credential_id of several cc_pairs from the cc_pair index; if any is missing there,
+   * with a single connector status read, which also reloads the index.
+   * cc_pairs that are unknown or lack either id are absent from the result.
+   */
+  public Map<Integer, OnyxCcPairRef> resolveCcPairRefs(Collection<Integer> ccPairIds) {
+    Map<Integer, OnyxCcPairRef> refs = new HashMap<>();
+    for (Integer ccPairId : ccPairIds) {
+      OnyxCcPairRef ref = ccPairIndex.get(ccPairId);
+      if (ref != null) {
+        refs.put(ccPairId, ref);
+      }
+    }
+    if (refs.size() == ccPairIds.size()) {
+      return refs;
+    }
+    Instant readStartedAt = Instant.now();
     List<OnyxConnectorStatusDto> statuses = fetchConnectorStatus();
-    OnyxConnectorStatusDto status = statuses.stream()
-        .filter(s -> ccPairId == s.ccPairId())
-        .findFirst()
-        .orElseThrow(() -> new NotFoundException("Connector not found in Onyx status: cc_pair_id=" + ccPairId));
+    ccPairIndex.load(statuses, readStartedAt);
+    Set<Integer> wanted = new HashSet<>(ccPairIds);
+    for (OnyxConnectorStatusDto status : statuses) {
+      if (!wanted.contains(status.ccPairId()) || refs.containsKey(status.ccPairId())) {
+        continue;
+      }
+      OnyxCcPairRef ref = OnyxCcPairIndex.toRef(status.ccPairId(), status.connector(), status.credential());
+      if (ref == null) {
+        log.warn("resolveCcPairRefs() - connector or credential id missing for cc_pair_id={}", status.ccPairId());
+        continue;
+      }
+      refs.put(ref.ccPairId(), ref);
+    }
+    return refs;
+  }
 
-    if (status.connector() == null || status.connector().id() == null
-        || status.credential() == null || status.credential().id() == null) {
+  /**
+   * Reads connector_id/credential_id of one cc_pair with Onyx GET /manage/admin/cc-pair/{cc_pair_id}
+   * and adds them to the cc_pair index.
+   */
+  private OnyxCcPairRef fetchCcPairRef(int ccPairId) {
+    OnyxCcPairInfoDto info = fetchCcPairInfo(ccPairId);
+    OnyxCcPairRef ref = OnyxCcPairIndex.toRef(ccPairId, info.connector(), info.credential());
+    if (ref == null) {
       throw new IllegalStateException("Connector or credential id missing for cc_pair_id=" + ccPairId);
     }
+    ccPairIndex.put(ref);
+    return ref;
+  }
+
+  /**
+   * Reads the status of one cc_pair missing from the indexing status cache (it may have been created since the last
+   * poll) with GET /manage/admin/cc-pair/{cc_pair_id}, instead of re-polling all statuses. The status is overlaid
+   * on the cache until the next poll, and the connector/credential ids go to the cc_pair index.
+   * Throws NotFoundException if Onyx does not know the cc_pair.
+   */
+  private OnyxIndexingStatusCache.Lookup fetchMissedCcPairStatus(int ccPairId) {
+    OnyxCcPairInfoDto info = fetchCcPairInfo(ccPairId);
+    indexingStatusCache.putStatus(ccPairId, info.status());
+    OnyxCcPairRef ref = OnyxCcPairIndex.toRef(ccPairId, info.connector(), info.credential());
+    if (ref != null) {
+      ccPairIndex.put(ref);
+    }
+    return new OnyxIndexingStatusCache.Lookup(true, info.status());
+  }
 
-    int connectorId = status.connector().id();
-    int credentialId = status.credential().id();
-    createDeletionAttempt(connectorId, credentialId);
+  /** Onyx GET /manage/admin/cc-pair/{cc_pair_id}; throws NotFoundException if Onyx does not know the cc_pair. */
+  private OnyxCcPairInfoDto fetchCcPairInfo(int ccPairId) {
+    String requestUrl = url(PATH_ADMIN_CC_PAIR + "/" + ccPairId);
+    HttpHeaders headers = new HttpHeaders();
+    if (apiKey != null && !apiKey.isBlank()) {
+      headers.setBearerAuth(apiKey);
+    }
+    ResponseEntity<OnyxCcPairInfoDto> response;
+    try {
+      response = circuitBreaker.call(() -> restTemplate.exchange(
+          requestUrl,
+          HttpMethod.GET,
+          new HttpEntity<Void>(headers),
+          OnyxCcPairInfoDto.class
+      ));
+    } catch (HttpClientErrorException.NotFound e) {
+      throw new NotFoundException("Connector not found in Onyx: cc_pair_id=" + ccPairId);
+    }
+    OnyxCcPairInfoDto info = response.getBody();
+    if (info == null) {
+      throw new NotFoundException("Connector not found in Onyx: cc_pair_id=" + ccPairId);
+    }
+    return info;
   }
 
   /**
-   * Fetches cc_pair_status from Onyx indexing-status API.
+   * Returns cc_pair_status from the indexing status cache (polled from Onyx indexing-status API).
    * Returns status string (e.g. PAUSED, ACTIVE, SCHEDULED).
+   * A cc_pair missing from the cache (it may have been created since the last poll) is read with one targeted
+   * cc-pair request rather than a re-poll of all statuses.
    * Throws IllegalStateException if Onyx returns null cc_pair_status.
    * Throws NotFoundException if connector not found.
    */
   public String getCcPairStatus(int ccPairId) {
-    List<OnyxConnectorIndexingStatusLiteResponseDto> responses = fetchIndexingStatus();
-    for (OnyxConnectorIndexingStatusLiteResponseDto resp : responses) {
-      for (OnyxConnectorIndexingStatusLiteDto item : resp.indexingStatuses()) {
-        if (ccPairId == item.ccPairId()) {
-          if (item.ccPairStatus() == null) {
-            throw new IllegalStateException("Onyx returned null cc_pair_status for cc_pair_id=" + ccPairId);
-          }
-          return item.ccPairStatus();
-        }
-      }
+    OnyxIndexingStatusCache.Lookup lookup = indexingStatusCache.lookup(ccPairId);
+    if (!lookup.found()) {
+      lookup = fetchMissedCcPairStatus(ccPairId);
+    }
+    if (lookup.status() == null) {
+      throw new IllegalStateException("Onyx returned null cc_pair_status for cc_pair_id=" + ccPairId);
     }
-    throw new NotFoundException("Connector not found in Onyx indexing status: cc_pair_id=" + ccPairId);
+    return lookup.status();
   }
 
   private List<OnyxConnectorIndexingStatusLiteResponseDto> fetchIndexingStatus() {
-    String requestUrl = url(PATH_ADMIN_INDEXING_STATUS);
-    HttpHeaders headers = new HttpHeaders();
-    headers.setContentType(MediaType.APPLICATION_JSON);
-    if (apiKey != null && !apiKey.isBlank()) {
-      headers.setBearerAuth(apiKey);
-    }
-    OnyxIndexingStatusRequestDto request = OnyxIndexingStatusRequestDto.allConnectors();
-    HttpEntity<OnyxIndexingStatusRequestDto> entity = new HttpEntity<>(request, headers);
-    ResponseEntity<List<OnyxConnectorIndexingStatusLiteResponseDto>> response = restTemplate.exchange(
-        requestUrl,
-        HttpMethod.POST,
-        entity,
-        new ParameterizedTypeReference<List<OnyxConnectorIndexingStatusLiteResponseDto>>() {}
-    );
-    return response.getBody() != null ? response.getBody() : List.of();
+    return singleFlight.execute("indexing-status", () -> {
+      String requestUrl = url(PATH_ADMIN_INDEXING_STATUS);
+      HttpHeaders headers = new HttpHeaders();
+      headers.setContentType(MediaType.APPLICATION_JSON);
+      if (apiKey != null && !apiKey.isBlank()) {
+        headers.setBearerAuth(apiKey);
+      }
+      OnyxIndexingStatusRequestDto request = OnyxIndexingStatusRequestDto.allConnectors();
+      HttpEntity<OnyxIndexingStatusRequestDto> entity = new HttpEntity<>(request, headers);
+      ResponseEntity<List<OnyxConnectorIndexingStatusLiteResponseDto>> response = circuitBreaker.call(() -> restTemplate.exchange(
+          requestUrl,
+          HttpMethod.POST,
+          entity,
+          new ParameterizedTypeReference<List<OnyxConnectorIndexingStatusLiteResponseDto>>() {}
+      ));
+      return response.getBody() != null ? response.getBody() : List.<OnyxConnectorIndexingStatusLiteResponseDto>of();
+    });
   }
 
   private List<OnyxConnectorStatusDto> fetchConnectorStatus() {
+    return singleFlight.execute("connector-status", this::readConnectorStatus);
+  }
+
+  private List<OnyxConnectorStatusDto> readConnectorStatus() {
     String requestUrl = url(PATH_ADMIN_CONNECTOR_STATUS);
     HttpHeaders headers = new HttpHeaders();
     if (apiKey != null && !apiKey.isBlank()) {
       headers.setBearerAuth(apiKey);
     }
     HttpEntity<Void> entity = new HttpEntity<>(headers);
-    ResponseEntity<List<OnyxConnectorStatusDto>> response = restTemplate.exchange(
+    ResponseEntity<List<OnyxConnectorStatusDto>> response = circuitBreaker.call(() -> restTemplate.exchange(
         requestUrl,
         HttpMethod.GET,
         entity,
         new ParameterizedTypeReference<List<OnyxConnectorStatusDto>>() {}
-    );
+    ));
     return response.getBody() != null ? response.getBody() : List.of();
   }
 
+  /**
+   * cc_pair id of the connector with exactly this name, read from Onyx now (not joined to a connector status read
+   * already in flight, which could have started before the connector was created). Empty if there is none.
+   * Lets a retried create find the connector its failed attempt may have created.
+   */
+  public Optional<Integer> findCcPairIdByName(String name) {
+    return readConnectorStatus().stream()
+        .filter(status -> name.equals(status.name()) && status.ccPairId() != null)
+        .map(OnyxConnectorStatusDto::ccPairId)
+        .findFirst();
+  }
+
   private void createDeletionAttempt(int connectorId, int credentialId) {
     String requestUrl = url(PATH_ADMIN_DELETION_ATTEMPT);
     log.info("Onyx API request: POST {} connector_id={} credential_id={}", requestUrl, connectorId, credentialId);
@@ -367,12 +763,12 @@ public class OnyxClient {
     }
     OnyxDeletionAttemptRequestDto request = new OnyxDeletionAttemptRequestDto(connectorId, credentialId);
     HttpEntity<OnyxDeletionAttemptRequestDto> entity = new HttpEntity<>(request, headers);
-    restTemplate.exchange(
+    circuitBreaker.call(() -> restTemplate.exchange(
         requestUrl,
         HttpMethod.POST,
         entity,
         Void.class
-    );
+    ));
   }
 
   /**
@@ -395,15 +791,17 @@ public class OnyxClient {
         Collections.emptyList()
     );
     HttpEntity<OnyxDocumentSetCreateRequestDto> entity = new HttpEntity<>(request, headers);
-    ResponseEntity<Integer> response = restTemplate.exchange(
+    ResponseEntity<Integer> response = circuitBreaker.call(() -> restTemplate.exchange(
         url,
         HttpMethod.POST,
         entity,
         Integer.class
-    );
+    ));
     if (response.getBody() == null) {
       throw new RuntimeException("Onyx create document set returned empty response");
     }
+    documentSetCatalog.invalidate();
+    OnyxReadContext.invalidate();
     return response.getBody();
   }
 
@@ -419,12 +817,17 @@ public class OnyxClient {
       headers.setBearerAuth(apiKey);
     }
     HttpEntity<OnyxDocumentSetUpdateRequestDto> entity = new HttpEntity<>(request, headers);
-    restTemplate.exchange(
-        url,
-        HttpMethod.PATCH,
-        entity,
-        Void.class
-    );
+    try {
+      circuitBreaker.call(() -> restTemplate.exchange(
+          url,
+          HttpMethod.PATCH,
+          entity,
+          Void.class
+      ));
+    } finally {
+      documentSetCatalog.invalidate();
+      OnyxReadContext.invalidate();
+    }
   }
 
   /**
@@ -441,12 +844,14 @@ public class OnyxClient {
     }
     OnyxCcStatusUpdateRequestDto request = new OnyxCcStatusUpdateRequestDto(onyxStatus);
     HttpEntity<OnyxCcStatusUpdateRequestDto> entity = new HttpEntity<>(request, headers);
-    restTemplate.exchange(
+    circuitBreaker.call(() -> restTemplate.exchange(
         requestUrl,
         HttpMethod.PUT,
         entity,
         Void.class
-    );
+    ));
+    indexingStatusCache.putStatus(ccPairId, onyxStatus);
+    OnyxReadContext.invalidate();
   }
 
   /** Pauses a connector in Onyx. */
@@ -476,12 +881,12 @@ public class OnyxClient {
         role != null ? role : "limited"
     );
     HttpEntity<OnyxApiKeyCreateRequestDto> entity = new HttpEntity<>(request, headers);
-    ResponseEntity<OnyxApiKeyCreateResponseDto> response = restTemplate.exchange(
+    ResponseEntity<OnyxApiKeyCreateResponseDto> response = circuitBreaker.call(() -> restTemplate.exchange(
         requestUrl,
         HttpMethod.POST,
         entity,
         OnyxApiKeyCreateResponseDto.class
-    );
+    ));
     OnyxApiKeyCreateResponseDto body = response.getBody();
     if (body == null || body.getKeyValue() == null || body.getKeyValue().isBlank()) {
       throw new RuntimeException("Onyx create API key returned empty key");
@@ -503,12 +908,12 @@ public class OnyxClient {
     }
     OnyxPersonaUpsertRequestDto request = OnyxPersonaUpsertRequestDto.forDocumentSet(name, docSetId);
     HttpEntity<OnyxPersonaUpsertRequestDto> entity = new HttpEntity<>(request, headers);
-    ResponseEntity<OnyxPersonaSnapshotDto> response = restTemplate.exchange(
+    ResponseEntity<OnyxPersonaSnapshotDto> response = circuitBreaker.call(() -> restTemplate.exchange(
         requestUrl,
         HttpMethod.POST,
         entity,
         OnyxPersonaSnapshotDto.class
-    );
+    ));
     OnyxPersonaSnapshotDto body = response.getBody();
     if (body == null || body.id() == null) {
       throw new RuntimeException("Onyx create persona returned empty id");
@@ -528,45 +933,53 @@ public class OnyxClient {
       headers.set("Authorization", authorizationHeader);
     }
     HttpEntity<Map<String, Object>> entity = new HttpEntity<>(request, headers);
-    ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
+    ResponseEntity<Map<String, Object>> response = circuitBreaker.call(() -> restTemplate.exchange(
         requestUrl,
         HttpMethod.POST,
         entity,
         new ParameterizedTypeReference<Map<String, Object>>() {}
-    );
+    ));
     return response.getBody();
   }
 
   /**
-   * Proxies send-chat-message to Onyx API. Streams response directly to outputStream (InputStream pipe).
-   * Flushes after each chunk to ensure end of stream reaches client (avoids truncation).
+   * Proxies send-chat-message to Onyx API. The client's JSON body is rewritten token by token (see
+   * OnyxChatRequestRewriter) as the request is sent: it is a streaming request body, written to the Onyx connection
+   * (chunked) without being collected first. The response is streamed to outputStream, flushed on SSE events.
    */
-  public void streamSendChatMessage(String authorizationHeader, @NotNull Map<String, Object> request, OutputStream outputStream) throws IOException {
+  public void streamSendChatMessage(String authorizationHeader, InputStream requestBody, OutputStream outputStream) throws IOException {
+    streamSendChatMessage(authorizationHeader, requestBody, outputStream, summary -> { });
+  }
+
+  /** Same as above; onRequestSent gets what was read of the request once it has been written to the Onyx request. */
+  public void streamSendChatMessage(String authorizationHeader, InputStream requestBody, OutputStream outputStream,
+      Consumer<OnyxChatRequestRewriter.ChatRequestSummary> onRequestSent) throws IOException {
     String requestUrl = urlApi(PATH_CHAT_SEND_MESSAGE);
-    Object message = request.get("message");
-    Object chatSessionId = request.get("chat_session_id");
-    String msgPreview = message != null ? message.toString() : "";
-    if (msgPreview.length() > 80) {
-      msgPreview = msgPreview.substring(0, 80) + "...";
-    }
     long startTime = System.currentTimeMillis();
-    log.info("sendChatMessage Onyx start sessionId={} messagePreview={} url={}", chatSessionId, msgPreview, requestUrl);
-    Map<String, Object> requestToSend = new HashMap<>(request);
-    @SuppressWarnings("unchecked")
-    Map<String, Object> llmOverride = request.get("llm_override") instanceof Map
-        ? new HashMap<>((Map<String, Object>) request.get("llm_override"))
-        : new HashMap<>();
-    llmOverride.put("temperature", 0);
-    requestToSend.put("llm_override", llmOverride);
+    long startNanos = System.nanoTime();
+    AtomicReference<OnyxChatRequestRewriter.ChatRequestSummary> summary = new AtomicReference<>();
 
+    StreamingHttpOutputMessage.Body body = out -> {
+      OnyxChatRequestRewriter.ChatRequestSummary written = chatRequestRewriter.rewrite(requestBody, out);
+      summary.set(written);
+      log.info("sendChatMessage Onyx start sessionId={} messageLength={} messagePreview={} url={}",
+          written.chatSessionId(), written.messageLength(), written.messagePreview(), requestUrl);
+      onRequestSent.accept(written);
+    };
     RequestCallback requestCallback = req -> {
       req.getHeaders().setContentType(MediaType.APPLICATION_JSON);
       if (authorizationHeader != null && !authorizationHeader.isBlank()) {
         req.getHeaders().set("Authorization", authorizationHeader);
       }
-      objectMapper.writeValue(req.getBody(), requestToSend);
+      // getBody() of a pooled request collects the whole body before sending; setBody writes it to the connection
+      if (req instanceof StreamingHttpOutputMessage streaming) {
+        streaming.setBody(body);
+      } else {
+        body.writeTo(req.getBody());
+      }
     };
     ResponseExtractor<Void> responseExtractor = response -> {
+      Object chatSessionId = summary.get().chatSessionId();
       int status = response.getStatusCode().value();
       var contentType = response.getHeaders().getContentType();
       log.debug("sendChatMessage Onyx response sessionId={} status={} contentType={}", chatSessionId, status, contentType);
@@ -575,21 +988,11 @@ public class OnyxClient {
           log.error("sendChatMessage Onyx error sessionId={} error=response body is null", chatSessionId);
           throw new IOException("Onyx response body is null");
         }
-        byte[] buffer = new byte[4096];
-        int n;
-        long totalBytes = 0;
-        int chunkCount = 0;
-        while ((n = in.read(buffer)) != -1) {
-          outputStream.write(buffer, 0, n);
-          outputStream.flush();  // Flush each chunk — ensures end of phrase reaches client
-          totalBytes += n;
-          chunkCount++;
-          if (chunkCount > 0 && chunkCount % 50 == 0) {
-            log.debug("sendChatMessage streaming sessionId={} chunks={} bytes={}", chatSessionId, chunkCount, totalBytes);
-          }
-        }
+        // Flushes on complete SSE events, at most flush-max-latency-ms after bytes were written
+        OnyxSseRelay.Stats stats = sseRelay.relay(in, outputStream, startNanos);
         long elapsed = System.currentTimeMillis() - startTime;
-        log.info("sendChatMessage Onyx done sessionId={} bytes={} chunks={} elapsed_ms={}", chatSessionId, totalBytes, chunkCount, elapsed);
+        log.info("sendChatMessage Onyx done sessionId={} bytes={} events={} flushes={} elapsed_ms={}",
+            chatSessionId, stats.bytes(), stats.events(), stats.flushes(), elapsed);
       } catch (IOException e) {
         long elapsed = System.currentTimeMillis() - startTime;
         log.error("sendChatMessage Onyx error sessionId={} elapsed_ms={} error={} (possible client disconnect)",
@@ -602,26 +1005,35 @@ public class OnyxClient {
       onyxStreamingRestTemplate.execute(requestUrl, org.springframework.http.HttpMethod.POST, requestCallback, responseExtractor);
     } catch (Exception e) {
       long elapsed = System.currentTimeMillis() - startTime;
+      Object chatSessionId = summary.get() != null ? summary.get().chatSessionId() : null;
       log.error("sendChatMessage Onyx error sessionId={} elapsed_ms={} error={}", chatSessionId, elapsed, e.getMessage());
       throw e;
     }
   }
 
   /**
-   * Fetches a document set by id from Onyx.
-   * Returns empty if not found.
+   * Reads a document set by id straight from Onyx, bypassing the catalog and the current OnyxReadContext.
+   * For read-modify-write under the DocumentSetLock, where a catalog snapshot up to its TTL old would lose a
+   * change made by another instance. Returns empty only if Onyx has no such document set; failures are thrown.
+   */
+  public Optional<OnyxDocumentSetDto> fetchDocumentSetFresh(int id) {
+    return streamDocumentSetById(id);
+  }
+
+  /**
+   * Returns a document set by id from the catalog.
+   * Returns empty only if Onyx does not have it (not in the list, or a 404). Every other failure is thrown,
+   * including OnyxUnavailableException, timeouts and 5xx, so callers do not mistake an outage for a deleted
+   * document set.
    */
   public Optional<OnyxDocumentSetDto> getDocumentSetById(Integer id) {
     if (id == null) {
       return Optional.empty();
     }
     try {
-      List<OnyxDocumentSetDto> documentSets = fetchAllDocumentSets();
-      return documentSets.stream()
-          .filter(ds -> id.equals(ds.id()))
-          .findFirst();
-    } catch (Exception e) {
-      log.warn("Failed to fetch document set id={}: {}", id, e.getMessage());
+      return findDocumentSet(id);
+    } catch (HttpClientErrorException.NotFound e) {
+      log.warn("getDocumentSetById() - document set id = {} not found in Onyx: {}", id, e.getMessage());
       return Optional.empty();
     }
   }
@@ -6,6 +6,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public record OnyxConnectorStatusDto(
     @JsonProperty("cc_pair_id") Integer ccPairId,
+    @JsonProperty("name") String name,
     @JsonProperty("connector") OnyxConnectorSnapshotDto connector,
     @JsonProperty("credential") OnyxCredentialSnapshotDto credential
 ) {
@@ -0,0 +1,193 @@
+package ru.cleardocs.backend.client.onyx;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Immutable in-memory snapshot of all Onyx document sets, indexed by doc-set id and by connector name.
+ * The snapshot is loaded once at startup (OnyxClient); only a lookup that comes before any load at all blocks on
+ * Onyx. After that lookups are always served from memory and the snapshot is replaced in the background: by
+ * {@link #refreshIfLoaded()} (called on a schedule by OnyxClient) once older than the TTL, and right away after
+ * {@link #invalidate()}, which writes that change document sets must call. Until that reload is done, lookups
+ * see the previous snapshot.
+ */
+@Slf4j
+public class OnyxDocumentSetCatalog {
+
+  private final Supplier<List<OnyxDocumentSetDto>> loader;
+  private final Duration ttl;
+  private final Executor reloadExecutor;
+  private final Object loadLock = new Object();
+  private final AtomicBoolean reloading = new AtomicBoolean();
+
+  private volatile Snapshot snapshot;
+  private volatile boolean invalidated;
+
+  public OnyxDocumentSetCatalog(Supplier<List<OnyxDocumentSetDto>> loader, Duration ttl) {
+    this(loader, ttl, task -> Thread.ofVirtual().name("onyx-document-set-reload").start(task));
+  }
+
+  /** reloadExecutor runs the reload started by {@link #invalidate()}. */
+  public OnyxDocumentSetCatalog(Supplier<List<OnyxDocumentSetDto>> loader, Duration ttl, Executor reloadExecutor) {
+    this.loader = loader;
+    this.ttl = ttl;
+    this.reloadExecutor = reloadExecutor;
+  }
+
+  public Optional<OnyxDocumentSetDto> findById(int docSetId) {
+    return Optional.ofNullable(current().byId().get(docSetId));
+  }
+
+  /** Returns the id of the document set containing a connector with the given name. */
+  public Optional<Integer> findDocSetIdByConnectorName(String connectorName) {
+    if (connectorName == null) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(current().docSetIdByConnectorName().get(connectorName));
+  }
+
+  /** All non-blank connector names across all document sets (global uniqueness check). */
+  public Set<String> connectorNames() {
+    return current().docSetIdByConnectorName().keySet();
+  }
+
+  /**
+   * Lookup in the last loaded snapshot; never calls Onyx, not even before the first load.
+   * Fallback for when Onyx cannot be read.
+   */
+  public Optional<OnyxDocumentSetDto> findKnownById(int docSetId) {
+    Snapshot s = snapshot;
+    return s != null ? Optional.ofNullable(s.byId().get(docSetId)) : Optional.empty();
+  }
+
+  /** Connector names of the last loaded snapshot, empty if none; never calls Onyx. */
+  public Set<String> knownConnectorNames() {
+    Snapshot s = snapshot;
+    return s != null ? s.docSetIdByConnectorName().keySet() : Set.of();
+  }
+
+  /** Age of the current snapshot, or null if nothing has been loaded yet. */
+  public Duration age() {
+    Snapshot s = snapshot;
+    return s != null ? Duration.between(s.loadedAt(), Instant.now()) : null;
+  }
+
+  /** True if lookups are served from memory without calling Onyx (possibly from a snapshot being reloaded). */
+  public boolean isLoaded() {
+    return snapshot != null;
+  }
+
+  /**
+   * Marks the snapshot stale and reloads it in the background; lookups keep using it meanwhile. If the reload
+   * fails, the scheduled {@link #refreshIfLoaded()} retries it. Before the first load there is nothing to reload.
+   */
+  public void invalidate() {
+    invalidated = true;
+    if (snapshot == null || !reloading.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      reloadExecutor.execute(() -> {
+        try {
+          refreshIfLoaded();
+        } finally {
+          reloading.set(false);
+        }
+      });
+    } catch (RuntimeException e) {
+      reloading.set(false);
+      log.warn("Document set catalog reload not started, left to the scheduled refresh: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Reloads the snapshot if it has been loaded before and is older than the TTL.
+   * Keeps the previous snapshot if Onyx is unavailable.
+   */
+  public void refreshIfLoaded() {
+    Snapshot s = snapshot;
+    if (s == null || (!invalidated && Duration.between(s.loadedAt(), Instant.now()).compareTo(ttl) < 0)) {
+      return;
+    }
+    try {
+      refresh();
+    } catch (Exception e) {
+      log.warn("Document set catalog refresh failed, keeping snapshot of age {}s: {}", age().toSeconds(), e.getMessage());
+    }
+  }
+
+  /** Drops the snapshot, so the next lookup loads it again as on a cold start (tests sharing a context). */
+  void reset() {
+    synchronized (loadLock) {
+      snapshot = null;
+      invalidated = false;
+    }
+  }
+
+  /** Loads all document sets from Onyx and atomically replaces the snapshot. */
+  public void refresh() {
+    synchronized (loadLock) {
+      boolean wasInvalidated = invalidated;
+      invalidated = false;
+      try {
+        snapshot = Snapshot.of(loader.get());
+      } catch (RuntimeException e) {
+        invalidated = wasInvalidated;
+        throw e;
+      }
+      log.debug("Document set catalog refreshed: {} document sets, {} connector names",
+          snapshot.byId().size(), snapshot.docSetIdByConnectorName().size());
+    }
+  }
+
+  /** The snapshot, stale or not; loads it only if nothing has been loaded yet. */
+  private Snapshot current() {
+    Snapshot s = snapshot;
+    if (s != null) {
+      return s;
+    }
+    synchronized (loadLock) {
+      if (snapshot == null) {
+        refresh();
+      }
+      return snapshot;
+    }
+  }
+
+  private record Snapshot(
+      Map<Integer, OnyxDocumentSetDto> byId,
+      Map<String, Integer> docSetIdByConnectorName,
+      Instant loadedAt
+  ) {
+    static Snapshot of(List<OnyxDocumentSetDto> documentSets) {
+      Map<Integer, OnyxDocumentSetDto> byId = new HashMap<>();
+      Map<String, Integer> docSetIdByConnectorName = new HashMap<>();
+      for (OnyxDocumentSetDto ds : documentSets) {
+        if (ds.id() == null) {
+          continue;
+        }
+        byId.put(ds.id(), ds);
+        Stream.concat(ds.ccPairSummaries().stream(), ds.federatedConnectorSummaries().stream())
+            .map(OnyxConnectorSummaryDto::name)
+            .filter(n -> n != null && !n.isBlank())
+            .forEach(n -> docSetIdByConnectorName.putIfAbsent(n, ds.id()));
+      }
+      return new Snapshot(
+          Collections.unmodifiableMap(byId),
+          Collections.unmodifiableMap(docSetIdByConnectorName),
+          Instant.now());
+    }
+  }
+}
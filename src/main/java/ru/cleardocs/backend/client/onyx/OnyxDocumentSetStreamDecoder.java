@@ -0,0 +1,143 @@
+package ru.cleardocs.backend.client.onyx;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Token-streaming decoder for the Onyx GET /document-set response (a JSON array of document sets).
+ * Unlike binding to List&lt;OnyxDocumentSetDto&gt;, it keeps only what the caller asked for and skips
+ * every other subtree, so allocation does not grow with the number of document sets in Onyx.
+ */
+public class OnyxDocumentSetStreamDecoder {
+
+  private static final TypeReference<List<OnyxConnectorSummaryDto>> SUMMARIES = new TypeReference<>() {};
+  private static final TypeReference<List<UUID>> UUIDS = new TypeReference<>() {};
+  private static final TypeReference<List<Integer>> INTS = new TypeReference<>() {};
+
+  private final ObjectMapper objectMapper;
+
+  public OnyxDocumentSetStreamDecoder(ObjectMapper objectMapper) {
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * Returns the document set with the given id, stopping as soon as it has been read.
+   * Other document sets are skipped without binding (Onyx writes "id" first, so their subtrees are never parsed).
+   */
+  public Optional<OnyxDocumentSetDto> findById(InputStream in, int docSetId) throws IOException {
+    try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        return Optional.empty();
+      }
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        OnyxDocumentSetDto docSet = readIfMatches(parser, docSetId);
+        if (docSet != null) {
+          return Optional.of(docSet);
+        }
+      }
+      return Optional.empty();
+    }
+  }
+
+  /** Returns all non-blank connector names, reading only the "name" field of each connector summary. */
+  public Set<String> connectorNames(InputStream in) throws IOException {
+    Set<String> names = new HashSet<>();
+    try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        return names;
+      }
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String field = parser.currentName();
+          JsonToken value = parser.nextToken();
+          if (("cc_pair_summaries".equals(field) || "federated_connector_summaries".equals(field))
+              && value == JsonToken.START_ARRAY) {
+            collectSummaryNames(parser, names);
+          } else {
+            parser.skipChildren();
+          }
+        }
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Reads one document set object (parser positioned on START_OBJECT). Returns null and skips the rest
+   * of the object as soon as its id is known not to match.
+   */
+  private OnyxDocumentSetDto readIfMatches(JsonParser parser, int docSetId) throws IOException {
+    Integer id = null;
+    String name = null;
+    String description = null;
+    List<OnyxConnectorSummaryDto> ccPairSummaries = null;
+    List<OnyxConnectorSummaryDto> federatedConnectorSummaries = null;
+    Boolean isPublic = null;
+    List<UUID> users = null;
+    List<Integer> groups = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("id".equals(field)) {
+        id = value == JsonToken.VALUE_NULL ? null : parser.getIntValue();
+        if (id == null || id != docSetId) {
+          skipRestOfObject(parser);
+          return null;
+        }
+        continue;
+      }
+      if (value == JsonToken.VALUE_NULL) {
+        continue;
+      }
+      switch (field) {
+        case "name" -> name = parser.getValueAsString();
+        case "description" -> description = parser.getValueAsString();
+        case "cc_pair_summaries" -> ccPairSummaries = parser.readValueAs(SUMMARIES);
+        case "federated_connector_summaries" -> federatedConnectorSummaries = parser.readValueAs(SUMMARIES);
+        case "is_public" -> isPublic = parser.getBooleanValue();
+        case "users" -> users = parser.readValueAs(UUIDS);
+        case "groups" -> groups = parser.readValueAs(INTS);
+        default -> parser.skipChildren();
+      }
+    }
+    if (id == null) {
+      return null;
+    }
+    return new OnyxDocumentSetDto(id, name, description, ccPairSummaries, federatedConnectorSummaries, isPublic, users, groups);
+  }
+
+  private static void collectSummaryNames(JsonParser parser, Set<String> names) throws IOException {
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken value = parser.nextToken();
+        if ("name".equals(field) && value == JsonToken.VALUE_STRING) {
+          String name = parser.getText();
+          if (!name.isBlank()) {
+            names.add(name);
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+  }
+
+  private static void skipRestOfObject(JsonParser parser) throws IOException {
+    parser.skipChildren();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      parser.nextToken();
+      parser.skipChildren();
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package ru.cleardocs.backend.client.onyx;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs independent Onyx calls concurrently on a bounded executor and joins them.
+ * Usage:
+ * <pre>
+ * try (OnyxFanOut.Scope scope = fanOut.open()) {
+ *   Supplier&lt;A&gt; a = scope.fork(() -&gt; ...);
+ *   Supplier&lt;B&gt; b = scope.fork(() -&gt; ...);
+ *   scope.join();
+ *   ... a.get(), b.get()
+ * }
+ * </pre>
+ * join() waits at most onyx.fan-out.timeout-ms (or the timeout passed to open); on the first failure or on timeout the remaining calls are
+ * cancelled and the failure is rethrown. Closing the scope cancels anything still running. Cancelling interrupts the call and aborts
+ * the HTTP requests it registered with {@link #onCancel} (an interrupt alone does not end a blocking socket read); the Onyx
+ * RestTemplates register every request they send, see RestTemplateConfig.
+ * When the executor queue is full a call runs on the caller thread, i.e. the fan-out degrades to sequential.
+ * Forked calls see the caller's OnyxReadContext.
+ */
+@Slf4j
+@Component
+public class OnyxFanOut {
+
+  /** Abort actions of the forked call running on this thread, if any. */
+  private static final ThreadLocal<Cancellation> CURRENT_CALL = new ThreadLocal<>();
+
+  private final ThreadPoolExecutor executor;
+  private final long timeoutMs;
+
+  @Autowired
+  public OnyxFanOut(
+      @Value("${onyx.fan-out.threads:16}") int threads,
+      @Value("${onyx.fan-out.queue-capacity:64}") int queueCapacity,
+      @Value("${onyx.fan-out.timeout-ms:30000}") long timeoutMs
+  ) {
+    this("onyx-fan-out", threads, queueCapacity, timeoutMs);
+  }
+
+  /** A fan-out with its own pool, for work that must not compete with the shared one (e.g. upload batches). */
+  public OnyxFanOut(String threadNamePrefix, int threads, int queueCapacity, long timeoutMs) {
+    AtomicInteger counter = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(
+        threads, threads, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(queueCapacity),
+        r -> {
+          Thread t = new Thread(r, threadNamePrefix + "-" + counter.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        },
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    this.executor.allowCoreThreadTimeOut(true);
+    this.timeoutMs = timeoutMs;
+  }
+
+  public Scope open() {
+    return new Scope(timeoutMs);
+  }
+
+  /** Opens a scope with its own join timeout, for calls that legitimately take longer (e.g. file uploads). */
+  public Scope open(Duration timeout) {
+    return new Scope(timeout.toMillis());
+  }
+
+  /** Runs best-effort background work nobody waits for (e.g. filling a cache); failures are only logged. */
+  public void runAsync(Runnable call) {
+    executor.execute(() -> {
+      try {
+        call.run();
+      } catch (Exception e) {
+        log.warn("Background Onyx call failed: {}", e.getMessage());
+      }
+    });
+  }
+
+  /**
+   * Registers how to abort work the forked call running on this thread has started (e.g. an HTTP request), so that
+   * cancelling the call runs it. If the call was cancelled already it runs at once; outside a forked call it is ignored.
+   */
+  public static void onCancel(Runnable abort) {
+    Cancellation cancellation = CURRENT_CALL.get();
+    if (cancellation != null) {
+      cancellation.add(abort);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  public class Scope implements AutoCloseable {
+
+    private final List<Future<?>> futures = new ArrayList<>();
+    private final List<Cancellation> cancellations = new ArrayList<>();
+    private final long scopeTimeoutMs;
+
+    private Scope(long scopeTimeoutMs) {
+      this.scopeTimeoutMs = scopeTimeoutMs;
+    }
+
+    /**
+     * Starts the call; the returned supplier yields its result after {@link #join()}.
+     * The caller's OnyxReadContext, if any, is shared with the call.
+     */
+    public <T> Supplier<T> fork(Supplier<T> call) {
+      OnyxReadContext readContext = OnyxReadContext.current();
+      Cancellation cancellation = new Cancellation();
+      cancellations.add(cancellation);
+      Future<T> future = executor.submit(() -> cancellation.callWith(() -> OnyxReadContext.callWith(readContext, call)));
+      futures.add(future);
+      return () -> {
+        if (!future.isDone()) {
+          throw new IllegalStateException("join() must be called before reading a forked result");
+        }
+        return getNow(future);
+      };
+    }
+
+    /** Waits for all forked calls; rethrows the first failure and cancels the others. */
+    public void join() {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(scopeTimeoutMs);
+      try {
+        for (Future<?> future : futures) {
+          long remaining = deadline - System.nanoTime();
+          future.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+        }
+      } catch (InterruptedException e) {
+        cancelAll();
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for Onyx calls", e);
+      } catch (TimeoutException e) {
+        cancelAll();
+        throw new IllegalStateException("Onyx calls did not complete within " + scopeTimeoutMs + " ms", e);
+      } catch (ExecutionException e) {
+        cancelAll();
+        throw rethrow(e.getCause());
+      }
+    }
+
+    @Override
+    public void close() {
+      cancelAll();
+    }
+
+    private void cancelAll() {
+      for (int i = 0; i < futures.size(); i++) {
+        if (!futures.get(i).isDone()) {
+          futures.get(i).cancel(true);
+          cancellations.get(i).cancel();
+        }
+      }
+    }
+  }
+
+  /** Abort actions registered by one forked call; those registered after cancel() run at once. */
+  private static final class Cancellation {
+
+    private final List<Runnable> aborts = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled;
+
+    <T> T callWith(Supplier<T> call) {
+      Cancellation previous = CURRENT_CALL.get();
+      CURRENT_CALL.set(this);
+      try {
+        return call.get();
+      } finally {
+        if (previous != null) {
+          CURRENT_CALL.set(previous);
+        } else {
+          CURRENT_CALL.remove();
+        }
+      }
+    }
+
+    void add(Runnable abort) {
+      aborts.add(abort);
+      if (cancelled && aborts.remove(abort)) {
+        run(abort);
+      }
+    }
+
+    void cancel() {
+      cancelled = true;
+      for (Runnable abort : aborts) {
+        if (aborts.remove(abort)) {
+          run(abort);
+        }
+      }
+    }
+
+    private static void run(Runnable abort) {
+      try {
+        abort.run();
+      } catch (RuntimeException e) {
+        log.debug("Aborting a cancelled Onyx call failed: {}", e.getMessage());
+      }
+    }
+  }
+
+  private static <T> T getNow(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (CancellationException e) {
+      throw new IllegalStateException("Onyx call was cancelled", e);
+    } catch (ExecutionException e) {
+      throw rethrow(e.getCause());
+    }
+  }
+
+  private static RuntimeException rethrow(Throwable cause) {
+    if (cause instanceof RuntimeException re) {
+      return re;
+    }
+    if (cause instanceof Error err) {
+      throw err;
+    }
+    return new IllegalStateException(cause);
+  }
+}
@@ -0,0 +1,203 @@
+package ru.cleardocs.backend.client.onyx;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Cache of Onyx cc_pair statuses, polled in the background by OnyxClient.
+ * The snapshot is stored as a sorted int[] of cc_pair ids with a parallel array of interned status strings,
+ * so a lookup is a binary search and memory does not hold one DTO per connector.
+ * Only the very first lookup loads synchronously; afterwards reads are served from memory.
+ * Statuses we change ourselves (create, pause, resume, delete) or read for a single cc_pair are overlaid until a newer
+ * poll sees them. A poll forced by a lookup miss is rate-limited (see {@link #refreshOnMiss()}).
+ */
+@Slf4j
+public class OnyxIndexingStatusCache {
+
+  private final Supplier<List<OnyxConnectorIndexingStatusLiteResponseDto>> loader;
+  private final Duration pollInterval;
+  private final Duration minForcedRefreshInterval;
+  private final AtomicReference<Instant> lastForcedRefresh = new AtomicReference<>(Instant.EPOCH);
+  private final Object loadLock = new Object();
+  private final Map<String, String> internedStatuses = new ConcurrentHashMap<>();
+  private final Map<Integer, LocalStatus> localStatuses = new ConcurrentHashMap<>();
+
+  private volatile Snapshot snapshot;
+
+  public OnyxIndexingStatusCache(Supplier<List<OnyxConnectorIndexingStatusLiteResponseDto>> loader, Duration pollInterval) {
+    this(loader, pollInterval, Duration.ofSeconds(5));
+  }
+
+  public OnyxIndexingStatusCache(Supplier<List<OnyxConnectorIndexingStatusLiteResponseDto>> loader, Duration pollInterval,
+      Duration minForcedRefreshInterval) {
+    this.loader = loader;
+    this.pollInterval = pollInterval;
+    this.minForcedRefreshInterval = minForcedRefreshInterval;
+  }
+
+  /** Result of a lookup: whether Onyx knows the cc_pair, and its status (null if Onyx returned null). */
+  public record Lookup(boolean found, String status) {
+    static final Lookup MISSING = new Lookup(false, null);
+  }
+
+  public Lookup lookup(int ccPairId) {
+    LocalStatus local = localStatuses.get(ccPairId);
+    if (local != null) {
+      return new Lookup(true, local.status());
+    }
+    return current().lookup(ccPairId);
+  }
+
+  /** Returns the status for the given cc_pair or the default value if it is unknown or null. */
+  public String statusOrDefault(int ccPairId, String defaultStatus) {
+    Lookup lookup = lookup(ccPairId);
+    return lookup.found() && lookup.status() != null ? lookup.status() : defaultStatus;
+  }
+
+  /** Same as statusOrDefault, but never calls Onyx: falls back to the default if nothing has been loaded yet. */
+  public String knownStatusOrDefault(int ccPairId, String defaultStatus) {
+    LocalStatus local = localStatuses.get(ccPairId);
+    if (local != null) {
+      return local.status() != null ? local.status() : defaultStatus;
+    }
+    Snapshot s = snapshot;
+    Lookup lookup = s != null ? s.lookup(ccPairId) : Lookup.MISSING;
+    return lookup.found() && lookup.status() != null ? lookup.status() : defaultStatus;
+  }
+
+  /** Records a status change made by this backend, or read for one cc_pair, so reads reflect it before the next poll. */
+  public void putStatus(int ccPairId, String status) {
+    localStatuses.put(ccPairId, new LocalStatus(intern(status), Instant.now()));
+  }
+
+  /** Age of the polled data, or null if nothing has been loaded yet. */
+  public Duration age() {
+    Snapshot s = snapshot;
+    return s != null ? Duration.between(s.loadedAt(), Instant.now()) : null;
+  }
+
+  /** True if statuses have been polled at least once. */
+  public boolean isLoaded() {
+    return snapshot != null;
+  }
+
+  /** Polls Onyx now if nothing has been loaded yet; no-op otherwise. */
+  public void ensureLoaded() {
+    current();
+  }
+
+  /** Re-polls Onyx if the cache has been used and the last poll is older than the poll interval. */
+  public void refreshIfLoaded() {
+    Snapshot s = snapshot;
+    if (s == null || Duration.between(s.loadedAt(), Instant.now()).compareTo(pollInterval) < 0) {
+      return;
+    }
+    try {
+      refresh();
+    } catch (Exception e) {
+      log.warn("Indexing status cache refresh failed, keeping data of age {}s: {}", age().toSeconds(), e.getMessage());
+    }
+  }
+
+  /** Drops polled and overlaid statuses, so the next lookup polls again as on a cold start (tests sharing a context). */
+  void reset() {
+    synchronized (loadLock) {
+      snapshot = null;
+      localStatuses.clear();
+      lastForcedRefresh.set(Instant.EPOCH);
+    }
+  }
+
+  /** Polls Onyx for all statuses and atomically replaces the snapshot. */
+  public void refresh() {
+    synchronized (loadLock) {
+      Instant pollStartedAt = Instant.now();
+      Snapshot next = build(loader.get(), pollStartedAt);
+      snapshot = next;
+      localStatuses.values().removeIf(o -> o.at().isBefore(pollStartedAt));
+      log.debug("Indexing status cache refreshed: {} cc_pairs", next.ccPairIds().length);
+    }
+  }
+
+  /**
+   * Forces a synchronous re-poll, used when lookups miss more cc_pairs than are worth reading one by one.
+   * At most one forced poll runs per minForcedRefreshInterval across all callers, and none while the data is younger
+   * than that; returns false (without calling Onyx) when skipped, the misses are then answered from the current data.
+   */
+  public boolean refreshOnMiss() {
+    Instant now = Instant.now();
+    Snapshot s = snapshot;
+    if (s != null && Duration.between(s.loadedAt(), now).compareTo(minForcedRefreshInterval) < 0) {
+      return false;
+    }
+    Instant last = lastForcedRefresh.get();
+    if (Duration.between(last, now).compareTo(minForcedRefreshInterval) < 0 || !lastForcedRefresh.compareAndSet(last, now)) {
+      return false;
+    }
+    refresh();
+    return true;
+  }
+
+  private Snapshot current() {
+    Snapshot s = snapshot;
+    if (s != null) {
+      return s;
+    }
+    synchronized (loadLock) {
+      if (snapshot == null) {
+        refresh();
+      }
+      return snapshot;
+    }
+  }
+
+  private Snapshot build(List<OnyxConnectorIndexingStatusLiteResponseDto> responses, Instant loadedAt) {
+    int count = 0;
+    for (OnyxConnectorIndexingStatusLiteResponseDto resp : responses) {
+      count += resp.indexingStatuses().size();
+    }
+    long[] packed = new long[count];
+    String[] statusesInOrder = new String[count];
+    int n = 0;
+    for (OnyxConnectorIndexingStatusLiteResponseDto resp : responses) {
+      for (OnyxConnectorIndexingStatusLiteDto item : resp.indexingStatuses()) {
+        if (item.ccPairId() != null) {
+          statusesInOrder[n] = intern(item.ccPairStatus());
+          // cc_pair id in the high bits, original position in the low bits: sorting keeps ids and statuses paired
+          packed[n] = ((long) item.ccPairId() << 32) | n;
+          n++;
+        }
+      }
+    }
+    Arrays.sort(packed, 0, n);
+    int[] ids = new int[n];
+    String[] statuses = new String[n];
+    for (int i = 0; i < n; i++) {
+      ids[i] = (int) (packed[i] >> 32);
+      statuses[i] = statusesInOrder[(int) packed[i]];
+    }
+    return new Snapshot(ids, statuses, loadedAt);
+  }
+
+  private String intern(String status) {
+    return status != null ? internedStatuses.computeIfAbsent(status, s -> s) : null;
+  }
+
+  private record LocalStatus(String status, Instant at) {
+  }
+
+  private record Snapshot(int[] ccPairIds, String[] statuses, Instant loadedAt) {
+    Lookup lookup(int ccPairId) {
+      int idx = Arrays.binarySearch(ccPairIds, ccPairId);
+      return idx >= 0 ? new Lookup(true, statuses[idx]) : Lookup.MISSING;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package ru.cleardocs.backend.client.onyx;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Memoizes Onyx reads for the lifetime of one unit of work: an HTTP request (OnyxReadContextFilter)
+ * or one connector job step. Within an open context each distinct read (e.g. "document set 42",
+ * "all connector names") goes to Onyx or the catalogs at most once; any Onyx write made through
+ * OnyxClient clears the memoized values, so a read after a write in the same request sees the write.
+ * The context is bound to the opening thread and carried into OnyxFanOut forks. Outside a context
+ * reads are not memoized. A read that had to fall back to data kept from before an Onyx outage marks
+ * the context stale, so the response can say so.
+ * Usage:
+ * <pre>
+ * try (OnyxReadContext.Scope ignored = OnyxReadContext.open()) {
+ *   ...
+ * }
+ * </pre>
+ */
+public final class OnyxReadContext {
+
+  private static final ThreadLocal<OnyxReadContext> CURRENT = new ThreadLocal<>();
+  private static final Object NULL = new Object();
+
+  private final Map<String, Object> values = new ConcurrentHashMap<>();
+  /** Bumped on every invalidation, so a read that raced with a write does not memoize its result. */
+  private final AtomicLong generation = new AtomicLong();
+  private volatile boolean stale;
+
+  private OnyxReadContext() {
+  }
+
+  /** Opens a context on the current thread; nested opens reuse the outer context. */
+  public static Scope open() {
+    if (CURRENT.get() != null) {
+      return () -> { };
+    }
+    CURRENT.set(new OnyxReadContext());
+    return CURRENT::remove;
+  }
+
+  /** The context of the current thread, or null when none is open. */
+  static OnyxReadContext current() {
+    return CURRENT.get();
+  }
+
+  /** Runs the call with the given context (e.g. captured on another thread) bound to the current thread. */
+  static <T> T callWith(OnyxReadContext context, Supplier<T> call) {
+    OnyxReadContext previous = CURRENT.get();
+    if (context == null || context == previous) {
+      return call.get();
+    }
+    CURRENT.set(context);
+    try {
+      return call.get();
+    } finally {
+      if (previous != null) {
+        CURRENT.set(previous);
+      } else {
+        CURRENT.remove();
+      }
+    }
+  }
+
+  /** Returns the memoized value for the key, reading it on first use; reads directly when no context is open. */
+  @SuppressWarnings("unchecked")
+  static <T> T memoize(String key, Supplier<T> read) {
+    OnyxReadContext context = CURRENT.get();
+    if (context == null) {
+      return read.get();
+    }
+    Object cached = context.values.get(key);
+    if (cached != null) {
+      return cached == NULL ? null : (T) cached;
+    }
+    // Not computeIfAbsent: the read may be slow and may itself memoize other keys
+    long generationBefore = context.generation.get();
+    T value = read.get();
+    if (context.generation.get() == generationBefore) {
+      context.values.putIfAbsent(key, value != null ? value : NULL);
+    }
+    return value;
+  }
+
+  /**
+   * Forgets everything memoized in the current context. OnyxClient calls it after every write; callers
+   * whose writes run on another thread (e.g. the document set coalescer) call it when the write is done.
+   */
+  public static void invalidate() {
+    OnyxReadContext context = CURRENT.get();
+    if (context != null) {
+      context.generation.incrementAndGet();
+      context.values.clear();
+    }
+  }
+
+  /** Records that a read in the current context was served from last known data instead of Onyx. */
+  static void markStale() {
+    OnyxReadContext context = CURRENT.get();
+    if (context != null) {
+      context.stale = true;
+    }
+  }
+
+  /** True if a read in the current context was served from last known data; false outside a context. */
+  public static boolean isStale() {
+    OnyxReadContext context = CURRENT.get();
+    return context != null && context.stale;
+  }
+
+  /** Closes the context opened by {@link #open()}. */
+  @FunctionalInterface
+  public interface Scope extends AutoCloseable {
+    @Override
+    void close();
+  }
+}
@@ -0,0 +1,76 @@
+package ru.cleardocs.backend.client.onyx;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical Onyx reads: while a call for a key is in flight, other callers
+ * with the same key wait for it and get the same deserialized result (or the same exception)
+ * instead of sending their own HTTP request. Results are shared, so callers must not mutate them.
+ * Metrics: onyx.read.calls{read, outcome=executed|coalesced}.
+ */
+public class OnyxSingleFlight {
+
+  private static final String METRIC_NAME = "onyx.read.calls";
+
+  private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+  private final MeterRegistry meterRegistry;
+
+  public OnyxSingleFlight(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T execute(String key, Supplier<T> call) {
+    CompletableFuture<Object> mine = new CompletableFuture<>();
+    CompletableFuture<Object> existing = inFlight.putIfAbsent(key, mine);
+    if (existing != null) {
+      counter(key, "coalesced").increment();
+      return (T) await(existing);
+    }
+    counter(key, "executed").increment();
+    try {
+      T result = call.get();
+      mine.complete(result);
+      return result;
+    } catch (RuntimeException | Error e) {
+      mine.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, mine);
+    }
+  }
+
+  private static Object await(CompletableFuture<Object> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for coalesced Onyx call", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException re) {
+        throw re;
+      }
+      if (cause instanceof Error err) {
+        throw err;
+      }
+      throw new CompletionException(cause);
+    }
+  }
+
+  private Counter counter(String key, String outcome) {
+    return counters.computeIfAbsent(key + ":" + outcome, k -> Counter.builder(METRIC_NAME)
+        .description("Onyx read calls, by whether they hit Onyx or joined an in-flight identical call")
+        .tag("read", key)
+        .tag("outcome", outcome)
+        .register(meterRegistry));
+  }
+}
@@ -0,0 +1,209 @@
+package ru.cleardocs.backend.client.onyx;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Copies an SSE stream from Onyx to the client, flushing on event boundaries (a blank line) instead of after
+ * every read, so an event is never split across flushes and events that arrive together go out in one write.
+ * Complete events are flushed as soon as no more upstream bytes are immediately available; bytes left unflushed
+ * (a partial event, or events held back while more data was ready) are flushed by a timer after at most
+ * chat.stream.flush-max-latency-ms, so the first tokens are never held back by coalescing.
+ * Metrics: chat.stream.events.per.flush, chat.stream.ttfb (request start to the first flush to the client).
+ */
+@Component
+public class OnyxSseRelay {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final long maxLatencyNanos;
+  private final ScheduledThreadPoolExecutor timer;
+  private final DistributionSummary eventsPerFlush;
+  private final Timer timeToFirstByte;
+
+  public OnyxSseRelay(
+      @Value("${chat.stream.flush-max-latency-ms:50}") long maxLatencyMs,
+      MeterRegistry meterRegistry
+  ) {
+    this.maxLatencyNanos = Duration.ofMillis(Math.max(maxLatencyMs, 1)).toNanos();
+    this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread t = new Thread(r, "chat-stream-flush-timer");
+      t.setDaemon(true);
+      return t;
+    });
+    this.timer.setRemoveOnCancelPolicy(true);
+    this.eventsPerFlush = DistributionSummary.builder("chat.stream.events.per.flush")
+        .description("Complete SSE events written to the client per flush (0 for a timer flush of a partial event)")
+        .register(meterRegistry);
+    this.timeToFirstByte = Timer.builder("chat.stream.ttfb")
+        .description("Time from the send-chat-message request to the first bytes flushed to the client")
+        .register(meterRegistry);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    timer.shutdownNow();
+  }
+
+  /** Relays until the end of in. startNanos is the System.nanoTime() of the client request, for the TTFB metric. */
+  public Stats relay(InputStream in, OutputStream out, long startNanos) throws IOException {
+    Session session = new Session(out, startNanos);
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int n;
+    try {
+      while ((n = in.read(buffer)) != -1) {
+        session.accept(buffer, n, in.available() == 0);
+      }
+      session.finish();
+    } finally {
+      session.cancelTimer();
+    }
+    return session.stats();
+  }
+
+  /** Totals of one relayed stream. */
+  public record Stats(long bytes, int events, int flushes) {}
+
+  /** State of one stream. Guarded by lock: the reading thread writes, the timer flushes. */
+  private final class Session {
+
+    private final OutputStream out;
+    private final long startNanos;
+    // ReentrantLock, not synchronized: the lock is held during socket writes on (possibly virtual) relay threads
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private int newlines;
+    private int pendingEvents;
+    private boolean pendingBytes;
+    private ScheduledFuture<?> flushTimer;
+    private IOException timerFailure;
+    private boolean firstByteSent;
+    private long bytes;
+    private int events;
+    private int flushes;
+
+    private Session(OutputStream out, long startNanos) {
+      this.out = out;
+      this.startNanos = startNanos;
+    }
+
+    /** Writes buffer[0, n): the complete events first, flushed if nothing more is ready, then the partial tail. */
+    private void accept(byte[] buffer, int n, boolean upstreamIdle) throws IOException {
+      int completeEnd = 0;
+      int completeEvents = 0;
+      for (int i = 0; i < n; i++) {
+        byte b = buffer[i];
+        if (b == '\n') {
+          if (++newlines == 2) {
+            completeEnd = i + 1;
+            completeEvents++;
+          }
+        } else if (b != '\r') {
+          newlines = 0;
+        }
+      }
+      lock.lock();
+      try {
+        if (timerFailure != null) {
+          throw timerFailure;
+        }
+        bytes += n;
+        if (completeEnd > 0) {
+          out.write(buffer, 0, completeEnd);
+          pendingBytes = true;
+          pendingEvents += completeEvents;
+          events += completeEvents;
+          if (upstreamIdle) {
+            flush();
+          }
+        }
+        if (completeEnd < n) {
+          out.write(buffer, completeEnd, n - completeEnd);
+          pendingBytes = true;
+        }
+        if (pendingBytes && flushTimer == null) {
+          flushTimer = timer.schedule(() -> Thread.ofVirtual().start(this::flushFromTimer), maxLatencyNanos, TimeUnit.NANOSECONDS);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void finish() throws IOException {
+      lock.lock();
+      try {
+        if (timerFailure != null) {
+          throw timerFailure;
+        }
+        if (pendingBytes) {
+          flush();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void flushFromTimer() {
+      lock.lock();
+      try {
+        flushTimer = null;
+        if (pendingBytes && timerFailure == null) {
+          flush();
+        }
+      } catch (IOException e) {
+        // Client went away; the reading thread rethrows on its next write
+        timerFailure = e;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** Called with lock held. */
+    private void flush() throws IOException {
+      out.flush();
+      flushes++;
+      eventsPerFlush.record(pendingEvents);
+      if (!firstByteSent) {
+        firstByteSent = true;
+        timeToFirstByte.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+      }
+      pendingEvents = 0;
+      pendingBytes = false;
+      cancelTimer();
+    }
+
+    private void cancelTimer() {
+      lock.lock();
+      try {
+        if (flushTimer != null) {
+          flushTimer.cancel(false);
+          flushTimer = null;
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private Stats stats() {
+      lock.lock();
+      try {
+        return new Stats(bytes, events, flushes);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
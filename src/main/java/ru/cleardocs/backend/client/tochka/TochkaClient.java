@@ -1,7 +1,7 @@
 package ru.cleardocs.backend.client.tochka;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -16,11 +16,14 @@ import java.util.List;
 
 @Slf4j
 @Component
-@RequiredArgsConstructor
 public class TochkaClient {
 
     private final RestTemplate restTemplate;
 
+    public TochkaClient(@Qualifier("tochkaRestTemplate") RestTemplate restTemplate) {
+        this.restTemplate = restTemplate;
+    }
+
     /**
      * Метод для создания ссылки на оплату
      *
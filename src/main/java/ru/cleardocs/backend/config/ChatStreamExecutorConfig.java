@@ -0,0 +1,129 @@
+package ru.cleardocs.backend.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.context.request.async.WebAsyncTask;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Executor of the chat relay: POST /api/v1/chat/send-chat-message (and the resume GET) run as a WebAsyncTask
+ * that holds its thread until the LLM answer is complete. chat.stream.executor selects:
+ * <ul>
+ *   <li>virtual (default) — one virtual thread per stream; a stream blocked on the Onyx socket costs no platform thread;</li>
+ *   <li>bounded — a dedicated pool of chat.stream.max-concurrent platform threads.</li>
+ * </ul>
+ * Either way at most chat.stream.max-concurrent streams run at once; a stream over the cap is rejected
+ * (503, see GlobalExceptionHandler) instead of queueing behind LLM answers that take minutes. Streams also
+ * need a connection from the onyx-streaming pool, so the cap should not exceed http.pool.onyx-streaming.max-total.
+ * Only the chat endpoints use this executor, through {@link #streamTask(Callable)}; it is not the MVC async
+ * executor, so other async handlers (e.g. the connector status stream) are neither counted nor rejected by the cap.
+ * The chat.stream.relay=async relay (AsyncChatStreamController) does not use it either.
+ */
+@Slf4j
+@Configuration
+public class ChatStreamExecutorConfig {
+
+  private final AsyncTaskExecutor delegate;
+  private final CappedAsyncTaskExecutor executor;
+
+  public ChatStreamExecutorConfig(
+      @Value("${chat.stream.executor:virtual}") String mode,
+      @Value("${chat.stream.max-concurrent:200}") int maxConcurrent,
+      MeterRegistry meterRegistry
+  ) {
+    int cap = Math.max(maxConcurrent, 1);
+    this.delegate = switch (mode.toLowerCase(Locale.ROOT)) {
+      case "virtual" -> {
+        SimpleAsyncTaskExecutor virtual = new SimpleAsyncTaskExecutor("chat-stream-");
+        virtual.setVirtualThreads(true);
+        yield virtual;
+      }
+      case "bounded" -> {
+        ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+        pool.setThreadNamePrefix("chat-stream-");
+        pool.setCorePoolSize(cap);
+        pool.setMaxPoolSize(cap);
+        pool.setQueueCapacity(0);
+        pool.setAllowCoreThreadTimeOut(true);
+        pool.initialize();
+        yield pool;
+      }
+      default -> throw new IllegalArgumentException("chat.stream.executor must be 'virtual' or 'bounded', got: " + mode);
+    };
+    this.executor = new CappedAsyncTaskExecutor(delegate, cap);
+    Gauge.builder("chat.streams.active", executor, CappedAsyncTaskExecutor::active)
+        .description("Chat streams currently being relayed")
+        .register(meterRegistry);
+    Gauge.builder("chat.streams.max", () -> cap)
+        .description("Maximum concurrent chat streams per instance (chat.stream.max-concurrent)")
+        .register(meterRegistry);
+    log.info("Chat stream executor: mode = {}, max concurrent streams = {}", mode, cap);
+  }
+
+  /**
+   * Async result for a chat handler: runs the stream on this executor, with the MVC async request timeout.
+   * Over the cap the task is rejected and the request gets 503.
+   */
+  public <T> WebAsyncTask<T> streamTask(Callable<T> stream) {
+    return new WebAsyncTask<>(null, executor, stream);
+  }
+
+  AsyncTaskExecutor taskExecutor() {
+    return executor;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (delegate instanceof ThreadPoolTaskExecutor pool) {
+      pool.shutdown();
+    }
+  }
+
+  /** Runs at most maxConcurrent tasks at a time on the delegate and rejects the rest immediately. */
+  static final class CappedAsyncTaskExecutor implements AsyncTaskExecutor {
+
+    private final AsyncTaskExecutor delegate;
+    private final int maxConcurrent;
+    private final Semaphore permits;
+
+    CappedAsyncTaskExecutor(AsyncTaskExecutor delegate, int maxConcurrent) {
+      this.delegate = delegate;
+      this.maxConcurrent = maxConcurrent;
+      this.permits = new Semaphore(maxConcurrent);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+      if (!permits.tryAcquire()) {
+        throw new TaskRejectedException("Too many concurrent chat streams (max " + maxConcurrent + ")");
+      }
+      try {
+        delegate.execute(() -> {
+          try {
+            task.run();
+          } finally {
+            permits.release();
+          }
+        });
+      } catch (RuntimeException e) {
+        permits.release();
+        throw e;
+      }
+    }
+
+    int active() {
+      return maxConcurrent - permits.availablePermits();
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package ru.cleardocs.backend.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.ChainElement;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.core.env.Environment;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Builds one named, separately sized connection pool per upstream (http.pool.&lt;name&gt;.* properties),
+ * so a slow upstream can only exhaust its own pool.
+ * Metrics (tag pool=&lt;name&gt;): http.client.pool.{leased,pending,available,max} for the whole pool,
+ * http.client.pool.route.{leased,pending,available} per target route, and http.client.pool.acquire —
+ * time from asking for a connection until it is leased (and, for a new connection, opened).
+ */
+@Slf4j
+class PooledHttpClientFactory {
+
+  private static final String ACQUIRE_STARTED_AT = PooledHttpClientFactory.class.getName() + ".acquireStartedAt";
+
+  private final Environment environment;
+  private final MeterRegistry meterRegistry;
+
+  PooledHttpClientFactory(Environment environment, MeterRegistry meterRegistry) {
+    this.environment = environment;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * @param name                    pool name, used in property keys and metric tags
+   * @param defaultResponseTimeout  response (socket read) timeout if http.pool.&lt;name&gt;.response-timeout-ms is not set
+   */
+  CloseableHttpClient create(String name, Timeout defaultResponseTimeout) {
+    int maxTotal = property(name, "max-total", 50);
+    int maxPerRoute = property(name, "max-per-route", maxTotal);
+    Timeout connectTimeout = Timeout.ofMilliseconds(property(name, "connect-timeout-ms", 5_000));
+    Timeout acquireTimeout = Timeout.ofMilliseconds(property(name, "acquire-timeout-ms", 10_000));
+    Timeout responseTimeout = Timeout.ofMilliseconds(property(name, "response-timeout-ms", (int) defaultResponseTimeout.toMilliseconds()));
+    TimeValue idleEviction = TimeValue.ofSeconds(property(name, "idle-eviction-seconds", 30));
+    TimeValue maxKeepAlive = TimeValue.ofSeconds(property(name, "max-keep-alive-seconds", 60));
+
+    PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+        .setMaxConnTotal(maxTotal)
+        .setMaxConnPerRoute(maxPerRoute)
+        .setDefaultConnectionConfig(ConnectionConfig.custom()
+            .setConnectTimeout(connectTimeout)
+            .setSocketTimeout(responseTimeout)
+            .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+            .build())
+        .build();
+    registerPoolGauges(name, connectionManager);
+
+    Timer acquireTimer = Timer.builder("http.client.pool.acquire")
+        .description("Time to lease a pooled connection (including connect time for new connections)")
+        .tag("pool", name)
+        .register(meterRegistry);
+    Set<HttpRoute> routesWithGauges = ConcurrentHashMap.newKeySet();
+    ExecChainHandler beforeConnect = (request, scope, chain) -> {
+      scope.clientContext.setAttribute(ACQUIRE_STARTED_AT, System.nanoTime());
+      return chain.proceed(request, scope);
+    };
+    ExecChainHandler afterConnect = (request, scope, chain) -> {
+      Object startedAt = scope.clientContext.removeAttribute(ACQUIRE_STARTED_AT);
+      if (startedAt instanceof Long start) {
+        acquireTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+      if (routesWithGauges.add(scope.route)) {
+        registerRouteGauges(name, scope.route, connectionManager);
+      }
+      return chain.proceed(request, scope);
+    };
+
+    log.info("HTTP pool '{}': maxTotal={}, maxPerRoute={}, connectTimeout={}, acquireTimeout={}, responseTimeout={}, idleEviction={}",
+        name, maxTotal, maxPerRoute, connectTimeout, acquireTimeout, responseTimeout, idleEviction);
+    return HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(RequestConfig.custom()
+            .setConnectionRequestTimeout(acquireTimeout)
+            .setResponseTimeout(responseTimeout)
+            .build())
+        .setKeepAliveStrategy((response, context) -> {
+          TimeValue advertised = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+          return advertised.compareTo(maxKeepAlive) < 0 ? advertised : maxKeepAlive;
+        })
+        .evictExpiredConnections()
+        .evictIdleConnections(idleEviction)
+        .addExecInterceptorBefore(ChainElement.CONNECT.name(), "pool-acquire-start", beforeConnect)
+        .addExecInterceptorAfter(ChainElement.CONNECT.name(), "pool-acquire-end", afterConnect)
+        .build();
+  }
+
+  private int property(String pool, String key, int defaultValue) {
+    return environment.getProperty("http.pool." + pool + "." + key, Integer.class, defaultValue);
+  }
+
+  private void registerPoolGauges(String pool, PoolingHttpClientConnectionManager cm) {
+    gauge("http.client.pool.leased", pool, null, cm, m -> m.getTotalStats().getLeased());
+    gauge("http.client.pool.pending", pool, null, cm, m -> m.getTotalStats().getPending());
+    gauge("http.client.pool.available", pool, null, cm, m -> m.getTotalStats().getAvailable());
+    gauge("http.client.pool.max", pool, null, cm, m -> m.getTotalStats().getMax());
+  }
+
+  private void registerRouteGauges(String pool, HttpRoute route, PoolingHttpClientConnectionManager cm) {
+    String target = route.getTargetHost().toURI();
+    gauge("http.client.pool.route.leased", pool, target, cm, m -> routeStats(m, route).getLeased());
+    gauge("http.client.pool.route.pending", pool, target, cm, m -> routeStats(m, route).getPending());
+    gauge("http.client.pool.route.available", pool, target, cm, m -> routeStats(m, route).getAvailable());
+  }
+
+  private static PoolStats routeStats(PoolingHttpClientConnectionManager cm, HttpRoute route) {
+    return cm.getStats(route);
+  }
+
+  private void gauge(String metric, String pool, String route, PoolingHttpClientConnectionManager cm,
+                     ToDoubleFunction<PoolingHttpClientConnectionManager> value) {
+    Gauge.Builder<PoolingHttpClientConnectionManager> builder = Gauge.builder(metric, cm, value).tag("pool", pool);
+    if (route != null) {
+      builder.tag("route", route);
+    }
+    builder.register(meterRegistry);
+  }
+}
@@ -1,22 +1,37 @@
 package ru.cleardocs.backend.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.hc.client5.http.config.RequestConfig;
-import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.core5.http.ClassicHttpRequest;
 import org.apache.hc.core5.util.Timeout;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
+import ru.cleardocs.backend.client.onyx.OnyxFanOut;
 
+/**
+ * Each upstream gets its own connection pool (see PooledHttpClientFactory), so a slow Tochka call,
+ * a large upload or a long chat stream cannot starve regular Onyx calls. Pool sizes and timeouts: http.pool.&lt;name&gt;.*
+ * Requests of the regular and upload Onyx RestTemplates sent from an OnyxFanOut call are aborted when that call is
+ * cancelled, which frees the pooled connection instead of leaving the thread blocked in a socket read.
+ */
 @Configuration
 public class RestTemplateConfig {
 
+  /** RestTemplate for regular Onyx API calls (pool "onyx"). */
   @Bean
-  public RestTemplate restTemplate() {
-    return new RestTemplate(new HttpComponentsClientHttpRequestFactory());
+  @Primary
+  public RestTemplate restTemplate(Environment environment, MeterRegistry meterRegistry) {
+    var httpClient = new PooledHttpClientFactory(environment, meterRegistry)
+        .create("onyx", Timeout.ofSeconds(30));
+    return new RestTemplate(new FanOutAbortableRequestFactory(httpClient));
   }
 
   /**
@@ -26,13 +41,34 @@ public class RestTemplateConfig {
    */
   @Bean("onyxStreamingRestTemplate")
   public RestTemplate onyxStreamingRestTemplate(
-      @Value("${onyx.streaming-timeout-minutes:15}") int streamingTimeoutMinutes) {
-    RequestConfig config = RequestConfig.custom()
-        .setResponseTimeout(Timeout.ofMinutes(streamingTimeoutMinutes))
-        .build();
-    var httpClient = HttpClientBuilder.create()
-        .setDefaultRequestConfig(config)
-        .build();
+      @Value("${onyx.streaming-timeout-minutes:15}") int streamingTimeoutMinutes,
+      Environment environment,
+      MeterRegistry meterRegistry) {
+    var httpClient = new PooledHttpClientFactory(environment, meterRegistry)
+        .create("onyx-streaming", Timeout.ofMinutes(streamingTimeoutMinutes));
+    return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+  }
+
+  /**
+   * RestTemplate for Onyx file uploads (pool "onyx-upload"). A batch of large files can take far longer than
+   * the 30 s regular response timeout, so uploads get their own pool and a response timeout of
+   * onyx.upload.timeout-minutes (the limit of the whole upload) unless http.pool.onyx-upload.response-timeout-ms is set.
+   */
+  @Bean("onyxUploadRestTemplate")
+  public RestTemplate onyxUploadRestTemplate(
+      @Value("${onyx.upload.timeout-minutes:15}") int uploadTimeoutMinutes,
+      Environment environment,
+      MeterRegistry meterRegistry) {
+    var httpClient = new PooledHttpClientFactory(environment, meterRegistry)
+        .create("onyx-upload", Timeout.ofMinutes(uploadTimeoutMinutes));
+    return new RestTemplate(new FanOutAbortableRequestFactory(httpClient));
+  }
+
+  /** RestTemplate for Tochka Bank API (pool "tochka"). */
+  @Bean("tochkaRestTemplate")
+  public RestTemplate tochkaRestTemplate(Environment environment, MeterRegistry meterRegistry) {
+    var httpClient = new PooledHttpClientFactory(environment, meterRegistry)
+        .create("tochka", Timeout.ofSeconds(30));
     return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
   }
 
@@ -41,4 +77,19 @@ public class RestTemplateConfig {
   public ObjectMapper objectMapper() {
     return new ObjectMapper();
   }
+
+  /** Registers each request with OnyxFanOut.onCancel, so cancelling the fan-out call closes its connection. */
+  static final class FanOutAbortableRequestFactory extends HttpComponentsClientHttpRequestFactory {
+
+    FanOutAbortableRequestFactory(HttpClient httpClient) {
+      super(httpClient);
+    }
+
+    @Override
+    protected void postProcessHttpRequest(ClassicHttpRequest request) {
+      if (request instanceof HttpUriRequestBase abortable) {
+        OnyxFanOut.onCancel(abortable::cancel);
+      }
+    }
+  }
 }
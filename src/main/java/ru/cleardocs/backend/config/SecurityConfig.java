@@ -1,5 +1,6 @@
 package ru.cleardocs.backend.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpStatus;
@@ -18,9 +19,14 @@ import ru.cleardocs.backend.filter.FirebaseTokenFilter;
 public class SecurityConfig {
 
   private final FirebaseTokenFilter firebaseTokenFilter;
+  private final int managementPort;
 
-  public SecurityConfig(FirebaseTokenFilter firebaseTokenFilter) {
+  public SecurityConfig(
+      FirebaseTokenFilter firebaseTokenFilter,
+      @Value("${management.server.port:-1}") int managementPort
+  ) {
     this.firebaseTokenFilter = firebaseTokenFilter;
+    this.managementPort = managementPort;
   }
 
   @Bean
@@ -31,9 +37,13 @@ public class SecurityConfig {
         .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
         .cors(cors -> cors.configurationSource(corsConfigurationSource))
         .authorizeHttpRequests(auth -> auth
+            // Actuator is for operators: open on the unpublished management port, closed to end users elsewhere
+            .requestMatchers(request -> managementPort > 0 && request.getLocalPort() == managementPort).permitAll()
+            .requestMatchers("/actuator/health").permitAll()
+            .requestMatchers("/actuator/**").denyAll()
             .requestMatchers("/v3/api-docs/**", "/swagger-ui/**", "/swagger-ui.html").permitAll()
             .requestMatchers("/api/v1/plans").permitAll()
-            .requestMatchers("/api/v1/chat/create-chat-session", "/api/v1/chat/send-chat-message").permitAll()
+            .requestMatchers("/api/v1/chat/create-chat-session", "/api/v1/chat/send-chat-message", "/api/v1/chat/stream/*").permitAll()
             .requestMatchers("/api/v1/pay/webhook/tochka").permitAll()
             .anyRequest().authenticated()
         )
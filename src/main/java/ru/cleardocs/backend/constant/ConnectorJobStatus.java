@@ -0,0 +1,11 @@
+package ru.cleardocs.backend.constant;
+
+/**
+ * Status of an asynchronous connector-creation job (see ConnectorJobService).
+ */
+public enum ConnectorJobStatus {
+  PENDING,
+  RUNNING,
+  SUCCEEDED,
+  FAILED
+}
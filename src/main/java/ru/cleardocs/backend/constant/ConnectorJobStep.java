@@ -0,0 +1,15 @@
+package ru.cleardocs.backend.constant;
+
+/**
+ * Next step an asynchronous connector-creation job has to run. Results of finished steps
+ * are persisted on the job, so a retried or resumed job continues from here.
+ */
+public enum ConnectorJobStep {
+  /** Upload spooled files to Onyx (file connectors only). */
+  UPLOAD,
+  /** Pick a unique name and create the connector in Onyx. */
+  CREATE_CONNECTOR,
+  /** Add the connector to the user's document set and record it locally. */
+  LINK_DOCUMENT_SET,
+  DONE
+}
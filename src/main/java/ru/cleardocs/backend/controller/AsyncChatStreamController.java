@@ -0,0 +1,41 @@
+package ru.cleardocs.backend.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import ru.cleardocs.backend.service.ChatService;
+
+import java.io.IOException;
+
+/**
+ * send-chat-message relayed without a thread per stream (chat.stream.relay=async): the request thread returns
+ * right away and Onyx chunks are written to the response as they arrive. See ChatStreamController for the default.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/v1")
+@ConditionalOnProperty(name = "chat.stream.relay", havingValue = "async")
+public class AsyncChatStreamController {
+
+  private final ChatService chatService;
+
+  public AsyncChatStreamController(ChatService chatService) {
+    this.chatService = chatService;
+  }
+
+  @PostMapping(value = "/chat/send-chat-message", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public ResponseEntity<ResponseBodyEmitter> sendChatMessage(HttpServletRequest request) throws IOException {
+    // The body is not bound here: it is read as JSON tokens and rewritten into the Onyx request
+    log.info("sendChatMessage async request contentLength={}", request.getContentLengthLong());
+    ResponseBodyEmitter emitter = chatService.relaySendChatMessage(request.getHeader("Authorization"), request.getInputStream());
+    return ResponseEntity.ok()
+        .contentType(MediaType.TEXT_EVENT_STREAM)
+        .body(emitter);
+  }
+}
@@ -0,0 +1,92 @@
+package ru.cleardocs.backend.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.cleardocs.backend.config.ChatStreamExecutorConfig;
+import ru.cleardocs.backend.service.ChatService;
+
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * send-chat-message relayed on a thread of the chat stream executor (chat.stream.relay=blocking, the default).
+ * See AsyncChatStreamController for the non-blocking relay.
+ * Handlers return a WebAsyncTask on that executor, which writes the response itself: a StreamingResponseBody
+ * would run on the MVC async executor, shared with every other async handler.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/v1")
+@ConditionalOnProperty(name = "chat.stream.relay", havingValue = "blocking", matchIfMissing = true)
+public class ChatStreamController {
+
+  private final ChatService chatService;
+  private final ChatStreamExecutorConfig chatStreamExecutor;
+
+  public ChatStreamController(ChatService chatService, ChatStreamExecutorConfig chatStreamExecutor) {
+    this.chatService = chatService;
+    this.chatStreamExecutor = chatStreamExecutor;
+  }
+
+  @PostMapping(value = "/chat/send-chat-message", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public WebAsyncTask<Void> sendChatMessage(HttpServletRequest request, HttpServletResponse response) {
+    // The body is not bound here: it is read as JSON tokens and written straight to the Onyx request
+    log.info("sendChatMessage request contentLength={}", request.getContentLengthLong());
+    StreamingResponseBody streamBody = outputStream -> {
+      long start = System.currentTimeMillis();
+      // Set once the body has been read and sent to Onyx; null if the request failed before that
+      AtomicReference<String> sessionId = new AtomicReference<>();
+      try {
+        chatService.streamSendChatMessage(request.getHeader("Authorization"), request.getInputStream(), outputStream,
+            summary -> sessionId.set(summary.chatSessionId()));
+      } catch (Exception e) {
+        long elapsed = System.currentTimeMillis() - start;
+        log.warn("sendChatMessage failed sessionId={} elapsed_ms={} error={}", sessionId.get(), elapsed, e.getMessage());
+        throw e;
+      } finally {
+        outputStream.flush();  // Always flush, even on exception — ensures last chunk reaches client
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      log.info("sendChatMessage completed sessionId={} elapsed_ms={}", sessionId.get(), elapsed);
+    };
+    return stream(response, streamBody);
+  }
+
+  /** Reconnect after a dropped send-chat-message stream; events carry ids, Last-Event-ID is the last one received. */
+  @GetMapping(value = "/chat/stream/{chatSessionId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public WebAsyncTask<Void> resumeChatStream(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      @PathVariable String chatSessionId,
+      @RequestHeader(value = "Last-Event-ID", defaultValue = "0") long lastEventId
+  ) {
+    log.info("resumeChatStream request sessionId={} lastEventId={}", chatSessionId, lastEventId);
+    StreamingResponseBody streamBody = chatService.resumeChatStream(request.getHeader("Authorization"), chatSessionId, lastEventId);
+    return stream(response, streamBody);
+  }
+
+  /**
+   * Writes the body to the response on the chat stream executor. The content type is set only once the stream
+   * runs, so a rejected task's error response is not forced to text/event-stream.
+   */
+  private WebAsyncTask<Void> stream(HttpServletResponse response, StreamingResponseBody streamBody) {
+    return chatStreamExecutor.streamTask(() -> {
+      response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+      OutputStream outputStream = response.getOutputStream();
+      streamBody.writeTo(outputStream);
+      outputStream.flush();
+      return null;
+    });
+  }
+}
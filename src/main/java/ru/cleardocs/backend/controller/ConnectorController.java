@@ -1,7 +1,9 @@
 package ru.cleardocs.backend.controller;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -10,19 +12,35 @@ import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.cleardocs.backend.dto.ConnectorBatchRequestDto;
+import ru.cleardocs.backend.dto.ConnectorBatchResponseDto;
+import ru.cleardocs.backend.dto.ConnectorJobDto;
 import ru.cleardocs.backend.dto.CreateConnectorResponseDto;
+import ru.cleardocs.backend.dto.CreateUploadSessionRequestDto;
 import ru.cleardocs.backend.dto.CreateUrlConnectorRequestDto;
 import ru.cleardocs.backend.dto.GetConnectorsDto;
 import ru.cleardocs.backend.dto.UpdateConnectorRequestDto;
+import ru.cleardocs.backend.dto.UploadSessionDto;
 import ru.cleardocs.backend.entity.User;
 import ru.cleardocs.backend.exception.BadRequestException;
+import ru.cleardocs.backend.service.ChunkedUploadService;
+import ru.cleardocs.backend.service.ConnectorBatchService;
+import ru.cleardocs.backend.service.ConnectorJobService;
 import ru.cleardocs.backend.service.ConnectorService;
+import ru.cleardocs.backend.service.ConnectorStatusStreamService;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.UUID;
 
 @Slf4j
 @RestController
@@ -30,16 +48,40 @@ import java.io.IOException;
 public class ConnectorController {
 
   private final ConnectorService connectorService;
+  private final ChunkedUploadService chunkedUploadService;
+  private final ConnectorJobService connectorJobService;
+  private final ConnectorBatchService connectorBatchService;
+  private final ConnectorStatusStreamService connectorStatusStreamService;
 
-  public ConnectorController(ConnectorService connectorService) {
+  public ConnectorController(ConnectorService connectorService, ChunkedUploadService chunkedUploadService,
+                             ConnectorJobService connectorJobService, ConnectorBatchService connectorBatchService,
+                             ConnectorStatusStreamService connectorStatusStreamService) {
     this.connectorService = connectorService;
+    this.chunkedUploadService = chunkedUploadService;
+    this.connectorJobService = connectorJobService;
+    this.connectorBatchService = connectorBatchService;
+    this.connectorStatusStreamService = connectorStatusStreamService;
   }
 
+  /** Tagged with an ETag when the Onyx data is cached; a matching If-None-Match gets 304 without reading it. */
   @GetMapping
-  public ResponseEntity<GetConnectorsDto> getConnectors(@AuthenticationPrincipal User user) {
+  public ResponseEntity<GetConnectorsDto> getConnectors(@AuthenticationPrincipal User user, WebRequest request) {
     log.info("getConnectors() - starts with user id = {}", user.getId());
+    // Built from cached Onyx data, so a 304 saves the transfer, not the reads
     GetConnectorsDto response = connectorService.getConnectors(user);
-    return ResponseEntity.ok(response);
+    String eTag = connectorService.getConnectorsETag(user, response);
+    if (request.checkNotModified(eTag)) {
+      log.info("getConnectors() - not modified");
+      return null;
+    }
+    return ResponseEntity.ok().eTag(eTag).body(response);
+  }
+
+  /** Server-sent events: "connectors" with the current list, then "connector" and "removed" on changes. */
+  @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter streamConnectors(@AuthenticationPrincipal User user) {
+    log.info("streamConnectors() - starts with user id = {}", user.getId());
+    return connectorStatusStreamService.subscribe(user);
   }
 
   @PostMapping("/url")
@@ -67,6 +109,102 @@ public class ConnectorController {
     return ResponseEntity.status(HttpStatus.CREATED).body(response);
   }
 
+  /** Same as POST /api/v1/connectors, but returns 202 with a job to poll instead of waiting for Onyx. */
+  @PostMapping("/jobs")
+  public ResponseEntity<ConnectorJobDto> submitFileConnector(
+      @AuthenticationPrincipal User user,
+      @RequestParam("name") String name,
+      @RequestParam("files") MultipartFile[] files
+  ) throws IOException {
+    log.info("submitFileConnector() - starts with user id = {}, name = {}", user.getId(), name);
+    ConnectorJobDto response = connectorJobService.submitFileConnector(user, name, files);
+    return ResponseEntity.accepted().location(jobLocation(response)).body(response);
+  }
+
+  /** Same as POST /api/v1/connectors/url, but returns 202 with a job to poll instead of waiting for Onyx. */
+  @PostMapping("/jobs/url")
+  public ResponseEntity<ConnectorJobDto> submitUrlConnector(
+      @AuthenticationPrincipal User user,
+      @RequestBody CreateUrlConnectorRequestDto body
+  ) {
+    log.info("submitUrlConnector() - starts with user id = {}", user.getId());
+    if (body == null || body.name() == null || body.url() == null) {
+      throw new BadRequestException("name and url are required");
+    }
+    ConnectorJobDto response = connectorJobService.submitUrlConnector(user, body.name(), body.url());
+    return ResponseEntity.accepted().location(jobLocation(response)).body(response);
+  }
+
+  @GetMapping("/jobs/{jobId}")
+  public ResponseEntity<ConnectorJobDto> getJob(
+      @AuthenticationPrincipal User user,
+      @PathVariable UUID jobId
+  ) {
+    return ResponseEntity.ok(connectorJobService.getJob(user, jobId));
+  }
+
+  /** Starts a resumable chunked upload; chunks are then PUT and the upload is finalized into a file connector. */
+  @PostMapping("/uploads")
+  public ResponseEntity<UploadSessionDto> createUploadSession(
+      @AuthenticationPrincipal User user,
+      @RequestBody CreateUploadSessionRequestDto body
+  ) throws IOException {
+    log.info("createUploadSession() - starts with user id = {}", user.getId());
+    UploadSessionDto response = chunkedUploadService.createSession(user, body);
+    return ResponseEntity.status(HttpStatus.CREATED).body(response);
+  }
+
+  @GetMapping("/uploads/{uploadId}")
+  public ResponseEntity<UploadSessionDto> getUploadSession(
+      @AuthenticationPrincipal User user,
+      @PathVariable UUID uploadId
+  ) {
+    return ResponseEntity.ok(chunkedUploadService.getSession(user, uploadId));
+  }
+
+  @PutMapping(value = "/uploads/{uploadId}/files/{fileIndex}/chunks/{chunkIndex}",
+      consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  public ResponseEntity<Void> putUploadChunk(
+      @AuthenticationPrincipal User user,
+      @PathVariable UUID uploadId,
+      @PathVariable int fileIndex,
+      @PathVariable int chunkIndex,
+      @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength,
+      InputStream body
+  ) throws IOException {
+    chunkedUploadService.putChunk(user, uploadId, fileIndex, chunkIndex, body, contentLength);
+    return ResponseEntity.noContent().build();
+  }
+
+  @PostMapping("/uploads/{uploadId}/finalize")
+  public ResponseEntity<CreateConnectorResponseDto> finalizeUpload(
+      @AuthenticationPrincipal User user,
+      @PathVariable UUID uploadId
+  ) throws IOException {
+    log.info("finalizeUpload() - starts with user id = {}, uploadId = {}", user.getId(), uploadId);
+    CreateConnectorResponseDto response = chunkedUploadService.finalizeSession(user, uploadId);
+    return ResponseEntity.status(HttpStatus.CREATED).body(response);
+  }
+
+  @DeleteMapping("/uploads/{uploadId}")
+  public ResponseEntity<Void> cancelUpload(
+      @AuthenticationPrincipal User user,
+      @PathVariable UUID uploadId
+  ) {
+    chunkedUploadService.cancelSession(user, uploadId);
+    return ResponseEntity.noContent().build();
+  }
+
+  /** Pause, resume or delete many connectors at once; always 200 with one result per operation. */
+  @PostMapping("/batch")
+  public ResponseEntity<ConnectorBatchResponseDto> batchUpdateConnectors(
+      @AuthenticationPrincipal User user,
+      @RequestBody ConnectorBatchRequestDto body
+  ) {
+    log.info("batchUpdateConnectors() - starts with user id = {}", user.getId());
+    return ResponseEntity.ok(connectorBatchService.execute(user, body));
+  }
+
   @PatchMapping("/{connectorId}")
   public ResponseEntity<Void> updateConnector(
       @AuthenticationPrincipal User user,
@@ -87,4 +225,8 @@ public class ConnectorController {
     connectorService.deleteConnector(user, connectorId);
     return ResponseEntity.noContent().build();
   }
+
+  private static URI jobLocation(ConnectorJobDto job) {
+    return URI.create("/api/v1/connectors/jobs/" + job.id());
+  }
 }
@@ -5,6 +5,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import ru.cleardocs.backend.dto.GetAllPlansDto;
 import ru.cleardocs.backend.service.PlanService;
 
@@ -20,10 +21,15 @@ public class PlanController {
   }
 
   @GetMapping
-  public ResponseEntity<GetAllPlansDto> getAll() {
+  public ResponseEntity<GetAllPlansDto> getAll(WebRequest request) {
     log.info("getAll() - starts");
+    String eTag = planService.getAllETag();
+    if (eTag != null && request.checkNotModified(eTag)) {
+      log.info("getAll() - not modified");
+      return null;
+    }
     GetAllPlansDto response = planService.getAll();
     log.info("getAll() - ends with response = {}", response);
-    return ResponseEntity.ok(response);
+    return eTag != null ? ResponseEntity.ok().eTag(eTag).body(response) : ResponseEntity.ok(response);
   }
 }
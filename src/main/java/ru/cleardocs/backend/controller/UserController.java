@@ -7,6 +7,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import ru.cleardocs.backend.dto.GetMeDto;
 import ru.cleardocs.backend.entity.User;
 import ru.cleardocs.backend.service.UserService;
@@ -23,11 +24,16 @@ public class UserController {
   }
 
   @GetMapping("/me")
-  public ResponseEntity<GetMeDto> getMe(@AuthenticationPrincipal User user) {
+  public ResponseEntity<GetMeDto> getMe(@AuthenticationPrincipal User user, WebRequest request) {
     log.info("getMe() - starts with user id = {}", user.getId());
+    String eTag = userService.getMeETag(user);
+    if (eTag != null && request.checkNotModified(eTag)) {
+      log.info("getMe() - not modified");
+      return null;
+    }
     GetMeDto response = userService.getMe(user);
     log.info("getMe() - ends with response = {}", response);
-    return ResponseEntity.ok(response);
+    return eTag != null ? ResponseEntity.ok().eTag(eTag).body(response) : ResponseEntity.ok(response);
   }
 
   @PostMapping("/register")
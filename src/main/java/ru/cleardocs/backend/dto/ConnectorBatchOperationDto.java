@@ -0,0 +1,5 @@
+package ru.cleardocs.backend.dto;
+
+/** One batch item: action is pause, resume or delete. */
+public record ConnectorBatchOperationDto(Integer connectorId, String action) {
+}
@@ -0,0 +1,6 @@
+package ru.cleardocs.backend.dto;
+
+import java.util.List;
+
+public record ConnectorBatchResponseDto(List<ConnectorBatchResultDto> results) {
+}
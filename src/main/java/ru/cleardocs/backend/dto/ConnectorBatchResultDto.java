@@ -0,0 +1,8 @@
+package ru.cleardocs.backend.dto;
+
+/**
+ * Outcome of one batch item; status is the connector status after the operation, error is set when it failed.
+ * success is null (status UNKNOWN) when the item did not finish in time: its Onyx call may still take effect.
+ */
+public record ConnectorBatchResultDto(Integer connectorId, String action, Boolean success, String status, String error) {
+}
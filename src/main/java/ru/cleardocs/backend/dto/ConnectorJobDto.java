@@ -0,0 +1,19 @@
+package ru.cleardocs.backend.dto;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Asynchronous connector-creation job. connector is set once the job has SUCCEEDED; error once it has FAILED.
+ */
+public record ConnectorJobDto(
+    UUID id,
+    String status,
+    String step,
+    int attempts,
+    String error,
+    CreateConnectorResponseDto connector,
+    LocalDateTime createdAt,
+    LocalDateTime updatedAt
+) {
+}
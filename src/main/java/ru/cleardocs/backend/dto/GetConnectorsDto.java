@@ -2,5 +2,10 @@ package ru.cleardocs.backend.dto;
 
 import java.util.List;
 
-public record GetConnectorsDto(List<EntityConnectorDto> connectors, boolean canAdd) {
+/**
+ * statusAgeSeconds — how old the connector statuses are (they are polled from Onyx in the background);
+ * null if statuses have not been loaded yet.
+ * stale — Onyx could not be read, connectors are the last known ones (possibly none).
+ */
+public record GetConnectorsDto(List<EntityConnectorDto> connectors, boolean canAdd, Long statusAgeSeconds, boolean stale) {
 }
@@ -0,0 +1,4 @@
+package ru.cleardocs.backend.dto;
+
+public record UploadFileDto(String fileName, Long size) {
+}
@@ -0,0 +1,6 @@
+package ru.cleardocs.backend.dto;
+
+import java.util.List;
+
+public record UploadFileStatusDto(int index, String fileName, long size, int totalChunks, List<Integer> missingChunks) {
+}
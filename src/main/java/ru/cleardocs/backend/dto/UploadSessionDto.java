@@ -0,0 +1,18 @@
+package ru.cleardocs.backend.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Chunked upload session. Chunk i of a file covers bytes [i * chunkSize, min((i + 1) * chunkSize, size)).
+ * missingChunks of each file tells a resuming client what still has to be sent.
+ */
+public record UploadSessionDto(
+    UUID uploadId,
+    String name,
+    int chunkSize,
+    LocalDateTime expiresAt,
+    List<UploadFileStatusDto> files
+) {
+}
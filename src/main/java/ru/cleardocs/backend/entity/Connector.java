@@ -0,0 +1,52 @@
+package ru.cleardocs.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Local mirror of an Onyx connector (cc_pair) owned by a user.
+ * Onyx is the source of truth; see ConnectorMirrorService.
+ */
+@Data
+@Entity
+@Builder
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "connectors")
+public class Connector {
+
+  @Id
+  @Column(name = "cc_pair_id")
+  private Integer ccPairId;
+
+  @Column(name = "user_id")
+  private UUID userId;
+
+  @Column(name = "doc_set_id")
+  private Integer docSetId;
+
+  private String name;
+  private String source;
+  private String status;
+
+  @Column(name = "created_at")
+  private LocalDateTime createdAt;
+
+  @Column(name = "updated_at")
+  private LocalDateTime updatedAt;
+
+  @PrePersist
+  public void prePersist() {
+    this.createdAt = LocalDateTime.now();
+    this.updatedAt = LocalDateTime.now();
+  }
+
+  @PreUpdate
+  public void preUpdate() {
+    this.updatedAt = LocalDateTime.now();
+  }
+}
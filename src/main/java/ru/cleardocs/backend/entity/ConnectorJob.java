@@ -0,0 +1,89 @@
+package ru.cleardocs.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import ru.cleardocs.backend.constant.ConnectorJobStatus;
+import ru.cleardocs.backend.constant.ConnectorJobStep;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Asynchronous connector-creation job. List-valued step results are stored as JSON arrays.
+ */
+@Data
+@Entity
+@Builder
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "connector_jobs")
+public class ConnectorJob {
+
+  @Id
+  @GeneratedValue
+  private UUID id;
+
+  @Column(name = "user_id")
+  private UUID userId;
+
+  /** "file" or "web", as in CreateConnectorResponseDto.type */
+  private String source;
+
+  private String name;
+  private String url;
+
+  @Enumerated(EnumType.STRING)
+  private ConnectorJobStatus status;
+
+  @Enumerated(EnumType.STRING)
+  private ConnectorJobStep step;
+
+  /** Attempts of the current step */
+  private int attempts;
+
+  @Column(name = "original_file_names")
+  private String originalFileNames;
+
+  @Column(name = "file_paths")
+  private String filePaths;
+
+  @Column(name = "file_names")
+  private String fileNames;
+
+  @Column(name = "unique_name")
+  private String uniqueName;
+
+  @Column(name = "cc_pair_id")
+  private Integer ccPairId;
+
+  private String error;
+
+  /**
+   * Node that holds the job's spooled files and runs it (see ConnectorJobService). Written only by the
+   * repository's claim query, and heartbeatAt only by its heartbeat query, so saving the entity never
+   * overwrites them with stale values.
+   */
+  @Column(name = "owner", updatable = false)
+  private String owner;
+
+  @Column(name = "heartbeat_at", updatable = false)
+  private LocalDateTime heartbeatAt;
+
+  @Column(name = "created_at")
+  private LocalDateTime createdAt;
+
+  @Column(name = "updated_at")
+  private LocalDateTime updatedAt;
+
+  @PrePersist
+  public void prePersist() {
+    this.createdAt = LocalDateTime.now();
+    this.updatedAt = LocalDateTime.now();
+  }
+
+  @PreUpdate
+  public void preUpdate() {
+    this.updatedAt = LocalDateTime.now();
+  }
+}
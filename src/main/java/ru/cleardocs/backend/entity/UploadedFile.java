@@ -0,0 +1,45 @@
+package ru.cleardocs.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * A file a user already uploaded to the Onyx file store, keyed by user and the SHA-256 of its content
+ * (see UploadStoreService).
+ */
+@Data
+@Entity
+@Builder
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "uploaded_files")
+public class UploadedFile {
+
+  @Id
+  @GeneratedValue
+  private UUID id;
+
+  @Column(name = "user_id")
+  private UUID userId;
+
+  @Column(name = "content_hash")
+  private String contentHash;
+
+  @Column(name = "file_path")
+  private String filePath;
+
+  @Column(name = "size_bytes")
+  private long sizeBytes;
+
+  @Column(name = "created_at")
+  private LocalDateTime createdAt;
+
+  @PrePersist
+  public void prePersist() {
+    this.createdAt = LocalDateTime.now();
+  }
+}
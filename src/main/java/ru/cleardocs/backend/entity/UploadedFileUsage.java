@@ -0,0 +1,29 @@
+package ru.cleardocs.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.util.UUID;
+
+/**
+ * Onyx file store path used by a connector (cc_pair).
+ */
+@Data
+@Entity
+@Builder
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "uploaded_file_usages")
+public class UploadedFileUsage {
+
+  @Id
+  @GeneratedValue
+  private UUID id;
+
+  @Column(name = "cc_pair_id")
+  private Integer ccPairId;
+
+  @Column(name = "file_path")
+  private String filePath;
+}
@@ -0,0 +1,8 @@
+package ru.cleardocs.backend.exception;
+
+/** The request conflicts with the current state of the resource (e.g. an upload that is being finalized). */
+public class ConflictException extends RuntimeException {
+  public ConflictException(String message) {
+    super(message);
+  }
+}
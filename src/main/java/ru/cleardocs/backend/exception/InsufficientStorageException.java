@@ -0,0 +1,8 @@
+package ru.cleardocs.backend.exception;
+
+/** Local storage for the request is used up (e.g. the chunked upload spool); the client may retry later. */
+public class InsufficientStorageException extends RuntimeException {
+  public InsufficientStorageException(String message) {
+    super(message);
+  }
+}
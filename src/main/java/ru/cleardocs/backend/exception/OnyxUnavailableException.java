@@ -0,0 +1,16 @@
+package ru.cleardocs.backend.exception;
+
+/** Onyx calls are currently rejected without being sent, because the Onyx circuit breaker is open. */
+public class OnyxUnavailableException extends RuntimeException {
+
+  private final long retryAfterSeconds;
+
+  public OnyxUnavailableException(String message, long retryAfterSeconds) {
+    super(message);
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+}
@@ -32,11 +32,12 @@ public class FirebaseTokenFilter extends OncePerRequestFilter {
 
   private static final String PATH_CHAT_CREATE_SESSION = "/api/v1/chat/create-chat-session";
   private static final String PATH_CHAT_SEND_MESSAGE = "/api/v1/chat/send-chat-message";
+  private static final String PATH_CHAT_STREAM_PREFIX = "/api/v1/chat/stream/";
 
   @Override
   protected void doFilterInternal(HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull FilterChain filterChain) throws ServletException, IOException {
     String path = request.getRequestURI();
-    if (PATH_CHAT_CREATE_SESSION.equals(path) || PATH_CHAT_SEND_MESSAGE.equals(path)) {
+    if (PATH_CHAT_CREATE_SESSION.equals(path) || PATH_CHAT_SEND_MESSAGE.equals(path) || path.startsWith(PATH_CHAT_STREAM_PREFIX)) {
       filterChain.doFilter(request, response);
       return;
     }
@@ -0,0 +1,27 @@
+package ru.cleardocs.backend.filter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.jspecify.annotations.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ru.cleardocs.backend.client.onyx.OnyxReadContext;
+
+import java.io.IOException;
+
+/**
+ * Opens an OnyxReadContext for each HTTP request, so repeated Onyx reads within the request are served once.
+ */
+@Component
+public class OnyxReadContextFilter extends OncePerRequestFilter {
+
+  @Override
+  protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response,
+                                  @NonNull FilterChain filterChain) throws ServletException, IOException {
+    try (OnyxReadContext.Scope ignored = OnyxReadContext.open()) {
+      filterChain.doFilter(request, response);
+    }
+  }
+}
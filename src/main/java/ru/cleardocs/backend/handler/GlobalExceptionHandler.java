@@ -1,6 +1,8 @@
 package ru.cleardocs.backend.handler;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -8,7 +10,10 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import ru.cleardocs.backend.dto.ErrorDto;
 import ru.cleardocs.backend.exception.BadRequestException;
+import ru.cleardocs.backend.exception.ConflictException;
+import ru.cleardocs.backend.exception.InsufficientStorageException;
 import ru.cleardocs.backend.exception.NotFoundException;
+import ru.cleardocs.backend.exception.OnyxUnavailableException;
 
 import java.time.LocalDateTime;
 
@@ -36,6 +41,37 @@ public class GlobalExceptionHandler {
     return new ResponseEntity<>(new ErrorDto(exception.getMessage(), HttpStatus.NOT_FOUND.value(), LocalDateTime.now()), HttpStatus.NOT_FOUND);
   }
 
+  @ExceptionHandler(ConflictException.class)
+  public ResponseEntity<ErrorDto> handleConflictException(ConflictException exception) {
+    log.warn("handleConflictException() - {}", exception.getMessage());
+    return new ResponseEntity<>(new ErrorDto(exception.getMessage(), HttpStatus.CONFLICT.value(), LocalDateTime.now()), HttpStatus.CONFLICT);
+  }
+
+  @ExceptionHandler(InsufficientStorageException.class)
+  public ResponseEntity<ErrorDto> handleInsufficientStorageException(InsufficientStorageException exception) {
+    log.warn("handleInsufficientStorageException() - {}", exception.getMessage());
+    return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE)
+        .header(HttpHeaders.RETRY_AFTER, "60")
+        .body(new ErrorDto(exception.getMessage(), HttpStatus.INSUFFICIENT_STORAGE.value(), LocalDateTime.now()));
+  }
+
+  @ExceptionHandler(OnyxUnavailableException.class)
+  public ResponseEntity<ErrorDto> handleOnyxUnavailableException(OnyxUnavailableException exception) {
+    log.warn("handleOnyxUnavailableException() - {}", exception.getMessage());
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(exception.getRetryAfterSeconds()))
+        .body(new ErrorDto(exception.getMessage(), HttpStatus.SERVICE_UNAVAILABLE.value(), LocalDateTime.now()));
+  }
+
+  /** Thrown when chat.stream.max-concurrent chat streams are already running (see ChatStreamExecutorConfig). */
+  @ExceptionHandler(TaskRejectedException.class)
+  public ResponseEntity<ErrorDto> handleTaskRejectedException(TaskRejectedException exception) {
+    log.warn("handleTaskRejectedException() - {}", exception.getMessage());
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, "5")
+        .body(new ErrorDto(exception.getMessage(), HttpStatus.SERVICE_UNAVAILABLE.value(), LocalDateTime.now()));
+  }
+
   @ExceptionHandler(Exception.class)
   public ResponseEntity<ErrorDto> handleException(Exception exception) {
     log.error("handleException() - exception: ", exception);
@@ -0,0 +1,68 @@
+package ru.cleardocs.backend.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.cleardocs.backend.constant.ConnectorJobStatus;
+import ru.cleardocs.backend.entity.ConnectorJob;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface ConnectorJobRepository extends JpaRepository<ConnectorJob, UUID> {
+
+  List<ConnectorJob> findByStatus(ConnectorJobStatus status);
+
+  long countByUserIdAndStatusIn(UUID userId, Collection<ConnectorJobStatus> statuses);
+
+  /**
+   * Atomically moves a PENDING job to RUNNING on this node. A job owned by another node is only taken over once
+   * that node's heartbeat is stale and the job no longer needs its spooled files. Returns 1 if the job was claimed.
+   */
+  @Transactional
+  @Modifying(clearAutomatically = true)
+  @Query("UPDATE ConnectorJob j SET j.status = ru.cleardocs.backend.constant.ConnectorJobStatus.RUNNING, "
+      + "j.owner = :owner, j.heartbeatAt = :now "
+      + "WHERE j.id = :id AND j.status = ru.cleardocs.backend.constant.ConnectorJobStatus.PENDING "
+      + "AND (j.owner = :owner OR (j.heartbeatAt < :staleBefore "
+      + "AND j.step <> ru.cleardocs.backend.constant.ConnectorJobStep.UPLOAD))")
+  int claim(@Param("id") UUID id, @Param("owner") String owner, @Param("now") LocalDateTime now,
+            @Param("staleBefore") LocalDateTime staleBefore);
+
+  /** Marks the node's unfinished jobs alive. */
+  @Transactional
+  @Modifying
+  @Query("UPDATE ConnectorJob j SET j.heartbeatAt = :now WHERE j.owner = :owner AND j.status IN :statuses")
+  int heartbeat(@Param("owner") String owner, @Param("statuses") Collection<ConnectorJobStatus> statuses,
+                @Param("now") LocalDateTime now);
+
+  /** Returns the node's RUNNING jobs to PENDING; used at startup, before the node runs anything. */
+  @Transactional
+  @Modifying
+  @Query("UPDATE ConnectorJob j SET j.status = ru.cleardocs.backend.constant.ConnectorJobStatus.PENDING "
+      + "WHERE j.owner = :owner AND j.status = ru.cleardocs.backend.constant.ConnectorJobStatus.RUNNING")
+  int requeueRunning(@Param("owner") String owner);
+
+  /** Returns RUNNING jobs of nodes that stopped reporting to PENDING, if they no longer need their spooled files. */
+  @Transactional
+  @Modifying
+  @Query("UPDATE ConnectorJob j SET j.status = ru.cleardocs.backend.constant.ConnectorJobStatus.PENDING "
+      + "WHERE j.status = ru.cleardocs.backend.constant.ConnectorJobStatus.RUNNING AND j.heartbeatAt < :staleBefore "
+      + "AND j.step <> ru.cleardocs.backend.constant.ConnectorJobStep.UPLOAD")
+  int requeueStale(@Param("staleBefore") LocalDateTime staleBefore);
+
+  /** Fails unfinished UPLOAD-step jobs of other nodes that stopped reporting: their spooled files are gone with them. */
+  @Transactional
+  @Modifying
+  @Query("UPDATE ConnectorJob j SET j.status = ru.cleardocs.backend.constant.ConnectorJobStatus.FAILED, j.error = :error "
+      + "WHERE j.status IN :statuses AND j.step = ru.cleardocs.backend.constant.ConnectorJobStep.UPLOAD "
+      + "AND j.heartbeatAt < :staleBefore AND (j.owner IS NULL OR j.owner <> :owner)")
+  int failOrphanedUploads(@Param("owner") String owner, @Param("statuses") Collection<ConnectorJobStatus> statuses,
+                          @Param("staleBefore") LocalDateTime staleBefore, @Param("error") String error);
+}
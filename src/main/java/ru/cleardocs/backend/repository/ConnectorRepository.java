@@ -0,0 +1,25 @@
+package ru.cleardocs.backend.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import ru.cleardocs.backend.entity.Connector;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface ConnectorRepository extends JpaRepository<Connector, Integer> {
+
+  List<Connector> findByUserId(UUID userId);
+
+  List<Connector> findByUserIdIn(Collection<UUID> userIds);
+
+  List<Connector> findByUserIdAndCcPairIdIn(UUID userId, Collection<Integer> ccPairIds);
+
+  long countByUserId(UUID userId);
+
+  long countByUserIdAndStatusNot(UUID userId, String status);
+
+  boolean existsByCcPairIdAndUserId(Integer ccPairId, UUID userId);
+}
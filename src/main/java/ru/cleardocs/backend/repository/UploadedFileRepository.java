@@ -0,0 +1,17 @@
+package ru.cleardocs.backend.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import ru.cleardocs.backend.entity.UploadedFile;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface UploadedFileRepository extends JpaRepository<UploadedFile, UUID> {
+
+  List<UploadedFile> findByUserIdAndContentHashIn(UUID userId, Collection<String> contentHashes);
+
+  void deleteByFilePathIn(Collection<String> filePaths);
+}
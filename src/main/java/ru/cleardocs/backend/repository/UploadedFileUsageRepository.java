@@ -0,0 +1,19 @@
+package ru.cleardocs.backend.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import ru.cleardocs.backend.entity.UploadedFileUsage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface UploadedFileUsageRepository extends JpaRepository<UploadedFileUsage, UUID> {
+
+  List<UploadedFileUsage> findByCcPairId(Integer ccPairId);
+
+  List<UploadedFileUsage> findByFilePathIn(Collection<String> filePaths);
+
+  void deleteByCcPairId(Integer ccPairId);
+}
@@ -17,6 +17,8 @@ public interface UserRepository extends JpaRepository<User, UUID> {
 
   Optional<User> findByFirebaseUid(String firebaseUid);
 
+  List<User> findByDocSetIdIsNotNull();
+
   /**
    * Пользователи с данным планом, у которых последний успешный платёж по этому плану был раньше cutoff.
    * Тариф активен, если был платёж за последние periodDays дней; иначе считаем период истёкшим.
@@ -2,20 +2,28 @@ package ru.cleardocs.backend.service;
 
 import jakarta.validation.constraints.NotNull;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.cleardocs.backend.client.onyx.OnyxAsyncChatClient;
+import ru.cleardocs.backend.client.onyx.OnyxChatRequestRewriter;
 import ru.cleardocs.backend.client.onyx.OnyxClient;
 import ru.cleardocs.backend.dto.ChatResponseDto;
-import ru.cleardocs.backend.dto.EntityConnectorDto;
 import ru.cleardocs.backend.entity.User;
 import ru.cleardocs.backend.exception.BadRequestException;
 import ru.cleardocs.backend.repository.UserRepository;
 import ru.cleardocs.backend.util.PersonaNameUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
@@ -24,11 +32,18 @@ public class ChatService {
   private static final String API_KEY_TYPE_BASIC = "basic";
 
   private final OnyxClient onyxClient;
+  private final OnyxAsyncChatClient onyxAsyncChatClient;
   private final UserRepository userRepository;
+  private final ConnectorMirrorService connectorMirrorService;
+  private final ChatStreamBufferService chatStreamBufferService;
 
-  public ChatService(OnyxClient onyxClient, UserRepository userRepository) {
+  public ChatService(OnyxClient onyxClient, OnyxAsyncChatClient onyxAsyncChatClient, UserRepository userRepository,
+      ConnectorMirrorService connectorMirrorService, ChatStreamBufferService chatStreamBufferService) {
     this.onyxClient = onyxClient;
+    this.onyxAsyncChatClient = onyxAsyncChatClient;
+    this.chatStreamBufferService = chatStreamBufferService;
     this.userRepository = userRepository;
+    this.connectorMirrorService = connectorMirrorService;
   }
 
   @Transactional
@@ -39,8 +54,7 @@ public class ChatService {
     if (user.getDocSetId() == null) {
       throw new BadRequestException("No connectors. Add connectors before using chat.");
     }
-    List<EntityConnectorDto> connectors = onyxClient.getConnectorsByDocSetId(user.getDocSetId());
-    if (connectors.isEmpty()) {
+    if (connectorMirrorService.countConnectors(user) == 0) {
       throw new BadRequestException("No connectors. Add connectors before using chat.");
     }
 
@@ -75,20 +89,57 @@ public class ChatService {
   }
 
   /**
-   * Proxies send-chat-message to Onyx API. Streams response directly to outputStream.
+   * Proxies send-chat-message to Onyx API. The request body is passed through as JSON tokens (never bound to a Map);
+   * streams response to outputStream, through the resume buffer when chat.stream.resume.enabled.
+   * onRequestSent gets what was read of the request (e.g. the chat session id) once it has been sent to Onyx.
    */
-  public void streamSendChatMessage(String authorizationHeader, @NotNull Map<String, Object> request, OutputStream outputStream) throws IOException {
-    Object sessionId = request != null ? request.get("chat_session_id") : null;
+  public void streamSendChatMessage(String authorizationHeader, InputStream requestBody, OutputStream outputStream,
+      Consumer<OnyxChatRequestRewriter.ChatRequestSummary> onRequestSent) throws IOException {
     long start = System.currentTimeMillis();
-    log.debug("streamSendChatMessage sessionId={} start", sessionId);
+    log.debug("streamSendChatMessage start");
     try {
-      onyxClient.streamSendChatMessage(authorizationHeader, request, outputStream);
+      if (chatStreamBufferService.isEnabled()) {
+        chatStreamBufferService.relay(authorizationHeader, requestBody, outputStream, onRequestSent);
+      } else {
+        onyxClient.streamSendChatMessage(authorizationHeader, requestBody, outputStream, onRequestSent);
+      }
       long elapsed = System.currentTimeMillis() - start;
-      log.debug("streamSendChatMessage sessionId={} done elapsed_ms={}", sessionId, elapsed);
+      log.debug("streamSendChatMessage done elapsed_ms={}", elapsed);
     } catch (IOException e) {
       long elapsed = System.currentTimeMillis() - start;
-      log.error("streamSendChatMessage sessionId={} failed elapsed_ms={} error={}", sessionId, elapsed, e.getMessage());
+      log.error("streamSendChatMessage failed elapsed_ms={} error={}", elapsed, e.getMessage());
       throw e;
     }
   }
+
+  /**
+   * Reconnect to a send-chat-message stream of this chat session: replays the events after lastEventId, then
+   * continues live. Throws NotFoundException if the stream is gone or was started with another Authorization header.
+   */
+  public StreamingResponseBody resumeChatStream(String authorizationHeader, String chatSessionId, long lastEventId) {
+    return chatStreamBufferService.resume(authorizationHeader, chatSessionId, lastEventId);
+  }
+
+  /**
+   * Proxies send-chat-message to Onyx API without holding a thread: chunks are sent to the emitter as the
+   * non-blocking client receives them. A client disconnect or timeout aborts the Onyx request.
+   */
+  public ResponseBodyEmitter relaySendChatMessage(String authorizationHeader, InputStream requestBody) throws IOException {
+    ResponseBodyEmitter emitter = new ResponseBodyEmitter();
+    CompletableFuture<Void> relay = onyxAsyncChatClient.streamSendChatMessage(authorizationHeader, requestBody,
+        chunk -> emitter.send(chunk, MediaType.TEXT_EVENT_STREAM));
+    emitter.onTimeout(() -> relay.cancel(true));
+    emitter.onError(e -> relay.cancel(true));
+    emitter.onCompletion(() -> relay.cancel(true));
+    relay.whenComplete((v, e) -> {
+      Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+      if (cause == null) {
+        emitter.complete();
+      } else if (!(cause instanceof CancellationException)) {
+        log.error("relaySendChatMessage failed error={}", cause.getMessage());
+        emitter.completeWithError(cause);
+      }
+    });
+    return emitter;
+  }
 }
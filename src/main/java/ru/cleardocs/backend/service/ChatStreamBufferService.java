@@ -0,0 +1,492 @@
+package ru.cleardocs.backend.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.cleardocs.backend.client.onyx.OnyxChatRequestRewriter;
+import ru.cleardocs.backend.client.onyx.OnyxClient;
+import ru.cleardocs.backend.exception.NotFoundException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Resumable chat streams (chat.stream.resume.enabled). The Onyx answer is read by its own virtual thread into
+ * a per-stream buffer of SSE events, and the client is fed from that buffer with an "id:" line added at the start of
+ * each event. Part of an event flushed by the relay (chat.stream.flush-max-latency-ms) is buffered and passed on at
+ * once, so resumption does not hold back a slow event until its blank line.
+ * If the client goes away, the Onyx stream keeps running; a reconnect to GET /api/v1/chat/stream/{chatSessionId}
+ * with the same Authorization header and a Last-Event-ID header gets the events after that id, then the rest live.
+ * Limits:
+ * <ul>
+ *   <li>a stream with no client attached is cancelled and dropped after chat.stream.resume.grace-seconds
+ *       (for a finished stream: that long after its client left or it finished, whichever is later);</li>
+ *   <li>each buffer keeps at most chat.stream.resume.stream-max-bytes, dropping its oldest events;</li>
+ *   <li>all buffers together keep at most chat.stream.resume.total-max-bytes, dropping whole streams, detached and
+ *       least recently active first.</li>
+ *   <li>at most chat.stream.resume.max-producers Onyx streams are read at once, with or without a client; since they
+ *       outlive their clients, a new stream over the cap is rejected (503) rather than started. Each producer holds an
+ *       onyx-streaming pool connection until Onyx finishes, also during the grace period with no client attached, so
+ *       the cap must not exceed http.pool.onyx-streaming.max-total (a producer over it would wait for a connection).</li>
+ * </ul>
+ * A stream is resumed only with the Authorization header it was started with; a request without one never resumes.
+ * Buffers live in memory on this instance, so a reconnect must reach the same instance.
+ * Metrics: chat.stream.buffers, chat.stream.buffer.bytes, chat.stream.producers, chat.stream.resumed.
+ */
+@Slf4j
+@Service
+public class ChatStreamBufferService {
+
+  private final OnyxClient onyxClient;
+  private final boolean enabled;
+  private final long graceMs;
+  private final long streamMaxBytes;
+  private final long totalMaxBytes;
+  private final int maxProducers;
+  private final Semaphore producers;
+  private final Set<ChatStream> streams = ConcurrentHashMap.newKeySet();
+  private final Map<String, ChatStream> streamsBySession = new ConcurrentHashMap<>();
+  private final AtomicLong totalBytes = new AtomicLong();
+  private final Counter resumed;
+
+  public ChatStreamBufferService(
+      OnyxClient onyxClient,
+      @Value("${chat.stream.resume.enabled:true}") boolean enabled,
+      @Value("${chat.stream.resume.grace-seconds:60}") long graceSeconds,
+      @Value("${chat.stream.resume.stream-max-bytes:1048576}") long streamMaxBytes,
+      @Value("${chat.stream.resume.total-max-bytes:67108864}") long totalMaxBytes,
+      @Value("${chat.stream.resume.max-producers:200}") int maxProducers,
+      MeterRegistry meterRegistry
+  ) {
+    this.onyxClient = onyxClient;
+    this.enabled = enabled;
+    this.graceMs = Duration.ofSeconds(graceSeconds).toMillis();
+    this.streamMaxBytes = streamMaxBytes;
+    this.totalMaxBytes = totalMaxBytes;
+    this.maxProducers = Math.max(maxProducers, 1);
+    this.producers = new Semaphore(this.maxProducers);
+    Gauge.builder("chat.stream.buffers", streams, Set::size)
+        .description("Chat streams held for resumption (attached or not)")
+        .register(meterRegistry);
+    Gauge.builder("chat.stream.buffer.bytes", totalBytes, AtomicLong::get)
+        .description("Bytes of SSE events buffered for chat stream resumption")
+        .register(meterRegistry);
+    Gauge.builder("chat.stream.producers", producers, p -> this.maxProducers - p.availablePermits())
+        .description("Onyx chat streams being read into a resume buffer")
+        .register(meterRegistry);
+    this.resumed = Counter.builder("chat.stream.resumed")
+        .description("Chat streams resumed with Last-Event-ID after a client disconnect")
+        .register(meterRegistry);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Sends the chat message to Onyx on a separate thread and relays the buffered events to out until the answer
+   * is complete. Returns or throws when out fails (client gone); the Onyx stream keeps running for a reconnect.
+   * Throws TaskRejectedException if chat.stream.resume.max-producers streams are already being read.
+   */
+  public void relay(String authorizationHeader, InputStream requestBody, OutputStream out) throws IOException {
+    relay(authorizationHeader, requestBody, out, summary -> { });
+  }
+
+  /** Same as above; onRequestSent gets what was read of the request once it has been sent to Onyx. */
+  public void relay(String authorizationHeader, InputStream requestBody, OutputStream out,
+      Consumer<OnyxChatRequestRewriter.ChatRequestSummary> onRequestSent) throws IOException {
+    if (!producers.tryAcquire()) {
+      throw new TaskRejectedException("Too many chat streams in progress (max " + maxProducers + ")");
+    }
+    ChatStream stream = new ChatStream(hash(authorizationHeader));
+    streams.add(stream);
+    try {
+      stream.producer = Thread.ofVirtual().name("chat-stream-upstream").start(() -> {
+        try (OutputStream sink = stream.sink()) {
+          onyxClient.streamSendChatMessage(authorizationHeader, requestBody, sink, summary -> {
+            register(summary.chatSessionId(), stream);
+            onRequestSent.accept(summary);
+          });
+        } catch (Exception e) {
+          stream.finish(e);
+          return;
+        } finally {
+          producers.release();
+        }
+        stream.finish(null);
+      });
+    } catch (RuntimeException | Error e) {
+      producers.release();
+      streams.remove(stream);
+      throw e;
+    }
+    stream.copyTo(out, 0);
+  }
+
+  /**
+   * Validates a reconnect and returns the body that replays the events after lastEventId and continues live.
+   * Throws NotFoundException if there is no buffered stream for the session and caller (including any caller without
+   * an Authorization header: the endpoint is public), or if events after lastEventId have already been dropped.
+   */
+  public StreamingResponseBody resume(String authorizationHeader, String chatSessionId, long lastEventId) {
+    boolean authorized = authorizationHeader != null && !authorizationHeader.isBlank();
+    ChatStream stream = authorized && chatSessionId != null ? streamsBySession.get(chatSessionId) : null;
+    if (stream == null || !MessageDigest.isEqual(stream.authHash, hash(authorizationHeader))) {
+      throw new NotFoundException("No resumable chat stream for session " + chatSessionId);
+    }
+    if (!stream.canReplayAfter(lastEventId)) {
+      throw new NotFoundException("Chat stream events after id " + lastEventId + " are no longer buffered");
+    }
+    resumed.increment();
+    log.info("resume() - chat stream sessionId={} lastEventId={}", chatSessionId, lastEventId);
+    return out -> stream.copyTo(out, lastEventId);
+  }
+
+  /** Drops streams whose grace period is over and, while over the total size cap, the least recently active ones. */
+  @Scheduled(fixedDelayString = "${chat.stream.resume.sweep-seconds:5}", timeUnit = TimeUnit.SECONDS)
+  public void evictExpired() {
+    long now = System.currentTimeMillis();
+    for (ChatStream stream : streams) {
+      if (stream.idleSince(now) >= graceMs) {
+        evict(stream, "no client for " + graceMs + " ms");
+      }
+    }
+    if (totalBytes.get() > totalMaxBytes) {
+      // Detached streams first, longest idle first; idleness is read once so the order is stable
+      List<Map.Entry<ChatStream, Long>> candidates = new ArrayList<>();
+      for (ChatStream stream : streams) {
+        candidates.add(Map.entry(stream, stream.idleSince(now)));
+      }
+      candidates.sort(Map.Entry.<ChatStream, Long>comparingByValue(Comparator.reverseOrder()));
+      for (Map.Entry<ChatStream, Long> candidate : candidates) {
+        if (totalBytes.get() <= totalMaxBytes) {
+          break;
+        }
+        evict(candidate.getKey(), "total buffer size over " + totalMaxBytes + " bytes");
+      }
+    }
+  }
+
+  private void register(String chatSessionId, ChatStream stream) {
+    if (chatSessionId != null && !chatSessionId.isBlank()) {
+      stream.chatSessionId = chatSessionId;
+      streamsBySession.put(chatSessionId, stream);
+    }
+  }
+
+  private void evict(ChatStream stream, String reason) {
+    if (!streams.remove(stream)) {
+      return;
+    }
+    if (stream.chatSessionId != null) {
+      streamsBySession.remove(stream.chatSessionId, stream);
+    }
+    stream.evict();
+    log.info("evictExpired() - dropped chat stream sessionId={}: {}", stream.chatSessionId, reason);
+  }
+
+  private static byte[] hash(String authorizationHeader) {
+    try {
+      return MessageDigest.getInstance("SHA-256")
+          .digest((authorizationHeader != null ? authorizationHeader : "").getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** A whole event or the part of one flushed so far; only the first fragment of an event gets its "id:" line. */
+  private record Fragment(long seq, long eventId, boolean startsEvent, byte[] data) {}
+
+  /** Buffered events of one chat answer. The producer appends through sink(); any number of clients read with copyTo. */
+  private final class ChatStream {
+
+    private final byte[] authHash;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ArrayDeque<Fragment> fragments = new ArrayDeque<>();
+    private volatile String chatSessionId;
+    private volatile Thread producer;
+
+    // Guarded by lock
+    private long lastId;
+    private long lastSeq;
+    private long bytes;
+    private boolean finished;
+    private boolean evicted;
+    private Exception failure;
+    private int clients;
+    private long detachedAtMs;
+
+    private ChatStream(byte[] authHash) {
+      this.authHash = authHash;
+      this.detachedAtMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Splits what Onyx sends into events (ending with a blank line) and appends each complete one; on flush, the part
+     * of the current event received so far is appended as a fragment of it.
+     */
+    private OutputStream sink() {
+      return new OutputStream() {
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private boolean inEvent;
+        private int newlines;
+
+        @Override
+        public void write(int b) throws IOException {
+          write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          int start = off;
+          for (int i = off; i < off + len; i++) {
+            if (b[i] == '\n') {
+              if (++newlines == 2) {
+                pending.write(b, start, i + 1 - start);
+                append(pending.toByteArray(), !inEvent);
+                pending.reset();
+                inEvent = false;
+                start = i + 1;
+              }
+            } else if (b[i] != '\r') {
+              newlines = 0;
+            }
+          }
+          pending.write(b, start, off + len - start);
+        }
+
+        @Override
+        public void flush() throws IOException {
+          if (pending.size() > 0) {
+            append(pending.toByteArray(), !inEvent);
+            pending.reset();
+            inEvent = true;
+          }
+        }
+
+        @Override
+        public void close() throws IOException {
+          if (pending.size() > 0) {
+            append(pending.toByteArray(), !inEvent);
+            pending.reset();
+          }
+        }
+      };
+    }
+
+    private void append(byte[] data, boolean startsEvent) throws IOException {
+      lock.lock();
+      try {
+        if (evicted) {
+          throw new IOException("Chat stream was dropped from the resume buffer");
+        }
+        if (startsEvent) {
+          lastId++;
+        }
+        fragments.addLast(new Fragment(++lastSeq, lastId, startsEvent, data));
+        bytes += data.length;
+        totalBytes.addAndGet(data.length);
+        while (bytes > streamMaxBytes && fragments.size() > 1) {
+          Fragment dropped = fragments.removeFirst();
+          bytes -= dropped.data().length;
+          totalBytes.addAndGet(-dropped.data().length);
+        }
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void finish(Exception e) {
+      lock.lock();
+      try {
+        finished = true;
+        failure = e;
+        if (clients == 0) {
+          detachedAtMs = System.currentTimeMillis();
+        }
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+      if (e != null) {
+        log.warn("relay() - Onyx chat stream sessionId={} failed: {}", chatSessionId, e.getMessage());
+      }
+    }
+
+    private void evict() {
+      lock.lock();
+      try {
+        evicted = true;
+        totalBytes.addAndGet(-bytes);
+        bytes = 0;
+        fragments.clear();
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+      Thread p = producer;
+      if (p != null && !isFinished()) {
+        // Closes the Onyx socket the virtual thread is blocked on
+        p.interrupt();
+      }
+    }
+
+    private boolean isFinished() {
+      lock.lock();
+      try {
+        return finished;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private boolean canReplayAfter(long lastEventId) {
+      lock.lock();
+      try {
+        return !evicted && lastEventId <= lastId && lastEventId + 1 >= firstId();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** Milliseconds since the last client detached (or the answer finished, if later); negative while attached. */
+    private long idleSince(long now) {
+      lock.lock();
+      try {
+        return clients > 0 ? -1 : now - detachedAtMs;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Writes the events after afterId to out, then the new ones (and flushed parts of them) as they arrive, until
+     * the answer is complete.
+     */
+    private void copyTo(OutputStream out, long afterId) throws IOException {
+      lock.lock();
+      try {
+        clients++;
+      } finally {
+        lock.unlock();
+      }
+      // Seq of the last fragment written; the first pass starts from the event after afterId
+      long cursor = 0;
+      boolean firstPass = true;
+      try {
+        while (true) {
+          List<Fragment> batch = new ArrayList<>();
+          boolean complete;
+          lock.lock();
+          try {
+            while (!evicted && !finished && lastSeq <= cursor) {
+              changed.await();
+            }
+            if (evicted) {
+              throw new IOException("Chat stream was dropped from the resume buffer");
+            }
+            if (firstPass ? afterId + 1 < firstId() : cursor + 1 < firstSeq()) {
+              throw new IOException("Client fell behind the chat stream buffer");
+            }
+            for (Fragment fragment : fragments) {
+              if (fragment.seq() > cursor && fragment.eventId() > afterId) {
+                batch.add(fragment);
+              }
+            }
+            if (batch.isEmpty()) {
+              cursor = lastSeq;
+            }
+            complete = finished;
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for chat stream events");
+          } finally {
+            lock.unlock();
+          }
+          firstPass = false;
+          for (Fragment fragment : batch) {
+            if (fragment.startsEvent()) {
+              out.write(("id: " + fragment.eventId() + "\n").getBytes(StandardCharsets.US_ASCII));
+            }
+            out.write(fragment.data());
+            cursor = fragment.seq();
+          }
+          if (!batch.isEmpty()) {
+            out.flush();
+          }
+          if (complete) {
+            break;
+          }
+        }
+      } finally {
+        lock.lock();
+        try {
+          if (--clients == 0) {
+            detachedAtMs = System.currentTimeMillis();
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
+      Exception e = failure();
+      if (e instanceof IOException io) {
+        throw io;
+      } else if (e instanceof RuntimeException re) {
+        throw re;
+      } else if (e != null) {
+        throw new IOException(e);
+      }
+    }
+
+    private Exception failure() {
+      lock.lock();
+      try {
+        return failure;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** Id of the oldest event buffered from its start. Called with lock held. */
+    private long firstId() {
+      Fragment first = fragments.peekFirst();
+      if (first == null) {
+        return lastId + 1;
+      }
+      return first.startsEvent() ? first.eventId() : first.eventId() + 1;
+    }
+
+    /** Called with lock held. */
+    private long firstSeq() {
+      return fragments.isEmpty() ? lastSeq + 1 : fragments.peekFirst().seq();
+    }
+  }
+}
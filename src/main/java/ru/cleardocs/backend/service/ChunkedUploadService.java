@@ -0,0 +1,433 @@
+package ru.cleardocs.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.multipart.MultipartFile;
+import ru.cleardocs.backend.dto.CreateConnectorResponseDto;
+import ru.cleardocs.backend.dto.CreateUploadSessionRequestDto;
+import ru.cleardocs.backend.dto.UploadFileDto;
+import ru.cleardocs.backend.dto.UploadFileStatusDto;
+import ru.cleardocs.backend.dto.UploadSessionDto;
+import ru.cleardocs.backend.entity.User;
+import ru.cleardocs.backend.exception.BadRequestException;
+import ru.cleardocs.backend.exception.ConflictException;
+import ru.cleardocs.backend.exception.InsufficientStorageException;
+import ru.cleardocs.backend.exception.NotFoundException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Resumable chunked uploads: a client creates a session listing its files, PUTs numbered chunks
+ * (in any order, retrying any that failed), then finalizes the session into a file connector.
+ * Each chunk is written straight from the request stream to its offset in a per-file spool file with
+ * FileChannel.transferFrom, so files are assembled on disk without being loaded into memory.
+ * Chunks sent in order are SHA-256 hashed on the way (DigestInputStream), so deduplication in UploadStoreService
+ * does not read the assembled file again; a file whose chunks came out of order or were re-sent is hashed there.
+ * Sessions live in memory (the spool directory is local to this instance anyway) and expire after
+ * upload.chunked.session-ttl-minutes without activity. The declared size of every open session is reserved
+ * against upload.chunked.max-spool-bytes, so all sessions together cannot fill the disk.
+ * A session is not finalized while chunks are being written, and takes no chunks once finalizing (409).
+ */
+@Slf4j
+@Service
+public class ChunkedUploadService {
+
+  private final ConnectorService connectorService;
+  private final Path spoolDir;
+  private final int chunkSize;
+  private final long maxTotalSize;
+  private final int maxSessionsPerUser;
+  private final Duration sessionTtl;
+  private final long maxSpoolBytes;
+  private final Map<UUID, UploadSession> sessions = new ConcurrentHashMap<>();
+  private final AtomicLong reservedBytes = new AtomicLong();
+
+  public ChunkedUploadService(
+      ConnectorService connectorService,
+      @Value("${upload.chunked.dir:${java.io.tmpdir}/cleardocs-uploads}") String spoolDir,
+      @Value("${upload.chunked.chunk-size-bytes:8388608}") int chunkSize,
+      @Value("${upload.chunked.max-total-size-bytes:209715200}") long maxTotalSize,
+      @Value("${upload.chunked.max-sessions-per-user:3}") int maxSessionsPerUser,
+      @Value("${upload.chunked.session-ttl-minutes:60}") long sessionTtlMinutes,
+      @Value("${upload.chunked.max-spool-bytes:2147483648}") long maxSpoolBytes
+  ) {
+    this.connectorService = connectorService;
+    this.spoolDir = Paths.get(spoolDir);
+    this.chunkSize = chunkSize;
+    this.maxTotalSize = maxTotalSize;
+    this.maxSessionsPerUser = maxSessionsPerUser;
+    this.sessionTtl = Duration.ofMinutes(sessionTtlMinutes);
+    this.maxSpoolBytes = maxSpoolBytes;
+  }
+
+  /** Sessions do not survive a restart, so session directories left by a previous run are removed. */
+  @PostConstruct
+  void cleanSpoolDir() throws IOException {
+    Files.createDirectories(spoolDir);
+    try (Stream<Path> children = Files.list(spoolDir)) {
+      for (Path child : children.filter(ChunkedUploadService::isSessionDir).toList()) {
+        FileSystemUtils.deleteRecursively(child);
+      }
+    }
+  }
+
+  private static boolean isSessionDir(Path path) {
+    try {
+      UUID.fromString(path.getFileName().toString());
+      return Files.isDirectory(path);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  public UploadSessionDto createSession(User user, CreateUploadSessionRequestDto request) throws IOException {
+    log.info("createSession() - starts with user id = {}, name = {}", user.getId(), request != null ? request.name() : null);
+    if (request == null || request.name() == null || request.name().isBlank()) {
+      throw new BadRequestException("Connector name is required.");
+    }
+    if (request.files() == null || request.files().isEmpty()) {
+      throw new BadRequestException("At least one file is required.");
+    }
+    long totalSize = 0;
+    for (UploadFileDto file : request.files()) {
+      if (file == null || file.fileName() == null || file.fileName().isBlank() || file.size() == null || file.size() <= 0) {
+        throw new BadRequestException("Each file needs a fileName and a positive size.");
+      }
+      totalSize += file.size();
+    }
+    if (totalSize > maxTotalSize) {
+      throw new BadRequestException("Total upload size exceeds maximum allowed (" + maxTotalSize + " bytes).");
+    }
+    long activeSessions = sessions.values().stream().filter(s -> Objects.equals(s.userId, user.getId())).count();
+    if (activeSessions >= maxSessionsPerUser) {
+      throw new BadRequestException("Too many unfinished uploads. Finish or cancel one before starting another.");
+    }
+
+    if (reservedBytes.addAndGet(totalSize) > maxSpoolBytes) {
+      reservedBytes.addAndGet(-totalSize);
+      log.warn("createSession() - spool full, reserved = {}, requested = {}, max = {}", reservedBytes.get(), totalSize, maxSpoolBytes);
+      throw new InsufficientStorageException("Upload storage is full. Please try again later.");
+    }
+
+    UUID uploadId = UUID.randomUUID();
+    Path dir = spoolDir.resolve(uploadId.toString());
+    List<SpoolFile> files = new ArrayList<>();
+    try {
+      Files.createDirectories(dir);
+      for (int i = 0; i < request.files().size(); i++) {
+        UploadFileDto file = request.files().get(i);
+        Path path = Files.createFile(dir.resolve(Integer.toString(i)));
+        files.add(new SpoolFile(file.fileName(), file.size(), chunkCount(file.size()), path));
+      }
+    } catch (IOException | RuntimeException e) {
+      reservedBytes.addAndGet(-totalSize);
+      FileSystemUtils.deleteRecursively(dir);
+      throw e;
+    }
+    UploadSession session = new UploadSession(uploadId, user.getId(), request.name(), dir, files, totalSize);
+    session.touch(sessionTtl);
+    sessions.put(uploadId, session);
+
+    log.info("createSession() - ends with uploadId = {}, files = {}, totalSize = {}", uploadId, files.size(), totalSize);
+    return toDto(session);
+  }
+
+  public UploadSessionDto getSession(User user, UUID uploadId) {
+    return toDto(sessionOf(user, uploadId));
+  }
+
+  /**
+   * Writes one chunk from the request body to its place in the spool file. Re-sending a chunk overwrites it.
+   * Throws ConflictException while the session is being finalized, and NotFoundException if the session is
+   * cancelled or expires while the chunk is being written.
+   *
+   * @param contentLength Content-Length of the request, or null for chunked request bodies
+   */
+  public void putChunk(User user, UUID uploadId, int fileIndex, int chunkIndex, InputStream body, Long contentLength)
+      throws IOException {
+    UploadSession session = sessionOf(user, uploadId);
+    if (fileIndex < 0 || fileIndex >= session.files.size()) {
+      throw new BadRequestException("Unknown file index: " + fileIndex);
+    }
+    SpoolFile file = session.files.get(fileIndex);
+    if (chunkIndex < 0 || chunkIndex >= file.totalChunks) {
+      throw new BadRequestException("Chunk index out of range: " + chunkIndex + " (file has " + file.totalChunks + " chunks)");
+    }
+    long position = (long) chunkIndex * chunkSize;
+    long expected = Math.min(chunkSize, file.size - position);
+    if (contentLength != null && contentLength >= 0 && contentLength != expected) {
+      throw new BadRequestException("Chunk " + chunkIndex + " must be " + expected + " bytes, got " + contentLength);
+    }
+
+    synchronized (session) {
+      if (session.removed) {
+        throw new NotFoundException("Upload not found");
+      }
+      if (session.finalizing) {
+        throw new ConflictException("Upload is being finalized; no more chunks are accepted.");
+      }
+      session.activeWrites++;
+    }
+    MessageDigest digest = file.startHashing(chunkIndex);
+    boolean complete = false;
+    try {
+      InputStream in = digest != null ? new DigestInputStream(body, digest) : body;
+      ReadableByteChannel source = Channels.newChannel(in);
+      try (FileChannel target = FileChannel.open(file.path, StandardOpenOption.WRITE)) {
+        long written = 0;
+        while (written < expected) {
+          long n = target.transferFrom(source, position + written, expected - written);
+          if (n <= 0) {
+            break;
+          }
+          written += n;
+        }
+        if (written != expected || in.read() != -1) {
+          throw new BadRequestException("Chunk " + chunkIndex + " must be " + expected + " bytes");
+        }
+      }
+      complete = true;
+    } catch (NoSuchFileException e) {
+      // The session was cancelled or expired and its spool directory deleted
+      throw new NotFoundException("Upload not found");
+    } finally {
+      if (digest != null) {
+        file.endHashing(complete);
+      }
+      synchronized (session) {
+        session.activeWrites--;
+      }
+    }
+    synchronized (session) {
+      if (session.removed) {
+        throw new NotFoundException("Upload not found");
+      }
+      file.received.set(chunkIndex);
+      session.touch(sessionTtl);
+    }
+    log.debug("putChunk() - uploadId = {}, file = {}, chunk = {}/{}", uploadId, fileIndex, chunkIndex + 1, file.totalChunks);
+  }
+
+  /**
+   * Creates the file connector from the assembled files and removes the session. If connector creation
+   * fails, the session and its chunks are kept so finalize can be retried.
+   */
+  public CreateConnectorResponseDto finalizeSession(User user, UUID uploadId) throws IOException {
+    log.info("finalizeSession() - starts with user id = {}, uploadId = {}", user.getId(), uploadId);
+    UploadSession session = sessionOf(user, uploadId);
+    MultipartFile[] files;
+    synchronized (session) {
+      if (session.finalizing) {
+        throw new ConflictException("Upload is already being finalized.");
+      }
+      if (session.activeWrites > 0) {
+        throw new ConflictException("Chunks of this upload are still being written. Retry when they are done.");
+      }
+      for (int i = 0; i < session.files.size(); i++) {
+        SpoolFile file = session.files.get(i);
+        int missing = file.totalChunks - file.received.cardinality();
+        if (missing > 0) {
+          throw new BadRequestException("File " + i + " is missing " + missing + " chunk(s).");
+        }
+      }
+      session.finalizing = true;
+      files = session.files.stream()
+          .map(f -> new SpooledMultipartFile(f.path, f.fileName, f.size, f.contentHash()))
+          .toArray(MultipartFile[]::new);
+    }
+
+    try {
+      CreateConnectorResponseDto response = connectorService.createFileConnector(user, session.name, files);
+      remove(session);
+      log.info("finalizeSession() - ends with cc_pair_id = {}", response.id());
+      return response;
+    } finally {
+      synchronized (session) {
+        session.finalizing = false;
+        session.touch(sessionTtl);
+      }
+    }
+  }
+
+  public void cancelSession(User user, UUID uploadId) {
+    log.info("cancelSession() - user id = {}, uploadId = {}", user.getId(), uploadId);
+    UploadSession session = sessionOf(user, uploadId);
+    synchronized (session) {
+      if (session.finalizing) {
+        throw new ConflictException("Upload is being finalized and cannot be cancelled.");
+      }
+    }
+    remove(session);
+  }
+
+  @Scheduled(fixedDelayString = "${upload.chunked.cleanup-interval-minutes:5}", timeUnit = TimeUnit.MINUTES)
+  public void removeExpiredSessions() {
+    LocalDateTime now = LocalDateTime.now();
+    for (UploadSession session : sessions.values()) {
+      boolean expired;
+      synchronized (session) {
+        expired = !session.finalizing && session.activeWrites == 0 && session.expiresAt.isBefore(now);
+      }
+      if (expired) {
+        log.info("removeExpiredSessions() - removing expired upload {}", session.id);
+        remove(session);
+      }
+    }
+  }
+
+  private UploadSession sessionOf(User user, UUID uploadId) {
+    UploadSession session = sessions.get(uploadId);
+    if (session == null || !Objects.equals(session.userId, user.getId())) {
+      throw new NotFoundException("Upload not found");
+    }
+    return session;
+  }
+
+  private void remove(UploadSession session) {
+    synchronized (session) {
+      session.removed = true;
+    }
+    if (sessions.remove(session.id, session)) {
+      reservedBytes.addAndGet(-session.totalSize);
+    }
+    try {
+      FileSystemUtils.deleteRecursively(session.dir);
+    } catch (IOException e) {
+      log.warn("Failed to delete spool directory {}: {}", session.dir, e.getMessage());
+    }
+  }
+
+  private int chunkCount(long size) {
+    return (int) ((size + chunkSize - 1) / chunkSize);
+  }
+
+  private UploadSessionDto toDto(UploadSession session) {
+    synchronized (session) {
+      List<UploadFileStatusDto> files = new ArrayList<>();
+      for (int i = 0; i < session.files.size(); i++) {
+        SpoolFile file = session.files.get(i);
+        List<Integer> missing = new ArrayList<>();
+        for (int c = file.received.nextClearBit(0); c < file.totalChunks; c = file.received.nextClearBit(c + 1)) {
+          missing.add(c);
+        }
+        files.add(new UploadFileStatusDto(i, file.fileName, file.size, file.totalChunks, missing));
+      }
+      return new UploadSessionDto(session.id, session.name, chunkSize, session.expiresAt, files);
+    }
+  }
+
+  private static final class UploadSession {
+    final UUID id;
+    final UUID userId;
+    final String name;
+    final Path dir;
+    final List<SpoolFile> files;
+    final long totalSize;
+    LocalDateTime expiresAt;
+    boolean finalizing;
+    boolean removed;
+    int activeWrites;
+
+    UploadSession(UUID id, UUID userId, String name, Path dir, List<SpoolFile> files, long totalSize) {
+      this.id = id;
+      this.userId = userId;
+      this.name = name;
+      this.dir = dir;
+      this.files = files;
+      this.totalSize = totalSize;
+    }
+
+    void touch(Duration ttl) {
+      expiresAt = LocalDateTime.now().plus(ttl);
+    }
+  }
+
+  private static final class SpoolFile {
+    final String fileName;
+    final long size;
+    final int totalChunks;
+    final Path path;
+    final BitSet received;
+    /** SHA-256 of chunks 0..hashedChunks-1, or null once a chunk was re-sent or written concurrently with another. */
+    MessageDigest digest;
+    int hashedChunks;
+    boolean hashing;
+    String hash;
+
+    SpoolFile(String fileName, long size, int totalChunks, Path path) {
+      this.fileName = fileName;
+      this.size = size;
+      this.totalChunks = totalChunks;
+      this.path = path;
+      this.received = new BitSet(totalChunks);
+      try {
+        this.digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /**
+     * The digest to feed the chunk about to be written through if it extends the running hash, else null.
+     * Writing any chunk already in the hash, or the next one while it is being hashed, makes the hash unusable.
+     */
+    synchronized MessageDigest startHashing(int chunkIndex) {
+      if (digest == null || chunkIndex > hashedChunks) {
+        return null;
+      }
+      if (chunkIndex < hashedChunks || hashing) {
+        digest = null;
+        hash = null;
+        return null;
+      }
+      hashing = true;
+      return digest;
+    }
+
+    synchronized void endHashing(boolean complete) {
+      hashing = false;
+      if (complete && digest != null) {
+        hashedChunks++;
+      } else {
+        digest = null;
+      }
+    }
+
+    /** Hex SHA-256 of the whole file if every chunk was hashed in order, else null. */
+    synchronized String contentHash() {
+      if (hash == null && digest != null && hashedChunks == totalChunks) {
+        hash = HexFormat.of().formatHex(digest.digest());
+      }
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,258 @@
+package ru.cleardocs.backend.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.cleardocs.backend.client.onyx.OnyxCcPairRef;
+import ru.cleardocs.backend.client.onyx.OnyxClient;
+import ru.cleardocs.backend.client.onyx.OnyxFanOut;
+import ru.cleardocs.backend.dto.ConnectorBatchOperationDto;
+import ru.cleardocs.backend.dto.ConnectorBatchRequestDto;
+import ru.cleardocs.backend.dto.ConnectorBatchResponseDto;
+import ru.cleardocs.backend.dto.ConnectorBatchResultDto;
+import ru.cleardocs.backend.entity.User;
+import ru.cleardocs.backend.exception.BadRequestException;
+import ru.cleardocs.backend.exception.NotFoundException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pause, resume and delete of many connectors in one request. Ownership is checked with one local query,
+ * statuses come from one indexing status lookup and connector/credential ids from one connector status read;
+ * the Onyx calls then run on connectors.batch.concurrency workers. A failed item does not fail the batch,
+ * it is reported in its own result. Deleting a connector that is not paused pauses it first.
+ * Workers run on a pool of connectors.batch.threads shared by all batches, not on the shared Onyx fan-out pool:
+ * a batch may keep its workers busy for connectors.batch.timeout-seconds, which would starve short reads.
+ */
+@Slf4j
+@Service
+public class ConnectorBatchService {
+
+  private static final String ACTION_PAUSE = "pause";
+  private static final String ACTION_RESUME = "resume";
+  private static final String ACTION_DELETE = "delete";
+
+  private final OnyxClient onyxClient;
+  private final ConnectorMirrorService connectorMirrorService;
+  private final UploadStoreService uploadStoreService;
+  private final OnyxFanOut batchFanOut;
+  private final int maxOperations;
+  private final int concurrency;
+  private final Duration timeout;
+
+  public ConnectorBatchService(
+      OnyxClient onyxClient,
+      ConnectorMirrorService connectorMirrorService,
+      UploadStoreService uploadStoreService,
+      @Value("${connectors.batch.max-operations:200}") int maxOperations,
+      @Value("${connectors.batch.concurrency:8}") int concurrency,
+      @Value("${connectors.batch.timeout-seconds:120}") long timeoutSeconds,
+      @Value("${connectors.batch.threads:16}") int threads
+  ) {
+    this.onyxClient = onyxClient;
+    this.connectorMirrorService = connectorMirrorService;
+    this.uploadStoreService = uploadStoreService;
+    this.maxOperations = maxOperations;
+    this.concurrency = Math.max(concurrency, 1);
+    this.timeout = Duration.ofSeconds(timeoutSeconds);
+    this.batchFanOut = new OnyxFanOut("connector-batch", Math.max(threads, 1), Math.max(threads, 1) * 4,
+        timeout.toMillis());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    batchFanOut.shutdown();
+  }
+
+  public ConnectorBatchResponseDto execute(User user, ConnectorBatchRequestDto request) {
+    if (request == null || request.operations() == null || request.operations().isEmpty()) {
+      throw new BadRequestException("operations are required");
+    }
+    List<ConnectorBatchOperationDto> operations = request.operations();
+    if (operations.size() > maxOperations) {
+      throw new BadRequestException("At most " + maxOperations + " operations per batch");
+    }
+    log.info("execute() - starts with user id = {}, docSetId = {}, operations = {}",
+        user.getId(), user.getDocSetId(), operations.size());
+    if (user.getDocSetId() == null) {
+      throw new NotFoundException("User has no document set");
+    }
+
+    ConnectorBatchResultDto[] results = new ConnectorBatchResultDto[operations.size()];
+    Set<Integer> connectorIds = new LinkedHashSet<>();
+    for (int i = 0; i < operations.size(); i++) {
+      ConnectorBatchOperationDto op = operations.get(i);
+      String action = op != null && op.action() != null ? op.action().toLowerCase(Locale.ROOT) : null;
+      if (op == null || op.connectorId() == null) {
+        results[i] = failure(op, "connectorId is required");
+      } else if (!ACTION_PAUSE.equals(action) && !ACTION_RESUME.equals(action) && !ACTION_DELETE.equals(action)) {
+        results[i] = failure(op, "action must be 'pause', 'resume' or 'delete', got: " + op.action());
+      } else if (!connectorIds.add(op.connectorId())) {
+        results[i] = failure(op, "Connector appears more than once in the batch");
+      }
+    }
+
+    Set<Integer> owned = connectorIds.isEmpty() ? Set.of() : connectorMirrorService.ownedCcPairIds(user, connectorIds);
+    Set<Integer> toDelete = new HashSet<>();
+    for (int i = 0; i < operations.size(); i++) {
+      if (results[i] == null && !owned.contains(operations.get(i).connectorId())) {
+        results[i] = failure(operations.get(i), "Connector not found");
+      } else if (results[i] == null && ACTION_DELETE.equalsIgnoreCase(operations.get(i).action())) {
+        toDelete.add(operations.get(i).connectorId());
+      }
+    }
+    Set<Integer> pendingIds = new HashSet<>(owned);
+    pendingIds.retainAll(connectorIds);
+    Map<Integer, String> statuses = pendingIds.isEmpty() ? Map.of() : onyxClient.getCcPairStatuses(pendingIds);
+    Map<Integer, OnyxCcPairRef> refs = toDelete.isEmpty() ? Map.of() : onyxClient.resolveCcPairRefs(toDelete);
+
+    List<Integer> pending = new ArrayList<>();
+    for (int i = 0; i < operations.size(); i++) {
+      if (results[i] == null) {
+        pending.add(i);
+      }
+    }
+    results = run(operations, pending, statuses, refs, results);
+
+    for (int i : pending) {
+      if (Boolean.TRUE.equals(results[i].success())) {
+        Integer connectorId = results[i].connectorId();
+        connectorMirrorService.recordStatus(connectorId, results[i].status());
+        if (ACTION_DELETE.equals(results[i].action())) {
+          uploadStoreService.forgetConnector(connectorId);
+        }
+      }
+    }
+    long failed = Arrays.stream(results).filter(r -> Boolean.FALSE.equals(r.success())).count();
+    long unknown = Arrays.stream(results).filter(r -> r.success() == null).count();
+    log.info("execute() - ends, {} operation(s) succeeded, {} failed, {} unknown",
+        results.length - failed - unknown, failed, unknown);
+    return new ConnectorBatchResponseDto(List.of(results));
+  }
+
+  /**
+   * Runs the pending items and returns a copy of results with theirs filled in. Workers write under a lock that
+   * is also held while taking the copy, and stop writing once it is taken; the copy is taken before the scope
+   * cancels the workers, so neither a late result nor the failure caused by the cancellation changes the response.
+   */
+  private ConnectorBatchResultDto[] run(List<ConnectorBatchOperationDto> operations, List<Integer> pending,
+                                        Map<Integer, String> statuses, Map<Integer, OnyxCcPairRef> refs,
+                                        ConnectorBatchResultDto[] results) {
+    if (pending.isEmpty()) {
+      return results;
+    }
+    Object lock = new Object();
+    AtomicBoolean closed = new AtomicBoolean();
+    CountDownLatch done = new CountDownLatch(pending.size());
+    AtomicInteger next = new AtomicInteger();
+    try (OnyxFanOut.Scope scope = batchFanOut.open(timeout)) {
+      for (int w = 0; w < Math.min(concurrency, pending.size()); w++) {
+        scope.fork(() -> {
+          int n;
+          while ((n = next.getAndIncrement()) < pending.size() && !closed.get()) {
+            int i = pending.get(n);
+            ConnectorBatchOperationDto op = operations.get(i);
+            ConnectorBatchResultDto result = apply(op, statuses.get(op.connectorId()), refs.get(op.connectorId()));
+            synchronized (lock) {
+              if (!closed.get()) {
+                results[i] = result;
+                done.countDown();
+              }
+            }
+          }
+          return null;
+        });
+      }
+      if (!await(done)) {
+        log.warn("run() - batch did not complete within {} s", timeout.toSeconds());
+      }
+      synchronized (lock) {
+        closed.set(true);
+        ConnectorBatchResultDto[] snapshot = results.clone();
+        // Not finished by the deadline: the Onyx call may have been sent, so the outcome is unknown, not failed
+        for (int i : pending) {
+          if (snapshot[i] == null) {
+            snapshot[i] = unknown(operations.get(i), "Not confirmed within " + timeout.toSeconds()
+                + " s, the operation may still take effect");
+          }
+        }
+        return snapshot;
+      }
+    }
+  }
+
+  private boolean await(CountDownLatch done) {
+    try {
+      return done.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private ConnectorBatchResultDto apply(ConnectorBatchOperationDto op, String status, OnyxCcPairRef ref) {
+    int connectorId = op.connectorId();
+    String action = op.action().toLowerCase(Locale.ROOT);
+    if (status == null) {
+      return failure(op, "Connector not found in Onyx indexing status");
+    }
+    try {
+      switch (action) {
+        case ACTION_PAUSE -> {
+          if (!"PAUSED".equalsIgnoreCase(status)) {
+            onyxClient.pauseConnector(connectorId);
+          }
+          return success(op, "PAUSED");
+        }
+        case ACTION_RESUME -> {
+          if (!"ACTIVE".equalsIgnoreCase(status)) {
+            onyxClient.resumeConnector(connectorId);
+          }
+          return success(op, "ACTIVE");
+        }
+        default -> {
+          if ("DELETING".equalsIgnoreCase(status)) {
+            return success(op, "DELETING");
+          }
+          if (ref == null) {
+            return failure(op, "Connector not found in Onyx status");
+          }
+          if (!"PAUSED".equalsIgnoreCase(status)) {
+            onyxClient.pauseConnector(connectorId);
+          }
+          onyxClient.deleteConnector(ref);
+          return success(op, "DELETING");
+        }
+      }
+    } catch (RuntimeException e) {
+      log.warn("apply() - {} of connector {} failed: {}", action, connectorId, e.getMessage());
+      return failure(op, e.getMessage());
+    }
+  }
+
+  private static ConnectorBatchResultDto success(ConnectorBatchOperationDto op, String status) {
+    return new ConnectorBatchResultDto(op.connectorId(), op.action().toLowerCase(Locale.ROOT), true, status, null);
+  }
+
+  private static ConnectorBatchResultDto unknown(ConnectorBatchOperationDto op, String error) {
+    return new ConnectorBatchResultDto(op.connectorId(), op.action().toLowerCase(Locale.ROOT), null, "UNKNOWN", error);
+  }
+
+  private static ConnectorBatchResultDto failure(ConnectorBatchOperationDto op, String error) {
+    return new ConnectorBatchResultDto(op != null ? op.connectorId() : null, op != null ? op.action() : null,
+        false, null, error);
+  }
+}
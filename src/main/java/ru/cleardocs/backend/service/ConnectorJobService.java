@@ -0,0 +1,452 @@
+package ru.cleardocs.backend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.multipart.MultipartFile;
+import ru.cleardocs.backend.client.onyx.OnyxClient;
+import ru.cleardocs.backend.client.onyx.OnyxFileUploadResponseDto;
+import ru.cleardocs.backend.client.onyx.OnyxReadContext;
+import ru.cleardocs.backend.constant.ConnectorJobStatus;
+import ru.cleardocs.backend.constant.ConnectorJobStep;
+import ru.cleardocs.backend.dto.ConnectorJobDto;
+import ru.cleardocs.backend.dto.CreateConnectorResponseDto;
+import ru.cleardocs.backend.entity.ConnectorJob;
+import ru.cleardocs.backend.entity.User;
+import ru.cleardocs.backend.exception.BadRequestException;
+import ru.cleardocs.backend.exception.NotFoundException;
+import ru.cleardocs.backend.repository.ConnectorJobRepository;
+import ru.cleardocs.backend.repository.UserRepository;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Job-based connector creation: the request only validates, spools uploaded files to disk and stores
+ * a PENDING job, then returns 202. Steps (see ConnectorJobStep) run on a bounded worker pool without a
+ * request thread or an open transaction; each step's result is saved before the next one starts and a
+ * failed step is retried with exponential backoff up to connector-jobs.max-attempts times.
+ * Jobs that could not be queued, or were interrupted by a restart, are picked up by the periodic sweep.
+ * <p>
+ * Several instances may share the jobs table. A job is started by an atomic claim (UPDATE ... WHERE status = PENDING),
+ * so it runs on one node only. Uploaded files are spooled on the local disk of the node that accepted the request,
+ * which owns the job (connector-jobs.node-id, by default an id kept in the spool directory, so it survives restarts
+ * exactly as long as the spooled files do) and marks its jobs alive every sweep. At startup a node resumes only its
+ * own interrupted jobs. Jobs of a node that stopped reporting for connector-jobs.stale-seconds are taken over by
+ * another node once they are past the UPLOAD step; jobs still at UPLOAD fail, since their files are gone with that node.
+ */
+@Slf4j
+@Service
+public class ConnectorJobService {
+
+  private static final TypeReference<List<String>> STRING_LIST = new TypeReference<>() {};
+  private static final List<ConnectorJobStatus> ACTIVE_STATUSES = List.of(ConnectorJobStatus.PENDING, ConnectorJobStatus.RUNNING);
+  private static final String NODE_ID_FILE = "node-id";
+
+  private final ConnectorService connectorService;
+  private final ConnectorJobRepository connectorJobRepository;
+  private final UserRepository userRepository;
+  private final OnyxClient onyxClient;
+  private final UploadStoreService uploadStoreService;
+  private final ObjectMapper objectMapper;
+  private final Path spoolDir;
+  private final int maxAttempts;
+  private final long retryBackoffMs;
+  private final Duration staleAfter;
+  private final String configuredNodeId;
+  private String nodeId;
+  private final ThreadPoolExecutor executor;
+  private final Set<UUID> inFlight = ConcurrentHashMap.newKeySet();
+  private volatile boolean shuttingDown;
+
+  public ConnectorJobService(
+      ConnectorService connectorService,
+      ConnectorJobRepository connectorJobRepository,
+      UserRepository userRepository,
+      OnyxClient onyxClient,
+      UploadStoreService uploadStoreService,
+      ObjectMapper objectMapper,
+      @Value("${connector-jobs.dir:${java.io.tmpdir}/cleardocs-connector-jobs}") String spoolDir,
+      @Value("${connector-jobs.threads:4}") int threads,
+      @Value("${connector-jobs.queue-capacity:100}") int queueCapacity,
+      @Value("${connector-jobs.max-attempts:3}") int maxAttempts,
+      @Value("${connector-jobs.retry-backoff-ms:1000}") long retryBackoffMs,
+      @Value("${connector-jobs.stale-seconds:120}") long staleSeconds,
+      @Value("${connector-jobs.node-id:}") String nodeId
+  ) {
+    this.connectorService = connectorService;
+    this.connectorJobRepository = connectorJobRepository;
+    this.userRepository = userRepository;
+    this.onyxClient = onyxClient;
+    this.uploadStoreService = uploadStoreService;
+    this.objectMapper = objectMapper;
+    this.spoolDir = Paths.get(spoolDir);
+    this.maxAttempts = maxAttempts;
+    this.retryBackoffMs = retryBackoffMs;
+    this.staleAfter = Duration.ofSeconds(staleSeconds);
+    this.configuredNodeId = nodeId;
+    AtomicInteger counter = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(
+        threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(queueCapacity),
+        r -> {
+          Thread t = new Thread(r, "connector-job-" + counter.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * The configured node id, or the one stored in the spool directory (created on first start). Jobs whose spooled
+   * files are in this directory are owned by this id.
+   */
+  @PostConstruct
+  void initNodeId() throws IOException {
+    if (configuredNodeId != null && !configuredNodeId.isBlank()) {
+      nodeId = configuredNodeId;
+      return;
+    }
+    Files.createDirectories(spoolDir);
+    Path file = spoolDir.resolve(NODE_ID_FILE);
+    if (Files.exists(file)) {
+      nodeId = Files.readString(file, StandardCharsets.UTF_8).trim();
+    }
+    if (nodeId == null || nodeId.isBlank()) {
+      nodeId = UUID.randomUUID().toString();
+      Files.writeString(file, nodeId, StandardCharsets.UTF_8);
+    }
+    log.info("initNodeId() - connector jobs node id = {}", nodeId);
+  }
+
+  public ConnectorJobDto submitFileConnector(User user, String name, MultipartFile[] files) throws IOException {
+    log.info("submitFileConnector() - starts with user id = {}, name = {}", user.getId(), name);
+    connectorService.validateFileConnectorRequest(name, files);
+    connectorService.checkConnectorLimit(user, activeJobCount(user));
+
+    List<MultipartFile> nonEmpty = new ArrayList<>();
+    for (MultipartFile file : files) {
+      if (!file.isEmpty()) {
+        nonEmpty.add(file);
+      }
+    }
+    if (nonEmpty.isEmpty()) {
+      throw new BadRequestException("No valid files were uploaded.");
+    }
+
+    ConnectorJob job = connectorJobRepository.save(newJob(user, "file", name, null, ConnectorJobStep.UPLOAD));
+    try {
+      Path dir = Files.createDirectories(jobDir(job.getId()));
+      List<String> originalNames = new ArrayList<>();
+      for (int i = 0; i < nonEmpty.size(); i++) {
+        MultipartFile file = nonEmpty.get(i);
+        // StandardMultipartFile moves its temp file here instead of copying when it can
+        file.transferTo(dir.resolve(Integer.toString(i)).toFile());
+        originalNames.add(file.getOriginalFilename() != null ? file.getOriginalFilename() : "file");
+      }
+      job.setOriginalFileNames(toJson(originalNames));
+      job = connectorJobRepository.save(job);
+    } catch (IOException | RuntimeException e) {
+      fail(job, e);
+      throw e;
+    }
+    dispatch(job.getId());
+    log.info("submitFileConnector() - ends with job id = {}", job.getId());
+    return toDto(job);
+  }
+
+  public ConnectorJobDto submitUrlConnector(User user, String name, String url) {
+    log.info("submitUrlConnector() - starts with user id = {}, name = {}, url = {}", user.getId(), name, url);
+    connectorService.validateUrlConnectorRequest(name, url);
+    connectorService.checkConnectorLimit(user, activeJobCount(user));
+
+    ConnectorJob job = connectorJobRepository.save(newJob(user, "web", name, url, ConnectorJobStep.CREATE_CONNECTOR));
+    dispatch(job.getId());
+    log.info("submitUrlConnector() - ends with job id = {}", job.getId());
+    return toDto(job);
+  }
+
+  public ConnectorJobDto getJob(User user, UUID jobId) {
+    return connectorJobRepository.findById(jobId)
+        .filter(job -> Objects.equals(job.getUserId(), user.getId()))
+        .map(this::toDto)
+        .orElseThrow(() -> new NotFoundException("Job not found"));
+  }
+
+  /**
+   * This node's jobs left RUNNING by its previous run were interrupted; they resume from their current step.
+   * RUNNING jobs of other nodes are left alone: they are resumed by the sweep only once their owner goes stale.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void resumeInterruptedJobs() {
+    int resumed = connectorJobRepository.requeueRunning(nodeId);
+    if (resumed > 0) {
+      log.info("resumeInterruptedJobs() - {} interrupted job(s) of node {} resume at their current step", resumed, nodeId);
+    }
+    dispatchPendingJobs();
+  }
+
+  /**
+   * Marks this node's jobs alive, takes over or fails jobs of nodes that stopped reporting, and queues PENDING jobs
+   * that were rejected by a full queue or interrupted by a restart.
+   */
+  @Scheduled(fixedDelayString = "${connector-jobs.sweep-seconds:30}", timeUnit = TimeUnit.SECONDS)
+  public void dispatchPendingJobs() {
+    LocalDateTime now = LocalDateTime.now();
+    LocalDateTime staleBefore = now.minus(staleAfter);
+    connectorJobRepository.heartbeat(nodeId, ACTIVE_STATUSES, now);
+    int requeued = connectorJobRepository.requeueStale(staleBefore);
+    if (requeued > 0) {
+      log.warn("dispatchPendingJobs() - {} job(s) of stale nodes returned to PENDING", requeued);
+    }
+    int orphaned = connectorJobRepository.failOrphanedUploads(nodeId, ACTIVE_STATUSES, staleBefore,
+        "The node holding the uploaded files stopped before uploading them. Please submit the files again.");
+    if (orphaned > 0) {
+      log.warn("dispatchPendingJobs() - {} job(s) failed, their spooled files were on a stale node", orphaned);
+    }
+    for (ConnectorJob job : connectorJobRepository.findByStatus(ConnectorJobStatus.PENDING)) {
+      if (nodeId.equals(job.getOwner()) || job.getStep() != ConnectorJobStep.UPLOAD) {
+        dispatch(job.getId());
+      }
+    }
+  }
+
+  /**
+   * Interrupts running jobs. They are left RUNNING with their spooled files, so the next start resumes them
+   * (requeueRunning) at the step they were interrupted in.
+   */
+  @PreDestroy
+  public void shutdown() {
+    shuttingDown = true;
+    executor.shutdownNow();
+  }
+
+  private void dispatch(UUID jobId) {
+    if (!inFlight.add(jobId)) {
+      return;
+    }
+    try {
+      executor.execute(() -> run(jobId));
+    } catch (RejectedExecutionException e) {
+      inFlight.remove(jobId);
+      log.warn("dispatch() - worker queue full, job {} stays PENDING until the next sweep", jobId);
+    }
+  }
+
+  private void run(UUID jobId) {
+    ConnectorJob job = null;
+    try {
+      LocalDateTime now = LocalDateTime.now();
+      if (connectorJobRepository.claim(jobId, nodeId, now, now.minus(staleAfter)) == 0) {
+        // Not PENDING any more, or owned by a live node
+        return;
+      }
+      job = connectorJobRepository.findById(jobId).orElse(null);
+      if (job == null) {
+        return;
+      }
+      while (job.getStep() != ConnectorJobStep.DONE) {
+        job = runStepWithRetries(job);
+      }
+      job.setStatus(ConnectorJobStatus.SUCCEEDED);
+      job.setError(null);
+      connectorJobRepository.save(job);
+      deleteSpool(jobId);
+      log.info("run() - job {} succeeded with cc_pair_id = {}", jobId, job.getCcPairId());
+    } catch (Exception e) {
+      if (job != null && interruptedByShutdown(e)) {
+        log.info("run() - job {} interrupted by shutdown at step {}, resumes on the next start", jobId, job.getStep());
+      } else if (job != null) {
+        fail(job, e);
+      }
+    } finally {
+      inFlight.remove(jobId);
+    }
+  }
+
+  private ConnectorJob runStepWithRetries(ConnectorJob job) throws Exception {
+    for (int attempt = 1; ; attempt++) {
+      job.setAttempts(attempt);
+      job = connectorJobRepository.save(job);
+      try (OnyxReadContext.Scope ignored = OnyxReadContext.open()) {
+        ConnectorJob next = runStep(job);
+        next.setAttempts(0);
+        return connectorJobRepository.save(next);
+      } catch (BadRequestException | NotFoundException e) {
+        throw e;
+      } catch (Exception e) {
+        if (attempt >= maxAttempts || interruptedByShutdown(e)) {
+          throw e;
+        }
+        long backoff = retryBackoffMs << (attempt - 1);
+        log.warn("runStepWithRetries() - job {} step {} attempt {}/{} failed, retrying in {} ms: {}",
+            job.getId(), job.getStep(), attempt, maxAttempts, backoff, e.getMessage());
+        job.setError(e.getMessage());
+        Thread.sleep(backoff);
+      }
+    }
+  }
+
+  /** Runs the job's current step and returns the job advanced to the next step (not yet saved). */
+  private ConnectorJob runStep(ConnectorJob job) throws IOException {
+    switch (job.getStep()) {
+      case UPLOAD -> {
+        OnyxFileUploadResponseDto uploadResponse = uploadStoreService.upload(job.getUserId(), spooledFiles(job));
+        connectorService.requireUploadedFiles(uploadResponse);
+        job.setFilePaths(toJson(uploadResponse.filePaths()));
+        job.setFileNames(toJson(uploadResponse.fileNames()));
+        job.setStep(ConnectorJobStep.CREATE_CONNECTOR);
+      }
+      case CREATE_CONNECTOR -> {
+        // The name is saved before the create call, so a retry (or a resume after a crash) can tell whether the
+        // failed attempt created the connector after all, instead of creating a second one
+        Optional<Integer> created = Optional.empty();
+        if (job.getUniqueName() == null) {
+          User user = userOf(job);
+          job.setUniqueName(connectorService.uniqueConnectorName(user, job.getName(), onyxClient.getAllConnectorNames()));
+          job = connectorJobRepository.save(job);
+        } else {
+          created = onyxClient.findCcPairIdByName(job.getUniqueName());
+        }
+        int ccPairId;
+        if (created.isPresent()) {
+          ccPairId = created.get();
+          log.info("runStep() - job {} found connector '{}' from a previous attempt, cc_pair_id = {}",
+              job.getId(), job.getUniqueName(), ccPairId);
+          if ("file".equals(job.getSource())) {
+            uploadStoreService.recordUsage(ccPairId, fromJson(job.getFilePaths()));
+          }
+        } else {
+          ccPairId = "file".equals(job.getSource())
+              ? connectorService.createFileConnectorInOnyx(job.getUniqueName(), fromJson(job.getFilePaths()), fromJson(job.getFileNames()))
+              : connectorService.createUrlConnectorInOnyx(job.getUniqueName(), job.getUrl());
+        }
+        job.setCcPairId(ccPairId);
+        job.setStep(ConnectorJobStep.LINK_DOCUMENT_SET);
+      }
+      case LINK_DOCUMENT_SET -> {
+        connectorService.linkConnector(userOf(job), job.getCcPairId(), job.getUniqueName(), job.getSource());
+        job.setStep(ConnectorJobStep.DONE);
+      }
+      case DONE -> {
+      }
+    }
+    return job;
+  }
+
+  private MultipartFile[] spooledFiles(ConnectorJob job) throws IOException {
+    List<String> originalNames = fromJson(job.getOriginalFileNames());
+    MultipartFile[] files = new MultipartFile[originalNames.size()];
+    for (int i = 0; i < files.length; i++) {
+      Path path = jobDir(job.getId()).resolve(Integer.toString(i));
+      files[i] = new SpooledMultipartFile(path, originalNames.get(i), Files.size(path));
+    }
+    return files;
+  }
+
+  private User userOf(ConnectorJob job) {
+    return userRepository.findById(job.getUserId())
+        .orElseThrow(() -> new NotFoundException("User not found: " + job.getUserId()));
+  }
+
+  private void fail(ConnectorJob job, Exception e) {
+    log.error("fail() - job {} failed at step {}: {}", job.getId(), job.getStep(), e.getMessage(), e);
+    job.setStatus(ConnectorJobStatus.FAILED);
+    job.setError(e.getMessage());
+    connectorJobRepository.save(job);
+    deleteSpool(job.getId());
+  }
+
+  /** True if e comes from this node stopping (an interrupted sleep, join or read) rather than from the step itself. */
+  private boolean interruptedByShutdown(Exception e) {
+    if (shuttingDown || Thread.currentThread().isInterrupted()) {
+      return true;
+    }
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof InterruptedException || cause instanceof InterruptedIOException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private long activeJobCount(User user) {
+    return connectorJobRepository.countByUserIdAndStatusIn(user.getId(), ACTIVE_STATUSES);
+  }
+
+  private ConnectorJob newJob(User user, String source, String name, String url, ConnectorJobStep firstStep) {
+    return ConnectorJob.builder()
+        .owner(nodeId)
+        .heartbeatAt(LocalDateTime.now())
+        .userId(user.getId())
+        .source(source)
+        .name(name)
+        .url(url)
+        .status(ConnectorJobStatus.PENDING)
+        .step(firstStep)
+        .build();
+  }
+
+  private Path jobDir(UUID jobId) {
+    return spoolDir.resolve(jobId.toString());
+  }
+
+  private void deleteSpool(UUID jobId) {
+    try {
+      FileSystemUtils.deleteRecursively(jobDir(jobId));
+    } catch (IOException e) {
+      log.warn("Failed to delete spool directory for job {}: {}", jobId, e.getMessage());
+    }
+  }
+
+  private String toJson(List<String> values) throws JsonProcessingException {
+    return objectMapper.writeValueAsString(values);
+  }
+
+  private List<String> fromJson(String json) throws JsonProcessingException {
+    return json != null ? objectMapper.readValue(json, STRING_LIST) : List.of();
+  }
+
+  private ConnectorJobDto toDto(ConnectorJob job) {
+    CreateConnectorResponseDto connector = job.getStatus() == ConnectorJobStatus.SUCCEEDED
+        ? new CreateConnectorResponseDto(job.getCcPairId(), job.getUniqueName(), job.getSource())
+        : null;
+    return new ConnectorJobDto(
+        job.getId(),
+        job.getStatus().name(),
+        job.getStep().name(),
+        job.getAttempts(),
+        job.getError(),
+        connector,
+        job.getCreatedAt(),
+        job.getUpdatedAt()
+    );
+  }
+}
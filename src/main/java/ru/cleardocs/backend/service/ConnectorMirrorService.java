@@ -0,0 +1,190 @@
+package ru.cleardocs.backend.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.cleardocs.backend.client.onyx.OnyxClient;
+import ru.cleardocs.backend.dto.EntityConnectorDto;
+import ru.cleardocs.backend.entity.Connector;
+import ru.cleardocs.backend.entity.User;
+import ru.cleardocs.backend.repository.ConnectorRepository;
+import ru.cleardocs.backend.repository.UserRepository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Local Postgres mirror of users' Onyx connectors, so ownership and limit checks are indexed local queries.
+ * Onyx stays the source of truth: rows are written on create/pause/resume/delete, and a background job reconciles
+ * all users with Onyx. Reads never go to Onyx: users with no mirrored rows (connectors that predate the mirror) are
+ * backfilled once at startup, and anything else the mirror misses is picked up by the next sync.
+ * Connectors being deleted (status DELETING) stay mirrored for ownership checks but do not count toward the plan limit.
+ */
+@Slf4j
+@Service
+public class ConnectorMirrorService {
+
+  private static final String STATUS_DELETING = "DELETING";
+
+  private final ConnectorRepository connectorRepository;
+  private final UserRepository userRepository;
+  private final OnyxClient onyxClient;
+  private final TransactionTemplate transactionTemplate;
+  private final boolean backfillOnStartup;
+
+  public ConnectorMirrorService(ConnectorRepository connectorRepository, UserRepository userRepository, OnyxClient onyxClient,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${connector-sync.backfill-on-startup:true}") boolean backfillOnStartup) {
+    this.connectorRepository = connectorRepository;
+    this.userRepository = userRepository;
+    this.onyxClient = onyxClient;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.backfillOnStartup = backfillOnStartup;
+  }
+
+  /**
+   * Number of connectors the user has toward the plan limit, not counting those being deleted.
+   * This is the only count used for the limit, by both canAdd and create.
+   */
+  @Transactional(readOnly = true)
+  public long countConnectors(User user) {
+    return connectorRepository.countByUserIdAndStatusNot(user.getId(), STATUS_DELETING);
+  }
+
+  /** Whether the cc_pair belongs to the user. A cc_pair the mirror does not have is not theirs (404). */
+  @Transactional(readOnly = true)
+  public boolean isOwnedBy(User user, int ccPairId) {
+    return connectorRepository.existsByCcPairIdAndUserId(ccPairId, user.getId());
+  }
+
+  /** Which of the cc_pairs belong to the user, by the mirror alone. */
+  @Transactional(readOnly = true)
+  public Set<Integer> ownedCcPairIds(User user, Collection<Integer> ccPairIds) {
+    return connectorRepository.findByUserIdAndCcPairIdIn(user.getId(), ccPairIds).stream()
+        .map(Connector::getCcPairId)
+        .collect(Collectors.toCollection(HashSet::new));
+  }
+
+  @Transactional
+  public void recordCreated(User user, int ccPairId, String name, String source, String status) {
+    upsert(user, new EntityConnectorDto(ccPairId, name, source, status));
+  }
+
+  @Transactional
+  public void recordStatus(int ccPairId, String status) {
+    connectorRepository.findById(ccPairId).ifPresent(c -> {
+      c.setStatus(status);
+      connectorRepository.save(c);
+    });
+  }
+
+  /**
+   * Reconciles every user's mirrored connectors with Onyx: upserts what Onyx reports and removes rows
+   * for cc_pairs that are gone. Users are skipped (not wiped) when Onyx cannot be read or their document set
+   * is not found.
+   */
+  @Scheduled(cron = "${connector-sync.cron:0 */5 * * * *}")
+  public void syncAll() {
+    List<User> users = userRepository.findByDocSetIdIsNotNull();
+    log.info("Connector sync: started for {} user(s)", users.size());
+    int failed = 0;
+    for (User user : users) {
+      try {
+        syncUser(user);
+      } catch (Exception e) {
+        failed++;
+        log.warn("Connector sync: user {} skipped: {}", user.getId(), e.getMessage());
+      }
+    }
+    log.info("Connector sync: finished, {} user(s) failed", failed);
+  }
+
+  /**
+   * One-time backfill at startup of users who have a document set but no mirrored rows, i.e. whose connectors
+   * predate the mirror, so that their first requests do not see an empty mirror until the next scheduled sync.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void backfillUnmirroredUsers() {
+    if (!backfillOnStartup) {
+      return;
+    }
+    List<User> users = userRepository.findByDocSetIdIsNotNull();
+    Set<UUID> mirrored = connectorRepository.findByUserIdIn(users.stream().map(User::getId).toList()).stream()
+        .map(Connector::getUserId)
+        .collect(Collectors.toSet());
+    List<User> unmirrored = users.stream().filter(u -> !mirrored.contains(u.getId())).toList();
+    if (unmirrored.isEmpty()) {
+      return;
+    }
+    log.info("Connector sync: backfilling {} user(s) without mirrored connectors", unmirrored.size());
+    for (User user : unmirrored) {
+      try {
+        syncUser(user);
+      } catch (Exception e) {
+        log.warn("Connector sync: user {} not backfilled, the scheduled sync will retry: {}", user.getId(), e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Reconciles one user's mirrored connectors with Onyx. Onyx is read first, outside the transaction; the delete
+   * and upserts then run in one transaction (a TransactionTemplate, since syncAll calls this on the same instance
+   * and would bypass a @Transactional proxy). Rows written since the read started (a connector created, paused or
+   * being deleted meanwhile) are newer than what was read and are left alone; the next sync reconciles them.
+   * A document set that is not found, which may only mean the catalog has not caught up with a just-created set,
+   * leaves the user's rows untouched.
+   */
+  public void syncUser(User user) {
+    LocalDateTime readStarted = LocalDateTime.now();
+    Optional<List<EntityConnectorDto>> fetched = onyxClient.fetchConnectorsByDocSetId(user.getDocSetId());
+    if (fetched.isEmpty()) {
+      log.warn("Connector sync: user {} skipped, document set {} not found in Onyx", user.getId(), user.getDocSetId());
+      return;
+    }
+    List<EntityConnectorDto> onyxConnectors = fetched.get();
+    Set<Integer> onyxIds = onyxConnectors.stream()
+        .map(EntityConnectorDto::id)
+        .collect(Collectors.toSet());
+    transactionTemplate.executeWithoutResult(status -> {
+      List<Connector> rows = connectorRepository.findByUserId(user.getId());
+      Set<Integer> writtenSinceRead = rows.stream()
+          .filter(c -> c.getUpdatedAt() != null && !c.getUpdatedAt().isBefore(readStarted))
+          .map(Connector::getCcPairId)
+          .collect(Collectors.toSet());
+      List<Connector> stale = rows.stream()
+          .filter(c -> !onyxIds.contains(c.getCcPairId()) && !writtenSinceRead.contains(c.getCcPairId()))
+          .toList();
+      connectorRepository.deleteAll(stale);
+      onyxConnectors.stream()
+          .filter(c -> !writtenSinceRead.contains(c.id()))
+          .forEach(c -> upsert(user, c));
+    });
+  }
+
+  private void upsert(User user, EntityConnectorDto dto) {
+    if (dto.id() == null) {
+      return;
+    }
+    Connector connector = connectorRepository.findById(dto.id()).orElseGet(() -> Connector.builder()
+        .ccPairId(dto.id())
+        .build());
+    connector.setUserId(user.getId());
+    connector.setDocSetId(user.getDocSetId());
+    connector.setName(dto.name());
+    connector.setSource(dto.type());
+    connector.setStatus(dto.status());
+    connectorRepository.save(connector);
+  }
+}
@@ -1,13 +1,14 @@
 package ru.cleardocs.backend.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 import ru.cleardocs.backend.client.onyx.OnyxClient;
 import ru.cleardocs.backend.client.onyx.OnyxCreateConnectorResponseDto;
-import ru.cleardocs.backend.client.onyx.OnyxDocumentSetUpdateRequestDto;
+import ru.cleardocs.backend.client.onyx.OnyxFanOut;
 import ru.cleardocs.backend.client.onyx.OnyxFileUploadResponseDto;
+import ru.cleardocs.backend.client.onyx.OnyxReadContext;
 import ru.cleardocs.backend.dto.CreateConnectorResponseDto;
 import ru.cleardocs.backend.dto.EntityConnectorDto;
 import ru.cleardocs.backend.dto.GetConnectorsDto;
@@ -19,13 +20,19 @@ import ru.cleardocs.backend.exception.BadRequestException;
 import ru.cleardocs.backend.exception.NotFoundException;
 import ru.cleardocs.backend.repository.UserRepository;
 import ru.cleardocs.backend.util.DocumentSetNameUtils;
+import ru.cleardocs.backend.util.ETagUtils;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 @Slf4j
 @Service
@@ -35,10 +42,27 @@ public class ConnectorService {
 
   private final OnyxClient onyxClient;
   private final UserRepository userRepository;
-
-  public ConnectorService(OnyxClient onyxClient, UserRepository userRepository) {
+  private final ConnectorMirrorService connectorMirrorService;
+  private final OnyxFanOut fanOut;
+  private final UploadStoreService uploadStoreService;
+  private final DocumentSetLock documentSetLock;
+  private final DocumentSetUpdateCoalescer documentSetUpdateCoalescer;
+  private final Duration documentSetUpdateTimeout;
+
+  public ConnectorService(OnyxClient onyxClient, UserRepository userRepository,
+                          ConnectorMirrorService connectorMirrorService, OnyxFanOut fanOut,
+                          UploadStoreService uploadStoreService,
+                          DocumentSetLock documentSetLock,
+                          DocumentSetUpdateCoalescer documentSetUpdateCoalescer,
+                          @Value("${document-set.update-timeout-seconds:60}") long documentSetUpdateTimeoutSeconds) {
     this.onyxClient = onyxClient;
     this.userRepository = userRepository;
+    this.connectorMirrorService = connectorMirrorService;
+    this.fanOut = fanOut;
+    this.uploadStoreService = uploadStoreService;
+    this.documentSetLock = documentSetLock;
+    this.documentSetUpdateCoalescer = documentSetUpdateCoalescer;
+    this.documentSetUpdateTimeout = Duration.ofSeconds(Math.max(documentSetUpdateTimeoutSeconds, 1));
   }
 
   public GetConnectorsDto getConnectors(User user) {
@@ -51,129 +75,185 @@ public class ConnectorService {
       connectors = onyxClient.getConnectorsByDocSetId(user.getDocSetId());
     }
 
-    int maxConnectors = 0;
-    Plan plan = user.getPlan();
-    if (plan != null && plan.getLimit() != null) {
-      maxConnectors = plan.getLimit().getMaxConnectors();
-    }
-    boolean canAdd = connectors.size() < maxConnectors;
+    // Same count as checkConnectorLimit, so canAdd never disagrees with what create allows
+    int maxConnectors = maxConnectors(user);
+    boolean canAdd = connectorMirrorService.countConnectors(user) < maxConnectors;
+    Duration statusAge = onyxClient.getIndexingStatusAge();
+    Long statusAgeSeconds = statusAge != null ? statusAge.toSeconds() : null;
+    boolean stale = OnyxReadContext.isStale();
 
-    log.info("getConnectors() - ends with connectors count = {}, maxConnectors = {}, canAdd = {}",
-        connectors.size(), maxConnectors, canAdd);
-    return new GetConnectorsDto(connectors, canAdd);
+    log.info("getConnectors() - ends with connectors count = {}, maxConnectors = {}, canAdd = {}, statusAgeSeconds = {}, stale = {}",
+        connectors.size(), maxConnectors, canAdd, statusAgeSeconds, stale);
+    return new GetConnectorsDto(connectors, canAdd, statusAgeSeconds, stale);
+  }
+
+  /**
+   * Weak ETag for a getConnectors response, built from this user's own data only: their connectors (cc_pair ids,
+   * names, types and statuses, i.e. their document set membership) and what canAdd and stale say. Polls of other
+   * users' data therefore never change it. Weak because statusAgeSeconds keeps growing while the tag stays the same.
+   */
+  public String getConnectorsETag(User user, GetConnectorsDto connectors) {
+    return ETagUtils.weakETag("connectors", user.getId(), user.getDocSetId(), connectors.connectors(),
+        connectors.canAdd(), connectors.stale());
   }
 
-  @Transactional
   public CreateConnectorResponseDto createFileConnector(User user, String name, MultipartFile[] files) throws IOException {
     log.info("createFileConnector() - starts with user id = {}, docSetId = {}, name = {}",
         user.getId(), user.getDocSetId(), name);
 
-    if (name == null || name.isBlank()) {
-      throw new BadRequestException("Connector name is required.");
+    validateFileConnectorRequest(name, files);
+    checkConnectorLimit(user, 0);
+
+    // The name lookup is forked and runs while the upload runs on this thread. The upload is not forked: it is
+    // bounded by its own timeouts (the onyx-upload pool and onyx.upload.timeout-minutes), not the fan-out deadline,
+    // and its batches run on the upload pool, so it never holds a fan-out thread.
+    OnyxFileUploadResponseDto uploadResponse;
+    Set<String> existingNames;
+    try (OnyxFanOut.Scope scope = fanOut.open()) {
+      Supplier<Set<String>> names = scope.fork(onyxClient::getAllConnectorNames);
+      uploadResponse = uploadStoreService.upload(user.getId(), files);
+      scope.join();
+      existingNames = names.get();
     }
+    requireUploadedFiles(uploadResponse);
 
-    if (files == null || files.length == 0) {
-      throw new BadRequestException("At least one file is required.");
-    }
+    String uniqueName = uniqueConnectorName(user, name, existingNames);
+    int ccPairId = createFileConnectorInOnyx(uniqueName, uploadResponse.filePaths(), uploadResponse.fileNames());
+    linkConnector(user, ccPairId, uniqueName, "file");
 
-    int maxConnectors = 0;
-    Plan plan = user.getPlan();
-    if (plan != null && plan.getLimit() != null) {
-      Limit limit = plan.getLimit();
-      maxConnectors = limit.getMaxConnectors();
-    }
+    log.info("createFileConnector() - ends with cc_pair_id = {}", ccPairId);
+    return new CreateConnectorResponseDto(ccPairId, uniqueName, "file");
+  }
 
-    List<EntityConnectorDto> existingConnectors = user.getDocSetId() == null
-        ? Collections.emptyList()
-        : onyxClient.getConnectorsByDocSetId(user.getDocSetId());
-    if (existingConnectors.size() >= maxConnectors) {
-      log.warn("createFileConnector() - connector limit reached for user id = {}, current = {}, max = {}",
-          user.getId(), existingConnectors.size(), maxConnectors);
-      throw new BadRequestException(String.format(
-          "Connector limit reached. Current: %d, Maximum allowed: %d",
-          existingConnectors.size(), maxConnectors));
-    }
+  public CreateConnectorResponseDto createUrlConnector(User user, String name, String url) {
+    log.info("createUrlConnector() - starts with user id = {}, docSetId = {}, name = {}, url = {}",
+        user.getId(), user.getDocSetId(), name, url);
 
-    OnyxFileUploadResponseDto uploadResponse = onyxClient.uploadFiles(files);
-    List<String> fileLocations = uploadResponse.filePaths();
-    List<String> fileNames = uploadResponse.fileNames();
+    validateUrlConnectorRequest(name, url);
+    checkConnectorLimit(user, 0);
 
-    if (fileLocations.isEmpty()) {
-      throw new BadRequestException("No valid files were uploaded.");
-    }
+    String uniqueName = uniqueConnectorName(user, name, onyxClient.getAllConnectorNames());
+    int ccPairId = createUrlConnectorInOnyx(uniqueName, url);
+    linkConnector(user, ccPairId, uniqueName, "web");
 
-    Set<String> existingNames = onyxClient.getAllConnectorNames();
-    String uniqueName = DocumentSetNameUtils.ensureUniqueName(
-        name, existingNames, user.getId() != null ? user.getId().toString().substring(0, 8) : "user");
+    log.info("createUrlConnector() - ends with cc_pair_id = {}", ccPairId);
+    return new CreateConnectorResponseDto(ccPairId, uniqueName, "web");
+  }
 
-    OnyxCreateConnectorResponseDto createResponse = onyxClient.createFileConnector(uniqueName, fileLocations, fileNames);
+  /*
+   * Steps of connector creation. The synchronous create methods above run them in one request;
+   * ConnectorJobService runs them one by one on its worker pool, persisting progress in between.
+   */
 
-    if (!Boolean.TRUE.equals(createResponse.success()) || createResponse.data() == null) {
-      throw new RuntimeException("Failed to create connector in Onyx: " + createResponse.message());
+  public void validateFileConnectorRequest(String name, MultipartFile[] files) {
+    if (name == null || name.isBlank()) {
+      throw new BadRequestException("Connector name is required.");
     }
-
-    int ccPairId = createResponse.data();
-
-    if (user.getDocSetId() == null) {
-      createAndLinkDocumentSet(user, ccPairId);
-    } else {
-      addConnectorToExistingDocumentSet(user, existingConnectors, ccPairId);
+    if (files == null || files.length == 0) {
+      throw new BadRequestException("At least one file is required.");
     }
-
-    log.info("createFileConnector() - ends with cc_pair_id = {}", ccPairId);
-    return new CreateConnectorResponseDto(ccPairId, uniqueName, "file");
   }
 
-  @Transactional
-  public CreateConnectorResponseDto createUrlConnector(User user, String name, String url) {
-    log.info("createUrlConnector() - starts with user id = {}, docSetId = {}, name = {}, url = {}",
-        user.getId(), user.getDocSetId(), name, url);
-
+  public void validateUrlConnectorRequest(String name, String url) {
     if (name == null || name.isBlank()) {
       throw new BadRequestException("Connector name is required.");
     }
-
     if (url == null || url.isBlank()) {
       throw new BadRequestException("URL is required.");
     }
+  }
 
+  /**
+   * Throws BadRequestException if the user's plan does not allow another connector.
+   *
+   * @param pendingCount connectors being created that are not counted by Onyx or the mirror yet
+   */
+  public void checkConnectorLimit(User user, long pendingCount) {
     int maxConnectors = 0;
     Plan plan = user.getPlan();
     if (plan != null && plan.getLimit() != null) {
-      maxConnectors = plan.getLimit().getMaxConnectors();
+      Limit limit = plan.getLimit();
+      maxConnectors = limit.getMaxConnectors();
     }
 
-    List<EntityConnectorDto> existingConnectors = user.getDocSetId() == null
-        ? Collections.emptyList()
-        : onyxClient.getConnectorsByDocSetId(user.getDocSetId());
-    if (existingConnectors.size() >= maxConnectors) {
-      log.warn("createUrlConnector() - connector limit reached for user id = {}, current = {}, max = {}",
-          user.getId(), existingConnectors.size(), maxConnectors);
+    long existingCount = connectorMirrorService.countConnectors(user) + pendingCount;
+    if (existingCount >= maxConnectors) {
+      log.warn("checkConnectorLimit() - connector limit reached for user id = {}, current = {}, max = {}",
+          user.getId(), existingCount, maxConnectors);
       throw new BadRequestException(String.format(
           "Connector limit reached. Current: %d, Maximum allowed: %d",
-          existingConnectors.size(), maxConnectors));
+          existingCount, maxConnectors));
     }
+  }
+
+  public void requireUploadedFiles(OnyxFileUploadResponseDto uploadResponse) {
+    if (uploadResponse.filePaths().isEmpty()) {
+      throw new BadRequestException("No valid files were uploaded.");
+    }
+  }
 
-    Set<String> existingNames = onyxClient.getAllConnectorNames();
-    String uniqueName = DocumentSetNameUtils.ensureUniqueName(
+  public String uniqueConnectorName(User user, String name, Set<String> existingNames) {
+    return DocumentSetNameUtils.ensureUniqueName(
         name, existingNames, user.getId() != null ? user.getId().toString().substring(0, 8) : "user");
+  }
 
-    OnyxCreateConnectorResponseDto createResponse = onyxClient.createUrlConnector(uniqueName, url);
+  public int createFileConnectorInOnyx(String uniqueName, List<String> fileLocations, List<String> fileNames) {
+    OnyxCreateConnectorResponseDto createResponse = onyxClient.createFileConnector(uniqueName, fileLocations, fileNames);
+    if (!Boolean.TRUE.equals(createResponse.success()) || createResponse.data() == null) {
+      throw new RuntimeException("Failed to create connector in Onyx: " + createResponse.message());
+    }
+    uploadStoreService.recordUsage(createResponse.data(), fileLocations);
+    return createResponse.data();
+  }
 
+  public int createUrlConnectorInOnyx(String uniqueName, String url) {
+    OnyxCreateConnectorResponseDto createResponse = onyxClient.createUrlConnector(uniqueName, url);
     if (!Boolean.TRUE.equals(createResponse.success()) || createResponse.data() == null) {
       throw new RuntimeException("Failed to create URL connector in Onyx: " + createResponse.message());
     }
+    return createResponse.data();
+  }
 
-    int ccPairId = createResponse.data();
-
-    if (user.getDocSetId() == null) {
-      createAndLinkDocumentSet(user, ccPairId);
-    } else {
-      addConnectorToExistingDocumentSet(user, existingConnectors, ccPairId);
+  /**
+   * Adds the new connector to the user's document set (creating it if needed) and records it locally.
+   * Creating the document set runs under the user's DocumentSetLock, so a document set created by a concurrent
+   * add is picked up instead of creating a second one. Adding to an existing set goes through the
+   * DocumentSetUpdateCoalescer, so connectors added within its window share one PATCH; this method waits for it,
+   * at most document-set.update-timeout-seconds. A new document set replaces the old one only if a fresh read
+   * confirms Onyx no longer has it; a failed or timed-out read is thrown instead.
+   */
+  public void linkConnector(User user, int ccPairId, String uniqueName, String source) {
+    boolean linked = false;
+    while (!linked) {
+      Integer docSetId = documentSetLock.withLock(user.getId(), () -> {
+        refreshDocSetId(user);
+        if (user.getDocSetId() == null) {
+          createAndLinkDocumentSet(user, ccPairId);
+          return null;
+        }
+        return user.getDocSetId();
+      });
+      linked = docSetId == null || join(documentSetUpdateCoalescer.addConnector(user.getId(), docSetId, ccPairId));
+      if (!linked) {
+        // Document set was deleted in Onyx or data inconsistency - auto-heal by creating a new one,
+        // unless a concurrent add has already replaced it
+        linked = documentSetLock.withLock(user.getId(), () -> {
+          refreshDocSetId(user);
+          if (user.getDocSetId() != null && !user.getDocSetId().equals(docSetId)) {
+            return false;
+          }
+          if (onyxClient.fetchDocumentSetFresh(docSetId).isPresent()) {
+            // Not gone after all (e.g. created by another instance after the coalescer's read), add again
+            return false;
+          }
+          log.warn("linkConnector() - document set id = {} not found in Onyx, creating new document set for user id = {}",
+              docSetId, user.getId());
+          createAndLinkDocumentSet(user, ccPairId);
+          return true;
+        });
+      }
     }
-
-    log.info("createUrlConnector() - ends with cc_pair_id = {}", ccPairId);
-    return new CreateConnectorResponseDto(ccPairId, uniqueName, "web");
+    connectorMirrorService.recordCreated(user, ccPairId, uniqueName, source, "SCHEDULED");
   }
 
   public void deleteConnector(User user, int connectorId) {
@@ -184,14 +264,13 @@ public class ConnectorService {
       throw new NotFoundException("User has no document set");
     }
 
-    List<EntityConnectorDto> connectors = onyxClient.getConnectorsByDocSetId(user.getDocSetId());
-    boolean connectorBelongsToUser = connectors.stream()
-        .anyMatch(c -> c.id() != null && c.id() == connectorId);
-    if (!connectorBelongsToUser) {
+    if (!connectorMirrorService.isOwnedBy(user, connectorId)) {
       throw new NotFoundException("Connector not found");
     }
 
     onyxClient.deleteConnector(connectorId);
+    uploadStoreService.forgetConnector(connectorId);
+    connectorMirrorService.recordStatus(connectorId, "DELETING");
 
     log.info("deleteConnector() - ends, connector {} deleted", connectorId);
   }
@@ -204,10 +283,7 @@ public class ConnectorService {
       throw new NotFoundException("User has no document set");
     }
 
-    List<EntityConnectorDto> connectors = onyxClient.getConnectorsByDocSetId(user.getDocSetId());
-    boolean connectorBelongsToUser = connectors.stream()
-        .anyMatch(c -> c.id() != null && c.id() == connectorId);
-    if (!connectorBelongsToUser) {
+    if (!connectorMirrorService.isOwnedBy(user, connectorId)) {
       throw new NotFoundException("Connector not found");
     }
 
@@ -216,15 +292,22 @@ public class ConnectorService {
     }
     if (request.isPaused()) {
       onyxClient.pauseConnector(connectorId);
+      connectorMirrorService.recordStatus(connectorId, "PAUSED");
       log.info("updateConnector() - connector {} paused", connectorId);
     } else if (request.isActive()) {
       onyxClient.resumeConnector(connectorId);
+      connectorMirrorService.recordStatus(connectorId, "ACTIVE");
       log.info("updateConnector() - connector {} resumed", connectorId);
     } else {
       throw new BadRequestException("status must be 'paused' or 'active', got: " + request.status());
     }
   }
 
+  private static int maxConnectors(User user) {
+    Plan plan = user.getPlan();
+    return plan != null && plan.getLimit() != null ? plan.getLimit().getMaxConnectors() : 0;
+  }
+
   private void createAndLinkDocumentSet(User user, int ccPairId) {
     String docSetName = DocumentSetNameUtils.documentSetNameFor(DEFAULT_DOCUMENT_SET_NAME, user);
     int newDocSetId = onyxClient.createDocumentSet(docSetName, "", List.of(ccPairId));
@@ -233,32 +316,32 @@ public class ConnectorService {
     log.info("createAndLinkDocumentSet() - created document set id = {} for user id = {}", newDocSetId, user.getId());
   }
 
-  private void addConnectorToExistingDocumentSet(User user, List<EntityConnectorDto> existingConnectors, int ccPairId) {
-    List<Integer> existingCcPairIds = existingConnectors.stream()
-        .map(EntityConnectorDto::id)
-        .collect(Collectors.toList());
-    List<Integer> allCcPairIds = new ArrayList<>(existingCcPairIds);
-    allCcPairIds.add(ccPairId);
-
-    var docSetOpt = onyxClient.getDocumentSetById(user.getDocSetId());
-    if (docSetOpt.isEmpty()) {
-      // Document set was deleted in Onyx or data inconsistency - auto-heal by creating a new one
-      log.warn("createFileConnector() - document set id = {} not found in Onyx, creating new document set for user id = {}",
-          user.getDocSetId(), user.getId());
-      createAndLinkDocumentSet(user, ccPairId);
-      return;
+  private void refreshDocSetId(User user) {
+    if (user.getId() != null) {
+      userRepository.findById(user.getId())
+          .map(User::getDocSetId)
+          .ifPresent(user::setDocSetId);
     }
+  }
 
-    var docSet = docSetOpt.get();
-    OnyxDocumentSetUpdateRequestDto updateRequest = new OnyxDocumentSetUpdateRequestDto(
-        docSet.id(),
-        docSet.description() != null ? docSet.description() : "",
-        allCcPairIds,
-        docSet.isPublic(),
-        docSet.users(),
-        docSet.groups()
-    );
-    onyxClient.updateDocumentSet(updateRequest);
-    log.info("createFileConnector() - updated document set id = {} with new connector", docSet.id());
+  private boolean join(CompletableFuture<Boolean> update) {
+    try {
+      return update.get(documentSetUpdateTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      // The batch may still be applied later; adding the same cc_pair again is harmless
+      throw new IllegalStateException("Document set update did not complete within "
+          + documentSetUpdateTimeout.toSeconds() + " s");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the document set update", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw new CompletionException(e.getCause());
+    } finally {
+      // The PATCH ran on the coalescer thread, outside the caller's read context
+      OnyxReadContext.invalidate();
+    }
   }
 }
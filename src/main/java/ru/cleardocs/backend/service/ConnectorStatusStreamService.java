@@ -0,0 +1,318 @@
+package ru.cleardocs.backend.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.cleardocs.backend.client.onyx.OnyxClient;
+import ru.cleardocs.backend.dto.EntityConnectorDto;
+import ru.cleardocs.backend.entity.Connector;
+import ru.cleardocs.backend.entity.User;
+import ru.cleardocs.backend.exception.BadRequestException;
+import ru.cleardocs.backend.repository.ConnectorRepository;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Live connector statuses over server-sent events (GET /api/v1/connectors/stream).
+ * A subscriber first gets a "connectors" event with all of the user's connectors. After that one shared
+ * poller, running only while somebody is subscribed, reads the statuses of all subscribed users' connectors
+ * from the indexing status cache, diffs them with its previous snapshot and sends "connector" (changed or new)
+ * and "removed" events to the owners' streams. Onyx load therefore does not grow with open browser tabs.
+ * Connector membership comes from the local mirror (ConnectorMirrorService). Connectors being deleted and
+ * cc_pairs Onyx did not know at the last poll are read from the cache without forcing a re-poll, so rows of
+ * deleted connectors do not cost a full status read every round.
+ * Onyx is never read under the service's lock, and events are never written under it: the lock only guards
+ * diffing against the last snapshot and queueing the events. Each subscriber has its own queue, drained by a
+ * virtual thread, so a slow client delays only its own stream; one whose queue overflows is closed (the browser
+ * reconnects and gets a fresh "connectors" event).
+ */
+@Slf4j
+@Service
+public class ConnectorStatusStreamService {
+
+  private final OnyxClient onyxClient;
+  private final ConnectorRepository connectorRepository;
+  private final long timeoutMs;
+  private final int maxStreamsPerUser;
+  private final Duration heartbeatInterval;
+
+  private static final String STATUS_DELETING = "DELETING";
+  private static final int MAX_QUEUED_EVENTS = 256;
+
+  private final Map<UUID, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+  private final ExecutorService dispatcher = Executors.newVirtualThreadPerTaskExecutor();
+
+  /** Last polled connectors by cc_pair id; guarded by this. */
+  private Map<Integer, Snapshot> lastSnapshot = Map.of();
+
+  /** cc_pairs missing from Onyx statuses at the last read. */
+  private volatile Set<Integer> missedCcPairIds = Set.of();
+
+  public ConnectorStatusStreamService(
+      OnyxClient onyxClient,
+      ConnectorRepository connectorRepository,
+      @Value("${connectors.stream.timeout-minutes:30}") long timeoutMinutes,
+      @Value("${connectors.stream.max-per-user:5}") int maxStreamsPerUser,
+      @Value("${connectors.stream.heartbeat-seconds:25}") long heartbeatSeconds
+  ) {
+    this.onyxClient = onyxClient;
+    this.connectorRepository = connectorRepository;
+    this.timeoutMs = TimeUnit.MINUTES.toMillis(timeoutMinutes);
+    this.maxStreamsPerUser = maxStreamsPerUser;
+    this.heartbeatInterval = Duration.ofSeconds(heartbeatSeconds);
+  }
+
+  public SseEmitter subscribe(User user) {
+    log.info("subscribe() - starts with user id = {}, docSetId = {}", user.getId(), user.getDocSetId());
+    SseEmitter emitter = new SseEmitter(timeoutMs);
+    Subscriber subscriber = new Subscriber(user.getId(), emitter);
+    emitter.onCompletion(() -> unsubscribe(subscriber));
+    emitter.onTimeout(() -> unsubscribe(subscriber));
+    emitter.onError(e -> unsubscribe(subscriber));
+
+    List<Connector> owned = user.getDocSetId() != null ? connectorRepository.findByUserId(user.getId()) : List.of();
+    Map<Integer, String> statuses = owned.isEmpty() ? Map.of() : statusesOf(owned);
+
+    // Under the poller's lock: the limit check and the add cannot race another subscribe, and the "connectors" event
+    // is queued before any change the poller diffs after it. Connectors the poller already tracks are sent as in its
+    // snapshot, so a change read in between still reaches this stream as a "connector" event
+    synchronized (this) {
+      List<Subscriber> open = subscribers.get(user.getId());
+      if (open != null && open.size() >= maxStreamsPerUser) {
+        throw new BadRequestException("Too many open connector streams");
+      }
+      Map<Integer, Snapshot> polled = lastSnapshot;
+      List<EntityConnectorDto> connectors = owned.stream()
+          .map(c -> {
+            Snapshot snapshot = polled.get(c.getCcPairId());
+            return snapshot != null && snapshot.userId().equals(user.getId()) ? snapshot.connector() : toDto(c, statuses);
+          })
+          .toList();
+      subscriber.enqueue(SseEmitter.event().name("connectors").data(connectors));
+      subscribers.compute(user.getId(), (id, list) -> {
+        if (subscriber.closed) {
+          return list;
+        }
+        List<Subscriber> next = list != null ? list : new CopyOnWriteArrayList<>();
+        next.add(subscriber);
+        return next;
+      });
+    }
+    return emitter;
+  }
+
+  /** Shared poller: one status read for all subscribers, changes fanned out per owner. */
+  @Scheduled(fixedDelayString = "${connectors.stream.poll-seconds:5}", timeUnit = TimeUnit.SECONDS)
+  public void poll() {
+    if (subscribers.isEmpty()) {
+      synchronized (this) {
+        lastSnapshot = Map.of();
+      }
+      missedCcPairIds = Set.of();
+      return;
+    }
+    Map<Integer, Snapshot> current = new HashMap<>();
+    try {
+      List<Connector> connectors = connectorRepository.findByUserIdIn(Set.copyOf(subscribers.keySet()));
+      Map<Integer, String> statuses = readStatuses(connectors);
+      for (Connector connector : connectors) {
+        current.put(connector.getCcPairId(), new Snapshot(connector.getUserId(), toDto(connector, statuses)));
+      }
+      // Forget misses of connectors nobody watches any more
+      missedCcPairIds = missedCcPairIds.stream().filter(current::containsKey).collect(Collectors.toSet());
+    } catch (Exception e) {
+      log.warn("poll() - connector statuses not read, skipping this round: {}", e.getMessage());
+      return;
+    }
+
+    synchronized (this) {
+      Map<Integer, Snapshot> previous = lastSnapshot;
+      current.forEach((ccPairId, snapshot) -> {
+        if (!snapshot.equals(previous.get(ccPairId))) {
+          sendToUser(snapshot.userId(), "connector", snapshot.connector());
+        }
+      });
+      previous.forEach((ccPairId, snapshot) -> {
+        Snapshot now = current.get(ccPairId);
+        if (now == null || !now.userId().equals(snapshot.userId())) {
+          sendToUser(snapshot.userId(), "removed", Map.of("id", ccPairId));
+        }
+      });
+      lastSnapshot = current;
+    }
+
+    Instant heartbeatDue = Instant.now().minus(heartbeatInterval);
+    subscribers.values().forEach(list -> list.forEach(subscriber -> subscriber.heartbeatIfIdleSince(heartbeatDue)));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    subscribers.values().forEach(list -> list.forEach(subscriber -> subscriber.emitter.complete()));
+    subscribers.clear();
+    dispatcher.shutdown();
+  }
+
+  /** Queues the event on the user's streams; written by each stream's own drain, outside the caller's lock. */
+  private void sendToUser(UUID userId, String event, Object data) {
+    List<Subscriber> userSubscribers = subscribers.get(userId);
+    if (userSubscribers != null) {
+      userSubscribers.forEach(subscriber -> subscriber.enqueue(SseEmitter.event().name(event).data(data)));
+    }
+  }
+
+  private void unsubscribe(Subscriber subscriber) {
+    subscriber.closed = true;
+    subscribers.computeIfPresent(subscriber.userId, (id, list) -> {
+      list.remove(subscriber);
+      return list.isEmpty() ? null : list;
+    });
+  }
+
+  /** Statuses for the initial event; falls back to the mirrored statuses when Onyx cannot be read. */
+  private Map<Integer, String> statusesOf(List<Connector> connectors) {
+    try {
+      return readStatuses(connectors);
+    } catch (Exception e) {
+      log.warn("statusesOf() - using mirrored statuses, Onyx statuses not read: {}", e.getMessage());
+      return Map.of();
+    }
+  }
+
+  /**
+   * Onyx statuses of the connectors, absent where the mirrored status stands. Connectors being deleted keep the
+   * mirrored DELETING, and cc_pairs missed at the last read are looked up in the cache only: asking for them
+   * with getCcPairStatuses would re-poll all statuses on every round.
+   */
+  private Map<Integer, String> readStatuses(List<Connector> connectors) {
+    Set<Integer> ids = connectors.stream()
+        .filter(c -> !STATUS_DELETING.equals(c.getStatus()))
+        .map(Connector::getCcPairId)
+        .collect(Collectors.toSet());
+    if (ids.isEmpty()) {
+      return Map.of();
+    }
+    Set<Integer> known = ids.stream().filter(id -> !missedCcPairIds.contains(id)).collect(Collectors.toSet());
+    Set<Integer> missed = ids.stream().filter(missedCcPairIds::contains).collect(Collectors.toSet());
+    Map<Integer, String> statuses = new HashMap<>(known.isEmpty() ? Map.of() : onyxClient.getCcPairStatuses(known));
+    if (!missed.isEmpty()) {
+      statuses.putAll(onyxClient.getCachedCcPairStatuses(missed));
+    }
+    Set<Integer> nowMissed = new HashSet<>(missedCcPairIds);
+    ids.forEach(id -> {
+      if (statuses.containsKey(id)) {
+        nowMissed.remove(id);
+      } else {
+        nowMissed.add(id);
+      }
+    });
+    missedCcPairIds = nowMissed;
+    return statuses;
+  }
+
+  private static EntityConnectorDto toDto(Connector connector, Map<Integer, String> statuses) {
+    return new EntityConnectorDto(connector.getCcPairId(), connector.getName(), connector.getSource(),
+        statuses.getOrDefault(connector.getCcPairId(), connector.getStatus()));
+  }
+
+  private record Snapshot(UUID userId, EntityConnectorDto connector) {
+  }
+
+  private final class Subscriber {
+    private final UUID userId;
+    private final SseEmitter emitter;
+    // Guarded by this
+    private final ArrayDeque<SseEmitter.SseEventBuilder> pending = new ArrayDeque<>();
+    private boolean draining;
+    private volatile Instant lastSentAt = Instant.now();
+    private volatile boolean closed;
+
+    private Subscriber(UUID userId, SseEmitter emitter) {
+      this.userId = userId;
+      this.emitter = emitter;
+    }
+
+    /** Queues the event and starts a drain if none is running; closes the stream when its queue is full. */
+    private void enqueue(SseEmitter.SseEventBuilder event) {
+      boolean overflow;
+      boolean startDrain = false;
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        overflow = pending.size() >= MAX_QUEUED_EVENTS;
+        if (overflow) {
+          pending.clear();
+        } else {
+          pending.add(event);
+          startDrain = !draining;
+          draining = true;
+        }
+      }
+      if (overflow) {
+        log.debug("enqueue() - connector stream of user id = {} is not keeping up, closing it", userId);
+        close();
+      } else if (startDrain) {
+        try {
+          dispatcher.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+          // Shutting down
+          close();
+        }
+      }
+    }
+
+    private void drain() {
+      while (true) {
+        SseEmitter.SseEventBuilder event;
+        synchronized (this) {
+          event = pending.poll();
+          if (event == null || closed) {
+            pending.clear();
+            draining = false;
+            return;
+          }
+        }
+        try {
+          emitter.send(event);
+          lastSentAt = Instant.now();
+        } catch (IOException | IllegalStateException e) {
+          // Client went away; the emitter callbacks may not fire for a broken connection
+          log.debug("drain() - dropping connector stream of user id = {}: {}", userId, e.getMessage());
+          close();
+        }
+      }
+    }
+
+    private void heartbeatIfIdleSince(Instant since) {
+      if (lastSentAt.isAfter(since)) {
+        return;
+      }
+      lastSentAt = Instant.now();
+      enqueue(SseEmitter.event().comment("keep-alive"));
+    }
+
+    private void close() {
+      unsubscribe(this);
+      emitter.complete();
+    }
+  }
+}
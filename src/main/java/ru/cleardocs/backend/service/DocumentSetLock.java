@@ -0,0 +1,17 @@
+package ru.cleardocs.backend.service;
+
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Serializes read-modify-write changes of a user's document set (Onyx PATCH takes the full cc_pair list,
+ * so two unserialized adds lose one of the connectors). Keyed by user, because a user has one document set
+ * and the first connector also creates it.
+ * Implementation is chosen with document-set.lock: local (in-JVM striped locks, default) or postgres
+ * (transaction-scoped advisory locks, for several backend instances).
+ */
+public interface DocumentSetLock {
+
+  /** Runs the mutation while holding the lock for the user's document set. */
+  <T> T withLock(UUID userId, Supplier<T> mutation);
+}
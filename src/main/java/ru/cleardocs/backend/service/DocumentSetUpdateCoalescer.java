@@ -0,0 +1,159 @@
+package ru.cleardocs.backend.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.cleardocs.backend.client.onyx.OnyxClient;
+import ru.cleardocs.backend.client.onyx.OnyxConnectorSummaryDto;
+import ru.cleardocs.backend.client.onyx.OnyxDocumentSetDto;
+import ru.cleardocs.backend.client.onyx.OnyxDocumentSetUpdateRequestDto;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Write-behind batching of connector additions to a document set. Additions for one document set are
+ * collected for document-set.coalesce-window-ms and then applied with a single read and a single PATCH
+ * (under the owner's DocumentSetLock), instead of one full cc_pair list PATCH per connector. Removals need
+ * no PATCH: Onyx unlinks a cc_pair from its document sets when the cc_pair is deleted.
+ * Every caller in a batch gets the batch's future: true when applied, false when the document set no
+ * longer exists in Onyx. A window of 0 applies each change immediately on the calling thread.
+ */
+@Slf4j
+@Component
+public class DocumentSetUpdateCoalescer {
+
+  private final OnyxClient onyxClient;
+  private final DocumentSetLock documentSetLock;
+  private final long windowMs;
+  private final ScheduledExecutorService scheduler;
+
+  /** Open batches by document set id, guarded by this. */
+  private final Map<Integer, Batch> pending = new HashMap<>();
+
+  public DocumentSetUpdateCoalescer(
+      OnyxClient onyxClient,
+      DocumentSetLock documentSetLock,
+      @Value("${document-set.coalesce-window-ms:500}") long windowMs,
+      @Value("${document-set.coalesce-threads:2}") int threads
+  ) {
+    this.onyxClient = onyxClient;
+    this.documentSetLock = documentSetLock;
+    this.windowMs = windowMs;
+    AtomicInteger threadNumber = new AtomicInteger();
+    this.scheduler = Executors.newScheduledThreadPool(Math.max(threads, 1), runnable -> {
+      Thread thread = new Thread(runnable, "doc-set-coalescer-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /** Adds the cc_pair to the document set owned by userId. */
+  public CompletableFuture<Boolean> addConnector(UUID userId, int docSetId, int ccPairId) {
+    if (windowMs <= 0) {
+      Batch batch = new Batch(userId, docSetId);
+      batch.additions.add(ccPairId);
+      apply(batch);
+      return batch.result;
+    }
+    synchronized (this) {
+      Batch batch = pending.get(docSetId);
+      if (batch == null) {
+        batch = new Batch(userId, docSetId);
+        pending.put(docSetId, batch);
+        scheduler.schedule(() -> flush(docSetId), windowMs, TimeUnit.MILLISECONDS);
+      }
+      batch.additions.add(ccPairId);
+      return batch.result;
+    }
+  }
+
+  private void flush(int docSetId) {
+    Batch batch;
+    synchronized (this) {
+      batch = pending.remove(docSetId);
+    }
+    if (batch != null) {
+      apply(batch);
+    }
+  }
+
+  private void apply(Batch batch) {
+    try {
+      batch.result.complete(documentSetLock.withLock(batch.userId, () -> patch(batch)));
+    } catch (RuntimeException e) {
+      log.error("apply() - failed to update document set id = {}: {}", batch.docSetId, e.getMessage());
+      batch.result.completeExceptionally(e);
+    }
+  }
+
+  private boolean patch(Batch batch) {
+    // Read fresh under the lock: the catalog may not have seen a PATCH made by another instance
+    Optional<OnyxDocumentSetDto> docSetOpt = onyxClient.fetchDocumentSetFresh(batch.docSetId);
+    if (docSetOpt.isEmpty()) {
+      log.warn("patch() - document set id = {} not found in Onyx", batch.docSetId);
+      return false;
+    }
+    OnyxDocumentSetDto docSet = docSetOpt.get();
+    List<Integer> current = Stream.concat(
+            docSet.ccPairSummaries().stream(),
+            docSet.federatedConnectorSummaries().stream())
+        .map(OnyxConnectorSummaryDto::id)
+        .toList();
+    if (current.containsAll(batch.additions)) {
+      log.info("patch() - document set id = {} already up to date", batch.docSetId);
+      return true;
+    }
+    Set<Integer> merged = new LinkedHashSet<>(current);
+    merged.addAll(batch.additions);
+    onyxClient.updateDocumentSet(new OnyxDocumentSetUpdateRequestDto(
+        docSet.id(),
+        docSet.description() != null ? docSet.description() : "",
+        new ArrayList<>(merged),
+        docSet.isPublic(),
+        docSet.users(),
+        docSet.groups()
+    ));
+    log.info("patch() - updated document set id = {}: added {}", batch.docSetId,
+        batch.additions.stream().map(String::valueOf).collect(Collectors.joining(",")));
+    return true;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    scheduler.shutdownNow();
+    List<Batch> abandoned;
+    synchronized (this) {
+      abandoned = new ArrayList<>(pending.values());
+      pending.clear();
+    }
+    abandoned.forEach(batch -> batch.result.completeExceptionally(
+        new IllegalStateException("Shutting down, document set id = " + batch.docSetId + " not updated")));
+  }
+
+  private static final class Batch {
+    private final UUID userId;
+    private final int docSetId;
+    private final Set<Integer> additions = new LinkedHashSet<>();
+    private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+    private Batch(UUID userId, int docSetId) {
+      this.userId = userId;
+      this.docSetId = docSetId;
+    }
+  }
+}
@@ -8,6 +8,7 @@ import ru.cleardocs.backend.entity.Plan;
 import ru.cleardocs.backend.exception.NotFoundException;
 import ru.cleardocs.backend.mapper.PlanMapper;
 import ru.cleardocs.backend.repository.PlanRepository;
+import ru.cleardocs.backend.util.ETagUtils;
 
 import java.util.List;
 import java.util.Optional;
@@ -31,6 +32,22 @@ public class PlanService {
     return new GetAllPlansDto(plans.stream().map(planMapper::toDto).toList());
   }
 
+  /**
+   * Strong ETag for getAll, from the plan and limit fields the response is built from.
+   * Reads the (small) plans table but skips mapping and serialization.
+   */
+  public String getAllETag() {
+    return ETagUtils.strongETag("plans", planRepository.findAll().stream()
+        .map(PlanService::versionOf)
+        .toList());
+  }
+
+  /** Plan and limit fields shown to clients, as one comparable string. */
+  static String versionOf(Plan plan) {
+    return plan.getCode() + "|" + plan.getTitle() + "|" + plan.getPriceRub() + "|" + plan.getPeriodDays() + "|"
+        + (plan.getLimit() != null ? plan.getLimit().getMaxConnectors() : null);
+  }
+
   public Plan getByCode(PlanCode code) {
     log.info("getByCode() - starts with code = {}", code);
     Optional<Plan> planOptional = planRepository.findByCode(code);
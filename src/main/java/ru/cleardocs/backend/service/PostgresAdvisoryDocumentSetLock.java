@@ -0,0 +1,42 @@
+package ru.cleardocs.backend.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * DocumentSetLock for several backend instances: a Postgres transaction-scoped advisory lock keyed by the
+ * user's id. The mutation runs in that (new) transaction, so its DB writes, e.g. a newly linked doc_set_id,
+ * commit before the lock is released and the next holder sees them.
+ * That transaction, and so one pooled DB connection, stays open for the whole mutation, including its Onyx
+ * HTTP calls (a document set read and PATCH, or a create), and a waiter blocked in pg_advisory_xact_lock holds
+ * one too. Size the DB pool for one connection per concurrently mutating user on top of the regular load.
+ */
+@Component
+@ConditionalOnProperty(name = "document-set.lock", havingValue = "postgres")
+public class PostgresAdvisoryDocumentSetLock implements DocumentSetLock {
+
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+
+  public PostgresAdvisoryDocumentSetLock(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+  }
+
+  @Override
+  public <T> T withLock(UUID userId, Supplier<T> mutation) {
+    long key = userId != null ? userId.getMostSignificantBits() ^ userId.getLeastSignificantBits() : 0L;
+    return transactionTemplate.execute(status -> {
+      jdbcTemplate.queryForList("SELECT pg_advisory_xact_lock(?)", key);
+      return mutation.get();
+    });
+  }
+}
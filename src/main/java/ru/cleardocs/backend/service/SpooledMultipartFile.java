@@ -0,0 +1,79 @@
+package ru.cleardocs.backend.service;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * MultipartFile over a file assembled by ChunkedUploadService, so finalized uploads go through
+ * the same createFileConnector flow as regular multipart requests. Content is read from disk on demand.
+ * If the content was hashed while it was spooled, UploadStoreService uses that hash instead of reading the file.
+ */
+class SpooledMultipartFile implements MultipartFile {
+
+  private final Path path;
+  private final String originalFilename;
+  private final long size;
+  private final String contentHash;
+
+  SpooledMultipartFile(Path path, String originalFilename, long size) {
+    this(path, originalFilename, size, null);
+  }
+
+  SpooledMultipartFile(Path path, String originalFilename, long size, String contentHash) {
+    this.path = path;
+    this.originalFilename = originalFilename;
+    this.size = size;
+    this.contentHash = contentHash;
+  }
+
+  /** Hex SHA-256 of the content computed while spooling, or null if it was not. */
+  String getContentHash() {
+    return contentHash;
+  }
+
+  @Override
+  public String getName() {
+    return "files";
+  }
+
+  @Override
+  public String getOriginalFilename() {
+    return originalFilename;
+  }
+
+  @Override
+  public String getContentType() {
+    return "application/octet-stream";
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public long getSize() {
+    return size;
+  }
+
+  @Override
+  public byte[] getBytes() throws IOException {
+    return Files.readAllBytes(path);
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return Files.newInputStream(path);
+  }
+
+  @Override
+  public void transferTo(File dest) throws IOException {
+    Files.copy(path, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+}
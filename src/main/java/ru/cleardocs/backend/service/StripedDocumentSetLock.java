@@ -0,0 +1,38 @@
+package ru.cleardocs.backend.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * In-JVM DocumentSetLock: a fixed array of locks, the user's id picks one. Different users may share
+ * a stripe, which only costs some waiting, never correctness. Enough for a single backend instance.
+ */
+@Component
+@ConditionalOnProperty(name = "document-set.lock", havingValue = "local", matchIfMissing = true)
+public class StripedDocumentSetLock implements DocumentSetLock {
+
+  private final ReentrantLock[] stripes;
+
+  public StripedDocumentSetLock(@Value("${document-set.lock.stripes:64}") int stripeCount) {
+    this.stripes = new ReentrantLock[Math.max(stripeCount, 1)];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new ReentrantLock();
+    }
+  }
+
+  @Override
+  public <T> T withLock(UUID userId, Supplier<T> mutation) {
+    ReentrantLock lock = stripes[userId != null ? Math.floorMod(userId.hashCode(), stripes.length) : 0];
+    lock.lock();
+    try {
+      return mutation.get();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,249 @@
+package ru.cleardocs.backend.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.multipart.MultipartFile;
+import ru.cleardocs.backend.client.onyx.OnyxClient;
+import ru.cleardocs.backend.client.onyx.OnyxFileUploadResponseDto;
+import ru.cleardocs.backend.entity.UploadedFile;
+import ru.cleardocs.backend.entity.UploadedFileUsage;
+import ru.cleardocs.backend.repository.UploadedFileRepository;
+import ru.cleardocs.backend.repository.UploadedFileUsageRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Content-addressed front of the Onyx file store. Each uploaded file is hashed (SHA-256): chunked uploads sent in
+ * order are hashed while they are spooled (SpooledMultipartFile.getContentHash), other files are read once more from
+ * their temp file in a small buffer. Files whose hash the same user already uploaded reuse the stored Onyx file_path
+ * and only the rest are sent to Onyx. Deduplication is per user, so paths never cross tenants.
+ * A stored path is reused only while no connector uses it (e.g. the upload of a creation that failed and is retried):
+ * Onyx may delete a file connector's files together with it, so two connectors never share a path. Paths used by
+ * a connector are recorded, and when it is deleted its entries are dropped. The returned file_paths/file_names keep
+ * the order of the input files.
+ * Metrics: onyx.upload.dedup{outcome=hit|miss} (files), onyx.upload.dedup.saved.bytes.
+ */
+@Slf4j
+@Service
+public class UploadStoreService {
+
+  private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+  private final OnyxClient onyxClient;
+  private final UploadedFileRepository uploadedFileRepository;
+  private final UploadedFileUsageRepository uploadedFileUsageRepository;
+  private final boolean enabled;
+  private final Counter hits;
+  private final Counter misses;
+  private final Counter savedBytes;
+
+  public UploadStoreService(
+      OnyxClient onyxClient,
+      UploadedFileRepository uploadedFileRepository,
+      UploadedFileUsageRepository uploadedFileUsageRepository,
+      MeterRegistry meterRegistry,
+      @Value("${upload.dedup.enabled:true}") boolean enabled
+  ) {
+    this.onyxClient = onyxClient;
+    this.uploadedFileRepository = uploadedFileRepository;
+    this.uploadedFileUsageRepository = uploadedFileUsageRepository;
+    this.enabled = enabled;
+    this.hits = Counter.builder("onyx.upload.dedup").tag("outcome", "hit").register(meterRegistry);
+    this.misses = Counter.builder("onyx.upload.dedup").tag("outcome", "miss").register(meterRegistry);
+    this.savedBytes = Counter.builder("onyx.upload.dedup.saved.bytes").baseUnit("bytes").register(meterRegistry);
+  }
+
+  /**
+   * Same contract as OnyxClient.uploadFiles, but files the user already uploaded, to a path no connector uses yet,
+   * are not uploaded again.
+   * If Onyx returns a different number of paths than files were sent (e.g. a zip expanded into several files),
+   * the reused paths come first and the uploaded ones after them, and the new paths are not remembered.
+   */
+  public OnyxFileUploadResponseDto upload(UUID userId, MultipartFile[] files) throws IOException {
+    if (!enabled) {
+      return onyxClient.uploadFiles(files);
+    }
+    List<MultipartFile> nonEmpty = new ArrayList<>();
+    List<String> hashes = new ArrayList<>();
+    for (MultipartFile file : files) {
+      if (!file.isEmpty()) {
+        nonEmpty.add(file);
+        hashes.add(contentHash(file));
+      }
+    }
+    if (nonEmpty.isEmpty()) {
+      return onyxClient.uploadFiles(files);
+    }
+
+    Map<String, String> pathByHash = uploadedFileRepository.findByUserIdAndContentHashIn(userId, hashes).stream()
+        .collect(Collectors.toMap(UploadedFile::getContentHash, UploadedFile::getFilePath));
+    if (!pathByHash.isEmpty()) {
+      // Paths a connector already uses are its own: uploaded again rather than shared
+      Set<String> inUse = uploadedFileUsageRepository.findByFilePathIn(pathByHash.values()).stream()
+          .map(UploadedFileUsage::getFilePath)
+          .collect(Collectors.toSet());
+      pathByHash.values().removeIf(inUse::contains);
+    }
+    Map<String, MultipartFile> missing = new LinkedHashMap<>();
+    for (int i = 0; i < nonEmpty.size(); i++) {
+      if (!pathByHash.containsKey(hashes.get(i))) {
+        missing.putIfAbsent(hashes.get(i), nonEmpty.get(i));
+      }
+    }
+
+    Map<String, String> uploadedNameByHash = Map.of();
+    if (!missing.isEmpty()) {
+      OnyxFileUploadResponseDto uploaded = onyxClient.uploadFiles(missing.values().toArray(MultipartFile[]::new));
+      if (uploaded.filePaths().size() != missing.size()) {
+        // e.g. a zip expanded into several files: paths cannot be matched to inputs, so they are not remembered
+        log.info("upload() - Onyx returned {} paths for {} files, not remembering them",
+            uploaded.filePaths().size(), missing.size());
+        return withReusedPaths(nonEmpty, hashes, pathByHash, uploaded);
+      }
+      List<String> missingHashes = new ArrayList<>(missing.keySet());
+      List<MultipartFile> missingFiles = new ArrayList<>(missing.values());
+      uploadedNameByHash = new LinkedHashMap<>();
+      for (int i = 0; i < missingHashes.size(); i++) {
+        String hash = missingHashes.get(i);
+        String path = uploaded.filePaths().get(i);
+        pathByHash.put(hash, path);
+        if (i < uploaded.fileNames().size()) {
+          uploadedNameByHash.put(hash, uploaded.fileNames().get(i));
+        }
+        remember(userId, hash, path, missingFiles.get(i).getSize());
+      }
+    }
+
+    List<String> filePaths = new ArrayList<>();
+    List<String> fileNames = new ArrayList<>();
+    for (int i = 0; i < nonEmpty.size(); i++) {
+      MultipartFile file = nonEmpty.get(i);
+      String hash = hashes.get(i);
+      filePaths.add(pathByHash.get(hash));
+      String originalName = file.getOriginalFilename() != null ? file.getOriginalFilename() : "file";
+      fileNames.add(missing.get(hash) == file ? uploadedNameByHash.getOrDefault(hash, originalName) : originalName);
+      if (missing.get(hash) == file) {
+        misses.increment();
+      } else {
+        hits.increment();
+        savedBytes.increment(file.getSize());
+      }
+    }
+    log.info("upload() - {} file(s), {} uploaded to Onyx, {} reused", nonEmpty.size(), missing.size(), nonEmpty.size() - missing.size());
+    return new OnyxFileUploadResponseDto(filePaths, fileNames, null);
+  }
+
+  /** Records the Onyx file paths a newly created connector uses. */
+  @Transactional
+  public void recordUsage(int ccPairId, List<String> filePaths) {
+    if (!enabled) {
+      return;
+    }
+    List<UploadedFileUsage> usages = filePaths.stream()
+        .distinct()
+        .map(path -> UploadedFileUsage.builder().ccPairId(ccPairId).filePath(path).build())
+        .toList();
+    uploadedFileUsageRepository.saveAll(usages);
+  }
+
+  /**
+   * Forgets a deleted connector's usages and drops stored paths no other connector uses any more, so later
+   * uploads of the same content go to Onyx again.
+   */
+  @Transactional
+  public void forgetConnector(int ccPairId) {
+    List<String> paths = uploadedFileUsageRepository.findByCcPairId(ccPairId).stream()
+        .map(UploadedFileUsage::getFilePath)
+        .distinct()
+        .toList();
+    if (paths.isEmpty()) {
+      return;
+    }
+    uploadedFileUsageRepository.deleteByCcPairId(ccPairId);
+    Set<String> stillUsed = uploadedFileUsageRepository.findByFilePathIn(paths).stream()
+        .map(UploadedFileUsage::getFilePath)
+        .collect(Collectors.toCollection(HashSet::new));
+    List<String> unused = paths.stream().filter(path -> !stillUsed.contains(path)).toList();
+    if (!unused.isEmpty()) {
+      uploadedFileRepository.deleteByFilePathIn(unused);
+    }
+    log.info("forgetConnector() - dropped {} of {} stored file path(s) of connector {}, the rest are used by other connectors",
+        unused.size(), paths.size(), ccPairId);
+  }
+
+  /** Reused paths in input order, then everything Onyx returned for the uploaded files. */
+  private OnyxFileUploadResponseDto withReusedPaths(List<MultipartFile> nonEmpty, List<String> hashes,
+                                                    Map<String, String> pathByHash, OnyxFileUploadResponseDto uploaded) {
+    List<String> filePaths = new ArrayList<>();
+    List<String> fileNames = new ArrayList<>();
+    for (int i = 0; i < nonEmpty.size(); i++) {
+      String path = pathByHash.get(hashes.get(i));
+      if (path != null) {
+        MultipartFile file = nonEmpty.get(i);
+        filePaths.add(path);
+        fileNames.add(file.getOriginalFilename() != null ? file.getOriginalFilename() : "file");
+        hits.increment();
+        savedBytes.increment(file.getSize());
+      }
+    }
+    misses.increment(nonEmpty.size() - filePaths.size());
+    filePaths.addAll(uploaded.filePaths());
+    fileNames.addAll(uploaded.fileNames());
+    return new OnyxFileUploadResponseDto(filePaths, fileNames, uploaded.zipMetadataFileId());
+  }
+
+  private void remember(UUID userId, String hash, String path, long size) {
+    try {
+      uploadedFileRepository.save(UploadedFile.builder()
+          .userId(userId)
+          .contentHash(hash)
+          .filePath(path)
+          .sizeBytes(size)
+          .build());
+    } catch (DataIntegrityViolationException e) {
+      // Stored already: by a concurrent upload of the same content, or for a path a connector uses
+      log.debug("remember() - hash {} already stored", hash);
+    }
+  }
+
+  private static String contentHash(MultipartFile file) throws IOException {
+    if (file instanceof SpooledMultipartFile spooled && spooled.getContentHash() != null) {
+      return spooled.getContentHash();
+    }
+    return sha256(file);
+  }
+
+  static String sha256(MultipartFile file) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    byte[] buffer = new byte[HASH_BUFFER_SIZE];
+    try (InputStream in = file.getInputStream()) {
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, n);
+      }
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+}
@@ -11,6 +11,7 @@ import ru.cleardocs.backend.entity.Plan;
 import ru.cleardocs.backend.entity.User;
 import ru.cleardocs.backend.mapper.UserMapper;
 import ru.cleardocs.backend.repository.UserRepository;
+import ru.cleardocs.backend.util.ETagUtils;
 
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
@@ -42,6 +43,14 @@ public class UserService {
     return response;
   }
 
+  /** Strong ETag for getMe, from the fields the response is built from. */
+  public String getMeETag(User user) {
+    Plan plan = user.getPlan();
+    return ETagUtils.strongETag("me", user.getId(), user.getEmail(), user.getName(), user.getDocSetId(),
+        user.getTochkaSubscriptionOperationId() == null,
+        plan != null ? PlanService.versionOf(plan) : null);
+  }
+
   /** No @Transactional: register() runs in repo's own tx; when it fails with duplicate key, we catch
    *  and refetch. Adding @Transactional here would mark the tx rollback-only and cause
    *  UnexpectedRollbackException when returning after catch. */
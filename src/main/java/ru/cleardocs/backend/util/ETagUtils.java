@@ -0,0 +1,49 @@
+package ru.cleardocs.backend.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Utility for building ETags from the values a response is derived from.
+ */
+public final class ETagUtils {
+
+  private static final int ETAG_BYTES = 16;
+
+  private ETagUtils() {
+  }
+
+  /**
+   * Returns a quoted strong ETag: the first 16 bytes of SHA-256 over the parts (null-safe, order-sensitive).
+   *
+   * @param parts values the response is derived from, e.g. ids and versions
+   * @return ETag, e.g. "\"3f1c...\""
+   */
+  public static String strongETag(Object... parts) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    for (Object part : parts) {
+      digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+    }
+    byte[] hash = digest.digest();
+    return "\"" + HexFormat.of().formatHex(hash, 0, ETAG_BYTES) + "\"";
+  }
+
+  /**
+   * Returns a weak ETag over the parts, for responses that are equivalent but not byte-identical while the
+   * tag stays the same (e.g. they carry a timestamp or an age).
+   *
+   * @param parts values the response is derived from, e.g. ids and versions
+   * @return ETag, e.g. "W/\"3f1c...\""
+   */
+  public static String weakETag(Object... parts) {
+    return "W/" + strongETag(parts);
+  }
+}
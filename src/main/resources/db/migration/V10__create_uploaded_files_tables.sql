@@ -0,0 +1,28 @@
+-- Content-addressed store of files already uploaded to Onyx, per user: SHA-256 of the content -> Onyx file store path.
+-- Deduplication is scoped to the uploading user: one user's files are never reused for another user's connectors.
+-- uploaded_file_usages records which connectors use a path: a path in use is not reused for another connector, and
+-- entries are dropped when such a connector is deleted (Onyx may delete the connector's files with it).
+CREATE TABLE uploaded_files
+(
+    id           UUID                        NOT NULL,
+    user_id      UUID                        NOT NULL,
+    content_hash VARCHAR(64)                 NOT NULL,
+    file_path    VARCHAR(1024)               NOT NULL,
+    size_bytes   BIGINT                      NOT NULL,
+    created_at   TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    CONSTRAINT pk_uploaded_files PRIMARY KEY (id),
+    CONSTRAINT uq_uploaded_files_user_id_content_hash UNIQUE (user_id, content_hash)
+);
+
+CREATE INDEX idx_uploaded_files_file_path ON uploaded_files (file_path);
+
+CREATE TABLE uploaded_file_usages
+(
+    id         UUID          NOT NULL,
+    cc_pair_id INTEGER       NOT NULL,
+    file_path  VARCHAR(1024) NOT NULL,
+    CONSTRAINT pk_uploaded_file_usages PRIMARY KEY (id)
+);
+
+CREATE INDEX idx_uploaded_file_usages_cc_pair_id ON uploaded_file_usages (cc_pair_id);
+CREATE INDEX idx_uploaded_file_usages_file_path ON uploaded_file_usages (file_path);
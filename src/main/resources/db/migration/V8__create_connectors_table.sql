@@ -0,0 +1,16 @@
+-- Local mirror of users' Onyx connectors (cc_pairs). Onyx stays the source of truth;
+-- rows are written on create/pause/resume/delete and reconciled by ConnectorMirrorService.
+CREATE TABLE connectors
+(
+    cc_pair_id INTEGER                     NOT NULL,
+    user_id    UUID                        NOT NULL,
+    doc_set_id INTEGER,
+    name       VARCHAR(255),
+    source     VARCHAR(255),
+    status     VARCHAR(255),
+    created_at TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    updated_at TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    CONSTRAINT pk_connectors PRIMARY KEY (cc_pair_id)
+);
+
+CREATE INDEX idx_connectors_user_id ON connectors (user_id);
@@ -0,0 +1,31 @@
+-- Asynchronous connector-creation jobs (POST /api/v1/connectors/jobs, /api/v1/connectors/jobs/url).
+-- Each finished step stores its result (file_paths, unique_name, cc_pair_id), so retries resume from the failed step.
+-- owner is the node that holds a job's spooled files and runs it, heartbeat_at when that node last reported the job
+-- alive. Jobs are claimed with a conditional UPDATE on status; stale RUNNING jobs are resumed by another node only
+-- when they no longer need the spool (past the UPLOAD step).
+CREATE TABLE connector_jobs
+(
+    id                  UUID                        NOT NULL,
+    user_id             UUID                        NOT NULL,
+    source              VARCHAR(255)                NOT NULL,
+    name                VARCHAR(255)                NOT NULL,
+    url                 TEXT,
+    status              VARCHAR(255)                NOT NULL,
+    step                VARCHAR(255)                NOT NULL,
+    attempts            INTEGER                     NOT NULL,
+    original_file_names TEXT,
+    file_paths          TEXT,
+    file_names          TEXT,
+    unique_name         VARCHAR(255),
+    cc_pair_id          INTEGER,
+    error               TEXT,
+    owner               VARCHAR(255),
+    heartbeat_at        TIMESTAMP WITHOUT TIME ZONE,
+    created_at          TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    updated_at          TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    CONSTRAINT pk_connector_jobs PRIMARY KEY (id)
+);
+
+CREATE INDEX idx_connector_jobs_user_id ON connector_jobs (user_id);
+CREATE INDEX idx_connector_jobs_status ON connector_jobs (status);
+CREATE INDEX idx_connector_jobs_owner ON connector_jobs (owner);
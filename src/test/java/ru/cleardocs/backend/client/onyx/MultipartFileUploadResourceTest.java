@@ -0,0 +1,139 @@
+package ru.cleardocs.backend.client.onyx;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.FormHttpMessageConverter;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MultipartFileUploadResourceTest {
+
+  private static final long FILE_SIZE = 8L * 1024 * 1024;
+  private static final int MAX_READ = 64 * 1024;
+
+  @Test
+  void contentLength_isTheFileSize_withoutReadingTheFile() throws Exception {
+    MultipartFile file = mock(MultipartFile.class);
+    when(file.getSize()).thenReturn(FILE_SIZE);
+
+    MultipartFileUploadResource resource = new MultipartFileUploadResource(file);
+
+    assertEquals(FILE_SIZE, resource.contentLength());
+    verify(file, never()).getInputStream();
+    verify(file, never()).getBytes();
+  }
+
+  @Test
+  void filename_isTheOriginalName_orFileWhenMissing() {
+    MultipartFile named = mock(MultipartFile.class);
+    when(named.getOriginalFilename()).thenReturn("report.pdf");
+    MultipartFile unnamed = mock(MultipartFile.class);
+
+    assertEquals("report.pdf", new MultipartFileUploadResource(named).getFilename());
+    assertEquals("file", new MultipartFileUploadResource(unnamed).getFilename());
+  }
+
+  @Test
+  void writingMultipartBody_streamsTheFileInSmallReads() throws Exception {
+    GeneratedInputStream content = new GeneratedInputStream(FILE_SIZE);
+    MultipartFile file = mock(MultipartFile.class);
+    when(file.getOriginalFilename()).thenReturn("big.bin");
+    when(file.getSize()).thenReturn(FILE_SIZE);
+    when(file.getInputStream()).thenReturn(content);
+
+    MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+    body.add("files", new MultipartFileUploadResource(file));
+    CountingOutputMessage message = new CountingOutputMessage();
+    new FormHttpMessageConverter().write(body, MediaType.MULTIPART_FORM_DATA, message);
+
+    assertTrue(message.count > FILE_SIZE, "whole file should be written, got " + message.count);
+    assertEquals(FILE_SIZE, content.position);
+    assertTrue(content.maxRead <= MAX_READ, "file read in chunks of up to " + content.maxRead + " bytes");
+    assertTrue(message.head().contains("filename=\"big.bin\""), message.head());
+    verify(file, times(1)).getInputStream();
+    verify(file, never()).getBytes();
+    verify(file, never()).getResource();
+  }
+
+  /** size bytes of generated content; records the largest single read. */
+  private static final class GeneratedInputStream extends InputStream {
+
+    private final long size;
+    private long position;
+    private int maxRead;
+
+    private GeneratedInputStream(long size) {
+      this.size = size;
+    }
+
+    @Override
+    public int read() {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (position >= size) {
+        return -1;
+      }
+      int n = (int) Math.min(len, size - position);
+      for (int i = 0; i < n; i++) {
+        b[off + i] = (byte) ('a' + (position + i) % 26);
+      }
+      position += n;
+      maxRead = Math.max(maxRead, n);
+      return n;
+    }
+  }
+
+  /** Counts the body bytes and keeps only the first few KiB, so the body itself is never held in memory. */
+  private static final class CountingOutputMessage implements HttpOutputMessage {
+
+    private final HttpHeaders headers = new HttpHeaders();
+    private final ByteArrayOutputStream head = new ByteArrayOutputStream();
+    private long count;
+
+    @Override
+    public OutputStream getBody() {
+      return new OutputStream() {
+        @Override
+        public void write(int b) {
+          write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+          int keep = (int) Math.max(0, Math.min(len, 4096 - head.size()));
+          head.write(b, off, keep);
+          count += len;
+        }
+      };
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return headers;
+    }
+
+    private String head() {
+      return head.toString(StandardCharsets.ISO_8859_1);
+    }
+  }
+}
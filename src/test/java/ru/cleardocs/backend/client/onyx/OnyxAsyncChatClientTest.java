@@ -0,0 +1,158 @@
+package ru.cleardocs.backend.client.onyx;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OnyxAsyncChatClientTest {
+
+  private static final String SSE = "data: {\"type\":\"message_delta\",\"delta\":\"Hello\"}\n\n"
+      + "data: {\"type\":\"message_end\"}\n\n";
+
+  private HttpServer server;
+  private OnyxAsyncChatClient client;
+  private final AtomicReference<String> receivedBody = new AtomicReference<>();
+  private final AtomicReference<String> receivedAuth = new AtomicReference<>();
+
+  @BeforeEach
+  void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/api/chat/send-chat-message", exchange -> {
+      receivedBody.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+      receivedAuth.set(exchange.getRequestHeaders().getFirst("Authorization"));
+      exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+      exchange.sendResponseHeaders(200, 0);
+      try (OutputStream out = exchange.getResponseBody()) {
+        for (String event : SSE.split("(?<=\n\n)")) {
+          out.write(event.getBytes(StandardCharsets.UTF_8));
+          out.flush();
+        }
+      }
+    });
+    server.start();
+    client = newClient("http://127.0.0.1:" + server.getAddress().getPort() + "/api/", 10);
+  }
+
+  @AfterEach
+  void tearDown() {
+    client.shutdown();
+    server.stop(0);
+  }
+
+  @Test
+  void relaysWholeStreamToSink_andForcesZeroTemperature() throws Exception {
+    ByteArrayOutputStream relayed = new ByteArrayOutputStream();
+
+    client.streamSendChatMessage("Bearer key", json("{\"message\":\"hi\",\"chat_session_id\":\"s-1\"}"), relayed::write)
+        .get(10, TimeUnit.SECONDS);
+
+    assertEquals(SSE, relayed.toString(StandardCharsets.UTF_8));
+    assertEquals("Bearer key", receivedAuth.get());
+    assertTrue(receivedBody.get().contains("\"temperature\":0"), receivedBody.get());
+  }
+
+  @Test
+  void errorStatus_failsTheFuture() {
+    server.removeContext("/api/chat/send-chat-message");
+    server.createContext("/api/chat/send-chat-message", exchange -> exchange.sendResponseHeaders(401, -1));
+
+    ExecutionException e = assertThrows(ExecutionException.class, () ->
+        client.streamSendChatMessage(null, json("{\"message\":\"hi\"}"), chunk -> { }).get(10, TimeUnit.SECONDS));
+    assertTrue(e.getCause().getMessage().contains("401"), e.getCause().getMessage());
+  }
+
+  @Test
+  void sinkFailure_failsTheFuture() {
+    ExecutionException e = assertThrows(ExecutionException.class, () ->
+        client.streamSendChatMessage(null, json("{\"message\":\"hi\"}"), chunk -> {
+          throw new IOException("Broken pipe");
+        }).get(10, TimeUnit.SECONDS));
+    assertEquals("Broken pipe", e.getCause().getMessage());
+  }
+
+  @Test
+  void streamsOverTheLimit_areRejected_untilOneEnds() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    server.removeContext("/api/chat/send-chat-message");
+    server.createContext("/api/chat/send-chat-message", exchange -> {
+      exchange.getRequestBody().readAllBytes();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      exchange.sendResponseHeaders(200, 0);
+      exchange.getResponseBody().close();
+    });
+    client.shutdown();
+    client = newClient("http://127.0.0.1:" + server.getAddress().getPort() + "/api/", 1);
+
+    CompletableFuture<Void> first = client.streamSendChatMessage(null, json("{\"message\":\"hi\"}"), chunk -> { });
+    assertThrows(TaskRejectedException.class, () ->
+        client.streamSendChatMessage(null, json("{\"message\":\"hi\"}"), chunk -> { }));
+
+    release.countDown();
+    first.get(10, TimeUnit.SECONDS);
+    client.streamSendChatMessage(null, json("{\"message\":\"hi\"}"), chunk -> { }).get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void stalledClients_doNotHoldTheCallbackThreads_otherStreamsStillComplete() throws Exception {
+    CountDownLatch unstall = new CountDownLatch(1);
+    CountDownLatch stalled = new CountDownLatch(3);
+    OnyxAsyncChatClient.ChunkSink stalledSink = chunk -> {
+      stalled.countDown();
+      try {
+        unstall.await(30, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+    };
+    // One more stalled client than there are callback threads (2)
+    CompletableFuture<Void> slow1 = client.streamSendChatMessage(null, json("{\"message\":\"hi\"}"), stalledSink);
+    CompletableFuture<Void> slow2 = client.streamSendChatMessage(null, json("{\"message\":\"hi\"}"), stalledSink);
+    CompletableFuture<Void> slow3 = client.streamSendChatMessage(null, json("{\"message\":\"hi\"}"), stalledSink);
+    try {
+      assertTrue(stalled.await(10, TimeUnit.SECONDS));
+
+      ByteArrayOutputStream relayed = new ByteArrayOutputStream();
+      client.streamSendChatMessage(null, json("{\"message\":\"hi\"}"), relayed::write).get(10, TimeUnit.SECONDS);
+      assertEquals(SSE, relayed.toString(StandardCharsets.UTF_8));
+    } finally {
+      unstall.countDown();
+    }
+    CompletableFuture.allOf(slow1, slow2, slow3).get(10, TimeUnit.SECONDS);
+  }
+
+  private static InputStream json(String body) {
+    return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static OnyxAsyncChatClient newClient(String baseUrl, int maxStreams) {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    OnyxCircuitBreaker circuitBreaker = new OnyxCircuitBreaker(true, 30, 10, 50, 5000, 80, 15, meterRegistry);
+    return new OnyxAsyncChatClient(baseUrl, 1, 2000, 2, 4, maxStreams, circuitBreaker, meterRegistry, new ObjectMapper());
+  }
+}
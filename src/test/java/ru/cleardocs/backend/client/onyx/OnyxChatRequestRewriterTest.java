@@ -0,0 +1,100 @@
+package ru.cleardocs.backend.client.onyx;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import ru.cleardocs.backend.exception.BadRequestException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OnyxChatRequestRewriterTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final OnyxChatRequestRewriter rewriter = new OnyxChatRequestRewriter(objectMapper);
+
+  @Test
+  void addsLlmOverride_andKeepsOtherFields() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    OnyxChatRequestRewriter.ChatRequestSummary summary = rewriter.rewrite(
+        in("{\"message\":\"hi\",\"chat_session_id\":\"s-1\",\"retrieval_options\":{\"filters\":[1,2]}}"), out);
+
+    JsonNode written = objectMapper.readTree(out.toByteArray());
+    assertEquals("hi", written.get("message").asText());
+    assertEquals("[1,2]", written.get("retrieval_options").get("filters").toString());
+    assertEquals(0, written.get("llm_override").get("temperature").asInt());
+    assertEquals("s-1", summary.chatSessionId());
+    assertEquals(2, summary.messageLength());
+    assertEquals("hi", summary.messagePreview());
+  }
+
+  @Test
+  void replacesTemperature_andKeepsOtherOverrides() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    rewriter.rewrite(in("{\"llm_override\":{\"temperature\":0.9,\"model_version\":\"gpt\"},\"message\":\"hi\"}"), out);
+
+    JsonNode override = objectMapper.readTree(out.toByteArray()).get("llm_override");
+    assertEquals(0, override.get("temperature").asInt());
+    assertEquals("gpt", override.get("model_version").asText());
+    assertEquals(2, override.size());
+  }
+
+  @Test
+  void nonObjectLlmOverride_isReplaced() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    rewriter.rewrite(in("{\"llm_override\":null,\"message\":\"hi\"}"), out);
+
+    assertEquals("{\"temperature\":0}", objectMapper.readTree(out.toByteArray()).get("llm_override").toString());
+  }
+
+  @Test
+  void longMessage_isCopiedWhole_andOnlyPreviewed() throws Exception {
+    String message = "x".repeat(100_000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    OnyxChatRequestRewriter.ChatRequestSummary summary = rewriter.rewrite(in("{\"message\":\"" + message + "\"}"), out);
+
+    assertEquals(message, objectMapper.readTree(out.toByteArray()).get("message").asText());
+    assertEquals(100_000, summary.messageLength());
+    assertEquals("x".repeat(80) + "...", summary.messagePreview());
+    assertNull(summary.chatSessionId());
+  }
+
+  @Test
+  void invalidBody_isBadRequest() {
+    assertThrows(BadRequestException.class, () -> rewriter.rewrite(in("[1,2]"), new ByteArrayOutputStream()));
+    assertThrows(BadRequestException.class, () -> rewriter.rewrite(in("{\"message\":"), new ByteArrayOutputStream()));
+    assertThrows(BadRequestException.class, () -> rewriter.rewrite(in(""), new ByteArrayOutputStream()));
+  }
+
+  @Test
+  void doesNotCloseTheUpstreamStream() throws IOException {
+    boolean[] closed = {false};
+    ByteArrayOutputStream out = new ByteArrayOutputStream() {
+      @Override
+      public void close() {
+        closed[0] = true;
+      }
+    };
+
+    rewriter.rewrite(in("{\"message\":\"hi\"}"), out);
+
+    assertFalse(closed[0]);
+    assertTrue(out.size() > 0);
+  }
+
+  private static ByteArrayInputStream in(String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+}
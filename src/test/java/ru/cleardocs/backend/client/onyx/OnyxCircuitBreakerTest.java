@@ -0,0 +1,89 @@
+package ru.cleardocs.backend.client.onyx;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import ru.cleardocs.backend.exception.OnyxUnavailableException;
+
+import java.net.ConnectException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OnyxCircuitBreakerTest {
+
+  private static OnyxCircuitBreaker breaker(long openSeconds) {
+    return new OnyxCircuitBreaker(true, 30, 4, 50, 5000, 80, openSeconds, new SimpleMeterRegistry());
+  }
+
+  @Test
+  void failureRateOverThreshold_opensCircuit_andRejectsWithoutCalling() {
+    OnyxCircuitBreaker breaker = breaker(60);
+    breaker.call(() -> "ok");
+    breaker.call(() -> "ok");
+    fail(breaker);
+    assertEquals(OnyxCircuitBreaker.State.CLOSED, breaker.state());
+    fail(breaker);
+
+    assertEquals(OnyxCircuitBreaker.State.OPEN, breaker.state());
+    AtomicInteger calls = new AtomicInteger();
+    assertThrows(OnyxUnavailableException.class, () -> breaker.call(calls::incrementAndGet));
+    assertEquals(0, calls.get());
+  }
+
+  @Test
+  void clientErrors_doNotCountAsFailures() {
+    OnyxCircuitBreaker breaker = breaker(60);
+    for (int i = 0; i < 10; i++) {
+      assertThrows(HttpClientErrorException.class, () -> breaker.call(() -> {
+        throw new HttpClientErrorException(HttpStatus.NOT_FOUND);
+      }));
+    }
+    assertEquals(OnyxCircuitBreaker.State.CLOSED, breaker.state());
+  }
+
+  @Test
+  void afterOpenPeriod_successfulProbeClosesCircuit_failedProbeReopensIt() {
+    OnyxCircuitBreaker breaker = breaker(0);
+    for (int i = 0; i < 4; i++) {
+      fail(breaker);
+    }
+    assertEquals(OnyxCircuitBreaker.State.OPEN, breaker.state());
+
+    fail(breaker);
+    assertEquals(OnyxCircuitBreaker.State.OPEN, breaker.state());
+
+    assertEquals("ok", breaker.call(() -> "ok"));
+    assertEquals(OnyxCircuitBreaker.State.CLOSED, breaker.state());
+  }
+
+  @Test
+  void asyncCalls_failedOutcomesOpenCircuit_whenTheyComplete() {
+    OnyxCircuitBreaker breaker = breaker(60);
+    CompletableFuture<Integer> pending = breaker.callAsync(CompletableFuture::new, status -> status >= 500);
+    breaker.callAsync(() -> CompletableFuture.completedFuture(200), status -> status >= 500);
+    breaker.callAsync(() -> CompletableFuture.completedFuture(503), status -> status >= 500);
+    breaker.callAsync(() -> CompletableFuture.failedFuture(new ConnectException("Connection refused")), status -> status >= 500);
+    assertEquals(OnyxCircuitBreaker.State.CLOSED, breaker.state());
+
+    pending.complete(502);
+
+    assertEquals(OnyxCircuitBreaker.State.OPEN, breaker.state());
+    AtomicInteger calls = new AtomicInteger();
+    assertThrows(OnyxUnavailableException.class, () -> breaker.callAsync(() -> {
+      calls.incrementAndGet();
+      return CompletableFuture.completedFuture(200);
+    }, status -> status >= 500));
+    assertEquals(0, calls.get());
+  }
+
+  private static void fail(OnyxCircuitBreaker breaker) {
+    assertThrows(ResourceAccessException.class, () -> breaker.call(() -> {
+      throw new ResourceAccessException("Connection refused");
+    }));
+  }
+}
@@ -8,19 +8,33 @@ import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Primary;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.ExpectedCount;
 import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
 
 @SpringBootTest
@@ -38,6 +52,9 @@ class OnyxClientTest {
   @BeforeEach
   void setUp() {
     mockServer = MockRestServiceServer.createServer(restTemplate);
+    // The caches outlive a test (shared context); make each test's first lookup read the mock server
+    ((OnyxDocumentSetCatalog) ReflectionTestUtils.getField(onyxClient, "documentSetCatalog")).reset();
+    ((OnyxIndexingStatusCache) ReflectionTestUtils.getField(onyxClient, "indexingStatusCache")).reset();
   }
 
   @Test
@@ -57,6 +74,44 @@ class OnyxClientTest {
     assertTrue(thrown.getMessage().contains("Onyx returned null cc_pair_status for cc_pair_id=123"));
   }
 
+  @Test
+  void deleteConnector_notIndexed_resolvesWithTargetedCcPairRead() {
+    mockServer.expect(requestTo(containsString("/admin/cc-pair/555/status")))
+        .andExpect(method(HttpMethod.PUT))
+        .andRespond(withSuccess());
+    mockServer.expect(requestTo(endsWith("/admin/cc-pair/555")))
+        .andExpect(method(HttpMethod.GET))
+        .andRespond(withSuccess("{\"id\":555,\"status\":\"PAUSED\",\"connector\":{\"id\":7},\"credential\":{\"id\":8}}",
+            MediaType.APPLICATION_JSON));
+    mockServer.expect(requestTo(containsString("/admin/deletion-attempt")))
+        .andExpect(method(HttpMethod.POST))
+        .andExpect(content().json("{\"connector_id\":7,\"credential_id\":8}"))
+        .andRespond(withSuccess());
+
+    onyxClient.pauseConnector(555);
+    onyxClient.deleteConnector(555);
+
+    mockServer.verify();
+  }
+
+  @Test
+  void getCcPairStatus_missAfterThePoll_readsThatCcPairOnly() {
+    mockServer.expect(requestTo(containsString("indexing-status")))
+        .andExpect(method(HttpMethod.POST))
+        .andRespond(withSuccess("[{\"indexing_statuses\":[{\"cc_pair_id\":1,\"cc_pair_status\":\"ACTIVE\"}]}]",
+            MediaType.APPLICATION_JSON));
+    mockServer.expect(requestTo(endsWith("/admin/cc-pair/777")))
+        .andExpect(method(HttpMethod.GET))
+        .andRespond(withSuccess("{\"id\":777,\"status\":\"SCHEDULED\",\"connector\":{\"id\":7},\"credential\":{\"id\":8}}",
+            MediaType.APPLICATION_JSON));
+
+    assertEquals(Map.of(1, "ACTIVE"), onyxClient.getCcPairStatuses(List.of(1)));
+    assertEquals("SCHEDULED", onyxClient.getCcPairStatus(777));
+    assertEquals(Map.of(1, "ACTIVE", 777, "SCHEDULED"), onyxClient.getCcPairStatuses(List.of(1, 777)));
+
+    mockServer.verify();
+  }
+
   @Test
   void streamSendChatMessage_writesFullStreamWithFlush() throws Exception {
     String ssePayload = "data: {\"type\":\"message_delta\",\"delta\":\"Hello\"}\n\n"
@@ -65,10 +120,11 @@ class OnyxClientTest {
 
     mockServer.expect(requestTo(containsString("send-chat-message")))
         .andExpect(method(HttpMethod.POST))
+        .andExpect(content().json("{\"message\":\"hi\",\"chat_session_id\":\"sess-1\",\"llm_override\":{\"temperature\":0}}"))
         .andRespond(withSuccess(ssePayload, MediaType.TEXT_EVENT_STREAM));
 
     var out = new ByteArrayOutputStream();
-    var request = Map.<String, Object>of("message", "hi", "chat_session_id", "sess-1");
+    var request = new ByteArrayInputStream("{\"message\":\"hi\",\"chat_session_id\":\"sess-1\"}".getBytes(StandardCharsets.UTF_8));
     onyxClient.streamSendChatMessage("Bearer key", request, out);
 
     String result = out.toString();
@@ -79,6 +135,87 @@ class OnyxClientTest {
     mockServer.verify();
   }
 
+  @Test
+  void fetchDocumentSetFresh_readsOnyxEvenWhenTheCatalogIsLoaded() {
+    String before = "[{\"id\":42,\"name\":\"Documents\",\"cc_pair_summaries\":[{\"id\":1}]}]";
+    String after = "[{\"id\":42,\"name\":\"Documents\",\"cc_pair_summaries\":[{\"id\":1},{\"id\":2}]}]";
+    mockServer.expect(requestTo(containsString("/document-set")))
+        .andExpect(method(HttpMethod.GET))
+        .andRespond(withSuccess(before, MediaType.APPLICATION_JSON));
+    mockServer.expect(requestTo(containsString("/document-set")))
+        .andExpect(method(HttpMethod.GET))
+        .andRespond(withSuccess(after, MediaType.APPLICATION_JSON));
+
+    assertEquals(1, onyxClient.getDocumentSetById(42).orElseThrow().ccPairSummaries().size());
+    assertEquals(2, onyxClient.fetchDocumentSetFresh(42).orElseThrow().ccPairSummaries().size());
+    mockServer.verify();
+  }
+
+  @Test
+  void getDocumentSetById_onyxServerError_isThrownNotTreatedAsMissing() {
+    mockServer.expect(requestTo(containsString("/document-set")))
+        .andExpect(method(HttpMethod.GET))
+        .andRespond(withServerError());
+
+    assertThrows(HttpServerErrorException.class, () -> onyxClient.getDocumentSetById(43));
+    mockServer.verify();
+  }
+
+  @Test
+  void getDocumentSetById_notFound_returnsEmpty() {
+    mockServer.expect(requestTo(containsString("/document-set")))
+        .andExpect(method(HttpMethod.GET))
+        .andRespond(withStatus(HttpStatus.NOT_FOUND));
+
+    assertTrue(onyxClient.getDocumentSetById(43).isEmpty());
+    mockServer.verify();
+  }
+
+  @Test
+  void uploadFiles_multipleFiles_uploadsInParallelBatches_andMergesInOrder() throws Exception {
+    MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+    for (String name : List.of("a.txt", "b.txt", "c.txt")) {
+      server.expect(requestTo(containsString("/admin/connector/file/upload")))
+          .andExpect(method(HttpMethod.POST))
+          .andExpect(content().string(containsString("filename=\"" + name + "\"")))
+          .andRespond(withSuccess("{\"file_paths\":[\"path-" + name + "\"],\"file_names\":[\"" + name + "\"]}",
+              MediaType.APPLICATION_JSON));
+    }
+
+    MultipartFile[] files = {
+        new MockMultipartFile("files", "a.txt", null, "a".getBytes()),
+        new MockMultipartFile("files", "b.txt", null, "b".getBytes()),
+        new MockMultipartFile("files", "c.txt", null, "c".getBytes())
+    };
+    OnyxFileUploadResponseDto response = onyxClient.uploadFiles(files);
+
+    assertEquals(List.of("path-a.txt", "path-b.txt", "path-c.txt"), response.filePaths());
+    assertEquals(List.of("a.txt", "b.txt", "c.txt"), response.fileNames());
+    server.verify();
+  }
+
+  @Test
+  void uploadFiles_batchFails_rethrowsTheFailure() {
+    MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+    for (String name : List.of("a.txt", "c.txt")) {
+      server.expect(ExpectedCount.between(0, 1), requestTo(containsString("/admin/connector/file/upload")))
+          .andExpect(content().string(containsString("filename=\"" + name + "\"")))
+          .andRespond(withSuccess("{\"file_paths\":[\"path-" + name + "\"],\"file_names\":[\"" + name + "\"]}",
+              MediaType.APPLICATION_JSON));
+    }
+    server.expect(requestTo(containsString("/admin/connector/file/upload")))
+        .andExpect(content().string(containsString("filename=\"b.txt\"")))
+        .andRespond(withServerError());
+
+    MultipartFile[] files = {
+        new MockMultipartFile("files", "a.txt", null, "a".getBytes()),
+        new MockMultipartFile("files", "b.txt", null, "b".getBytes()),
+        new MockMultipartFile("files", "c.txt", null, "c".getBytes())
+    };
+
+    assertThrows(RuntimeException.class, () -> onyxClient.uploadFiles(files));
+  }
+
   @TestConfiguration
   static class TestConfig {
 
@@ -92,5 +229,10 @@ class OnyxClientTest {
     RestTemplate onyxStreamingRestTemplate(RestTemplate restTemplate) {
       return restTemplate;  // same instance — MockRestServiceServer intercepts streamSendChatMessage
     }
+
+    @Bean("onyxUploadRestTemplate")
+    RestTemplate onyxUploadRestTemplate(RestTemplate restTemplate) {
+      return restTemplate;  // same instance — MockRestServiceServer intercepts uploadFiles
+    }
   }
 }
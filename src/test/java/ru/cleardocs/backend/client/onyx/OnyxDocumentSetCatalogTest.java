@@ -0,0 +1,91 @@
+package ru.cleardocs.backend.client.onyx;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OnyxDocumentSetCatalogTest {
+
+  private static OnyxDocumentSetDto docSet(int id, String... connectorNames) {
+    List<OnyxConnectorSummaryDto> summaries = Arrays.stream(connectorNames)
+        .map(n -> new OnyxConnectorSummaryDto(n.hashCode(), n, "file", "public"))
+        .toList();
+    return new OnyxDocumentSetDto(id, "Documents " + id, "", summaries, List.of(), true, List.of(), List.of());
+  }
+
+  @Test
+  void lookups_loadOnceAndServeFromSnapshot() {
+    AtomicInteger loads = new AtomicInteger();
+    OnyxDocumentSetCatalog catalog = new OnyxDocumentSetCatalog(() -> {
+      loads.incrementAndGet();
+      return List.of(docSet(1, "A", "B"), docSet(2, "C"));
+    }, Duration.ofMinutes(1));
+
+    assertEquals(Optional.of(2), catalog.findById(2).map(OnyxDocumentSetDto::id));
+    assertTrue(catalog.findById(3).isEmpty());
+    assertEquals(Set.of("A", "B", "C"), catalog.connectorNames());
+    assertEquals(Optional.of(1), catalog.findDocSetIdByConnectorName("B"));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void invalidate_keepsServingTheSnapshot_untilTheBackgroundReloadReplacesIt() {
+    AtomicInteger loads = new AtomicInteger();
+    List<Runnable> reloads = new ArrayList<>();
+    OnyxDocumentSetCatalog catalog = new OnyxDocumentSetCatalog(() -> {
+      int n = loads.incrementAndGet();
+      return n == 1 ? List.of(docSet(1, "A")) : List.of(docSet(1, "A", "B"));
+    }, Duration.ofMinutes(1), reloads::add);
+
+    assertEquals(Set.of("A"), catalog.connectorNames());
+    catalog.invalidate();
+    catalog.invalidate();
+    assertEquals(Set.of("A"), catalog.connectorNames());
+    assertTrue(catalog.isLoaded());
+    assertEquals(1, reloads.size());
+
+    reloads.get(0).run();
+    assertEquals(Set.of("A", "B"), catalog.connectorNames());
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void invalidate_beforeTheFirstLoad_startsNoReload() {
+    List<Runnable> reloads = new ArrayList<>();
+    OnyxDocumentSetCatalog catalog = new OnyxDocumentSetCatalog(() -> List.of(docSet(1, "A")), Duration.ofMinutes(1),
+        reloads::add);
+
+    catalog.invalidate();
+
+    assertTrue(reloads.isEmpty());
+    assertEquals(Set.of("A"), catalog.connectorNames());
+  }
+
+  @Test
+  void refreshIfLoaded_doesNothingBeforeFirstLookup_andKeepsSnapshotOnFailure() {
+    AtomicInteger loads = new AtomicInteger();
+    OnyxDocumentSetCatalog catalog = new OnyxDocumentSetCatalog(() -> {
+      if (loads.incrementAndGet() > 1) {
+        throw new IllegalStateException("Onyx unavailable");
+      }
+      return List.of(docSet(1, "A"));
+    }, Duration.ZERO);
+
+    catalog.refreshIfLoaded();
+    assertEquals(0, loads.get());
+
+    assertTrue(catalog.findById(1).isPresent());
+    catalog.refreshIfLoaded();
+    assertEquals(2, loads.get());
+    assertEquals(Set.of("A"), catalog.connectorNames());
+  }
+}
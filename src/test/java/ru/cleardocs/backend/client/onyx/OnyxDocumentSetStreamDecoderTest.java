@@ -0,0 +1,60 @@
+package ru.cleardocs.backend.client.onyx;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OnyxDocumentSetStreamDecoderTest {
+
+  private static final String RESPONSE = """
+      [
+        {"id": 1, "name": "Other", "description": "", "is_public": true,
+         "cc_pair_summaries": [{"id": 10, "name": "Other docs", "source": "file", "access_type": "public"}],
+         "federated_connector_summaries": [], "users": [], "groups": [1, 2]},
+        {"name": "Documents", "id": 42, "description": "mine", "is_public": false,
+         "cc_pair_summaries": [{"id": 11, "name": "My docs", "source": "file", "access_type": "public", "extra": {"x": 1}}],
+         "federated_connector_summaries": [{"id": 12, "name": "Slack", "source": "slack"}],
+         "users": ["6f1c5a3e-1d3c-4c62-9a3e-2a7b9f2b1c11"], "groups": null, "unknown": [1, [2, {"a": 3}]]},
+        {"id": 43, "name": "Broken", "cc_pair_summaries": [{"id": 13, "name": " "}]}
+      ]
+      """;
+
+  private final OnyxDocumentSetStreamDecoder decoder = new OnyxDocumentSetStreamDecoder(new ObjectMapper());
+
+  private static InputStream body() {
+    return new ByteArrayInputStream(RESPONSE.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void findById_returnsMatchingDocumentSet() throws Exception {
+    Optional<OnyxDocumentSetDto> docSet = decoder.findById(body(), 42);
+
+    assertTrue(docSet.isPresent());
+    assertEquals("Documents", docSet.get().name());
+    assertEquals("mine", docSet.get().description());
+    assertEquals(false, docSet.get().isPublic());
+    assertEquals(List.of(11), docSet.get().ccPairSummaries().stream().map(OnyxConnectorSummaryDto::id).toList());
+    assertEquals("Slack", docSet.get().federatedConnectorSummaries().get(0).name());
+    assertEquals(1, docSet.get().users().size());
+    assertTrue(docSet.get().groups().isEmpty());
+  }
+
+  @Test
+  void findById_unknownId_returnsEmpty() throws Exception {
+    assertTrue(decoder.findById(body(), 7).isEmpty());
+  }
+
+  @Test
+  void connectorNames_collectsNamesFromAllDocumentSets() throws Exception {
+    assertEquals(Set.of("Other docs", "My docs", "Slack"), decoder.connectorNames(body()));
+  }
+}
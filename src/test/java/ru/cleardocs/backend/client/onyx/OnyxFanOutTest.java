@@ -0,0 +1,154 @@
+package ru.cleardocs.backend.client.onyx;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OnyxFanOutTest {
+
+  private final OnyxFanOut fanOut = new OnyxFanOut(4, 16, 30_000);
+
+  @AfterEach
+  void tearDown() {
+    fanOut.shutdown();
+  }
+
+  @Test
+  void join_returnsForkedResults() {
+    try (OnyxFanOut.Scope scope = fanOut.open()) {
+      Supplier<String> a = scope.fork(() -> "a");
+      Supplier<Integer> b = scope.fork(() -> 2);
+      scope.join();
+
+      assertEquals("a", a.get());
+      assertEquals(2, b.get());
+    }
+  }
+
+  @Test
+  void join_pastDeadline_throwsAndInterruptsRunningCalls() throws Exception {
+    CountDownLatch interrupted = new CountDownLatch(1);
+
+    try (OnyxFanOut.Scope scope = fanOut.open(Duration.ofMillis(100))) {
+      scope.fork(() -> sleepUntilInterrupted(interrupted));
+      IllegalStateException e = assertThrows(IllegalStateException.class, scope::join);
+      assertTrue(e.getMessage().contains("100 ms"), e.getMessage());
+    }
+
+    assertTrue(interrupted.await(5, TimeUnit.SECONDS), "timed-out call should be interrupted");
+  }
+
+  @Test
+  void join_failure_isRethrownAndCancelsTheOthers() throws Exception {
+    CountDownLatch interrupted = new CountDownLatch(1);
+    CountDownLatch slowStarted = new CountDownLatch(1);
+
+    try (OnyxFanOut.Scope scope = fanOut.open()) {
+      scope.fork(() -> {
+        await(slowStarted);
+        throw new IllegalArgumentException("boom");
+      });
+      scope.fork(() -> {
+        slowStarted.countDown();
+        return sleepUntilInterrupted(interrupted);
+      });
+
+      IllegalArgumentException e = assertThrows(IllegalArgumentException.class, scope::join);
+      assertEquals("boom", e.getMessage());
+    }
+
+    assertTrue(interrupted.await(5, TimeUnit.SECONDS), "other calls should be interrupted");
+  }
+
+  @Test
+  void close_withoutJoin_cancelsRunningCalls() throws Exception {
+    CountDownLatch interrupted = new CountDownLatch(1);
+    CountDownLatch started = new CountDownLatch(1);
+
+    try (OnyxFanOut.Scope scope = fanOut.open()) {
+      scope.fork(() -> {
+        started.countDown();
+        return sleepUntilInterrupted(interrupted);
+      });
+      await(started);
+    }
+
+    assertTrue(interrupted.await(5, TimeUnit.SECONDS), "closing the scope should interrupt the call");
+  }
+
+  @Test
+  void readingResultBeforeJoin_throws() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    try (OnyxFanOut.Scope scope = fanOut.open()) {
+      Supplier<String> result = scope.fork(() -> {
+        await(release);
+        return "late";
+      });
+
+      assertThrows(IllegalStateException.class, result::get);
+      release.countDown();
+    }
+  }
+
+  @Test
+  void fork_sharesCallersReadContext() {
+    try (OnyxReadContext.Scope ignored = OnyxReadContext.open()) {
+      OnyxReadContext callerContext = OnyxReadContext.current();
+      AtomicBoolean forkedThread = new AtomicBoolean();
+      Thread caller = Thread.currentThread();
+
+      try (OnyxFanOut.Scope scope = fanOut.open()) {
+        Supplier<OnyxReadContext> seen = scope.fork(() -> {
+          forkedThread.set(Thread.currentThread() != caller);
+          OnyxReadContext.memoize("key", () -> "read in fork");
+          return OnyxReadContext.current();
+        });
+        scope.join();
+
+        assertSame(callerContext, seen.get());
+      }
+      assertTrue(forkedThread.get(), "call should have run on a fan-out thread");
+      assertEquals("read in fork", OnyxReadContext.memoize("key", () -> "read again"));
+    }
+  }
+
+  @Test
+  void fork_withoutReadContext_leavesPoolThreadWithoutContext() {
+    try (OnyxFanOut.Scope scope = fanOut.open()) {
+      Supplier<OnyxReadContext> seen = scope.fork(OnyxReadContext::current);
+      scope.join();
+
+      assertNull(seen.get());
+    }
+  }
+
+  private static String sleepUntilInterrupted(CountDownLatch interrupted) {
+    try {
+      Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+      return "not interrupted";
+    } catch (InterruptedException e) {
+      interrupted.countDown();
+      Thread.currentThread().interrupt();
+      return "interrupted";
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package ru.cleardocs.backend.client.onyx;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OnyxIndexingStatusCacheTest {
+
+  private static List<OnyxConnectorIndexingStatusLiteResponseDto> statuses(OnyxConnectorIndexingStatusLiteDto... items) {
+    return List.of(new OnyxConnectorIndexingStatusLiteResponseDto(List.of(items)));
+  }
+
+  @Test
+  void lookup_findsStatusesByCcPairIdRegardlessOfResponseOrder() {
+    AtomicInteger polls = new AtomicInteger();
+    OnyxIndexingStatusCache cache = new OnyxIndexingStatusCache(() -> {
+      polls.incrementAndGet();
+      return statuses(
+          new OnyxConnectorIndexingStatusLiteDto(30, "PAUSED"),
+          new OnyxConnectorIndexingStatusLiteDto(10, "ACTIVE"),
+          new OnyxConnectorIndexingStatusLiteDto(20, null));
+    }, Duration.ofMinutes(1));
+
+    assertEquals("ACTIVE", cache.statusOrDefault(10, "UNKNOWN"));
+    assertEquals("PAUSED", cache.statusOrDefault(30, "UNKNOWN"));
+    assertEquals("UNKNOWN", cache.statusOrDefault(20, "UNKNOWN"));
+    assertTrue(cache.lookup(20).found());
+    assertNull(cache.lookup(20).status());
+    assertFalse(cache.lookup(40).found());
+    assertEquals(1, polls.get());
+    assertNotNull(cache.age());
+  }
+
+  @Test
+  void putStatus_overridesPolledStatusUntilNextPoll() {
+    AtomicInteger polls = new AtomicInteger();
+    OnyxIndexingStatusCache cache = new OnyxIndexingStatusCache(() -> {
+      polls.incrementAndGet();
+      return statuses(new OnyxConnectorIndexingStatusLiteDto(10, polls.get() == 1 ? "ACTIVE" : "PAUSED"));
+    }, Duration.ofMinutes(1));
+
+    assertEquals("ACTIVE", cache.statusOrDefault(10, "UNKNOWN"));
+    cache.putStatus(10, "PAUSED");
+    cache.putStatus(11, "SCHEDULED");
+    assertEquals("PAUSED", cache.statusOrDefault(10, "UNKNOWN"));
+    assertEquals("SCHEDULED", cache.statusOrDefault(11, "UNKNOWN"));
+
+    cache.refresh();
+    assertEquals("PAUSED", cache.statusOrDefault(10, "UNKNOWN"));
+    assertFalse(cache.lookup(11).found());
+  }
+
+  @Test
+  void refreshOnMiss_isRateLimited() {
+    AtomicInteger polls = new AtomicInteger();
+    OnyxIndexingStatusCache cache = new OnyxIndexingStatusCache(() -> {
+      polls.incrementAndGet();
+      return statuses(new OnyxConnectorIndexingStatusLiteDto(10, "ACTIVE"));
+    }, Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+    assertTrue(cache.refreshOnMiss());
+    assertFalse(cache.refreshOnMiss());
+    assertFalse(cache.lookup(11).found());
+    assertFalse(cache.refreshOnMiss());
+    assertEquals(1, polls.get());
+  }
+}
@@ -0,0 +1,69 @@
+package ru.cleardocs.backend.client.onyx;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class OnyxReadContextTest {
+
+  @Test
+  void memoize_withinContext_readsOnce_untilInvalidated() {
+    AtomicInteger reads = new AtomicInteger();
+    try (OnyxReadContext.Scope ignored = OnyxReadContext.open()) {
+      assertEquals(Set.of("a"), OnyxReadContext.memoize("names", () -> count(reads, Set.of("a"))));
+      assertEquals(Set.of("a"), OnyxReadContext.memoize("names", () -> count(reads, Set.of("b"))));
+      assertEquals(1, reads.get());
+
+      OnyxReadContext.invalidate();
+      assertEquals(Set.of("c"), OnyxReadContext.memoize("names", () -> count(reads, Set.of("c"))));
+      assertEquals(2, reads.get());
+    }
+    assertNull(OnyxReadContext.current());
+  }
+
+  @Test
+  void memoize_withoutContext_alwaysReads() {
+    AtomicInteger reads = new AtomicInteger();
+    OnyxReadContext.memoize("names", () -> count(reads, Set.of()));
+    OnyxReadContext.memoize("names", () -> count(reads, Set.of()));
+    assertEquals(2, reads.get());
+  }
+
+  @Test
+  void fork_sharesCallersContext() {
+    OnyxFanOut fanOut = new OnyxFanOut(2, 4, 5000);
+    AtomicInteger reads = new AtomicInteger();
+    try (OnyxReadContext.Scope ignored = OnyxReadContext.open();
+         OnyxFanOut.Scope scope = fanOut.open()) {
+      OnyxReadContext.memoize("document-set:1", () -> count(reads, "ds"));
+      Supplier<String> forked = scope.fork(() -> OnyxReadContext.memoize("document-set:1", () -> count(reads, "other")));
+      scope.join();
+      assertEquals("ds", forked.get());
+      assertEquals(1, reads.get());
+    } finally {
+      fanOut.shutdown();
+    }
+  }
+
+  @Test
+  void nestedOpen_keepsOuterContext() {
+    AtomicInteger reads = new AtomicInteger();
+    try (OnyxReadContext.Scope ignored = OnyxReadContext.open()) {
+      try (OnyxReadContext.Scope nested = OnyxReadContext.open()) {
+        OnyxReadContext.memoize("names", () -> count(reads, "x"));
+      }
+      OnyxReadContext.memoize("names", () -> count(reads, "x"));
+      assertEquals(1, reads.get());
+    }
+  }
+
+  private static <T> T count(AtomicInteger reads, T value) {
+    reads.incrementAndGet();
+    return value;
+  }
+}
@@ -0,0 +1,77 @@
+package ru.cleardocs.backend.client.onyx;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OnyxSingleFlightTest {
+
+  @Test
+  void execute_concurrentCallersShareOneCall() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    OnyxSingleFlight singleFlight = new OnyxSingleFlight(registry);
+    AtomicInteger calls = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    List<String> result = List.of("ds");
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<List<String>> first = executor.submit(() -> singleFlight.execute("document-sets", () -> {
+        calls.incrementAndGet();
+        await(release);
+        return result;
+      }));
+      while (registry.find("onyx.read.calls").tag("outcome", "executed").counter() == null) {
+        Thread.sleep(5);
+      }
+      Future<List<String>> second = executor.submit(() -> singleFlight.execute("document-sets", () -> {
+        calls.incrementAndGet();
+        return List.of("other");
+      }));
+      while (registry.find("onyx.read.calls").tag("outcome", "coalesced").counter() == null) {
+        Thread.sleep(5);
+      }
+      release.countDown();
+
+      assertSame(result, first.get(5, TimeUnit.SECONDS));
+      assertSame(result, second.get(5, TimeUnit.SECONDS));
+      assertEquals(1, calls.get());
+      assertEquals(1.0, registry.get("onyx.read.calls").tag("outcome", "coalesced").counter().count());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void execute_afterCompletion_callsAgain_andPropagatesErrors() {
+    OnyxSingleFlight singleFlight = new OnyxSingleFlight(new SimpleMeterRegistry());
+    AtomicInteger calls = new AtomicInteger();
+
+    singleFlight.execute("indexing-status", calls::incrementAndGet);
+    singleFlight.execute("indexing-status", calls::incrementAndGet);
+    assertEquals(2, calls.get());
+
+    assertThrows(IllegalStateException.class, () -> singleFlight.execute("indexing-status", () -> {
+      throw new IllegalStateException("Onyx down");
+    }));
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
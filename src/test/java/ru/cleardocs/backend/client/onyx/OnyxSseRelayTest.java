@@ -0,0 +1,152 @@
+package ru.cleardocs.backend.client.onyx;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OnyxSseRelayTest {
+
+  private static final String EVENT_1 = "data: {\"type\":\"message_delta\",\"delta\":\"Hello\"}\n\n";
+  private static final String EVENT_2 = "data: {\"type\":\"message_end\"}\n\n";
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final OnyxSseRelay relay = new OnyxSseRelay(10_000, meterRegistry);
+
+  @AfterEach
+  void tearDown() {
+    relay.shutdown();
+  }
+
+  @Test
+  void eventSplitAcrossReads_isFlushedOnlyWhenComplete() throws Exception {
+    RecordingOutputStream out = new RecordingOutputStream();
+    InputStream in = chunks(EVENT_1.substring(0, 10), EVENT_1.substring(10) + EVENT_2.substring(0, 5), EVENT_2.substring(5));
+
+    OnyxSseRelay.Stats stats = relay.relay(in, out, System.nanoTime());
+
+    assertEquals(List.of(EVENT_1, EVENT_2), out.flushed);
+    assertEquals(2, stats.events());
+    assertEquals(2, stats.flushes());
+    assertEquals(1, meterRegistry.get("chat.stream.ttfb").timer().count());
+  }
+
+  @Test
+  void eventsReadTogether_goOutInOneFlush() throws Exception {
+    RecordingOutputStream out = new RecordingOutputStream();
+
+    OnyxSseRelay.Stats stats = relay.relay(chunks(EVENT_1 + EVENT_2), out, System.nanoTime());
+
+    assertEquals(List.of(EVENT_1 + EVENT_2), out.flushed);
+    assertEquals(1, stats.flushes());
+    assertEquals(2.0, meterRegistry.get("chat.stream.events.per.flush").summary().max());
+  }
+
+  @Test
+  void partialEvent_isFlushedByTimerWhileUpstreamWaits() throws Exception {
+    OnyxSseRelay fastRelay = new OnyxSseRelay(20, new SimpleMeterRegistry());
+    RecordingOutputStream out = new RecordingOutputStream();
+    PipedOutputStream upstream = new PipedOutputStream();
+    PipedInputStream in = new PipedInputStream(upstream);
+    try {
+      CompletableFuture<OnyxSseRelay.Stats> relayed = CompletableFuture.supplyAsync(() -> {
+        try {
+          return fastRelay.relay(in, out, System.nanoTime());
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      upstream.write("data: partial".getBytes(StandardCharsets.UTF_8));
+      upstream.flush();
+
+      long deadline = System.currentTimeMillis() + 5000;
+      while (out.flushedCount() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5);
+      }
+      assertEquals(List.of("data: partial"), out.flushedSnapshot());
+
+      upstream.write("\n\n".getBytes(StandardCharsets.UTF_8));
+      upstream.close();
+      OnyxSseRelay.Stats stats = relayed.get(5, TimeUnit.SECONDS);
+      assertEquals(1, stats.events());
+      assertTrue(stats.flushes() >= 2);
+    } finally {
+      fastRelay.shutdown();
+    }
+  }
+
+  /** One read per chunk, with available() == 0 after each, like a slow upstream. */
+  private static InputStream chunks(String... chunks) {
+    return new InputStream() {
+      private int index;
+      private ByteArrayInputStream current = new ByteArrayInputStream(new byte[0]);
+
+      @Override
+      public int read() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        if (current.available() == 0) {
+          if (index == chunks.length) {
+            return -1;
+          }
+          current = new ByteArrayInputStream(chunks[index++].getBytes(StandardCharsets.UTF_8));
+        }
+        return current.read(b, off, len);
+      }
+
+      @Override
+      public int available() {
+        return 0;
+      }
+    };
+  }
+
+  /** Records what was visible to the client at each flush. */
+  private static final class RecordingOutputStream extends OutputStream {
+
+    private final ByteArrayOutputStream unflushed = new ByteArrayOutputStream();
+    private final List<String> flushed = new ArrayList<>();
+
+    @Override
+    public synchronized void write(int b) {
+      unflushed.write(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      unflushed.write(b, off, len);
+    }
+
+    @Override
+    public synchronized void flush() {
+      flushed.add(unflushed.toString(StandardCharsets.UTF_8));
+      unflushed.reset();
+    }
+
+    synchronized int flushedCount() {
+      return flushed.size();
+    }
+
+    synchronized List<String> flushedSnapshot() {
+      return List.copyOf(flushed);
+    }
+  }
+}
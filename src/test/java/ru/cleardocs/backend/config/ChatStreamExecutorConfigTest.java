@@ -0,0 +1,94 @@
+package ru.cleardocs.backend.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Load test of the chat relay execution modes. A stream is simulated by a task that blocks until the
+ * "upstream" finishes, as a relay blocks in InputStream.read() while the LLM is thinking.
+ */
+class ChatStreamExecutorConfigTest {
+
+  @Test
+  void virtualMode_holdsThousandsOfOpenStreams_onFewPlatformThreads() throws Exception {
+    int streams = 2000;
+    ChatStreamExecutorConfig config = new ChatStreamExecutorConfig("virtual", streams, new SimpleMeterRegistry());
+    AsyncTaskExecutor executor = config.taskExecutor();
+    CountDownLatch started = new CountDownLatch(streams);
+    CountDownLatch upstream = new CountDownLatch(1);
+    CountDownLatch finished = new CountDownLatch(streams);
+    int platformThreadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+    for (int i = 0; i < streams; i++) {
+      executor.execute(() -> {
+        started.countDown();
+        await(upstream);
+        finished.countDown();
+      });
+    }
+    try {
+      assertTrue(started.await(30, TimeUnit.SECONDS), "all streams should be open at the same time");
+      int platformThreadsAdded = ManagementFactory.getThreadMXBean().getThreadCount() - platformThreadsBefore;
+      assertTrue(platformThreadsAdded < 200, "open streams must not hold platform threads, added: " + platformThreadsAdded);
+      assertThrows(TaskRejectedException.class, () -> executor.execute(() -> { }));
+    } finally {
+      upstream.countDown();
+    }
+    assertTrue(finished.await(30, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void boundedMode_rejectsStreamsOverTheCap_andAcceptsAgainWhenOneEnds() throws Exception {
+    ChatStreamExecutorConfig config = new ChatStreamExecutorConfig("bounded", 4, new SimpleMeterRegistry());
+    AsyncTaskExecutor executor = config.taskExecutor();
+    CountDownLatch started = new CountDownLatch(4);
+    CountDownLatch upstream = new CountDownLatch(1);
+    CountDownLatch finished = new CountDownLatch(4);
+    try {
+      for (int i = 0; i < 4; i++) {
+        executor.execute(() -> {
+          started.countDown();
+          await(upstream);
+          finished.countDown();
+        });
+      }
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      assertThrows(TaskRejectedException.class, () -> executor.execute(() -> { }));
+
+      upstream.countDown();
+      assertTrue(finished.await(5, TimeUnit.SECONDS));
+      CountDownLatch accepted = new CountDownLatch(1);
+      for (int attempt = 0; accepted.getCount() > 0 && attempt < 50; attempt++) {
+        try {
+          executor.execute(accepted::countDown);
+        } catch (TaskRejectedException e) {
+          // The finished tasks release their permits just after counting down
+          Thread.sleep(10);
+        }
+      }
+      assertTrue(accepted.await(5, TimeUnit.SECONDS));
+      assertEquals(0, accepted.getCount());
+    } finally {
+      upstream.countDown();
+      config.shutdown();
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package ru.cleardocs.backend.config;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import ru.cleardocs.backend.client.onyx.OnyxFanOut;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RestTemplateConfigTest {
+
+  private final RestTemplateConfig config = new RestTemplateConfig();
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final MockEnvironment environment = new MockEnvironment();
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private String slowUrl;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    serverExecutor = Executors.newCachedThreadPool();
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(serverExecutor);
+    server.createContext("/slow", exchange -> {
+      try {
+        Thread.sleep(1_000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    slowUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/slow";
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Test
+  void eachPoolIsSizedFromItsOwnProperties() {
+    environment.setProperty("http.pool.onyx.max-total", "7");
+    environment.setProperty("http.pool.onyx-upload.max-total", "3");
+    environment.setProperty("http.pool.tochka.max-total", "2");
+
+    config.restTemplate(environment, meterRegistry);
+    config.onyxStreamingRestTemplate(15, environment, meterRegistry);
+    config.onyxUploadRestTemplate(15, environment, meterRegistry);
+    config.tochkaRestTemplate(environment, meterRegistry);
+
+    assertEquals(7, poolMax("onyx"));
+    assertEquals(50, poolMax("onyx-streaming"));
+    assertEquals(3, poolMax("onyx-upload"));
+    assertEquals(2, poolMax("tochka"));
+  }
+
+  @Test
+  void responseTimeout_appliesPerPool() {
+    environment.setProperty("http.pool.onyx.response-timeout-ms", "200");
+
+    RestTemplate onyx = config.restTemplate(environment, meterRegistry);
+    RestTemplate upload = config.onyxUploadRestTemplate(1, environment, meterRegistry);
+
+    assertThrows(ResourceAccessException.class, () -> onyx.getForObject(slowUrl, String.class));
+    assertEquals("ok", upload.getForObject(slowUrl, String.class));
+  }
+
+  @Test
+  void uploadPool_responseTimeoutPropertyOverridesUploadTimeout() {
+    environment.setProperty("http.pool.onyx-upload.response-timeout-ms", "200");
+
+    RestTemplate upload = config.onyxUploadRestTemplate(15, environment, meterRegistry);
+
+    assertThrows(ResourceAccessException.class, () -> upload.getForObject(slowUrl, String.class));
+  }
+
+  @Test
+  void cancelledFanOutCall_abortsItsRequest_insteadOfWaitingForTheResponse() throws Exception {
+    server.createContext("/hang", exchange -> {
+      try {
+        Thread.sleep(10_000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      exchange.close();
+    });
+    String hangUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/hang";
+    RestTemplate onyx = config.restTemplate(environment, meterRegistry);
+    OnyxFanOut fanOut = new OnyxFanOut(1, 1, 30_000);
+    CountDownLatch callEnded = new CountDownLatch(1);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    try (OnyxFanOut.Scope scope = fanOut.open(Duration.ofMillis(200))) {
+      scope.fork(() -> {
+        try {
+          return onyx.getForObject(hangUrl, String.class);
+        } catch (RuntimeException e) {
+          failure.set(e);
+          throw e;
+        } finally {
+          callEnded.countDown();
+        }
+      });
+      assertThrows(IllegalStateException.class, scope::join);
+    } finally {
+      fanOut.shutdown();
+    }
+
+    assertTrue(callEnded.await(3, TimeUnit.SECONDS), "the aborted request should end the call long before the response");
+    assertInstanceOf(ResourceAccessException.class, failure.get());
+  }
+
+  private double poolMax(String pool) {
+    return meterRegistry.get("http.client.pool.max").tag("pool", pool).gauge().value();
+  }
+}
@@ -23,6 +23,7 @@ import static org.springframework.test.web.client.match.MockRestRequestMatchers.
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
@@ -100,6 +101,46 @@ class ChatControllerTest {
     mockServer.verify();
   }
 
+  @Test
+  void resumeChatStream_withLastEventId_replaysOnlyLaterEvents() throws Exception {
+    mockServer.expect(requestTo(containsString("send-chat-message")))
+        .andExpect(method(HttpMethod.POST))
+        .andRespond(withSuccess(SSE_PAYLOAD_WITH_END, MediaType.TEXT_EVENT_STREAM));
+    var sent = mockMvc.perform(post("/api/v1/chat/send-chat-message")
+            .contentType(MediaType.APPLICATION_JSON)
+            .header("Authorization", "Bearer onyx-api-key")
+            .content("{\"message\":\"hi\",\"chat_session_id\":\"resume-session\"}"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    mockMvc.perform(asyncDispatch(sent))
+        .andExpect(status().isOk());
+
+    var resumed = mockMvc.perform(get("/api/v1/chat/stream/resume-session")
+            .header("Authorization", "Bearer onyx-api-key")
+            .header("Last-Event-ID", "1"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(resumed))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MediaType.TEXT_EVENT_STREAM))
+        .andExpect(content().string(containsString("id: 2\ndata: {\"type\":\"message_delta\",\"delta\":\" world\"}")))
+        .andExpect(content().string(containsString("id: 3\ndata: {\"type\":\"message_end\"}")))
+        .andExpect(content().string(not(containsString("\"delta\":\"Hello\""))));
+    mockServer.verify();
+  }
+
+  @Test
+  void resumeChatStream_unknownSessionOrNoAuthorization_isNotFound() throws Exception {
+    mockMvc.perform(get("/api/v1/chat/stream/no-such-session")
+            .header("Authorization", "Bearer onyx-api-key")
+            .header("Last-Event-ID", "0"))
+        .andExpect(status().isNotFound());
+
+    mockMvc.perform(get("/api/v1/chat/stream/resume-session"))
+        .andExpect(status().isNotFound());
+  }
+
   @TestConfiguration
   static class TestConfig {
 
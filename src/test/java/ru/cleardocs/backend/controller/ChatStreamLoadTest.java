@@ -0,0 +1,121 @@
+package ru.cleardocs.backend.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import ru.cleardocs.backend.config.ChatStreamExecutorConfig;
+import ru.cleardocs.backend.config.TestFirebaseConfig;
+import ru.cleardocs.backend.service.ChatService;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Load test of the blocking chat relay through Spring MVC: many send-chat-message requests stream at the same
+ * time, each holding its relay thread while the "LLM" has sent the first event and not yet the last, as a relay
+ * blocked on the Onyx socket does.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@Import(TestFirebaseConfig.class)
+@ActiveProfiles("test")
+@TestPropertySource(properties = {"chat.stream.executor=virtual", "chat.stream.max-concurrent=500"})
+class ChatStreamLoadTest {
+
+  private static final int STREAMS = 500;
+
+  @Autowired
+  MockMvc mockMvc;
+
+  @Autowired
+  RequestMappingHandlerAdapter handlerAdapter;
+
+  @Autowired
+  ChatStreamExecutorConfig chatStreamExecutorConfig;
+
+  @MockitoBean
+  ChatService chatService;
+
+  @Test
+  void manyConcurrentStreams_allDeliverFullStream_onFewPlatformThreads_andTheCapRejectsTheNext() throws Exception {
+    CountDownLatch firstEventWritten = new CountDownLatch(STREAMS);
+    CountDownLatch upstreamDone = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      OutputStream out = invocation.getArgument(2);
+      out.write("id: 1\ndata: {\"type\":\"message_delta\",\"delta\":\"Hello\"}\n\n".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      firstEventWritten.countDown();
+      upstreamDone.await(60, TimeUnit.SECONDS);
+      out.write("id: 2\ndata: {\"type\":\"message_end\"}\n\n".getBytes(StandardCharsets.UTF_8));
+      return null;
+    }).when(chatService).streamSendChatMessage(any(), any(), any(), any());
+    int platformThreadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+    List<MvcResult> streams = new ArrayList<>();
+    try {
+      for (int i = 0; i < STREAMS; i++) {
+        streams.add(mockMvc.perform(post("/api/v1/chat/send-chat-message")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("Authorization", "Bearer onyx-api-key")
+                .content("{\"message\":\"hi " + i + "\",\"chat_session_id\":\"load-" + i + "\"}"))
+            .andExpect(request().asyncStarted())
+            .andReturn());
+      }
+      assertTrue(firstEventWritten.await(30, TimeUnit.SECONDS), "all streams should be open at the same time");
+      int platformThreadsAdded = ManagementFactory.getThreadMXBean().getThreadCount() - platformThreadsBefore;
+      assertTrue(platformThreadsAdded < 100, "open streams must not hold platform threads, added: " + platformThreadsAdded);
+
+      MvcResult overCap = mockMvc.perform(post("/api/v1/chat/send-chat-message")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{\"message\":\"one too many\"}"))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+      mockMvc.perform(asyncDispatch(overCap))
+          .andExpect(status().isServiceUnavailable());
+    } finally {
+      upstreamDone.countDown();
+    }
+
+    for (MvcResult stream : streams) {
+      mockMvc.perform(asyncDispatch(stream))
+          .andExpect(status().isOk())
+          .andExpect(content().contentType(MediaType.TEXT_EVENT_STREAM))
+          .andExpect(content().string(containsString("\"delta\":\"Hello\"")))
+          .andExpect(content().string(containsString("\"type\":\"message_end\"")));
+    }
+  }
+
+  @Test
+  void chatExecutor_isNotTheMvcAsyncExecutor() {
+    AsyncTaskExecutor mvcExecutor = (AsyncTaskExecutor) ReflectionTestUtils.getField(handlerAdapter, "taskExecutor");
+
+    assertNotSame(chatStreamExecutorConfig.streamTask(() -> null).getExecutor(), mvcExecutor);
+  }
+}
@@ -4,16 +4,21 @@ import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.client.ResourceAccessException;
+import ru.cleardocs.backend.client.onyx.OnyxCcPairRef;
 import ru.cleardocs.backend.client.onyx.OnyxClient;
 import ru.cleardocs.backend.dto.EntityConnectorDto;
 import ru.cleardocs.backend.client.onyx.OnyxCreateConnectorResponseDto;
@@ -23,10 +28,14 @@ import ru.cleardocs.backend.config.TestFirebaseConfig;
 import ru.cleardocs.backend.entity.User;
 import ru.cleardocs.backend.repository.UserRepository;
 import ru.cleardocs.backend.security.WithMockFirebaseUser;
+import ru.cleardocs.backend.service.ConnectorMirrorService;
+import ru.cleardocs.backend.service.ConnectorStatusStreamService;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
@@ -42,6 +51,7 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -59,6 +69,12 @@ class ConnectorControllerTest {
   @MockitoBean
   UserRepository userRepository;
 
+  @Autowired
+  ConnectorStatusStreamService connectorStatusStreamService;
+
+  @Autowired
+  ConnectorMirrorService connectorMirrorService;
+
   @Test
   @WithMockFirebaseUser(email = "test@example.com", name = "Test User", planCode = "FREE")
   void getConnectors_authenticatedUserWithoutDocSet_returnsEmptyList() throws Exception {
@@ -89,6 +105,7 @@ class ConnectorControllerTest {
     when(onyxClient.getConnectorsByDocSetId(42)).thenReturn(
         List.of(new EntityConnectorDto(1, "Connector 1", "file", "ACTIVE"))
     );
+    mirror(1, "Connector 1", "ACTIVE");
 
     mockMvc.perform(get("/api/v1/connectors")
             .with(securityContext(SecurityContextHolder.getContext())))
@@ -110,7 +127,7 @@ class ConnectorControllerTest {
   void createFileConnector_authenticatedUser_returns201() throws Exception {
     when(onyxClient.getAllConnectorNames()).thenReturn(Set.of());
     when(onyxClient.getConnectorsByDocSetId(42)).thenReturn(List.of());
-    when(onyxClient.getDocumentSetById(42)).thenReturn(Optional.of(
+    when(onyxClient.fetchDocumentSetFresh(42)).thenReturn(Optional.of(
         new OnyxDocumentSetDto(42, "Documents", "", List.of(), List.of(), true, List.of(), List.of())
     ));
 
@@ -187,7 +204,7 @@ class ConnectorControllerTest {
   void createUrlConnector_authenticatedUser_returns201() throws Exception {
     when(onyxClient.getAllConnectorNames()).thenReturn(Set.of());
     when(onyxClient.getConnectorsByDocSetId(42)).thenReturn(List.of());
-    when(onyxClient.getDocumentSetById(42)).thenReturn(Optional.of(
+    when(onyxClient.fetchDocumentSetFresh(42)).thenReturn(Optional.of(
         new OnyxDocumentSetDto(42, "Documents", "", List.of(), List.of(), true, List.of(), List.of())
     ));
     when(onyxClient.createUrlConnector(eq("My Site"), eq("https://example.com")))
@@ -203,6 +220,44 @@ class ConnectorControllerTest {
         .andExpect(jsonPath("$.type").value("web"));
   }
 
+  @Test
+  @WithMockFirebaseUser(email = "test@example.com", name = "Test User", planCode = "FREE", docSetId = 42)
+  void createUrlConnector_docSetMissingOnceThenFound_addsAgainWithoutCreatingDocumentSet() throws Exception {
+    OnyxDocumentSetDto docSet = new OnyxDocumentSetDto(42, "Documents", "", List.of(), List.of(), true, List.of(), List.of());
+    when(onyxClient.getAllConnectorNames()).thenReturn(Set.of());
+    when(onyxClient.getConnectorsByDocSetId(42)).thenReturn(List.of());
+    when(onyxClient.fetchDocumentSetFresh(42)).thenReturn(Optional.empty(), Optional.of(docSet));
+    when(onyxClient.createUrlConnector(eq("My Site"), eq("https://example.com")))
+        .thenReturn(new OnyxCreateConnectorResponseDto(true, "Created", 123));
+
+    mockMvc.perform(post("/api/v1/connectors/url")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"name\":\"My Site\",\"url\":\"https://example.com\"}")
+            .with(securityContext(SecurityContextHolder.getContext())))
+        .andExpect(status().isCreated());
+
+    verify(onyxClient, never()).createDocumentSet(any(), any(), anyList());
+    verify(onyxClient).updateDocumentSet(argThat(update -> update.ccPairIds().equals(List.of(123))));
+  }
+
+  @Test
+  @WithMockFirebaseUser(email = "test@example.com", name = "Test User", planCode = "FREE", docSetId = 42)
+  void createUrlConnector_docSetReadFails_doesNotCreateDocumentSet() throws Exception {
+    when(onyxClient.getAllConnectorNames()).thenReturn(Set.of());
+    when(onyxClient.getConnectorsByDocSetId(42)).thenReturn(List.of());
+    when(onyxClient.fetchDocumentSetFresh(42)).thenThrow(new ResourceAccessException("Read timed out"));
+    when(onyxClient.createUrlConnector(eq("My Site"), eq("https://example.com")))
+        .thenReturn(new OnyxCreateConnectorResponseDto(true, "Created", 123));
+
+    mockMvc.perform(post("/api/v1/connectors/url")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"name\":\"My Site\",\"url\":\"https://example.com\"}")
+            .with(securityContext(SecurityContextHolder.getContext())))
+        .andExpect(status().isInternalServerError());
+
+    verify(onyxClient, never()).createDocumentSet(any(), any(), anyList());
+  }
+
   @Test
   @WithMockFirebaseUser(email = "test@example.com", name = "Test User", planCode = "FREE")
   void createUrlConnector_userWithoutDocSet_createsDocumentSetAndSavesToDb() throws Exception {
@@ -255,7 +310,7 @@ class ConnectorControllerTest {
   void createUrlConnector_duplicateName_addsPostfix() throws Exception {
     when(onyxClient.getAllConnectorNames()).thenReturn(Set.of("My Site"));
     when(onyxClient.getConnectorsByDocSetId(42)).thenReturn(List.of());
-    when(onyxClient.getDocumentSetById(42)).thenReturn(Optional.of(
+    when(onyxClient.fetchDocumentSetFresh(42)).thenReturn(Optional.of(
         new OnyxDocumentSetDto(42, "Documents", "", List.of(), List.of(), true, List.of(), List.of())
     ));
     when(onyxClient.createUrlConnector(
@@ -279,6 +334,7 @@ class ConnectorControllerTest {
     when(onyxClient.getConnectorsByDocSetId(42)).thenReturn(
         List.of(new EntityConnectorDto(1, "Connector 1", "file", "ACTIVE"))
     );
+    mirror(1, "Connector 1", "ACTIVE");
 
     mockMvc.perform(post("/api/v1/connectors/url")
             .contentType(MediaType.APPLICATION_JSON)
@@ -300,6 +356,7 @@ class ConnectorControllerTest {
   void updateConnector_statusPaused_putsConnectorOnPause() throws Exception {
     EntityConnectorDto connector = new EntityConnectorDto(123, "My Connector", "file", "ACTIVE");
     when(onyxClient.getConnectorsByDocSetId(42)).thenReturn(List.of(connector));
+    mirror(123, "My Connector", "ACTIVE");
 
     mockMvc.perform(patch("/api/v1/connectors/123")
             .contentType(MediaType.APPLICATION_JSON)
@@ -310,12 +367,115 @@ class ConnectorControllerTest {
     verify(onyxClient).pauseConnector(123);
   }
 
+  @Test
+  @WithMockFirebaseUser(email = "test@example.com", name = "Test User", planCode = "FREE", docSetId = 42)
+  void getConnectors_matchingIfNoneMatch_returns304_untilTheUsersConnectorsChange() throws Exception {
+    when(onyxClient.getConnectorsByDocSetId(42)).thenReturn(List.of(
+        new EntityConnectorDto(123, "My Connector", "file", "ACTIVE")));
+
+    String eTag = mockMvc.perform(get("/api/v1/connectors")
+            .with(securityContext(SecurityContextHolder.getContext())))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    assertNotNull(eTag);
+    assertTrue(eTag.startsWith("W/\""), eTag);
+
+    mockMvc.perform(get("/api/v1/connectors")
+            .header(HttpHeaders.IF_NONE_MATCH, eTag)
+            .with(securityContext(SecurityContextHolder.getContext())))
+        .andExpect(status().isNotModified());
+
+    when(onyxClient.getConnectorsByDocSetId(42)).thenReturn(List.of(
+        new EntityConnectorDto(123, "My Connector", "file", "PAUSED")));
+    mockMvc.perform(get("/api/v1/connectors")
+            .header(HttpHeaders.IF_NONE_MATCH, eTag)
+            .with(securityContext(SecurityContextHolder.getContext())))
+        .andExpect(status().isOk());
+  }
+
+  @Test
+  @WithMockFirebaseUser(email = "test@example.com", name = "Test User", planCode = "FREE", docSetId = 42)
+  void streamConnectors_sendsCurrentConnectorsThenStatusChanges() throws Exception {
+    AtomicReference<String> onyxStatus = new AtomicReference<>("SCHEDULED");
+    when(onyxClient.getConnectorsByDocSetId(42)).thenReturn(List.of(
+        new EntityConnectorDto(9001, "Streamed Connector", "file", "SCHEDULED")));
+    mirror(9001, "Streamed Connector", "SCHEDULED");
+    when(onyxClient.getCcPairStatuses(any())).thenAnswer(inv -> Map.of(9001, onyxStatus.get()));
+
+    MvcResult mvcResult = mockMvc.perform(get("/api/v1/connectors/stream")
+            .with(securityContext(SecurityContextHolder.getContext())))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    try {
+      // Events are written by the stream's own drain thread, not by subscribe() or poll()
+      String initial = awaitContent(mvcResult, "\"name\":\"Streamed Connector\"");
+      assertTrue(initial.contains("event:connectors"));
+
+      connectorStatusStreamService.poll();
+      onyxStatus.set("ACTIVE");
+      connectorStatusStreamService.poll();
+
+      String content = awaitContent(mvcResult, "\"status\":\"ACTIVE\"");
+      assertTrue(content.contains("event:connector\n"));
+    } finally {
+      connectorStatusStreamService.shutdown();
+    }
+  }
+
+  @Test
+  @WithMockFirebaseUser(email = "test@example.com", name = "Test User", planCode = "FREE", docSetId = 42)
+  void batchUpdateConnectors_pausesDeletesAndReportsPerItem() throws Exception {
+    when(onyxClient.getConnectorsByDocSetId(42)).thenReturn(List.of(
+        new EntityConnectorDto(123, "First", "file", "ACTIVE"),
+        new EntityConnectorDto(456, "Second", "file", "ACTIVE")));
+    mirror(123, "First", "ACTIVE");
+    mirror(456, "Second", "ACTIVE");
+    when(onyxClient.getCcPairStatuses(any())).thenReturn(Map.of(123, "ACTIVE", 456, "ACTIVE"));
+    when(onyxClient.resolveCcPairRefs(any())).thenReturn(Map.of(456, new OnyxCcPairRef(456, 7, 8)));
+
+    mockMvc.perform(post("/api/v1/connectors/batch")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("""
+                {"operations": [
+                  {"connectorId": 123, "action": "pause"},
+                  {"connectorId": 456, "action": "delete"},
+                  {"connectorId": 789, "action": "delete"},
+                  {"connectorId": 123, "action": "launch"}
+                ]}""")
+            .with(securityContext(SecurityContextHolder.getContext())))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.results[0].success").value(true))
+        .andExpect(jsonPath("$.results[0].status").value("PAUSED"))
+        .andExpect(jsonPath("$.results[1].success").value(true))
+        .andExpect(jsonPath("$.results[1].status").value("DELETING"))
+        .andExpect(jsonPath("$.results[2].success").value(false))
+        .andExpect(jsonPath("$.results[2].error").value("Connector not found"))
+        .andExpect(jsonPath("$.results[3].success").value(false));
+
+    verify(onyxClient).pauseConnector(123);
+    verify(onyxClient).pauseConnector(456);
+    verify(onyxClient).deleteConnector(new OnyxCcPairRef(456, 7, 8));
+    verify(onyxClient, never()).deleteConnector(789);
+  }
+
+  @Test
+  @WithMockFirebaseUser(email = "test@example.com", name = "Test User", planCode = "FREE", docSetId = 42)
+  void batchUpdateConnectors_noOperations_returns400() throws Exception {
+    mockMvc.perform(post("/api/v1/connectors/batch")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"operations\": []}")
+            .with(securityContext(SecurityContextHolder.getContext())))
+        .andExpect(status().isBadRequest());
+  }
+
   @Test
   @WithMockFirebaseUser(email = "test@example.com", name = "Test User", planCode = "FREE", docSetId = 42)
   void deleteConnector_deletesConnectorInOnyx() throws Exception {
     EntityConnectorDto connector1 = new EntityConnectorDto(123, "My Connector", "file", "ACTIVE");
     EntityConnectorDto connector2 = new EntityConnectorDto(456, "Other Connector", "file", "ACTIVE");
     when(onyxClient.getConnectorsByDocSetId(42)).thenReturn(List.of(connector1, connector2));
+    mirror(123, "My Connector", "ACTIVE");
+    mirror(456, "Other Connector", "ACTIVE");
 
     mockMvc.perform(delete("/api/v1/connectors/123")
             .with(securityContext(SecurityContextHolder.getContext())))
@@ -330,6 +490,7 @@ class ConnectorControllerTest {
   void deleteConnector_lastConnector_deletesConnectorInOnyx() throws Exception {
     EntityConnectorDto connector = new EntityConnectorDto(123, "My Connector", "file", "ACTIVE");
     when(onyxClient.getConnectorsByDocSetId(42)).thenReturn(List.of(connector));
+    mirror(123, "My Connector", "ACTIVE");
 
     mockMvc.perform(delete("/api/v1/connectors/123")
             .with(securityContext(SecurityContextHolder.getContext())))
@@ -364,4 +525,21 @@ class ConnectorControllerTest {
     mockMvc.perform(delete("/api/v1/connectors/123"))
         .andExpect(status().isUnauthorized());
   }
+
+  /** Records a connector of the signed-in user in the local mirror, which ownership and limit checks read. */
+  private void mirror(int ccPairId, String name, String status) {
+    User user = (User) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+    connectorMirrorService.recordCreated(user, ccPairId, name, "file", status);
+  }
+
+  private static String awaitContent(MvcResult mvcResult, String expected) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    String content = mvcResult.getResponse().getContentAsString();
+    while (!content.contains(expected) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+      content = mvcResult.getResponse().getContentAsString();
+    }
+    assertTrue(content.contains(expected), content);
+    return content;
+  }
 }
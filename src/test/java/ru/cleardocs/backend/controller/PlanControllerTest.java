@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.ActiveProfiles;
 import ru.cleardocs.backend.config.TestFirebaseConfig;
@@ -16,8 +17,11 @@ import ru.cleardocs.backend.service.PlanService;
 
 import java.util.List;
 
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -62,4 +66,15 @@ class PlanControllerTest {
         .andExpect(jsonPath("$.plans").isArray())
         .andExpect(jsonPath("$.plans.length()").value(0));
   }
+
+  @Test
+  void getAll_matchingIfNoneMatch_returns304WithoutBuildingPlans() throws Exception {
+    when(planService.getAllETag()).thenReturn("\"plans-v1\"");
+
+    mockMvc.perform(get("/api/v1/plans").header(HttpHeaders.IF_NONE_MATCH, "\"plans-v1\""))
+        .andExpect(status().isNotModified())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"plans-v1\""));
+
+    verify(planService, never()).getAll();
+  }
 }
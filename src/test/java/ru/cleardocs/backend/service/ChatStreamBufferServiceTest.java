@@ -0,0 +1,227 @@
+package ru.cleardocs.backend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Answer;
+import org.springframework.core.task.TaskRejectedException;
+import ru.cleardocs.backend.client.onyx.OnyxChatRequestRewriter;
+import ru.cleardocs.backend.client.onyx.OnyxClient;
+import ru.cleardocs.backend.exception.NotFoundException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+
+@ExtendWith(MockitoExtension.class)
+class ChatStreamBufferServiceTest {
+
+  private static final String AUTH = "Bearer onyx-key";
+  private static final String E1 = "data: {\"delta\":\"Hel\"}\n\n";
+  private static final String E2 = "data: {\"delta\":\"lo\"}\n\n";
+  private static final String E3 = "data: {\"type\":\"message_end\"}\n\n";
+
+  @Mock
+  OnyxClient onyxClient;
+
+  private final CountDownLatch onyxDone = new CountDownLatch(1);
+
+  @Test
+  void relay_addsEventIds_andDeliversWholeAnswer() throws Exception {
+    stubOnyx(null, E1 + E2, E3);
+    ChatStreamBufferService service = service(60, 1 << 20);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    service.relay(AUTH, body(), out);
+
+    assertEquals("id: 1\n" + E1 + "id: 2\n" + E2 + "id: 3\n" + E3, out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void clientDisconnect_streamKeepsRunning_andReconnectReplaysMissedEvents() throws Exception {
+    CountDownLatch upstream = new CountDownLatch(1);
+    stubOnyx(upstream, E1, E2 + E3);
+    ChatStreamBufferService service = service(60, 1 << 20);
+
+    assertThrows(IOException.class, () -> service.relay(AUTH, body(), droppedClient()));
+    upstream.countDown();
+
+    ByteArrayOutputStream resumed = new ByteArrayOutputStream();
+    service.resume(AUTH, "s-1", 1).writeTo(resumed);
+
+    assertEquals("id: 2\n" + E2 + "id: 3\n" + E3, resumed.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void resume_withAnotherAuthorization_isNotFound() throws Exception {
+    stubOnyx(null, E1);
+    ChatStreamBufferService service = service(60, 1 << 20);
+    service.relay(AUTH, body(), new ByteArrayOutputStream());
+
+    assertThrows(NotFoundException.class, () -> service.resume("Bearer other-key", "s-1", 0));
+    assertThrows(NotFoundException.class, () -> service.resume(AUTH, "unknown-session", 0));
+  }
+
+  @Test
+  void resume_withoutAuthorization_isNotFound_evenForAStreamStartedWithout() throws Exception {
+    stubOnyx(null, E1);
+    ChatStreamBufferService service = service(60, 1 << 20);
+    service.relay("", body(), new ByteArrayOutputStream());
+
+    assertThrows(NotFoundException.class, () -> service.resume(null, "s-1", 0));
+    assertThrows(NotFoundException.class, () -> service.resume("", "s-1", 0));
+  }
+
+  @Test
+  void streamsOverProducerCap_areRejected_whileEarlierOnesStillReadOnyx() throws Exception {
+    CountDownLatch upstream = new CountDownLatch(1);
+    stubOnyx(upstream, E1, E2);
+    ChatStreamBufferService service = new ChatStreamBufferService(onyxClient, true, 60, 1 << 20, 64L << 20, 1,
+        new SimpleMeterRegistry());
+    assertThrows(IOException.class, () -> service.relay(AUTH, body(), droppedClient()));
+
+    assertThrows(TaskRejectedException.class, () -> service.relay(AUTH, body(), new ByteArrayOutputStream()));
+
+    upstream.countDown();
+    onyxDone.await(5, TimeUnit.SECONDS);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    awaitProducerSlot(service, out);
+    assertEquals("id: 1\n" + E1 + "id: 2\n" + E2, out.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void finishedStream_isDroppedAfterGracePeriod() throws Exception {
+    stubOnyx(null, E1);
+    ChatStreamBufferService service = service(0, 1 << 20);
+    service.relay(AUTH, body(), new ByteArrayOutputStream());
+
+    service.evictExpired();
+
+    assertThrows(NotFoundException.class, () -> service.resume(AUTH, "s-1", 0));
+  }
+
+  @Test
+  void oldestEvents_areDroppedOverStreamSizeCap() throws Exception {
+    CountDownLatch upstream = new CountDownLatch(1);
+    stubOnyx(upstream, E1, E2, E3);
+    ChatStreamBufferService service = service(60, E3.length());
+    assertThrows(IOException.class, () -> service.relay(AUTH, body(), droppedClient()));
+    upstream.countDown();
+    onyxDone.await(5, TimeUnit.SECONDS);
+
+    assertThrows(NotFoundException.class, () -> service.resume(AUTH, "s-1", 0));
+    ByteArrayOutputStream resumed = new ByteArrayOutputStream();
+    service.resume(AUTH, "s-1", 2).writeTo(resumed);
+    assertEquals("id: 3\n" + E3, resumed.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void flushedPartEvent_isRelayedAtOnce_withTheIdOnlyAtTheEventStart() throws Exception {
+    String head = "data: {\"delta\":";
+    String tail = "\"Hel\"}\n\n";
+    CountDownLatch headRelayed = new CountDownLatch(1);
+    AtomicBoolean relayedBeforeTail = new AtomicBoolean();
+    doAnswer(invocation -> {
+      OutputStream sink = invocation.getArgument(2);
+      Consumer<OnyxChatRequestRewriter.ChatRequestSummary> onRequestSent = invocation.getArgument(3);
+      onRequestSent.accept(new OnyxChatRequestRewriter.ChatRequestSummary("s-1", 2, "hi"));
+      sink.write(head.getBytes(StandardCharsets.UTF_8));
+      sink.flush();
+      relayedBeforeTail.set(headRelayed.await(5, TimeUnit.SECONDS));
+      sink.write((tail + E2).getBytes(StandardCharsets.UTF_8));
+      return null;
+    }).when(onyxClient).streamSendChatMessage(anyString(), any(InputStream.class), any(OutputStream.class), any(Consumer.class));
+    ChatStreamBufferService service = service(60, 1 << 20);
+    ByteArrayOutputStream out = new ByteArrayOutputStream() {
+      @Override
+      public synchronized void flush() {
+        if (toString(StandardCharsets.UTF_8).endsWith(head)) {
+          headRelayed.countDown();
+        }
+      }
+    };
+
+    service.relay(AUTH, body(), out);
+
+    assertTrue(relayedBeforeTail.get(), "the flushed part of the event should reach the client before the rest");
+    assertEquals("id: 1\n" + head + tail + "id: 2\n" + E2, out.toString(StandardCharsets.UTF_8));
+    ByteArrayOutputStream resumed = new ByteArrayOutputStream();
+    service.resume(AUTH, "s-1", 0).writeTo(resumed);
+    assertEquals("id: 1\n" + head + tail + "id: 2\n" + E2, resumed.toString(StandardCharsets.UTF_8));
+  }
+
+  private ChatStreamBufferService service(long graceSeconds, long streamMaxBytes) {
+    return new ChatStreamBufferService(onyxClient, true, graceSeconds, streamMaxBytes, 64L << 20, 200, new SimpleMeterRegistry());
+  }
+
+  /** Relays once the previous producer thread has let go of its slot (it does so just after Onyx returns). */
+  private void awaitProducerSlot(ChatStreamBufferService service, OutputStream out) throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (true) {
+      try {
+        service.relay(AUTH, body(), out);
+        return;
+      } catch (TaskRejectedException e) {
+        if (System.nanoTime() > deadline) {
+          throw e;
+        }
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  /** Onyx writes the first chunk, waits for gate (if any), then writes the rest. */
+  @SuppressWarnings("unchecked")
+  private void stubOnyx(CountDownLatch gate, String first, String... rest) throws IOException {
+    Answer<Void> answer = invocation -> {
+      OutputStream sink = invocation.getArgument(2);
+      Consumer<OnyxChatRequestRewriter.ChatRequestSummary> onRequestSent = invocation.getArgument(3);
+      onRequestSent.accept(new OnyxChatRequestRewriter.ChatRequestSummary("s-1", 2, "hi"));
+      sink.write(first.getBytes(StandardCharsets.UTF_8));
+      if (gate != null) {
+        gate.await(5, TimeUnit.SECONDS);
+      }
+      for (String chunk : rest) {
+        sink.write(chunk.getBytes(StandardCharsets.UTF_8));
+      }
+      onyxDone.countDown();
+      return null;
+    };
+    doAnswer(answer).when(onyxClient).streamSendChatMessage(anyString(), any(InputStream.class), any(OutputStream.class), any(Consumer.class));
+  }
+
+  /** A client that goes away on its first flush. */
+  private static OutputStream droppedClient() {
+    return new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void flush() throws IOException {
+        throw new IOException("Broken pipe");
+      }
+    };
+  }
+
+  private static InputStream body() {
+    return new ByteArrayInputStream("{\"message\":\"hi\",\"chat_session_id\":\"s-1\"}".getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,178 @@
+package ru.cleardocs.backend.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.multipart.MultipartFile;
+import ru.cleardocs.backend.dto.CreateConnectorResponseDto;
+import ru.cleardocs.backend.dto.CreateUploadSessionRequestDto;
+import ru.cleardocs.backend.dto.UploadFileDto;
+import ru.cleardocs.backend.dto.UploadSessionDto;
+import ru.cleardocs.backend.entity.User;
+import ru.cleardocs.backend.exception.BadRequestException;
+import ru.cleardocs.backend.exception.ConflictException;
+import ru.cleardocs.backend.exception.InsufficientStorageException;
+import ru.cleardocs.backend.exception.NotFoundException;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ChunkedUploadServiceTest {
+
+  @Mock
+  ConnectorService connectorService;
+
+  @TempDir
+  Path spoolDir;
+
+  ChunkedUploadService chunkedUploadService;
+
+  private final User user = User.builder().id(UUID.randomUUID()).build();
+
+  @BeforeEach
+  void setUp() throws Exception {
+    chunkedUploadService = new ChunkedUploadService(connectorService, spoolDir.toString(), 4, 1024, 3, 60, 20);
+    chunkedUploadService.cleanSpoolDir();
+  }
+
+  @Test
+  void finalizeSession_chunksSentOutOfOrder_assemblesFileAndCreatesConnector() throws Exception {
+    UploadSessionDto session = chunkedUploadService.createSession(user,
+        new CreateUploadSessionRequestDto("Docs", List.of(new UploadFileDto("a.txt", 10L))));
+    UUID uploadId = session.uploadId();
+    assertEquals(List.of(0, 1, 2), session.files().get(0).missingChunks());
+
+    putChunk(uploadId, 2, "ij");
+    putChunk(uploadId, 0, "abcd");
+    assertEquals(List.of(1), chunkedUploadService.getSession(user, uploadId).files().get(0).missingChunks());
+    putChunk(uploadId, 1, "efgh");
+
+    ArgumentCaptor<MultipartFile[]> files = ArgumentCaptor.forClass(MultipartFile[].class);
+    when(connectorService.createFileConnector(eq(user), eq("Docs"), files.capture()))
+        .thenAnswer(inv -> {
+          MultipartFile file = files.getValue()[0];
+          assertEquals("a.txt", file.getOriginalFilename());
+          assertArrayEquals("abcdefghij".getBytes(StandardCharsets.UTF_8), file.getInputStream().readAllBytes());
+          return new CreateConnectorResponseDto(7, "Docs", "file");
+        });
+
+    CreateConnectorResponseDto response = chunkedUploadService.finalizeSession(user, uploadId);
+
+    assertEquals(7, response.id());
+    assertThrows(NotFoundException.class, () -> chunkedUploadService.getSession(user, uploadId));
+  }
+
+  @Test
+  void finalizeSession_chunksSentInOrder_passesTheirHash_reSentChunkDropsIt() throws Exception {
+    UUID inOrder = chunkedUploadService.createSession(user,
+        new CreateUploadSessionRequestDto("Docs", List.of(new UploadFileDto("a.txt", 10L)))).uploadId();
+    putChunk(inOrder, 0, "abcd");
+    putChunk(inOrder, 1, "efgh");
+    putChunk(inOrder, 2, "ij");
+    UUID reSent = chunkedUploadService.createSession(user,
+        new CreateUploadSessionRequestDto("Docs", List.of(new UploadFileDto("a.txt", 10L)))).uploadId();
+    putChunk(reSent, 0, "abcd");
+    putChunk(reSent, 0, "abcd");
+    putChunk(reSent, 1, "efgh");
+    putChunk(reSent, 2, "ij");
+    ArgumentCaptor<MultipartFile[]> files = ArgumentCaptor.forClass(MultipartFile[].class);
+    when(connectorService.createFileConnector(eq(user), eq("Docs"), files.capture()))
+        .thenReturn(new CreateConnectorResponseDto(7, "Docs", "file"));
+
+    chunkedUploadService.finalizeSession(user, inOrder);
+    chunkedUploadService.finalizeSession(user, reSent);
+
+    SpooledMultipartFile hashed = (SpooledMultipartFile) files.getAllValues().get(0)[0];
+    assertEquals(UploadStoreService.sha256(new MockMultipartFile("a.txt", "abcdefghij".getBytes(StandardCharsets.UTF_8))),
+        hashed.getContentHash());
+    assertNull(((SpooledMultipartFile) files.getAllValues().get(1)[0]).getContentHash());
+  }
+
+  @Test
+  void finalizeSession_missingChunk_throwsBadRequest() throws Exception {
+    UUID uploadId = chunkedUploadService.createSession(user,
+        new CreateUploadSessionRequestDto("Docs", List.of(new UploadFileDto("a.txt", 6L)))).uploadId();
+    putChunk(uploadId, 0, "abcd");
+
+    assertThrows(BadRequestException.class, () -> chunkedUploadService.finalizeSession(user, uploadId));
+    verify(connectorService, never()).createFileConnector(any(), any(), any());
+  }
+
+  @Test
+  void putChunk_wrongLength_throwsBadRequest() throws Exception {
+    UUID uploadId = chunkedUploadService.createSession(user,
+        new CreateUploadSessionRequestDto("Docs", List.of(new UploadFileDto("a.txt", 6L)))).uploadId();
+
+    assertThrows(BadRequestException.class, () -> putChunk(uploadId, 0, "abc"));
+    assertThrows(BadRequestException.class, () -> putChunk(uploadId, 1, "abc"));
+  }
+
+  @Test
+  void getSession_otherUser_throwsNotFound() throws Exception {
+    UUID uploadId = chunkedUploadService.createSession(user,
+        new CreateUploadSessionRequestDto("Docs", List.of(new UploadFileDto("a.txt", 6L)))).uploadId();
+    User other = User.builder().id(UUID.randomUUID()).build();
+
+    assertThrows(NotFoundException.class, () -> chunkedUploadService.getSession(other, uploadId));
+  }
+
+  @Test
+  void putChunk_whileFinalizing_throwsConflict() throws Exception {
+    UUID uploadId = chunkedUploadService.createSession(user,
+        new CreateUploadSessionRequestDto("Docs", List.of(new UploadFileDto("a.txt", 4L)))).uploadId();
+    putChunk(uploadId, 0, "abcd");
+    when(connectorService.createFileConnector(eq(user), eq("Docs"), any())).thenAnswer(inv -> {
+      assertThrows(ConflictException.class, () -> putChunk(uploadId, 0, "wxyz"));
+      assertThrows(ConflictException.class, () -> chunkedUploadService.cancelSession(user, uploadId));
+      return new CreateConnectorResponseDto(7, "Docs", "file");
+    });
+
+    assertEquals(7, chunkedUploadService.finalizeSession(user, uploadId).id());
+  }
+
+  @Test
+  void putChunk_spoolDeletedByConcurrentCancel_throwsNotFound() throws Exception {
+    UUID uploadId = chunkedUploadService.createSession(user,
+        new CreateUploadSessionRequestDto("Docs", List.of(new UploadFileDto("a.txt", 4L)))).uploadId();
+    FileSystemUtils.deleteRecursively(spoolDir.resolve(uploadId.toString()));
+
+    assertThrows(NotFoundException.class, () -> putChunk(uploadId, 0, "abcd"));
+  }
+
+  @Test
+  void createSession_spoolFull_throwsUntilSpaceIsReleased() throws Exception {
+    UUID first = chunkedUploadService.createSession(user,
+        new CreateUploadSessionRequestDto("Docs", List.of(new UploadFileDto("a.txt", 12L)))).uploadId();
+    CreateUploadSessionRequestDto second = new CreateUploadSessionRequestDto("More", List.of(new UploadFileDto("b.txt", 9L)));
+
+    assertThrows(InsufficientStorageException.class, () -> chunkedUploadService.createSession(user, second));
+
+    chunkedUploadService.cancelSession(user, first);
+    chunkedUploadService.createSession(user, second);
+  }
+
+  private void putChunk(UUID uploadId, int chunkIndex, String content) throws Exception {
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    chunkedUploadService.putChunk(user, uploadId, 0, chunkIndex, new ByteArrayInputStream(bytes), null);
+  }
+}
@@ -0,0 +1,111 @@
+package ru.cleardocs.backend.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.cleardocs.backend.client.onyx.OnyxClient;
+import ru.cleardocs.backend.dto.ConnectorBatchOperationDto;
+import ru.cleardocs.backend.dto.ConnectorBatchRequestDto;
+import ru.cleardocs.backend.dto.ConnectorBatchResponseDto;
+import ru.cleardocs.backend.dto.ConnectorBatchResultDto;
+import ru.cleardocs.backend.entity.User;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ConnectorBatchServiceTest {
+
+  @Mock
+  OnyxClient onyxClient;
+
+  @Mock
+  ConnectorMirrorService connectorMirrorService;
+
+  @Mock
+  UploadStoreService uploadStoreService;
+
+  ConnectorBatchService connectorBatchService;
+
+  private final User user = User.builder().id(UUID.randomUUID()).docSetId(42).build();
+
+  @BeforeEach
+  void setUp() {
+    connectorBatchService = new ConnectorBatchService(onyxClient, connectorMirrorService, uploadStoreService,
+        200, 2, 1, 4);
+  }
+
+  @AfterEach
+  void tearDown() {
+    connectorBatchService.shutdown();
+  }
+
+  @Test
+  void failedItem_isReportedAlone_othersSucceed() {
+    when(connectorMirrorService.ownedCcPairIds(eq(user), any())).thenReturn(Set.of(1, 2));
+    when(onyxClient.getCcPairStatuses(any())).thenReturn(Map.of(1, "ACTIVE", 2, "ACTIVE"));
+    doThrow(new IllegalStateException("Onyx said no")).when(onyxClient).pauseConnector(2);
+
+    ConnectorBatchResponseDto response = connectorBatchService.execute(user, new ConnectorBatchRequestDto(List.of(
+        new ConnectorBatchOperationDto(1, "pause"),
+        new ConnectorBatchOperationDto(2, "pause"))));
+
+    ConnectorBatchResultDto first = response.results().get(0);
+    ConnectorBatchResultDto second = response.results().get(1);
+    assertEquals(Boolean.TRUE, first.success());
+    assertEquals("PAUSED", first.status());
+    assertEquals(Boolean.FALSE, second.success());
+    assertEquals("Onyx said no", second.error());
+    verify(connectorMirrorService).recordStatus(1, "PAUSED");
+    verify(connectorMirrorService, never()).recordStatus(eq(2), anyString());
+  }
+
+  @Test
+  void itemNotDoneByDeadline_isReportedUnknown_finishedItemsKeepTheirResult() throws Exception {
+    CountDownLatch interrupted = new CountDownLatch(1);
+    when(connectorMirrorService.ownedCcPairIds(eq(user), any())).thenReturn(Set.of(1, 2));
+    when(onyxClient.getCcPairStatuses(any())).thenReturn(Map.of(1, "ACTIVE", 2, "ACTIVE"));
+    doAnswer(invocation -> {
+      try {
+        Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+        // What an interrupted HTTP call looks like to apply(): a failure that must not replace "unknown"
+        throw new IllegalStateException("interrupted");
+      }
+      return null;
+    }).when(onyxClient).pauseConnector(2);
+
+    ConnectorBatchResponseDto response = connectorBatchService.execute(user, new ConnectorBatchRequestDto(List.of(
+        new ConnectorBatchOperationDto(1, "pause"),
+        new ConnectorBatchOperationDto(2, "pause"))));
+
+    assertEquals(Boolean.TRUE, response.results().get(0).success());
+    ConnectorBatchResultDto slow = response.results().get(1);
+    assertNull(slow.success());
+    assertEquals("UNKNOWN", slow.status());
+    assertTrue(slow.error().contains("may still take effect"), slow.error());
+    assertTrue(interrupted.await(5, TimeUnit.SECONDS), "unfinished call should be cancelled");
+    verify(connectorMirrorService).recordStatus(1, "PAUSED");
+    verify(connectorMirrorService, never()).recordStatus(eq(2), anyString());
+  }
+}
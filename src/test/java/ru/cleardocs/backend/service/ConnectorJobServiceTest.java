@@ -0,0 +1,204 @@
+package ru.cleardocs.backend.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+import ru.cleardocs.backend.client.onyx.OnyxClient;
+import ru.cleardocs.backend.constant.ConnectorJobStatus;
+import ru.cleardocs.backend.dto.ConnectorJobDto;
+import ru.cleardocs.backend.entity.ConnectorJob;
+import ru.cleardocs.backend.entity.User;
+import ru.cleardocs.backend.exception.BadRequestException;
+import ru.cleardocs.backend.repository.ConnectorJobRepository;
+import ru.cleardocs.backend.repository.UserRepository;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class ConnectorJobServiceTest {
+
+  @Mock
+  ConnectorService connectorService;
+
+  @Mock
+  ConnectorJobRepository connectorJobRepository;
+
+  @Mock
+  UserRepository userRepository;
+
+  @Mock
+  OnyxClient onyxClient;
+
+  @Mock
+  UploadStoreService uploadStoreService;
+
+  @TempDir
+  Path spoolDir;
+
+  ConnectorJobService connectorJobService;
+
+  private final Map<UUID, ConnectorJob> jobs = new ConcurrentHashMap<>();
+  private final User user = User.builder().id(UUID.randomUUID()).docSetId(42).build();
+
+  @BeforeEach
+  void setUp() throws Exception {
+    connectorJobService = new ConnectorJobService(connectorService, connectorJobRepository, userRepository, onyxClient,
+        uploadStoreService, new ObjectMapper(), spoolDir.toString(), 1, 10, 2, 1, 120, "node-1");
+    connectorJobService.initNodeId();
+    when(connectorJobRepository.claim(any(), any(), any(), any())).thenAnswer(inv -> {
+      ConnectorJob job = jobs.get(inv.<UUID>getArgument(0));
+      synchronized (jobs) {
+        if (job == null || job.getStatus() != ConnectorJobStatus.PENDING) {
+          return 0;
+        }
+        job.setStatus(ConnectorJobStatus.RUNNING);
+        job.setOwner(inv.getArgument(1));
+        return 1;
+      }
+    });
+    when(connectorJobRepository.save(any())).thenAnswer(inv -> {
+      ConnectorJob job = inv.getArgument(0);
+      if (job.getId() == null) {
+        job.setId(UUID.randomUUID());
+      }
+      jobs.put(job.getId(), job);
+      return job;
+    });
+    when(connectorJobRepository.findById(any())).thenAnswer(inv -> Optional.ofNullable(jobs.get(inv.<UUID>getArgument(0))));
+    when(userRepository.findById(user.getId())).thenReturn(Optional.of(user));
+    when(onyxClient.getAllConnectorNames()).thenReturn(Set.of());
+    when(connectorService.uniqueConnectorName(any(), any(), any())).thenReturn("My Site");
+  }
+
+  @AfterEach
+  void tearDown() {
+    connectorJobService.shutdown();
+  }
+
+  @Test
+  void submitUrlConnector_runsStepsAndRetriesFailedStep() throws Exception {
+    when(connectorService.createUrlConnectorInOnyx("My Site", "https://example.com"))
+        .thenThrow(new IllegalStateException("Onyx unavailable"))
+        .thenReturn(123);
+
+    ConnectorJobDto submitted = connectorJobService.submitUrlConnector(user, "My Site", "https://example.com");
+
+    assertEquals("PENDING", submitted.status());
+    verify(connectorService, timeout(5000)).linkConnector(user, 123, "My Site", "web");
+    awaitStatus(submitted.id(), ConnectorJobStatus.SUCCEEDED);
+    verify(connectorService, times(2)).createUrlConnectorInOnyx("My Site", "https://example.com");
+    ConnectorJobDto done = connectorJobService.getJob(user, submitted.id());
+    assertEquals(123, done.connector().id());
+    assertEquals("web", done.connector().type());
+  }
+
+  @Test
+  void createConnectorRetry_connectorCreatedByFailedAttempt_isNotCreatedAgain() throws Exception {
+    when(connectorService.createUrlConnectorInOnyx("My Site", "https://example.com"))
+        .thenThrow(new IllegalStateException("Read timed out"));
+    when(onyxClient.findCcPairIdByName("My Site")).thenReturn(Optional.of(321));
+
+    ConnectorJobDto submitted = connectorJobService.submitUrlConnector(user, "My Site", "https://example.com");
+
+    awaitStatus(submitted.id(), ConnectorJobStatus.SUCCEEDED);
+    verify(connectorService, times(1)).createUrlConnectorInOnyx(any(), any());
+    verify(connectorService).linkConnector(user, 321, "My Site", "web");
+  }
+
+  @Test
+  void run_jobAlreadyClaimed_doesNothing() throws Exception {
+    when(connectorJobRepository.claim(any(), any(), any(), any())).thenReturn(0);
+
+    ConnectorJobDto submitted = connectorJobService.submitUrlConnector(user, "My Site", "https://example.com");
+
+    verify(connectorJobRepository, timeout(5000)).claim(eq(submitted.id()), eq("node-1"), any(), any());
+    Thread.sleep(50);
+    verify(connectorService, never()).createUrlConnectorInOnyx(any(), any());
+    assertEquals(ConnectorJobStatus.PENDING, jobs.get(submitted.id()).getStatus());
+  }
+
+  @Test
+  void resumeInterruptedJobs_requeuesOnlyThisNodesJobs() {
+    connectorJobService.resumeInterruptedJobs();
+
+    verify(connectorJobRepository).requeueRunning("node-1");
+    verify(connectorJobRepository).failOrphanedUploads(eq("node-1"), any(), any(), any());
+  }
+
+  @Test
+  void submitUrlConnector_stepKeepsFailing_marksJobFailed() throws Exception {
+    when(connectorService.createUrlConnectorInOnyx(any(), any())).thenThrow(new IllegalStateException("Onyx unavailable"));
+
+    ConnectorJobDto submitted = connectorJobService.submitUrlConnector(user, "My Site", "https://example.com");
+
+    awaitStatus(submitted.id(), ConnectorJobStatus.FAILED);
+    assertEquals("Onyx unavailable", connectorJobService.getJob(user, submitted.id()).error());
+    verify(connectorService, never()).linkConnector(any(), anyInt(), any(), any());
+  }
+
+  @Test
+  void submitUrlConnector_limitReached_doesNotCreateJob() {
+    when(connectorJobRepository.countByUserIdAndStatusIn(any(), any())).thenReturn(1L);
+    doThrow(new BadRequestException("Connector limit reached")).when(connectorService).checkConnectorLimit(any(), anyLong());
+
+    assertThrows(BadRequestException.class,
+        () -> connectorJobService.submitUrlConnector(user, "My Site", "https://example.com"));
+    verify(connectorJobRepository, never()).save(any());
+  }
+
+  @Test
+  void shutdownDuringRetryBackoff_leavesJobRunningWithItsSpool() throws Exception {
+    ConnectorJobService slowRetries = new ConnectorJobService(connectorService, connectorJobRepository, userRepository,
+        onyxClient, uploadStoreService, new ObjectMapper(), spoolDir.toString(), 1, 10, 3, 60_000, 120, "node-1");
+    slowRetries.initNodeId();
+    when(uploadStoreService.upload(any(), any())).thenThrow(new IllegalStateException("Onyx unavailable"));
+
+    ConnectorJobDto submitted = slowRetries.submitFileConnector(user, "Docs",
+        new MultipartFile[] {new MockMultipartFile("files", "a.txt", "text/plain", "hello".getBytes())});
+    verify(uploadStoreService, timeout(5000)).upload(any(), any());
+    Thread.sleep(50);
+    slowRetries.shutdown();
+    Thread.sleep(200);
+
+    assertEquals(ConnectorJobStatus.RUNNING, jobs.get(submitted.id()).getStatus());
+    assertTrue(Files.exists(spoolDir.resolve(submitted.id().toString()).resolve("0")), "spooled file should be kept");
+  }
+
+  private void awaitStatus(UUID jobId, ConnectorJobStatus status) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (jobs.get(jobId).getStatus() != status && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(status, jobs.get(jobId).getStatus());
+  }
+}
@@ -0,0 +1,155 @@
+package ru.cleardocs.backend.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.cleardocs.backend.client.onyx.OnyxClient;
+import ru.cleardocs.backend.dto.EntityConnectorDto;
+import ru.cleardocs.backend.entity.Connector;
+import ru.cleardocs.backend.entity.User;
+import ru.cleardocs.backend.repository.ConnectorRepository;
+import ru.cleardocs.backend.repository.UserRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ConnectorMirrorServiceTest {
+
+  @Mock
+  ConnectorRepository connectorRepository;
+
+  @Mock
+  UserRepository userRepository;
+
+  @Mock
+  OnyxClient onyxClient;
+
+  @Mock
+  PlatformTransactionManager transactionManager;
+
+  ConnectorMirrorService connectorMirrorService;
+
+  @BeforeEach
+  void setUp() {
+    connectorMirrorService = new ConnectorMirrorService(connectorRepository, userRepository, onyxClient, transactionManager, true);
+  }
+
+  private static User user(Integer docSetId) {
+    return User.builder().id(UUID.randomUUID()).docSetId(docSetId).build();
+  }
+
+  @Test
+  void isOwnedBy_localHit_doesNotCallOnyx() {
+    User user = user(42);
+    when(connectorRepository.existsByCcPairIdAndUserId(123, user.getId())).thenReturn(true);
+
+    assertTrue(connectorMirrorService.isOwnedBy(user, 123));
+    verify(onyxClient, never()).getConnectorsByDocSetId(anyInt());
+  }
+
+  @Test
+  void isOwnedBy_localMiss_returnsFalse_withoutCallingOnyx() {
+    User user = user(42);
+    when(connectorRepository.existsByCcPairIdAndUserId(123, user.getId())).thenReturn(false);
+
+    assertFalse(connectorMirrorService.isOwnedBy(user, 123));
+    verify(onyxClient, never()).getConnectorsByDocSetId(any());
+    verify(connectorRepository, never()).save(any());
+  }
+
+  @Test
+  void syncUser_removesConnectorsGoneFromOnyx() {
+    User user = user(42);
+    Connector kept = Connector.builder().ccPairId(1).userId(user.getId()).build();
+    Connector gone = Connector.builder().ccPairId(2).userId(user.getId()).build();
+    when(onyxClient.fetchConnectorsByDocSetId(42)).thenReturn(Optional.of(List.of(new EntityConnectorDto(1, "Docs", "file", "PAUSED"))));
+    when(connectorRepository.findByUserId(user.getId())).thenReturn(List.of(kept, gone));
+    when(connectorRepository.findById(1)).thenReturn(Optional.of(kept));
+
+    connectorMirrorService.syncUser(user);
+
+    verify(connectorRepository).deleteAll(List.of(gone));
+    verify(connectorRepository).save(kept);
+    assertEquals("PAUSED", kept.getStatus());
+    verify(transactionManager).commit(any());
+  }
+
+  @Test
+  void syncUser_rowsWrittenSinceTheOnyxRead_areLeftAlone() {
+    User user = user(42);
+    LocalDateTime beforeSync = LocalDateTime.now().minusMinutes(1);
+    Connector created = Connector.builder().ccPairId(3).userId(user.getId()).status("SCHEDULED").build();
+    Connector deleting = Connector.builder().ccPairId(1).userId(user.getId()).status("DELETING")
+        .createdAt(beforeSync).updatedAt(beforeSync).build();
+    when(onyxClient.fetchConnectorsByDocSetId(42)).thenAnswer(inv -> {
+      // Written while Onyx is being read: a new connector, and a delete of one Onyx still lists
+      created.setCreatedAt(LocalDateTime.now());
+      created.setUpdatedAt(created.getCreatedAt());
+      deleting.setUpdatedAt(LocalDateTime.now());
+      return Optional.of(List.of(new EntityConnectorDto(1, "Docs", "file", "ACTIVE")));
+    });
+    when(connectorRepository.findByUserId(user.getId())).thenReturn(List.of(created, deleting));
+
+    connectorMirrorService.syncUser(user);
+
+    verify(connectorRepository).deleteAll(List.of());
+    verify(connectorRepository, never()).save(any());
+    assertEquals("DELETING", deleting.getStatus());
+  }
+
+  @Test
+  void syncUser_docSetNotFound_keepsRows() {
+    User user = user(42);
+    when(onyxClient.fetchConnectorsByDocSetId(42)).thenReturn(Optional.empty());
+
+    connectorMirrorService.syncUser(user);
+
+    verify(connectorRepository, never()).findByUserId(any());
+    verify(connectorRepository, never()).deleteAll(any());
+  }
+
+  @Test
+  void countConnectors_excludesDeletingConnectors_withoutCallingOnyx() {
+    User user = user(42);
+    when(connectorRepository.countByUserIdAndStatusNot(user.getId(), "DELETING")).thenReturn(0L);
+
+    assertEquals(0, connectorMirrorService.countConnectors(user));
+    verify(onyxClient, never()).getConnectorsByDocSetId(anyInt());
+    verify(onyxClient, never()).fetchConnectorsByDocSetId(anyInt());
+  }
+
+  @Test
+  void backfillUnmirroredUsers_syncsOnlyUsersWithoutMirroredRows() {
+    User mirrored = user(41);
+    User unmirrored = user(42);
+    when(userRepository.findByDocSetIdIsNotNull()).thenReturn(List.of(mirrored, unmirrored));
+    when(connectorRepository.findByUserIdIn(List.of(mirrored.getId(), unmirrored.getId()))).thenReturn(List.of(
+        Connector.builder().ccPairId(1).userId(mirrored.getId()).build()));
+    when(onyxClient.fetchConnectorsByDocSetId(42)).thenReturn(Optional.of(List.of(new EntityConnectorDto(2, "Old", "file", "ACTIVE"))));
+    when(connectorRepository.findById(2)).thenReturn(Optional.empty());
+
+    connectorMirrorService.backfillUnmirroredUsers();
+
+    verify(onyxClient, never()).fetchConnectorsByDocSetId(41);
+    ArgumentCaptor<Connector> captor = ArgumentCaptor.forClass(Connector.class);
+    verify(connectorRepository).save(captor.capture());
+    assertEquals(unmirrored.getId(), captor.getValue().getUserId());
+    assertEquals(42, captor.getValue().getDocSetId());
+  }
+}
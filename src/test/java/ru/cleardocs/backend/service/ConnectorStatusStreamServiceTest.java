@@ -0,0 +1,109 @@
+package ru.cleardocs.backend.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.cleardocs.backend.client.onyx.OnyxClient;
+import ru.cleardocs.backend.entity.Connector;
+import ru.cleardocs.backend.entity.User;
+import ru.cleardocs.backend.exception.BadRequestException;
+import ru.cleardocs.backend.repository.ConnectorRepository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ConnectorStatusStreamServiceTest {
+
+  @Mock
+  OnyxClient onyxClient;
+
+  @Mock
+  ConnectorRepository connectorRepository;
+
+  ConnectorStatusStreamService service;
+
+  private final User user = User.builder().id(UUID.randomUUID()).docSetId(42).build();
+
+  @BeforeEach
+  void setUp() {
+    service = new ConnectorStatusStreamService(onyxClient, connectorRepository, 30, 1, 25);
+  }
+
+  @AfterEach
+  void tearDown() {
+    service.shutdown();
+  }
+
+  @Test
+  void poll_deletingAndMissedConnectors_doNotForceAStatusRepoll() {
+    List<Connector> connectors = List.of(connector(1, "ACTIVE"), connector(2, "DELETING"), connector(3, "ACTIVE"));
+    when(connectorRepository.findByUserId(user.getId())).thenReturn(connectors);
+    when(connectorRepository.findByUserIdIn(any())).thenReturn(connectors);
+    when(onyxClient.getCcPairStatuses(any())).thenReturn(Map.of(1, "ACTIVE"));
+
+    service.subscribe(user);
+    service.poll();
+    service.poll();
+
+    verify(onyxClient).getCcPairStatuses(Set.of(1, 3));
+    verify(onyxClient, times(2)).getCcPairStatuses(Set.of(1));
+    verify(onyxClient, times(2)).getCachedCcPairStatuses(Set.of(3));
+    verify(onyxClient, never()).getCcPairStatuses(argThat(ids -> ids.contains(2)));
+  }
+
+  @Test
+  void subscribe_overTheLimit_isRejected() {
+    when(connectorRepository.findByUserId(user.getId())).thenReturn(List.of());
+
+    service.subscribe(user);
+
+    assertThrows(BadRequestException.class, () -> service.subscribe(user));
+  }
+
+  @Test
+  void subscribe_whileOnyxIsSlow_doesNotBlockThePoller() throws Exception {
+    CountDownLatch reading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    when(connectorRepository.findByUserId(user.getId())).thenReturn(List.of(connector(1, "ACTIVE")));
+    when(onyxClient.getCcPairStatuses(any())).thenAnswer(invocation -> {
+      reading.countDown();
+      release.await(10, TimeUnit.SECONDS);
+      return Map.of(1, "ACTIVE");
+    });
+
+    CompletableFuture<SseEmitter> subscribed = CompletableFuture.supplyAsync(() -> service.subscribe(user));
+    try {
+      assertTrue(reading.await(10, TimeUnit.SECONDS));
+      assertTimeoutPreemptively(Duration.ofSeconds(5), service::poll);
+    } finally {
+      release.countDown();
+    }
+    subscribed.get(10, TimeUnit.SECONDS);
+  }
+
+  private Connector connector(int ccPairId, String status) {
+    return Connector.builder().ccPairId(ccPairId).userId(user.getId()).docSetId(42)
+        .name("c" + ccPairId).source("file").status(status).build();
+  }
+}
@@ -0,0 +1,91 @@
+package ru.cleardocs.backend.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.cleardocs.backend.client.onyx.OnyxClient;
+import ru.cleardocs.backend.client.onyx.OnyxConnectorSummaryDto;
+import ru.cleardocs.backend.client.onyx.OnyxDocumentSetDto;
+import ru.cleardocs.backend.client.onyx.OnyxDocumentSetUpdateRequestDto;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DocumentSetUpdateCoalescerTest {
+
+  @Mock
+  OnyxClient onyxClient;
+
+  DocumentSetUpdateCoalescer coalescer;
+
+  private final UUID userId = UUID.randomUUID();
+
+  @BeforeEach
+  void setUp() {
+    coalescer = new DocumentSetUpdateCoalescer(onyxClient, new StripedDocumentSetLock(4), 200, 1);
+  }
+
+  @AfterEach
+  void tearDown() {
+    coalescer.shutdown();
+  }
+
+  @Test
+  void changesWithinWindow_areMergedIntoSinglePatch() throws Exception {
+    when(onyxClient.fetchDocumentSetFresh(42)).thenReturn(Optional.of(docSet(1, 2)));
+
+    CompletableFuture<Boolean> first = coalescer.addConnector(userId, 42, 3);
+    CompletableFuture<Boolean> second = coalescer.addConnector(userId, 42, 4);
+    CompletableFuture<Boolean> third = coalescer.addConnector(userId, 42, 5);
+
+    assertSame(first, second);
+    assertSame(first, third);
+    assertTrue(first.get(5, TimeUnit.SECONDS));
+    ArgumentCaptor<OnyxDocumentSetUpdateRequestDto> update = ArgumentCaptor.forClass(OnyxDocumentSetUpdateRequestDto.class);
+    verify(onyxClient, times(1)).updateDocumentSet(update.capture());
+    assertEquals(List.of(1, 2, 3, 4, 5), update.getValue().ccPairIds());
+    verify(onyxClient, times(1)).fetchDocumentSetFresh(42);
+  }
+
+  @Test
+  void alreadyMember_doesNotPatch() throws Exception {
+    when(onyxClient.fetchDocumentSetFresh(42)).thenReturn(Optional.of(docSet(1, 2)));
+
+    assertTrue(coalescer.addConnector(userId, 42, 2).get(5, TimeUnit.SECONDS));
+    verify(onyxClient, never()).updateDocumentSet(any());
+  }
+
+  @Test
+  void documentSetMissing_completesWithFalse() throws Exception {
+    when(onyxClient.fetchDocumentSetFresh(42)).thenReturn(Optional.empty());
+
+    assertFalse(coalescer.addConnector(userId, 42, 3).get(5, TimeUnit.SECONDS));
+    verify(onyxClient, never()).updateDocumentSet(any());
+  }
+
+  private static OnyxDocumentSetDto docSet(int... ccPairIds) {
+    List<OnyxConnectorSummaryDto> summaries = Arrays.stream(ccPairIds)
+        .mapToObj(id -> new OnyxConnectorSummaryDto(id, "c" + id, "file", "public"))
+        .toList();
+    return new OnyxDocumentSetDto(42, "Documents", "", summaries, List.of(), true, List.of(), List.of());
+  }
+}
@@ -0,0 +1,59 @@
+package ru.cleardocs.backend.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StripedDocumentSetLockTest {
+
+  @Test
+  void withLock_sameUser_mutationsDoNotOverlap() throws Exception {
+    StripedDocumentSetLock lock = new StripedDocumentSetLock(16);
+    UUID userId = UUID.randomUUID();
+    AtomicInteger inside = new AtomicInteger();
+    AtomicInteger maxInside = new AtomicInteger();
+    List<Integer> ccPairIds = new ArrayList<>();
+    CountDownLatch start = new CountDownLatch(1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        int ccPairId = i;
+        futures.add(executor.submit(() -> {
+          start.await();
+          return lock.withLock(userId, () -> {
+            maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+            // read-modify-write of the "document set", as in addConnectorToExistingDocumentSet
+            List<Integer> copy = new ArrayList<>(ccPairIds);
+            Thread.yield();
+            copy.add(ccPairId);
+            ccPairIds.clear();
+            ccPairIds.addAll(copy);
+            inside.decrementAndGet();
+            return null;
+          });
+        }));
+      }
+      start.countDown();
+      for (Future<?> future : futures) {
+        future.get(5, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(1, maxInside.get());
+    assertEquals(8, ccPairIds.size());
+  }
+}
@@ -0,0 +1,168 @@
+package ru.cleardocs.backend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+import ru.cleardocs.backend.client.onyx.OnyxClient;
+import ru.cleardocs.backend.client.onyx.OnyxFileUploadResponseDto;
+import ru.cleardocs.backend.entity.UploadedFile;
+import ru.cleardocs.backend.entity.UploadedFileUsage;
+import ru.cleardocs.backend.repository.UploadedFileRepository;
+import ru.cleardocs.backend.repository.UploadedFileUsageRepository;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UploadStoreServiceTest {
+
+  @Mock
+  OnyxClient onyxClient;
+
+  @Mock
+  UploadedFileRepository uploadedFileRepository;
+
+  @Mock
+  UploadedFileUsageRepository uploadedFileUsageRepository;
+
+  @TempDir
+  Path tempDir;
+
+  UploadStoreService uploadStoreService;
+
+  private final UUID userId = UUID.randomUUID();
+
+  @BeforeEach
+  void setUp() {
+    uploadStoreService = new UploadStoreService(onyxClient, uploadedFileRepository, uploadedFileUsageRepository,
+        new SimpleMeterRegistry(), true);
+  }
+
+  @Test
+  void upload_knownContent_reusesPathAndUploadsOnlyNewFiles_inInputOrder() throws Exception {
+    MockMultipartFile known = new MockMultipartFile("files", "old.pdf", null, "same bytes".getBytes());
+    MockMultipartFile fresh = new MockMultipartFile("files", "new.pdf", null, "new bytes".getBytes());
+    String knownHash = UploadStoreService.sha256(known);
+    when(uploadedFileRepository.findByUserIdAndContentHashIn(eq(userId), anyCollection())).thenReturn(List.of(
+        UploadedFile.builder().userId(userId).contentHash(knownHash).filePath("path-old").sizeBytes(10).build()));
+    ArgumentCaptor<MultipartFile[]> uploaded = ArgumentCaptor.forClass(MultipartFile[].class);
+    when(onyxClient.uploadFiles(uploaded.capture()))
+        .thenReturn(new OnyxFileUploadResponseDto(List.of("path-new"), List.of("new.pdf"), null));
+
+    OnyxFileUploadResponseDto response = uploadStoreService.upload(userId, new MultipartFile[]{known, fresh});
+
+    assertEquals(List.of("path-old", "path-new"), response.filePaths());
+    assertEquals(List.of("old.pdf", "new.pdf"), response.fileNames());
+    assertEquals(1, uploaded.getValue().length);
+    assertEquals("new.pdf", uploaded.getValue()[0].getOriginalFilename());
+    ArgumentCaptor<UploadedFile> remembered = ArgumentCaptor.forClass(UploadedFile.class);
+    verify(uploadedFileRepository).save(remembered.capture());
+    assertEquals(userId, remembered.getValue().getUserId());
+    assertEquals("path-new", remembered.getValue().getFilePath());
+  }
+
+  @Test
+  void upload_pathCountMismatch_uploadsOnlyMissingFiles_andDoesNotRememberThem() throws Exception {
+    MockMultipartFile known = new MockMultipartFile("files", "old.pdf", null, "same bytes".getBytes());
+    MockMultipartFile zip = new MockMultipartFile("files", "docs.zip", null, "zip bytes".getBytes());
+    when(uploadedFileRepository.findByUserIdAndContentHashIn(eq(userId), anyCollection())).thenReturn(List.of(
+        UploadedFile.builder().userId(userId).contentHash(UploadStoreService.sha256(known)).filePath("path-old").sizeBytes(10).build()));
+    ArgumentCaptor<MultipartFile[]> uploaded = ArgumentCaptor.forClass(MultipartFile[].class);
+    when(onyxClient.uploadFiles(uploaded.capture()))
+        .thenReturn(new OnyxFileUploadResponseDto(List.of("path-a", "path-b"), List.of("a.txt", "b.txt"), "zip-meta"));
+
+    OnyxFileUploadResponseDto response = uploadStoreService.upload(userId, new MultipartFile[]{known, zip});
+
+    assertEquals(List.of("path-old", "path-a", "path-b"), response.filePaths());
+    assertEquals(List.of("old.pdf", "a.txt", "b.txt"), response.fileNames());
+    assertEquals("zip-meta", response.zipMetadataFileId());
+    verify(onyxClient).uploadFiles(any());
+    assertEquals(1, uploaded.getValue().length);
+    verify(uploadedFileRepository, never()).save(any());
+  }
+
+  @Test
+  void upload_allKnown_doesNotCallOnyx() throws Exception {
+    MockMultipartFile known = new MockMultipartFile("files", "old.pdf", null, "same bytes".getBytes());
+    when(uploadedFileRepository.findByUserIdAndContentHashIn(eq(userId), anyCollection())).thenReturn(List.of(
+        UploadedFile.builder().userId(userId).contentHash(UploadStoreService.sha256(known)).filePath("path-old").sizeBytes(10).build()));
+
+    OnyxFileUploadResponseDto response = uploadStoreService.upload(userId, new MultipartFile[]{known});
+
+    assertEquals(List.of("path-old"), response.filePaths());
+    verify(onyxClient, never()).uploadFiles(any());
+  }
+
+  @Test
+  void upload_knownContentOfAPathAConnectorUses_isUploadedAgain() throws Exception {
+    MockMultipartFile known = new MockMultipartFile("files", "old.pdf", null, "same bytes".getBytes());
+    when(uploadedFileRepository.findByUserIdAndContentHashIn(eq(userId), anyCollection())).thenReturn(List.of(
+        UploadedFile.builder().userId(userId).contentHash(UploadStoreService.sha256(known)).filePath("path-old").sizeBytes(10).build()));
+    when(uploadedFileUsageRepository.findByFilePathIn(anyCollection())).thenReturn(List.of(
+        UploadedFileUsage.builder().ccPairId(7).filePath("path-old").build()));
+    when(onyxClient.uploadFiles(any()))
+        .thenReturn(new OnyxFileUploadResponseDto(List.of("path-new"), List.of("old.pdf"), null));
+
+    OnyxFileUploadResponseDto response = uploadStoreService.upload(userId, new MultipartFile[]{known});
+
+    assertEquals(List.of("path-new"), response.filePaths());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void upload_spooledFileHashedWhileSpooling_usesThatHash() throws Exception {
+    Path path = Files.writeString(tempDir.resolve("a.txt"), "spooled bytes");
+    SpooledMultipartFile spooled = new SpooledMultipartFile(path, "a.txt", Files.size(path), "precomputed-hash");
+    ArgumentCaptor<Collection<String>> hashes = ArgumentCaptor.forClass(Collection.class);
+    when(uploadedFileRepository.findByUserIdAndContentHashIn(eq(userId), hashes.capture())).thenReturn(List.of(
+        UploadedFile.builder().userId(userId).contentHash("precomputed-hash").filePath("path-old").sizeBytes(13).build()));
+
+    OnyxFileUploadResponseDto response = uploadStoreService.upload(userId, new MultipartFile[]{spooled});
+
+    assertEquals(List.of("precomputed-hash"), List.copyOf(hashes.getValue()));
+    assertEquals(List.of("path-old"), response.filePaths());
+  }
+
+  @Test
+  void forgetConnector_dropsPathsUsedByConnector() {
+    when(uploadedFileUsageRepository.findByCcPairId(7)).thenReturn(List.of(
+        UploadedFileUsage.builder().ccPairId(7).filePath("path-old").build()));
+
+    uploadStoreService.forgetConnector(7);
+
+    verify(uploadedFileRepository).deleteByFilePathIn(List.of("path-old"));
+    verify(uploadedFileUsageRepository).deleteByCcPairId(7);
+  }
+
+  @Test
+  void forgetConnector_keepsPathsStillUsedByOtherConnectors() {
+    when(uploadedFileUsageRepository.findByCcPairId(7)).thenReturn(List.of(
+        UploadedFileUsage.builder().ccPairId(7).filePath("path-shared").build(),
+        UploadedFileUsage.builder().ccPairId(7).filePath("path-own").build()));
+    when(uploadedFileUsageRepository.findByFilePathIn(List.of("path-shared", "path-own"))).thenReturn(List.of(
+        UploadedFileUsage.builder().ccPairId(8).filePath("path-shared").build()));
+
+    uploadStoreService.forgetConnector(7);
+
+    verify(uploadedFileUsageRepository).deleteByCcPairId(7);
+    verify(uploadedFileRepository).deleteByFilePathIn(List.of("path-own"));
+  }
+}